@@ -1075,6 +1075,12 @@ CREATE INDEX iAuditPropValRecordId
 CREATE INDEX iAuditRefValRecordId
   ON m_audit_ref_value (record_id);
 
+CREATE INDEX iAuditDeltaRecordId
+  ON m_audit_delta (record_id);
+
+CREATE INDEX iAuditItemRecordId
+  ON m_audit_item (record_id);
+
 ALTER TABLE m_case
   ADD CONSTRAINT uc_case_name UNIQUE (name_norm);
 
@@ -871,6 +871,12 @@ CREATE INDEX iAuditPropValRecordId
 CREATE INDEX iAuditRefValRecordId
   ON m_audit_ref_value (record_id) INITRANS 30;
 
+CREATE INDEX iAuditDeltaRecordId
+  ON m_audit_delta (record_id) INITRANS 30;
+
+CREATE INDEX iAuditItemRecordId
+  ON m_audit_item (record_id) INITRANS 30;
+
 ALTER TABLE m_case
   ADD CONSTRAINT uc_case_name UNIQUE (name_norm) INITRANS 30;
 
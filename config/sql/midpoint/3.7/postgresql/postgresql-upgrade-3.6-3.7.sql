@@ -11,4 +11,10 @@ ALTER TABLE m_function_library
 ALTER TABLE m_function_library
   ADD CONSTRAINT fk_function_library
 FOREIGN KEY (oid)
-REFERENCES m_object;
\ No newline at end of file
+REFERENCES m_object;
+
+CREATE INDEX iAuditDeltaRecordId
+  ON m_audit_delta (record_id);
+
+CREATE INDEX iAuditItemRecordId
+  ON m_audit_item (record_id);
@@ -24,6 +24,7 @@ import org.w3c.dom.Document;
 public interface MidpointConfiguration {
 	
 	public static final String SYSTEM_CONFIGURATION_SECTION = "midpoint.system";
+	public static final String MODEL_CONFIGURATION_SECTION = "midpoint.model";
 	
 	public String getMidpointHome();
 	
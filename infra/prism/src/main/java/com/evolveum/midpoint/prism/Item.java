@@ -54,7 +54,8 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     protected QName elementName;
     protected PrismValue parent;
     protected D definition;
-    @NotNull protected final List<V> values = new ArrayList<>();
+    @NotNull protected final List<V> values = new ItemValueIndex.ValueList<>();
+    private transient volatile ItemValueIndex<V> valueIndex;    // built lazily for large items, see getValueIndex()
     private transient Map<String,Object> userData = new HashMap<>();;
 
 	protected boolean immutable;
@@ -388,7 +389,7 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     }
 
     public boolean contains(V value, boolean ignoreMetadata) {
-    	for (V myValue: getValues()) {
+    	for (V myValue: getCandidateValues(value)) {
     		if (myValue.equals(value, ignoreMetadata)) {
     			return true;
     		}
@@ -397,7 +398,7 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     }
 
     public boolean containsRealValue(V value) {
-    	for (V myValue: getValues()) {
+    	for (V myValue: getCandidateValues(value)) {
     		if (myValue.equalsRealValue(value)) {
     			return true;
     		}
@@ -444,11 +445,26 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
 		    }
     		newValue.applyDefinition(definition, false);
     	}
-    	return values.add(newValue);
+	    return addToValues(newValue);
     }
 
+	/**
+	 * Adds the value to the list of values, keeping the value index (if any) up to date.
+	 */
+	protected boolean addToValues(V newValue) {
+		ItemValueIndex<V> index = getCurrentValueIndex();
+		boolean added = values.add(newValue);
+		if (index != null) {
+			index.valueAdded(newValue, (ItemValueIndex.ValueList<V>) values);
+		}
+		return added;
+	}
+
     public boolean removeAll(Collection<V> newValues) {
 		checkMutability();					// TODO consider if there is real change
+		if (newValues.size() > 1 && getValueIndex() != null) {
+			return removeAllIndexed(newValues);
+		}
     	boolean changed = false;
     	for (V val: newValues) {
     		if (remove(val)) {
@@ -464,10 +480,7 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     	Iterator<V> iterator = values.iterator();
     	while (iterator.hasNext()) {
     		V val = iterator.next();
-			// the same algorithm as when deleting the item value from delete delta
-			// TODO either make equalsRealValue return false if both PCVs have IDs and these IDs are different
-			// TODO or include a special test condition here; see MID-3828
-			if (val.representsSameValue(newValue, false) || val.equalsRealValue(newValue)) {
+			if (isToBeRemoved(val, newValue)) {
     			iterator.remove();
     			changed = true;
     		}
@@ -475,6 +488,72 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
     	return changed;
     }
 
+	// the same algorithm as when deleting the item value from delete delta
+	// TODO either make equalsRealValue return false if both PCVs have IDs and these IDs are different
+	// TODO or include a special test condition here; see MID-3828
+	private boolean isToBeRemoved(V value, V valueToRemove) {
+		return value.representsSameValue(valueToRemove, false) || value.equalsRealValue(valueToRemove);
+	}
+
+	/**
+	 * Values to be removed are found using the index, and then they are removed in one pass.
+	 * (Values that can be removed because of representsSameValue have the same index key; for container values
+	 * there's no key so they are compared with all the values.)
+	 */
+	private boolean removeAllIndexed(Collection<V> valuesToRemove) {
+		Set<V> toRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (V valueToRemove : valuesToRemove) {
+			for (V value : getCandidateValues(valueToRemove)) {
+				if (isToBeRemoved(value, valueToRemove)) {
+					toRemove.add(value);
+				}
+			}
+		}
+		return !toRemove.isEmpty() && values.removeIf(toRemove::contains);
+	}
+
+	/**
+	 * Returns values that can be equal to the given one: all values for small items,
+	 * hopefully only a few of them for large ones.
+	 */
+	private List<V> getCandidateValues(PrismValue value) {
+		ItemValueIndex<V> index = getValueIndex();
+		List<V> candidates = index != null ? index.getCandidates(value) : null;
+		return candidates != null ? candidates : values;
+	}
+
+	/**
+	 * Whether values of this item can be looked up using the value index. This makes sense only if they have an index key.
+	 */
+	protected boolean isValueIndexSupported() {
+		return true;
+	}
+
+	private ItemValueIndex<V> getValueIndex() {
+		if (values.size() < ItemValueIndex.THRESHOLD || !isValueIndexSupported()) {
+			return null;
+		}
+		ItemValueIndex<V> index = getCurrentValueIndex();
+		if (index == null) {
+			index = new ItemValueIndex<>((ItemValueIndex.ValueList<V>) values);
+			valueIndex = index;
+		}
+		return index;
+	}
+
+	// the index, if it exists and corresponds to the current values
+	private ItemValueIndex<V> getCurrentValueIndex() {
+		ItemValueIndex<V> index = valueIndex;
+		if (index == null) {
+			return null;
+		} else if (index.isCurrent((ItemValueIndex.ValueList<V>) values)) {
+			return index;
+		} else {
+			valueIndex = null;
+			return null;
+		}
+	}
+
     public V remove(int index) {
 		checkMutability();					// TODO consider if there is real change
     	return values.remove(index);
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.prism;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.xml.namespace.QName;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash index of values of a (large) multi-valued item. It is used to find candidates for equality checks
+ * (contains, add with uniqueness check, remove) without comparing the value with all the values of the item.
+ *
+ * Values are indexed by a key that is equal for all values that are equal (with or without metadata):
+ * OID for reference values and real value for property values of simple types (strings, numbers, booleans,
+ * enums, QNames). Other values (containers, references without OID, raw or structured property values)
+ * are kept in a list that is always searched.
+ *
+ * The index of item values is valid only for the state of the value list it was built for, see {@link ValueList}.
+ * The index can be also created for any collection of values, e.g. values of a delta; then it must not
+ * be used after the collection is changed.
+ * Values are expected not to change their OID or real value while in the item; values without a key
+ * (e.g. references with OID set later, as it is done by JAXB) are not a problem.
+ */
+public class ItemValueIndex<V extends PrismValue> {
+
+	/**
+	 * Items with fewer values are searched sequentially.
+	 */
+	public static final int THRESHOLD = 50;
+
+	private final Collection<? extends V> values;
+	private final Map<Object, List<V>> indexed = new HashMap<>();
+	private final List<V> unindexed = new ArrayList<>();
+	private int modCount;
+
+	public ItemValueIndex(@NotNull Collection<? extends V> values) {
+		this.values = values;
+		for (V value : values) {
+			add(value);
+		}
+	}
+
+	ItemValueIndex(ValueList<V> values) {
+		this((Collection<V>) values);
+		modCount = values.getModCount();
+	}
+
+	/**
+	 * Checks whether the collection contains the value (ignoring metadata), like PrismValue.containsRealValue does.
+	 */
+	public boolean containsRealValue(PrismValue value) {
+		Collection<? extends V> candidates = getCandidates(value);
+		for (V candidate : candidates != null ? candidates : values) {
+			if (candidate.equalsRealValue(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	boolean isCurrent(ValueList<V> values) {
+		return modCount == values.getModCount();
+	}
+
+	/**
+	 * Adds a value that was just added to the list; the index stays current.
+	 */
+	void valueAdded(V value, ValueList<V> values) {
+		add(value);
+		modCount = values.getModCount();
+	}
+
+	private void add(V value) {
+		Object key = getKey(value);
+		if (key != null) {
+			indexed.computeIfAbsent(key, k -> new ArrayList<>(1)).add(value);
+		} else {
+			unindexed.add(value);
+		}
+	}
+
+	/**
+	 * Returns values that can be equal to the given one, or null if the value has no key
+	 * (so all values have to be searched).
+	 */
+	List<V> getCandidates(PrismValue value) {
+		Object key = getKey(value);
+		if (key == null) {
+			return null;
+		}
+		List<V> withKey = indexed.get(key);
+		if (unindexed.isEmpty()) {
+			return withKey != null ? withKey : Collections.emptyList();
+		}
+		if (withKey == null) {
+			return unindexed;
+		}
+		List<V> candidates = new ArrayList<>(withKey.size() + unindexed.size());
+		candidates.addAll(withKey);
+		candidates.addAll(unindexed);
+		return candidates;
+	}
+
+	/**
+	 * Key that is the same for all equal values (ignoring metadata), or null if there's no such cheap key.
+	 */
+	static Object getKey(PrismValue value) {
+		if (value instanceof PrismReferenceValue) {
+			return ((PrismReferenceValue) value).getOid();
+		} else if (value instanceof PrismPropertyValue) {
+			PrismPropertyValue<?> propertyValue = (PrismPropertyValue<?>) value;
+			if (propertyValue.isRaw()) {
+				return null;
+			}
+			Object realValue = propertyValue.getValue();
+			return isSimple(realValue) ? realValue : null;
+		} else {
+			return null;
+		}
+	}
+
+	// types with equals/hashCode consistent with PrismPropertyValue.equalsComplex (in non-literal mode)
+	private static boolean isSimple(Object realValue) {
+		return realValue instanceof String || realValue instanceof Boolean || realValue instanceof Integer
+				|| realValue instanceof Long || realValue instanceof Short || realValue instanceof Byte
+				|| realValue instanceof BigInteger || realValue instanceof Enum || realValue instanceof QName;
+	}
+
+	/**
+	 * List of item values that makes it possible to find out whether it was changed.
+	 * Besides structural modifications (tracked by ArrayList itself) also replacements of values are counted.
+	 */
+	static class ValueList<V> extends ArrayList<V> {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public V set(int index, V element) {
+			modCount++;
+			return super.set(index, element);
+		}
+
+		int getModCount() {
+			return modCount;
+		}
+	}
+}
@@ -126,6 +126,11 @@ public class PrismContainer<C extends Containerable> extends Item<PrismContainer
 
 	}
 
+    @Override
+    protected boolean isValueIndexSupported() {
+    	return false;           // container values have no index key
+    }
+
     @Override
     public C getRealValue() {
     	if (getValue() == null) {
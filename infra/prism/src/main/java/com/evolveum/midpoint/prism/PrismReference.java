@@ -114,7 +114,7 @@ public class PrismReference extends Item<PrismReferenceValue,PrismReferenceDefin
 
     public boolean add(@NotNull PrismReferenceValue value) {
     	value.setParent(this);
-    	return getValues().add(value);
+    	return addToValues(value);
     }
 
     public boolean merge(PrismReferenceValue value) {
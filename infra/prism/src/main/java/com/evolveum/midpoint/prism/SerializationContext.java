@@ -16,6 +16,9 @@
 
 package com.evolveum.midpoint.prism;
 
+import javax.xml.namespace.QName;
+import java.util.Collection;
+
 /**
  * Everything we want to maintain during the serialization process.
  * (First of all, processing options.)
@@ -46,6 +49,10 @@ public class SerializationContext implements Cloneable {
         return ctx != null && SerializationOptions.isSerializeCompositeObjects(ctx.getOptions());
     }
 
+    public static Collection<QName> getItemsToSkip(SerializationContext ctx) {
+        return ctx != null ? SerializationOptions.getItemsToSkip(ctx.getOptions()) : null;
+    }
+
     public static SerializationContext forOptions(SerializationOptions options) {
         return new SerializationContext(options);
     }
@@ -16,6 +16,10 @@
 
 package com.evolveum.midpoint.prism;
 
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Collection;
+
 /**
  * @author Pavol Mederly
  */
@@ -24,6 +28,10 @@ public class SerializationOptions implements Cloneable {
 	private boolean serializeCompositeObjects;
     private boolean serializeReferenceNames;
 	private ItemNameQualificationStrategy itemNameQualificationStrategy;
+	/**
+	 * Items that should be left out when serializing objects (applies to items directly contained in objects).
+	 */
+	private Collection<QName> itemsToSkip;
 //	private NameQualificationStrategy itemTypeQualificationStrategy;
 //	private NameQualificationStrategy itemPathQualificationStrategy;
 //	private NameQualificationStrategy genericQualificationStrategy;
@@ -64,6 +72,24 @@ public class SerializationOptions implements Cloneable {
 		return options != null && options.isSerializeCompositeObjects();
 	}
 
+	public Collection<QName> getItemsToSkip() {
+		return itemsToSkip;
+	}
+
+	public void setItemsToSkip(Collection<QName> itemsToSkip) {
+		this.itemsToSkip = itemsToSkip;
+	}
+
+	public static SerializationOptions createItemsToSkip(Collection<QName> itemsToSkip) {
+		SerializationOptions serializationOptions = new SerializationOptions();
+		serializationOptions.setItemsToSkip(itemsToSkip);
+		return serializationOptions;
+	}
+
+	public static Collection<QName> getItemsToSkip(SerializationOptions options) {
+		return options != null ? options.getItemsToSkip() : null;
+	}
+
 	//	public ItemNameQualificationStrategy getItemNameQualificationStrategy() {
 //		return itemNameQualificationStrategy;
 //	}
@@ -123,6 +149,7 @@ public class SerializationOptions implements Cloneable {
 		}
 		clone.serializeReferenceNames = this.serializeReferenceNames;
 		clone.itemNameQualificationStrategy = itemNameQualificationStrategy;
+		clone.itemsToSkip = itemsToSkip != null ? new ArrayList<>(itemsToSkip) : null;
 		return clone;
 	}
 }
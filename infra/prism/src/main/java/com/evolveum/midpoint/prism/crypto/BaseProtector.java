@@ -21,6 +21,8 @@ import com.evolveum.prism.xml.ns._public.types_3.ProtectedStringType;
 
 import org.apache.commons.lang.Validate;
 
+import java.util.Collection;
+
 /**
  * @author mederly
  */
@@ -39,6 +41,20 @@ public abstract class BaseProtector implements Protector {
         }
     }
 
+    @Override
+    public void decrypt(Collection<? extends ProtectedData<?>> protectedData) throws EncryptionException, SchemaException {
+        for (ProtectedData<?> data : protectedData) {
+            decrypt(data);
+        }
+    }
+
+    @Override
+    public void encrypt(Collection<? extends ProtectedData<?>> protectedData) throws EncryptionException {
+        for (ProtectedData<?> data : protectedData) {
+            encrypt(data);
+        }
+    }
+
     protected abstract <T> byte[] decryptBytes(ProtectedData<T> protectedData) throws SchemaException, EncryptionException;
 
     @Override
@@ -17,6 +17,7 @@
 package com.evolveum.midpoint.prism.crypto;
 
 import java.security.KeyStore;
+import java.util.Collection;
 import java.util.List;
 
 import javax.net.ssl.TrustManager;
@@ -30,6 +31,16 @@ public interface Protector {
 	<T> void decrypt(ProtectedData<T> protectedData) throws EncryptionException, SchemaException;
 	
 	<T> void encrypt(ProtectedData<T> protectedData) throws EncryptionException;
+
+	/**
+	 * Decrypts all the (encrypted) data. Data that are not encrypted are left untouched.
+	 */
+	void decrypt(Collection<? extends ProtectedData<?>> protectedData) throws EncryptionException, SchemaException;
+
+	/**
+	 * Encrypts all the data, using the same key and algorithm.
+	 */
+	void encrypt(Collection<? extends ProtectedData<?>> protectedData) throws EncryptionException;
 		
 	/**
 	 * Returns a list of trust managers that will be used to validate communicating party credentials.
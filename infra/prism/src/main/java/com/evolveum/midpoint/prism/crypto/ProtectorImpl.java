@@ -31,8 +31,13 @@ import java.security.UnrecoverableKeyException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import javax.crypto.BadPaddingException;
@@ -104,6 +109,14 @@ public class ProtectorImpl extends BaseProtector {
 	private List<TrustManager> trustManagers;
     private static final KeyStore keyStore;
 
+    // Secret keys from the keystore, indexed by alias and by digest. Replaced as a whole when the keystore
+    // is (re)loaded, or when it has been changed since (e.g. via getKeyStore()).
+    private volatile KeyIndex keyIndex = new KeyIndex(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap());
+
+    // Cipher instances are not thread-safe but they can be reused after re-initialization.
+    // Indexed by JCE algorithm name.
+    private final ThreadLocal<Map<String, Cipher>> ciphers = ThreadLocal.withInitial(HashMap::new);
+
     static {
         try {
             keyStore = KeyStore.getInstance("jceks");
@@ -150,6 +163,7 @@ public class ProtectorImpl extends BaseProtector {
             // Load keystore
             keyStore.load(stream, getKeyStorePassword().toCharArray());
             stream.close();
+            rebuildKeyIndex();
 
             // Initialze trust manager list
 
@@ -274,17 +288,32 @@ public class ProtectorImpl extends BaseProtector {
 
     @Override
 	public <T> void encrypt(ProtectedData<T> protectedData) throws EncryptionException {
+		KeyEntry keyEntry = getKeyEntryByAlias(getEncryptionKeyAlias());
+		encrypt(protectedData, keyEntry, getCipherAlgorithm());
+	}
+
+	/**
+	 * The encryption key and algorithm are determined only once for all the data.
+	 */
+	@Override
+	public void encrypt(Collection<? extends ProtectedData<?>> protectedData) throws EncryptionException {
+		KeyEntry keyEntry = getKeyEntryByAlias(getEncryptionKeyAlias());
+		String algorithm = getCipherAlgorithm();
+		for (ProtectedData<?> data : protectedData) {
+			encrypt(data, keyEntry, algorithm);
+		}
+	}
+
+	private <T> void encrypt(ProtectedData<T> protectedData, KeyEntry keyEntry, String algorithm) throws EncryptionException {
 		if (protectedData.isEncrypted()) {
 			throw new IllegalArgumentException("Attempt to encrypt protected data that are already encrypted");
 		}
-		SecretKey key = getSecretKeyByAlias(getEncryptionKeyAlias());
-		String algorithm = getCipherAlgorithm();
 
 		byte[] clearBytes = protectedData.getClearBytes();
 
 		byte[] encryptedBytes;
 		try {
-			encryptedBytes = encryptBytes(clearBytes, algorithm, key);
+			encryptedBytes = encryptBytes(clearBytes, algorithm, keyEntry.key);
 		} catch (InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException
 				| NoSuchProviderException | IllegalBlockSizeException | BadPaddingException | InvalidAlgorithmParameterException e) {
 			throw new EncryptionException(e.getMessage(), e);
@@ -298,7 +327,7 @@ public class ProtectorImpl extends BaseProtector {
 		encryptedDataType.setEncryptionMethod(encryptionMethodType);
 
 		KeyInfoType keyInfoType = new KeyInfoType();
-		keyInfoType.setKeyName(getSecretKeyDigest(key));
+		keyInfoType.setKeyName(keyEntry.digest);
 		encryptedDataType.setKeyInfo(keyInfoType);
 
 		CipherDataType cipherDataType = new CipherDataType();
@@ -342,11 +371,16 @@ public class ProtectorImpl extends BaseProtector {
 
 	private Cipher getCipher(int cipherMode, String algorithmUri) throws NoSuchAlgorithmException, NoSuchPaddingException, NoSuchProviderException, InvalidKeyException, InvalidAlgorithmParameterException {
 		String jceAlgorithm = JCEMapper.translateURItoJCEID(algorithmUri);//JCEMapper.getJCEKeyAlgorithmFromURI(algorithmUri);
-		Cipher cipher;
-		if (requestedJceProviderName == null) {
-			cipher = Cipher.getInstance(jceAlgorithm);
-		} else {
-			cipher = Cipher.getInstance(jceAlgorithm, requestedJceProviderName);
+		// the cipher is (re)initialized by the caller, so it can be safely reused within the thread
+		Map<String, Cipher> threadCiphers = ciphers.get();
+		Cipher cipher = threadCiphers.get(jceAlgorithm);
+		if (cipher == null) {
+			if (requestedJceProviderName == null) {
+				cipher = Cipher.getInstance(jceAlgorithm);
+			} else {
+				cipher = Cipher.getInstance(jceAlgorithm, requestedJceProviderName);
+			}
+			threadCiphers.put(jceAlgorithm, cipher);
 		}
 		if (LOGGER.isTraceEnabled()) {
 			String desc;
@@ -426,7 +460,15 @@ public class ProtectorImpl extends BaseProtector {
         return keyStorePath;
     }
 
-    private SecretKey getSecretKeyByAlias(String alias) throws EncryptionException {
+    private KeyEntry getKeyEntryByAlias(String alias) throws EncryptionException {
+        KeyEntry entry = keyIndex.byAlias.get(alias);
+        if (entry == null) {
+            entry = getUpToDateKeyIndex().byAlias.get(alias);
+        }
+        if (entry != null) {
+            return entry;
+        }
+        // not a secret key, or not recoverable: get the details
         Key key;
         try {
             key = keyStore.getKey(alias, KEY_PASSWORD);
@@ -434,16 +476,70 @@ public class ProtectorImpl extends BaseProtector {
             throw new EncryptionException("Couldn't obtain key '" + alias + "' from keystore, reason: "
                     + ex.getMessage(), ex);
         }
+        throw new EncryptionException("Key with alias '" + alias
+                + "' is not instance of SecretKey, but '" + key + "'.");
+    }
 
-        if (key == null || !(key instanceof SecretKey)) {
-            throw new EncryptionException("Key with alias '" + alias
-                    + "' is not instance of SecretKey, but '" + key + "'.");
+    private SecretKey getSecretKeyByDigest(String digest) throws EncryptionException {
+        SecretKey key = keyIndex.byDigest.get(digest);
+        if (key == null) {
+            key = getUpToDateKeyIndex().byDigest.get(digest);
+        }
+        if (key == null) {
+            throw new EncryptionException("Key '" + digest + "' is not in keystore.");
         }
+        return key;
+    }
 
-        return (SecretKey) key;
+    /**
+     * Called when a key is not found in the index. The index is rebuilt only if the keystore has been changed
+     * since the index was built. Otherwise the key is simply not there, and looking for it again is cheap:
+     * the entries are only listed, no keys are read.
+     */
+    private KeyIndex getUpToDateKeyIndex() throws EncryptionException {
+        KeyIndex current = keyIndex;
+        if (current.entryDates.equals(getEntryDates())) {
+            return current;
+        }
+        synchronized (this) {
+            current = keyIndex;
+            Map<String, Date> entryDates = getEntryDates();
+            if (current.entryDates.equals(entryDates)) {
+                return current;         // rebuilt by another thread in the meantime
+            }
+            return buildKeyIndex(entryDates);
+        }
     }
 
-    private SecretKey getSecretKeyByDigest(String digest) throws EncryptionException {
+    /**
+     * Aliases and creation dates of the entries: changed when an entry is added, replaced or removed.
+     */
+    private Map<String, Date> getEntryDates() throws EncryptionException {
+        Map<String, Date> entryDates = new HashMap<>();
+        try {
+            Enumeration<String> aliases = keyStore.aliases();
+            while (aliases.hasMoreElements()) {
+                String alias = aliases.nextElement();
+                entryDates.put(alias, keyStore.getCreationDate(alias));
+            }
+        } catch (KeyStoreException ex) {
+            throw new EncryptionException(ex.getMessage(), ex);
+        }
+        return entryDates;
+    }
+
+    private synchronized void rebuildKeyIndex() throws EncryptionException {
+        buildKeyIndex(getEntryDates());
+    }
+
+    /**
+     * Reads all the secret keys from the keystore and computes their digests. This is done when the keystore
+     * is loaded, so the keys do not need to be unwrapped on each encryption or decryption. It is repeated
+     * when the keystore has been changed since then. Must be called while holding the lock.
+     */
+    private KeyIndex buildKeyIndex(Map<String, Date> entryDates) throws EncryptionException {
+        Map<String, KeyEntry> byAlias = new HashMap<>();
+        Map<String, SecretKey> byDigest = new HashMap<>();
         try {
             Enumeration<String> aliases = keyStore.aliases();
             while (aliases.hasMoreElements()) {
@@ -459,9 +555,8 @@ public class ProtectorImpl extends BaseProtector {
                     }
 
                     String keyHash = getSecretKeyDigest((SecretKey) key);
-                    if (digest.equals(keyHash)) {
-                        return (SecretKey) key;
-                    }
+                    byAlias.put(alias, new KeyEntry((SecretKey) key, keyHash));
+                    byDigest.putIfAbsent(keyHash, (SecretKey) key);
                 } catch (UnrecoverableKeyException ex) {
                     LOGGER.trace("Couldn't recover key {} from keystore, reason: {}", new Object[]{alias,
                             ex.getMessage()});
@@ -470,8 +565,11 @@ public class ProtectorImpl extends BaseProtector {
         } catch (Exception ex) {
             throw new EncryptionException(ex.getMessage(), ex);
         }
-
-        throw new EncryptionException("Key '" + digest + "' is not in keystore.");
+        // entry dates are taken before the keys are read, so a change made meanwhile is detected next time
+        KeyIndex newIndex = new KeyIndex(byAlias, byDigest, entryDates);
+        keyIndex = newIndex;
+        LOGGER.trace("Key index rebuilt, {} secret key(s) found", byAlias.size());
+        return newIndex;
     }
 
     @Override
@@ -640,6 +738,25 @@ public class ProtectorImpl extends BaseProtector {
         return Arrays.equals(digestValue, hashBytes);
 	}
 
+	private static class KeyEntry {
+		private final SecretKey key;
+		private final String digest;
+
+		private KeyEntry(SecretKey key, String digest) {
+			this.key = key;
+			this.digest = digest;
+		}
+	}
 
+	private static class KeyIndex {
+		private final Map<String, KeyEntry> byAlias;
+		private final Map<String, SecretKey> byDigest;
+		private final Map<String, Date> entryDates;
 
+		private KeyIndex(Map<String, KeyEntry> byAlias, Map<String, SecretKey> byDigest, Map<String, Date> entryDates) {
+			this.byAlias = byAlias;
+			this.byDigest = byDigest;
+			this.entryDates = entryDates;
+		}
+	}
 }
@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 import javax.xml.namespace.QName;
 
@@ -1373,6 +1374,17 @@ public abstract class ItemDelta<V extends PrismValue,D extends ItemDefinition> i
 		cleanupAllTheWayUp(item);
 	}
 
+	// for many lookups in a large collection it pays off to create an index
+	private Predicate<V> createRealValueMatcher(Collection<V> values, int lookups) {
+		if (values == null) {
+			return v -> false;
+		} else if (values.size() >= ItemValueIndex.THRESHOLD && lookups >= ItemValueIndex.THRESHOLD) {
+			return new ItemValueIndex<>(values)::containsRealValue;
+		} else {
+			return v -> PrismValue.containsRealValue(values, v);
+		}
+	}
+
 	public ItemDelta<?,?> getSubDelta(ItemPath path) {
 		return this;
 	}
@@ -1604,8 +1616,10 @@ public abstract class ItemDelta<V extends PrismValue,D extends ItemDefinition> i
 			triple.getMinusSet().addAll(PrismValue.cloneCollection(getValuesToDelete()));
 		}
 		if (itemOld != null && itemOld.getValues() != null) {
+			Predicate<V> inValuesToDelete = createRealValueMatcher(valuesToDelete, itemOld.size());
+			Predicate<V> inValuesToAdd = createRealValueMatcher(valuesToAdd, itemOld.size());
 			for (V itemVal: itemOld.getValues()) {
-				if (!PrismValue.containsRealValue(valuesToDelete, itemVal) && !PrismValue.containsRealValue(valuesToAdd, itemVal)) {
+				if (!inValuesToDelete.test(itemVal) && !inValuesToAdd.test(itemVal)) {
 					triple.getZeroSet().add((V) itemVal.clone());
 				}
 			}
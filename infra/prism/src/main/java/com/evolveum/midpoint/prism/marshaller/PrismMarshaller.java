@@ -266,12 +266,16 @@ public class PrismMarshaller {
         }
 
 		Collection<QName> marshaledItems = new ArrayList<>();
+		Collection<QName> itemsToSkip = containerVal instanceof PrismObjectValue ? SerializationContext.getItemsToSkip(ctx) : null;
 		if (containerDefinition != null) {
 			// We have to serialize in the definition order. Some data formats (XML) are
 			// ordering-sensitive. We need to keep that ordering otherwise the resulting
 			// document won't pass schema validation
 			for (ItemDefinition itemDef: containerDefinition.getDefinitions()) {
 				QName elementName = itemDef.getName();
+				if (itemsToSkip != null && QNameUtil.matchAny(elementName, itemsToSkip)) {
+					continue;
+				}
 				Item<?,?> item = containerVal.findItem(elementName);
 				if (item != null) {
 					XNode xsubnode = marshalItemContent(item, getItemDefinition(containerVal, item), ctx);
@@ -285,7 +289,8 @@ public class PrismMarshaller {
 		if (containerVal.getItems() != null){
 			for (Item<?,?> item : containerVal.getItems()) {
 				QName elementName = item.getElementName();
-				if (marshaledItems.contains(elementName)) {
+				if (marshaledItems.contains(elementName)
+						|| itemsToSkip != null && QNameUtil.matchAny(elementName, itemsToSkip)) {
 					continue;
 				}
 				XNode xsubnode = marshalItemContent(item, getItemDefinition(containerVal, item), ctx);
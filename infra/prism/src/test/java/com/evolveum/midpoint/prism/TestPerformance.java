@@ -17,6 +17,13 @@ package com.evolveum.midpoint.prism;
 
 import static com.evolveum.midpoint.prism.PrismInternalTestUtil.*;
 
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.xml.namespace.QName;
 
 import org.testng.annotations.BeforeSuite;
@@ -98,4 +105,70 @@ public class TestPerformance {
 		System.out.println(user.debugDump());
 	}
 
+	/**
+	 * Adding and removing values of large multi-valued items. Without the value index this is O(N^2).
+	 */
+	@Test
+	public void testPerfManyValues() throws Exception {
+		final String TEST_NAME = "testPerfManyValues";
+		PrismInternalTestUtil.displayTestTitle(TEST_NAME);
+
+		PrismContext ctx = constructInitializedPrismContext();
+		PrismObjectDefinition<UserType> userDefinition = getFooSchema(ctx).findObjectDefinitionByElementName(new QName(NS_FOO,"user"));
+
+		for (int size : new int[] { 10, 1000, 100000 }) {
+			// GIVEN
+			PrismObject<UserType> user = userDefinition.instantiate();
+			PrismProperty<String> additionalNames = user.findOrCreateProperty(UserType.F_ADDITIONAL_NAMES);
+			PrismReference accountRef = user.findOrCreateReference(UserType.F_ACCOUNT_REF);
+			PerfRecorder recorderAddPropertyValue = new PerfRecorder("addPropertyValue(" + size + ")");
+			PerfRecorder recorderAddReferenceValue = new PerfRecorder("addReferenceValue(" + size + ")");
+
+			// WHEN
+			for (int i = 0; i < size; i++) {
+				long tsStart = System.nanoTime();
+
+				additionalNames.add(new PrismPropertyValue<>("name " + i));
+
+				long ts1 = System.nanoTime();
+
+				PrismReferenceValue referenceValue = new PrismReferenceValue("oid-" + i, ACCOUNT_TYPE_QNAME);
+				if (!accountRef.containsEquivalentValue(referenceValue)) {
+					accountRef.add(referenceValue);
+				}
+
+				long tsEnd = System.nanoTime();
+
+				recorderAddPropertyValue.record(i, ((double)(ts1 - tsStart))/1000000);
+				recorderAddReferenceValue.record(i, ((double)(tsEnd - ts1))/1000000);
+			}
+
+			List<PrismPropertyValue<String>> valuesToRemove = new ArrayList<>();
+			for (int i = 0; i < size; i += 2) {
+				valuesToRemove.add(new PrismPropertyValue<>("name " + i));
+			}
+			long tsRemoveStart = System.nanoTime();
+			additionalNames.removeAll(valuesToRemove);
+			long tsRemoveEnd = System.nanoTime();
+
+			// THEN
+			System.out.println(recorderAddPropertyValue.dump());
+			System.out.println(recorderAddReferenceValue.dump());
+			System.out.println("removeAll(" + size + "): " + (((double)(tsRemoveEnd - tsRemoveStart))/1000000) + "ms");
+
+			assertFalse("Duplicate value added", additionalNames.add(new PrismPropertyValue<>("name 1")));
+			assertEquals("Wrong # of property values", size / 2, additionalNames.size());
+			assertTrue("Value not present", additionalNames.contains(new PrismPropertyValue<>("name " + (size - 1))));
+			assertFalse("Removed value present", additionalNames.contains(new PrismPropertyValue<>("name 0")));
+			assertEquals("Wrong # of reference values", size, accountRef.size());
+			assertTrue("Reference value not present", accountRef.containsEquivalentValue(new PrismReferenceValue("oid-0", ACCOUNT_TYPE_QNAME)));
+
+			// small sizes are dominated by JIT warm-up
+			if (size >= 1000) {
+				recorderAddPropertyValue.assertAverageBelow(0.05D);
+				recorderAddReferenceValue.assertAverageBelow(0.05D);
+			}
+		}
+	}
+
 }
@@ -16,6 +16,7 @@
 
 package com.evolveum.midpoint.prism;
 
+import com.evolveum.midpoint.prism.foo.UserType;
 import com.evolveum.midpoint.prism.lex.dom.DomLexicalProcessor;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
 import com.evolveum.midpoint.prism.xnode.PrimitiveXNode;
@@ -27,9 +28,11 @@ import org.xml.sax.SAXException;
 
 import javax.xml.namespace.QName;
 import java.io.IOException;
+import java.util.Collections;
 
-import static com.evolveum.midpoint.prism.PrismInternalTestUtil.DEFAULT_NAMESPACE_PREFIX;
-import static com.evolveum.midpoint.prism.PrismInternalTestUtil.displayTestTitle;
+import static com.evolveum.midpoint.prism.PrismInternalTestUtil.*;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 import static org.testng.AssertJUnit.assertEquals;
 
@@ -75,4 +78,30 @@ public class TestXmlSerialization {
             assertTrue(e.getMessage().contains("Invalid character"), "Didn't get expected error message");
         }
     }
+
+	@Test
+	public void testSkippingItems() throws Exception {
+		final String TEST_NAME = "testSkippingItems";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		PrismContext prismContext = PrismTestUtil.getPrismContext();
+		PrismObject<UserType> user = prismContext.parseObject(USER_JACK_FILE_XML);
+		assertNotNull(user.findContainer(USER_ASSIGNMENT_QNAME), "No assignment in original user");
+
+		// WHEN
+		String xml = prismContext.xmlSerializer()
+				.options(SerializationOptions.createItemsToSkip(Collections.singletonList(USER_ASSIGNMENT_QNAME)))
+				.serialize(user);
+		System.out.println("Serialized user without assignments:\n" + xml);
+
+		// THEN
+		PrismObject<UserType> parsedUser = prismContext.parseObject(xml);
+		assertNull(parsedUser.findContainer(USER_ASSIGNMENT_QNAME), "Assignment was not skipped");
+		assertNotNull(parsedUser.findReference(USER_ACCOUNTREF_QNAME), "Account reference is missing");
+		assertNotNull(user.findContainer(USER_ASSIGNMENT_QNAME), "Assignment disappeared from original user");
+
+		user.removeContainer(USER_ASSIGNMENT_QNAME);
+		assertTrue(user.equivalent(parsedUser), "Serialized user differs from the original one (apart from assignments)");
+	}
 }
@@ -19,6 +19,13 @@ import static org.testng.AssertJUnit.assertNotNull;
 import static org.testng.AssertJUnit.assertNull;
 import static org.testng.AssertJUnit.assertTrue;
 import static org.testng.AssertJUnit.assertFalse;
+
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.KeyGenerator;
+
 import org.apache.xml.security.encryption.XMLCipher;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
@@ -107,6 +114,80 @@ public class TestProtector {
 		assertFalse("compare6 unexpected success", compare6);
 	}
 
+	@Test
+	public void testProtectorBulkEncryptionRoundTrip() throws Exception {
+		Protector protector256 = PrismInternalTestUtil.createProtector(XMLCipher.AES_256);
+		Protector protector128 = PrismInternalTestUtil.createProtector(XMLCipher.AES_128);
+
+		List<ProtectedStringType> values = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			ProtectedStringType pst = new ProtectedStringType();
+			pst.setClearValue("value" + i);
+			values.add(pst);
+		}
+
+		// WHEN
+		protector256.encrypt(values);
+
+		// THEN
+		for (ProtectedStringType pst : values) {
+			assertTrue(pst.isEncrypted());
+			assertNull(pst.getClearValue());
+		}
+
+		// WHEN
+		protector128.decrypt(values);
+
+		// THEN
+		for (int i = 0; i < values.size(); i++) {
+			assertFalse(values.get(i).isEncrypted());
+			AssertJUnit.assertEquals("value" + i, values.get(i).getClearValue());
+		}
+	}
+
+	/**
+	 * The keys are indexed when the keystore is loaded. A key added to the keystore later is found as well,
+	 * while a key that is not in the keystore is reported as missing.
+	 */
+	@Test
+	public void testProtectorKeyAddedToKeyStore() throws Exception {
+		ProtectorImpl encryptingProtector = (ProtectorImpl) PrismInternalTestUtil.createProtector(XMLCipher.AES_128);
+		ProtectorImpl decryptingProtector = (ProtectorImpl) PrismInternalTestUtil.createProtector(XMLCipher.AES_128);
+
+		// GIVEN
+		String alias = "test-added-key";
+		KeyStore keyStore = encryptingProtector.getKeyStore();
+		KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+		keyGenerator.init(128);
+		keyStore.setEntry(alias, new KeyStore.SecretKeyEntry(keyGenerator.generateKey()),
+				new KeyStore.PasswordProtection("midpoint".toCharArray()));
+		try {
+			encryptingProtector.setEncryptionKeyAlias(alias);
+			ProtectedStringType pst = new ProtectedStringType();
+			pst.setClearValue("someValue");
+
+			// WHEN
+			encryptingProtector.encrypt(pst);
+			ProtectedStringType pstCopy = pst.clone();
+			decryptingProtector.decrypt(pst);
+
+			// THEN
+			AssertJUnit.assertEquals("someValue", pst.getClearValue());
+
+			// WHEN
+			pstCopy.getEncryptedDataType().getKeyInfo().setKeyName("non-existing-key");
+			try {
+				decryptingProtector.decrypt(pstCopy);
+				AssertJUnit.fail("Unexpected success");
+			} catch (EncryptionException e) {
+				// THEN
+				System.out.println("Expected exception: " + e);
+			}
+		} finally {
+			keyStore.deleteEntry(alias);
+		}
+	}
+
 	@Test
 	public void testProtectorHashRoundTrip() throws Exception {
 		String value = "someValue";
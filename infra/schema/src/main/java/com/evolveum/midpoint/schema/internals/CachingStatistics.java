@@ -24,6 +24,7 @@ public class CachingStatistics {
 	private long requests = 0;
 	private long hits = 0;
 	private long misses = 0;
+	private long evictions = 0;
 
 	public long getRequests() {
 		return requests;
@@ -61,17 +62,30 @@ public class CachingStatistics {
 		this.misses++;
 	}
 
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized void setEvictions(long evictions) {
+		this.evictions = evictions;
+	}
+
+	public synchronized void recordEviction() {
+		this.evictions++;
+	}
+
 	public CachingStatistics clone() {
 		CachingStatistics clone = new CachingStatistics();
 		clone.requests = this.requests;
 		clone.hits = this.hits;
 		clone.misses = this.misses;
+		clone.evictions = this.evictions;
 		return clone;
 	}
 
 	@Override
 	public String toString() {
-		return "CachingStatistics(requests=" + requests + ", hits=" + hits + ", misses=" + misses + ")";
+		return "CachingStatistics(requests=" + requests + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ")";
 	}
 
 }
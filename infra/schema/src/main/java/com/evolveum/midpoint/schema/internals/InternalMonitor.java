@@ -48,6 +48,7 @@ public class InternalMonitor implements PrismMonitor, DebugDumpable {
 
 	private static CachingStatistics resourceCacheStats = new CachingStatistics();
 	private static CachingStatistics connectorCacheStats = new CachingStatistics();
+	private static CachingStatistics repositoryGlobalCacheStats = new CachingStatistics();
 
 	private static long prismObjectCloneDurationMillis = 0;
 
@@ -144,6 +145,10 @@ public class InternalMonitor implements PrismMonitor, DebugDumpable {
 		return connectorCacheStats;
 	}
 
+	public static CachingStatistics getRepositoryGlobalCacheStats() {
+		return repositoryGlobalCacheStats;
+	}
+
 	public static void recordConnectorOperation(String name) {
 		long count = recordCountInternal(InternalCounters.CONNECTOR_OPERATION_COUNT);
 		if (isTrace(InternalCounters.CONNECTOR_OPERATION_COUNT)) {
@@ -228,6 +233,7 @@ public class InternalMonitor implements PrismMonitor, DebugDumpable {
 		traceMap.clear();
 		resourceCacheStats = new CachingStatistics();
 		connectorCacheStats = new CachingStatistics();
+		repositoryGlobalCacheStats = new CachingStatistics();
 		inspector = null;
 	}
 
@@ -79,6 +79,14 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 
     private static int subresultStripThreshold = DEFAULT_SUBRESULT_STRIP_THRESHOLD;
 
+    /**
+     * Maximal length of a parameter (context, return) value created from an object (delta, query, ...).
+     * Longer values are truncated. Zero means no limit.
+     */
+    private static final int DEFAULT_PARAM_VALUE_MAX_LENGTH = 0;
+
+    private static int paramValueMaxLength = DEFAULT_PARAM_VALUE_MAX_LENGTH;
+
 	public static final String CONTEXT_IMPLEMENTATION_CLASS = "implementationClass";
 	public static final String CONTEXT_PROGRESS = "progress";
 	public static final String CONTEXT_OID = "oid";
@@ -819,11 +827,11 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 	}
 
 	public void addParam(String name, ObjectQuery value) {
-		getParams().put(name, collectionize(stringify(value)));
+		getParams().put(name, lazyStringify(value));
 	}
 
 	public void addParam(String name, ObjectDelta<?> value) {
-		getParams().put(name, collectionize(stringify(value)));
+		getParams().put(name, lazyStringify(value));
 	}
 
 
@@ -832,11 +840,11 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 	}
 
 	public void addArbitraryObjectAsParam(String paramName, Object paramValue) {
-		getParams().put(paramName, collectionize(stringify(paramValue)));
+		getParams().put(paramName, lazyStringify(paramValue));
     }
 
     public void addArbitraryObjectCollectionAsParam(String name, Collection<?> value) {
-		getParams().put(name, stringifyCol(value));
+		getParams().put(name, lazyStringifyCol(value));
     }
 
     public Map<String, Collection<String>> getContext() {
@@ -888,11 +896,11 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 	}
 
 	public void addContext(String name, ObjectQuery value) {
-		getContext().put(name, collectionize(stringify(value)));
+		getContext().put(name, lazyStringify(value));
 	}
 
 	public void addContext(String name, ObjectDelta<?> value) {
-		getContext().put(name, collectionize(stringify(value)));
+		getContext().put(name, lazyStringify(value));
 	}
 
 
@@ -901,11 +909,11 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 	}
 
 	public void addArbitraryObjectAsContext(String name, Object value) {
-		getContext().put(name, collectionize(stringify(value)));
+		getContext().put(name, lazyStringify(value));
     }
 
     public void addArbitraryObjectCollectionAsContext(String paramName, Collection<?> paramValue) {
-    	getContext().put(paramName, stringifyCol(paramValue));
+    	getContext().put(paramName, lazyStringifyCol(paramValue));
     }
 
 	public Map<String, Collection<String>> getReturns() {
@@ -975,11 +983,11 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 	}
 
 	public void addReturn(String name, ObjectQuery value) {
-		getReturns().put(name, collectionize(stringify(value)));
+		getReturns().put(name, lazyStringify(value));
 	}
 
 	public void addReturn(String name, ObjectDelta<?> value) {
-		getReturns().put(name, collectionize(stringify(value)));
+		getReturns().put(name, lazyStringify(value));
 	}
 
 
@@ -988,11 +996,11 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 	}
 
 	public void addArbitraryObjectAsReturn(String name, Object value) {
-		getReturns().put(name, collectionize(stringify(value)));
+		getReturns().put(name, lazyStringify(value));
     }
 
     public void addArbitraryObjectCollectionAsReturn(String paramName, Collection<?> paramValue) {
-    	getReturns().put(paramName, stringifyCol(paramValue));
+    	getReturns().put(paramName, lazyStringifyCol(paramValue));
     }
 
     private String stringify(Object value) {
@@ -1013,21 +1021,97 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
     	return Arrays.asList(values);
     }
 
-    private Collection<String> stringifyCol(Collection<?> values) {
+    /**
+     * Deltas and queries are converted to string only when it is needed (e.g. when the result is serialized,
+     * logged or displayed), as many results are summarized or thrown away without ever looking at their parameters.
+     * They are cloned here, so the value is rendered as it was at the time it was added, even if the caller
+     * changes the original later. Other objects are converted to string right away.
+     *
+     * The clone is taken eagerly, as deltas and queries have no cheap way of telling whether they were changed.
+     * Cloning a typical delta or query costs a fraction of rendering it (roughly 1/5 for a delta, 1/15 for a query),
+     * so this pays off unless nearly all parameters end up being rendered.
+     */
+    private Collection<String> lazyStringify(Object value) {
+		if (value == null || value instanceof String) {
+			return collectionize((String) value);
+		}
+		return new LazyStringValues(Collections.singletonList(snapshot(value)));
+	}
+
+    private Collection<String> lazyStringifyCol(Collection<?> values) {
 		if (values == null) {
 			return null;
 		}
-		Collection<String> out = new ArrayList<>(values.size());
-		for (Object value: values) {
-			if (value == null) {
-				out.add(null);
-			} else {
-				out.add(value.toString());
-			}
+		List<Object> snapshots = new ArrayList<>(values.size());
+		for (Object value : values) {
+			snapshots.add(snapshot(value));
 		}
-		return out;
+		return new LazyStringValues(snapshots);
 	}
 
+	private Object snapshot(Object value) {
+		if (value instanceof ObjectDelta) {
+			return ((ObjectDelta<?>) value).clone();
+		} else if (value instanceof ObjectQuery) {
+			return ((ObjectQuery) value).clone();
+		} else {
+			return stringify(value);
+		}
+	}
+
+	private static String limitLength(String value) {
+		int maxLength = paramValueMaxLength;
+		if (value == null || maxLength <= 0 || value.length() <= maxLength) {
+			return value;
+		}
+		return value.substring(0, maxLength) + "... (" + value.length() + " characters)";
+	}
+
+	/**
+	 * List of parameter values that are rendered (and truncated, see paramValueMaxLength) on first access.
+	 * The sources are strings or private copies of deltas and queries. It is serialized as plain ArrayList.
+	 */
+	private static class LazyStringValues extends AbstractList<String> implements Serializable {
+
+		private List<?> sources;
+		private volatile List<String> rendered;
+
+		private LazyStringValues(List<?> sources) {
+			this.sources = sources;
+		}
+
+		private List<String> getRendered() {
+			List<String> current = rendered;
+			if (current == null) {
+				synchronized (this) {
+					current = rendered;
+					if (current == null) {
+						current = new ArrayList<>(sources.size());
+						for (Object source : sources) {
+							current.add(source != null ? limitLength(source.toString()) : null);
+						}
+						rendered = current;
+						sources = null;
+					}
+				}
+			}
+			return current;
+		}
+
+		@Override
+		public String get(int index) {
+			return getRendered().get(index);
+		}
+
+		@Override
+		public int size() {
+			return getRendered().size();
+		}
+
+		private Object writeReplace() {
+			return new ArrayList<>(getRendered());
+		}
+	}
 
 	/**
 	 * @return Contains random long number, for better searching in logs.
@@ -1743,6 +1827,15 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 		subresultStripThreshold = value != null ? value : DEFAULT_SUBRESULT_STRIP_THRESHOLD;
 	}
 
+	public static int getParamValueMaxLength() {
+		return paramValueMaxLength;
+	}
+
+	// null means default value
+	public static void setParamValueMaxLength(Integer value) {
+		paramValueMaxLength = value != null ? value : DEFAULT_PARAM_VALUE_MAX_LENGTH;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -17,6 +17,7 @@
 package com.evolveum.midpoint.schema.statistics;
 
 import com.evolveum.midpoint.prism.delta.ChangeType;
+import com.evolveum.midpoint.prism.util.CloneUtil;
 import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectActionsExecutedEntryType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ActionsExecutedInformationType;
@@ -30,6 +31,8 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author Pavol Mederly
@@ -38,22 +41,27 @@ public class ActionsExecutedInformation {
 
     /*
      * Thread safety: Just like EnvironmentalPerformanceInformation, instances of this class may be accessed from
-     * more than one thread at once. Updates are invoked in the context of the thread executing the task.
-     * Queries are invoked either from this thread, or from some observer (task manager or GUI thread).
+     * more than one thread at once. Updates are invoked in the context of the thread(s) executing the task.
+     * Queries are invoked either from these threads, or from some observer (task manager or GUI thread).
+     *
+     * Recording is lock-free: counts are kept in LongAdders, information about the last success/failure is replaced
+     * as a whole. Actions executed in the current scope are kept per thread, as each worker thread has its own scope.
      */
 
     private final ActionsExecutedInformationType startValue;
 
-    // Note: key-related fields in value objects (objectType, channel, ...) are filled-in but ignored in the following two maps
     // allObjectActions: all executed actions
-    private Map<ActionsExecutedObjectsKey,ObjectActionsExecutedEntryType> allObjectActions = new HashMap<>();
+    private final Map<ActionsExecutedObjectsKey,ActionsExecutedEntry> allObjectActions = new ConcurrentHashMap<>();
     // resultingObjectActions: "cleaned up" actions - i.e. if an object is added and then modified (in one "logical" operation),
     // we count it as 1xADD
-    private Map<ActionsExecutedObjectsKey,ObjectActionsExecutedEntryType> resultingObjectActions = new HashMap<>();
+    private final Map<ActionsExecutedObjectsKey,ActionsExecutedEntry> resultingObjectActions = new ConcurrentHashMap<>();
 
     // operations executed in the current scope: we "clean them up" when markObjectActionExecutedBoundary is called
-    // (indexed by object oid)
-    private Map<String,List<ObjectActionExecuted>> currentScopeObjectActions = new HashMap<>();
+    // (indexed by thread ID and object oid; the inner maps are accessed only by their threads)
+    // Threads that carry out a part of the operation on behalf of another thread (e.g. resource operations executed
+    // concurrently) record into their own instance, which is then merged into the current scope of the thread
+    // that marks the boundary - see add(ActionsExecutedInformation).
+    private final Map<Long,Map<String,List<ObjectActionExecuted>>> currentScopeObjectActions = new ConcurrentHashMap<>();
 
     public ActionsExecutedInformation(ActionsExecutedInformationType value) {
         startValue = value;
@@ -67,12 +75,12 @@ public class ActionsExecutedInformation {
         return (ActionsExecutedInformationType) startValue;
     }
 
-    public synchronized ActionsExecutedInformationType getDeltaValue() {
+    public ActionsExecutedInformationType getDeltaValue() {
         ActionsExecutedInformationType rv = toActionsExecutedInformationType();
         return rv;
     }
 
-    public synchronized ActionsExecutedInformationType getAggregatedValue() {
+    public ActionsExecutedInformationType getAggregatedValue() {
         ActionsExecutedInformationType delta = toActionsExecutedInformationType();
         ActionsExecutedInformationType rv = aggregate(startValue, delta);
         return rv;
@@ -146,9 +154,9 @@ public class ActionsExecutedInformation {
         mapToJaxb(resultingObjectActions, rv.getResultingObjectActionsEntry());
     }
 
-    private void mapToJaxb(Map<ActionsExecutedObjectsKey, ObjectActionsExecutedEntryType> map, List<ObjectActionsExecutedEntryType> list) {
-        for (Map.Entry<ActionsExecutedObjectsKey,ObjectActionsExecutedEntryType> entry : map.entrySet()) {
-            ObjectActionsExecutedEntryType e = entry.getValue().clone();
+    private void mapToJaxb(Map<ActionsExecutedObjectsKey, ActionsExecutedEntry> map, List<ObjectActionsExecutedEntryType> list) {
+        for (Map.Entry<ActionsExecutedObjectsKey,ActionsExecutedEntry> entry : map.entrySet()) {
+            ObjectActionsExecutedEntryType e = entry.getValue().toJaxb();
             e.setObjectType(entry.getKey().getObjectType());
             e.setOperation(ChangeType.toChangeTypeType(entry.getKey().getOperation()));
             e.setChannel(entry.getKey().getChannel());
@@ -156,53 +164,72 @@ public class ActionsExecutedInformation {
         }
     }
 
-    public synchronized void recordObjectActionExecuted(String objectName, String objectDisplayName, QName objectType, String objectOid, ChangeType changeType, String channel, Throwable exception) {
+    public void recordObjectActionExecuted(String objectName, String objectDisplayName, QName objectType, String objectOid, ChangeType changeType, String channel, Throwable exception) {
         XMLGregorianCalendar now = XmlTypeConverter.createXMLGregorianCalendar(new Date());
         ObjectActionExecuted action = new ObjectActionExecuted(objectName, objectDisplayName, objectType, objectOid, changeType, channel, exception, now);
 
         addEntry(allObjectActions, action);
 
         if (action.objectOid == null) {
-            action.objectOid = "dummy-" + ((int) Math.random() * 10000000);     // hack for unsuccessful ADDs
+            action = new ObjectActionExecuted(objectName, objectDisplayName, objectType,
+                    "dummy-" + ((int) Math.random() * 10000000),     // hack for unsuccessful ADDs
+                    changeType, channel, exception, now);
         }
         addAction(action);
     }
 
-    protected void addAction(ObjectActionExecuted action) {
-        List<ObjectActionExecuted> actions = currentScopeObjectActions.get(action.objectOid);
-        if (actions == null) {
-            actions = new ArrayList<>();
-            currentScopeObjectActions.put(action.objectOid, actions);
-        }
-        actions.add(action);
+    private void addAction(ObjectActionExecuted action) {
+        currentScopeObjectActions
+                .computeIfAbsent(Thread.currentThread().getId(), id -> new HashMap<>())
+                .computeIfAbsent(action.objectOid, oid -> new ArrayList<>())
+                .add(action);
     }
 
-    protected void addEntry(Map<ActionsExecutedObjectsKey,ObjectActionsExecutedEntryType> target, ObjectActionExecuted a) {
+    private void addEntry(Map<ActionsExecutedObjectsKey,ActionsExecutedEntry> target, ObjectActionExecuted a) {
         ActionsExecutedObjectsKey key = new ActionsExecutedObjectsKey(a.objectType, a.changeType, a.channel);
-        ObjectActionsExecutedEntryType entry = target.get(key);
+        ActionsExecutedEntry entry = target.get(key);
         if (entry == null) {
-            entry = new ObjectActionsExecutedEntryType();
-            target.put(key, entry);
+            // computeIfAbsent alone would lock the map bin even if the key is already there
+            entry = target.computeIfAbsent(key, k -> new ActionsExecutedEntry());
         }
+        entry.record(a);
+    }
 
-        if (a.exception == null) {
-            entry.setTotalSuccessCount(entry.getTotalSuccessCount() + 1);
-            entry.setLastSuccessObjectName(a.objectName);
-            entry.setLastSuccessObjectDisplayName(a.objectDisplayName);
-            entry.setLastSuccessObjectOid(a.objectOid);
-            entry.setLastSuccessTimestamp(a.timestamp);
-        } else {
-            entry.setTotalFailureCount(entry.getTotalFailureCount() + 1);
-            entry.setLastFailureObjectName(a.objectName);
-            entry.setLastFailureObjectDisplayName(a.objectDisplayName);
-            entry.setLastFailureObjectOid(a.objectOid);
-            entry.setLastFailureTimestamp(a.timestamp);
-            entry.setLastFailureExceptionMessage(a.exception.getMessage());
+    /**
+     * Adds actions recorded by another instance, typically one belonging to a worker subtask that executed a part
+     * of the current operation. Actions that are not yet behind a boundary there (in any thread) are added to the
+     * current scope of the calling thread, so they are cleaned up together with the caller's own actions when the
+     * caller marks the boundary.
+     *
+     * The other instance must not be used concurrently.
+     */
+    public void add(ActionsExecutedInformation other) {
+        addEntries(allObjectActions, other.allObjectActions);
+        addEntries(resultingObjectActions, other.resultingObjectActions);
+        for (Map<String,List<ObjectActionExecuted>> scopeObjectActions : other.currentScopeObjectActions.values()) {
+            for (List<ObjectActionExecuted> actions : scopeObjectActions.values()) {
+                actions.forEach(this::addAction);
+            }
         }
+        other.currentScopeObjectActions.clear();
     }
 
-    public synchronized void markObjectActionExecutedBoundary() {
-        for (Map.Entry<String,List<ObjectActionExecuted>> entry : currentScopeObjectActions.entrySet()) {
+    private void addEntries(Map<ActionsExecutedObjectsKey,ActionsExecutedEntry> target, Map<ActionsExecutedObjectsKey,ActionsExecutedEntry> source) {
+        for (Map.Entry<ActionsExecutedObjectsKey,ActionsExecutedEntry> entry : source.entrySet()) {
+            ActionsExecutedEntry targetEntry = target.get(entry.getKey());
+            if (targetEntry == null) {
+                targetEntry = target.computeIfAbsent(entry.getKey(), k -> new ActionsExecutedEntry());
+            }
+            targetEntry.add(entry.getValue());
+        }
+    }
+
+    public void markObjectActionExecutedBoundary() {
+        Map<String,List<ObjectActionExecuted>> scopeObjectActions = currentScopeObjectActions.remove(Thread.currentThread().getId());
+        if (scopeObjectActions == null) {
+            return;
+        }
+        for (Map.Entry<String,List<ObjectActionExecuted>> entry : scopeObjectActions.entrySet()) {
             // Last non-modify operation determines the result
             List<ObjectActionExecuted> actions = entry.getValue();
             assert actions.size() > 0;
@@ -220,18 +247,76 @@ public class ActionsExecutedInformation {
                 addEntry(resultingObjectActions, actions.get(relevant));
             }
         }
-        currentScopeObjectActions.clear();
+    }
+
+    /**
+     * Counts and last successful/failed actions for a given key.
+     */
+    private static class ActionsExecutedEntry {
+        private final LongAdder successCount = new LongAdder();
+        private final LongAdder failureCount = new LongAdder();
+        private volatile ObjectActionExecuted lastSuccess;
+        private volatile ObjectActionExecuted lastFailure;
+
+        private void record(ObjectActionExecuted a) {
+            if (a.exception == null) {
+                successCount.increment();
+                lastSuccess = a;
+            } else {
+                failureCount.increment();
+                lastFailure = a;
+            }
+        }
+
+        private void add(ActionsExecutedEntry other) {
+            successCount.add(other.successCount.sum());
+            failureCount.add(other.failureCount.sum());
+            lastSuccess = later(lastSuccess, other.lastSuccess);
+            lastFailure = later(lastFailure, other.lastFailure);
+        }
+
+        private static ObjectActionExecuted later(ObjectActionExecuted a, ObjectActionExecuted b) {
+            if (a == null) {
+                return b;
+            } else if (b == null) {
+                return a;
+            } else {
+                return b.timestamp.compare(a.timestamp) == DatatypeConstants.GREATER ? b : a;
+            }
+        }
+
+        private ObjectActionsExecutedEntryType toJaxb() {
+            ObjectActionsExecutedEntryType e = new ObjectActionsExecutedEntryType();
+            e.setTotalSuccessCount(successCount.intValue());
+            ObjectActionExecuted lastSuccess = this.lastSuccess;
+            if (lastSuccess != null) {
+                e.setLastSuccessObjectName(lastSuccess.objectName);
+                e.setLastSuccessObjectDisplayName(lastSuccess.objectDisplayName);
+                e.setLastSuccessObjectOid(lastSuccess.objectOid);
+                e.setLastSuccessTimestamp(CloneUtil.clone(lastSuccess.timestamp));
+            }
+            e.setTotalFailureCount(failureCount.intValue());
+            ObjectActionExecuted lastFailure = this.lastFailure;
+            if (lastFailure != null) {
+                e.setLastFailureObjectName(lastFailure.objectName);
+                e.setLastFailureObjectDisplayName(lastFailure.objectDisplayName);
+                e.setLastFailureObjectOid(lastFailure.objectOid);
+                e.setLastFailureTimestamp(CloneUtil.clone(lastFailure.timestamp));
+                e.setLastFailureExceptionMessage(lastFailure.exception.getMessage());
+            }
+            return e;
+        }
     }
 
     private static class ObjectActionExecuted {
-        String objectName;
-        String objectDisplayName;
-        QName objectType;
-        String objectOid;
-        ChangeType changeType;
-        String channel;
-        Throwable exception;
-        XMLGregorianCalendar timestamp;
+        final String objectName;
+        final String objectDisplayName;
+        final QName objectType;
+        final String objectOid;
+        final ChangeType changeType;
+        final String channel;
+        final Throwable exception;
+        final XMLGregorianCalendar timestamp;
 
         public ObjectActionExecuted(String objectName, String objectDisplayName, QName objectType, String objectOid, ChangeType changeType, String channel, Throwable exception, XMLGregorianCalendar timestamp) {
             this.objectName = objectName;
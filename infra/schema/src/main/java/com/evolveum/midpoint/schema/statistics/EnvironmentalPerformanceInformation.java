@@ -32,6 +32,8 @@ import javax.xml.namespace.QName;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * @author Pavol Mederly
@@ -40,20 +42,22 @@ public class EnvironmentalPerformanceInformation {
 
     /*
      * Thread safety: Instances of this class may be accessed from more than one thread at once.
-     * Updates are invoked in the context of the thread executing the task.
-     * Queries are invoked either from this thread, or from some observer (task manager or GUI thread).
+     * Updates are invoked in the context of the thread(s) executing the task; for multi-threaded tasks
+     * these can be many worker threads at once. Queries are invoked either from these threads, or from
+     * some observer (task manager or GUI thread).
      *
-     * We ensure synchronization by making public methods synchronized. We don't expect much contention on this.
+     * Recording is lock-free: data are kept in concurrent maps of GenericStatisticsData (based on LongAdders),
+     * and they are merged into the JAXB form only when queried. Queries see a weakly consistent snapshot.
      */
     private final EnvironmentalPerformanceInformationType startValue;        // this object is concurrently read (that is thread-safe), not written
 
-    private Map<ProvisioningStatisticsKey,ProvisioningStatisticsData> provisioningData = new HashMap<>();
-    private Map<NotificationsStatisticsKey,GenericStatisticsData> notificationsData = new HashMap<>();
-    private Map<MappingsStatisticsKey,GenericStatisticsData> mappingsData = new HashMap<>();
+    private final Map<ProvisioningStatisticsKey,ProvisioningStatisticsData> provisioningData = new ConcurrentHashMap<>();
+    private final Map<NotificationsStatisticsKey,GenericStatisticsData> notificationsData = new ConcurrentHashMap<>();
+    private final Map<MappingsStatisticsKey,GenericStatisticsData> mappingsData = new ConcurrentHashMap<>();
 
 	private static final int AGGREGATION_THRESHOLD = 50;
 
-    private StatusMessage lastMessage;
+    private volatile StatusMessage lastMessage;
 
     public EnvironmentalPerformanceInformation(EnvironmentalPerformanceInformationType value) {
         startValue = value;
@@ -67,12 +71,12 @@ public class EnvironmentalPerformanceInformation {
         return startValue;
     }
 
-    public synchronized EnvironmentalPerformanceInformationType getDeltaValue() {
+    public EnvironmentalPerformanceInformationType getDeltaValue() {
         EnvironmentalPerformanceInformationType rv = toEnvironmentalPerformanceInformationType();
         return rv;
     }
 
-    public synchronized EnvironmentalPerformanceInformationType getAggregatedValue() {
+    public EnvironmentalPerformanceInformationType getAggregatedValue() {
         EnvironmentalPerformanceInformationType delta = toEnvironmentalPerformanceInformationType();
         EnvironmentalPerformanceInformationType rv = aggregate(startValue, delta);
         return rv;
@@ -83,6 +87,7 @@ public class EnvironmentalPerformanceInformation {
         rv.setProvisioningStatistics(toProvisioningStatisticsType());
         rv.setMappingsStatistics(toMappingsStatisticsType());
         rv.setNotificationsStatistics(toNotificationsStatisticsType());
+        StatusMessage lastMessage = this.lastMessage;
         if (lastMessage != null) {
             rv.setLastMessageTimestamp(XmlTypeConverter.createXMLGregorianCalendar(lastMessage.getDate()));
             rv.setLastMessage(lastMessage.getMessage());
@@ -450,42 +455,53 @@ public class EnvironmentalPerformanceInformation {
         return Math.max(a, b);
     }
 
-    public synchronized void recordProvisioningOperation(String resourceOid, String resourceName, QName objectClassName, ProvisioningOperation operation, boolean success, int count, long duration) {
+    public void recordProvisioningOperation(String resourceOid, String resourceName, QName objectClassName, ProvisioningOperation operation, boolean success, int count, long duration) {
         ProvisioningStatisticsKey key = new ProvisioningStatisticsKey(resourceOid, resourceName, objectClassName, operation, success);
-        ProvisioningStatisticsData data = provisioningData.get(key);
-        if (data == null) {
-            data = new ProvisioningStatisticsData();
-            provisioningData.put(key, data);
-        }
-        data.recordOperation(duration, count);
+        getOrCreate(provisioningData, key, ProvisioningStatisticsData::new).recordOperation(duration, count);
     }
 
-    public synchronized void recordNotificationOperation(String transportName, boolean success, long duration) {
+    public void recordNotificationOperation(String transportName, boolean success, long duration) {
         NotificationsStatisticsKey key = new NotificationsStatisticsKey(transportName, success);
-        GenericStatisticsData data = notificationsData.get(key);
-        if (data == null) {
-            data = new GenericStatisticsData();
-            notificationsData.put(key, data);
-        }
-        data.recordOperation(duration, 1);
+        getOrCreate(notificationsData, key, GenericStatisticsData::new).recordOperation(duration, 1);
     }
 
-    public synchronized void recordMappingOperation(String objectOid, String objectName, String objectTypeName, String mappingName, long duration) {
+    public void recordMappingOperation(String objectOid, String objectName, String objectTypeName, String mappingName, long duration) {
         // ignoring mapping name for now
         MappingsStatisticsKey key = new MappingsStatisticsKey(objectOid, objectName, objectTypeName);
-        GenericStatisticsData data = mappingsData.get(key);
-        if (data == null) {
-            data = new GenericStatisticsData();
-            mappingsData.put(key, data);
+        getOrCreate(mappingsData, key, GenericStatisticsData::new).recordOperation(duration, 1);
+    }
+
+    /**
+     * Adds data recorded by another instance, typically one belonging to a worker subtask.
+     */
+    public void add(EnvironmentalPerformanceInformation other) {
+        for (Map.Entry<ProvisioningStatisticsKey, ProvisioningStatisticsData> entry : other.provisioningData.entrySet()) {
+            getOrCreate(provisioningData, entry.getKey(), ProvisioningStatisticsData::new).add(entry.getValue());
         }
-        data.recordOperation(duration, 1);
+        for (Map.Entry<NotificationsStatisticsKey, GenericStatisticsData> entry : other.notificationsData.entrySet()) {
+            getOrCreate(notificationsData, entry.getKey(), GenericStatisticsData::new).add(entry.getValue());
+        }
+        for (Map.Entry<MappingsStatisticsKey, GenericStatisticsData> entry : other.mappingsData.entrySet()) {
+            getOrCreate(mappingsData, entry.getKey(), GenericStatisticsData::new).add(entry.getValue());
+        }
+        StatusMessage otherMessage = other.lastMessage;
+        StatusMessage lastMessage = this.lastMessage;
+        if (otherMessage != null && (lastMessage == null || otherMessage.getDate().after(lastMessage.getDate()))) {
+            this.lastMessage = otherMessage;
+        }
+    }
+
+    // computeIfAbsent alone would lock the map bin even if the key is already there
+    private static <K, V> V getOrCreate(Map<K, V> map, K key, Supplier<V> creator) {
+        V value = map.get(key);
+        return value != null ? value : map.computeIfAbsent(key, k -> creator.get());
     }
 
-    public synchronized StatusMessage getLastMessage() {
+    public StatusMessage getLastMessage() {
         return lastMessage;
     }
 
-    public synchronized void recordState(String message) {
+    public void recordState(String message) {
         lastMessage = new StatusMessage(message);
     }
 }
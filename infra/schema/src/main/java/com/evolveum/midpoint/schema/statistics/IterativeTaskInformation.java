@@ -25,6 +25,9 @@ import javax.xml.namespace.QName;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author Pavol Mederly
@@ -35,39 +38,29 @@ public class IterativeTaskInformation {
 
     /*
      * Thread safety: Just like EnvironmentalPerformanceInformation, instances of this class may be accessed from
-     * more than one thread at once. Updates are invoked in the context of the thread executing the task.
-     * Queries are invoked either from this thread, or from some observer (task manager or GUI thread).
+     * more than one thread at once. Updates are invoked in the context of the thread(s) executing the task.
+     * Queries are invoked either from these threads, or from some observer (task manager or GUI thread).
+     *
+     * Recording is lock-free: totals are kept in LongAdders, information about the last success/failure
+     * is replaced as a whole, and objects currently being processed are kept per thread. These are merged
+     * when the value is queried.
      */
 
     protected final IterativeTaskInformationType startValue;
 
-    protected String lastSuccessObjectName;
-    protected String lastSuccessObjectDisplayName;
-    protected QName lastSuccessObjectType;
-    protected String lastSuccessObjectOid;
-    protected Date lastSuccessEndTimestamp;
-    protected long lastSuccessDuration;
-    protected long totalSuccessDuration;
-    protected int totalSuccessCount;
-
-    protected String lastFailureObjectName;
-    protected String lastFailureObjectDisplayName;
-    protected QName lastFailureObjectType;
-    protected String lastFailureObjectOid;
-    protected Date lastFailureEndTimestamp;
-    protected long lastFailureDuration;
-    protected long totalFailureDuration;
-    protected int totalFailureCount;
-    protected Throwable lastFailureException;
-    protected String lastFailureExceptionMessage;
-
-    protected String currentObjectName;
-    protected String currentObjectDisplayName;
-    protected QName currentObjectType;
-    protected String currentObjectOid;
-    protected Date currentObjectStartTimestamp;
-
-    protected CircularFifoBuffer lastFailures = new CircularFifoBuffer(LAST_FAILURES_KEPT);
+    private final LongAdder totalSuccessDuration = new LongAdder();
+    private final LongAdder totalSuccessCount = new LongAdder();
+    private final LongAdder totalFailureDuration = new LongAdder();
+    private final LongAdder totalFailureCount = new LongAdder();
+
+    private volatile ProcessedObject lastSuccess;
+    private volatile ProcessedObject lastFailure;
+
+    // indexed by thread ID
+    private final Map<Long, ProcessedObject> currentObjects = new ConcurrentHashMap<>();
+
+    // guarded by itself
+    private final CircularFifoBuffer lastFailures = new CircularFifoBuffer(LAST_FAILURES_KEPT);
 
     public IterativeTaskInformation() {
         this(null);
@@ -81,12 +74,12 @@ public class IterativeTaskInformation {
         return startValue;
     }
 
-    public synchronized IterativeTaskInformationType getDeltaValue() {
+    public IterativeTaskInformationType getDeltaValue() {
         IterativeTaskInformationType rv = toIterativeTaskInformationType();
         return rv;
     }
 
-    public synchronized IterativeTaskInformationType getAggregatedValue() {
+    public IterativeTaskInformationType getAggregatedValue() {
         IterativeTaskInformationType delta = toIterativeTaskInformationType();
         IterativeTaskInformationType rv = aggregate(startValue, delta);
         return rv;
@@ -108,72 +101,77 @@ public class IterativeTaskInformation {
         return rv;
     }
 
-    public synchronized void recordOperationEnd(String objectName, String objectDisplayName, QName objectType, String objectOid, long started, Throwable exception) {
+    public void recordOperationEnd(String objectName, String objectDisplayName, QName objectType, String objectOid, long started, Throwable exception) {
+        Date end = new Date();
+        long duration = end.getTime() - started;
         if (exception != null) {
-            lastFailureObjectName = objectName;
-            lastFailureObjectDisplayName = objectDisplayName;
-            lastFailureObjectType = objectType;
-            lastFailureObjectOid = objectOid;
-            lastFailureEndTimestamp = new Date();
-            lastFailureDuration = lastFailureEndTimestamp.getTime() - started;
-            lastFailureException = exception;
-            lastFailureExceptionMessage = exception.getClass().getSimpleName() + ": " + exception.getMessage();
-            totalFailureDuration += lastFailureDuration;
-            totalFailureCount++;
+            lastFailure = new ProcessedObject(objectName, objectDisplayName, objectType, objectOid, end, duration,
+                    exception.getClass().getSimpleName() + ": " + exception.getMessage());
+            totalFailureDuration.add(duration);
+            totalFailureCount.increment();
 
             String name = objectName != null ? objectName
                     : objectOid != null ? objectOid : "(unnamed)";
-            lastFailures.add(name + ": " + exception.getMessage());
+            synchronized (lastFailures) {
+                lastFailures.add(name + ": " + exception.getMessage());
+            }
         } else {
-            lastSuccessObjectName = objectName;
-            lastSuccessObjectDisplayName = objectDisplayName;
-            lastSuccessObjectType = objectType;
-            lastSuccessObjectOid = objectOid;
-            lastSuccessEndTimestamp = new Date();
-            lastSuccessDuration = lastSuccessEndTimestamp.getTime() - started;
-            totalSuccessDuration += lastSuccessDuration;
-            totalSuccessCount++;
+            lastSuccess = new ProcessedObject(objectName, objectDisplayName, objectType, objectOid, end, duration, null);
+            totalSuccessDuration.add(duration);
+            totalSuccessCount.increment();
         }
-        currentObjectName = null;
-        currentObjectDisplayName = null;
-        currentObjectType = null;
-        currentObjectOid = null;
-        currentObjectStartTimestamp = null;
+        currentObjects.remove(Thread.currentThread().getId());
     }
 
-    public synchronized void recordOperationStart(String objectName, String objectDisplayName, QName objectType, String objectOid) {
-        currentObjectName = objectName;
-        currentObjectDisplayName = objectDisplayName;
-        currentObjectType = objectType;
-        currentObjectOid = objectOid;
-        currentObjectStartTimestamp = new Date();
+    public void recordOperationStart(String objectName, String objectDisplayName, QName objectType, String objectOid) {
+        currentObjects.put(Thread.currentThread().getId(),
+                new ProcessedObject(objectName, objectDisplayName, objectType, objectOid, new Date(), 0, null));
     }
 
     private void toJaxb(IterativeTaskInformationType rv) {
-        rv.setLastSuccessObjectName(lastSuccessObjectName);
-        rv.setLastSuccessObjectDisplayName(lastSuccessObjectDisplayName);
-        rv.setLastSuccessObjectType(lastSuccessObjectType);
-        rv.setLastSuccessObjectOid(lastSuccessObjectOid);
-        rv.setLastSuccessEndTimestamp(XmlTypeConverter.createXMLGregorianCalendar(lastSuccessEndTimestamp));
-        rv.setLastSuccessDuration(lastSuccessDuration);
-        rv.setTotalSuccessDuration(totalSuccessDuration);
-        rv.setTotalSuccessCount(totalSuccessCount);
-
-        rv.setLastFailureObjectName(lastFailureObjectName);
-        rv.setLastFailureObjectDisplayName(lastFailureObjectDisplayName);
-        rv.setLastFailureObjectType(lastFailureObjectType);
-        rv.setLastFailureObjectOid(lastFailureObjectOid);
-        rv.setLastFailureEndTimestamp(XmlTypeConverter.createXMLGregorianCalendar(lastFailureEndTimestamp));
-        rv.setLastFailureDuration(lastFailureDuration);
-        rv.setLastFailureExceptionMessage(lastFailureExceptionMessage);
-        rv.setTotalFailureDuration(totalFailureDuration);
-        rv.setTotalFailureCount(totalFailureCount);
-
-        rv.setCurrentObjectName(currentObjectName);
-        rv.setCurrentObjectDisplayName(currentObjectDisplayName);
-        rv.setCurrentObjectType(currentObjectType);
-        rv.setCurrentObjectOid(currentObjectOid);
-        rv.setCurrentObjectStartTimestamp(XmlTypeConverter.createXMLGregorianCalendar(currentObjectStartTimestamp));
+        ProcessedObject lastSuccess = this.lastSuccess;
+        if (lastSuccess != null) {
+            rv.setLastSuccessObjectName(lastSuccess.name);
+            rv.setLastSuccessObjectDisplayName(lastSuccess.displayName);
+            rv.setLastSuccessObjectType(lastSuccess.type);
+            rv.setLastSuccessObjectOid(lastSuccess.oid);
+            rv.setLastSuccessEndTimestamp(XmlTypeConverter.createXMLGregorianCalendar(lastSuccess.timestamp));
+            rv.setLastSuccessDuration(lastSuccess.duration);
+        } else {
+            rv.setLastSuccessDuration(0L);
+        }
+        rv.setTotalSuccessDuration(totalSuccessDuration.sum());
+        rv.setTotalSuccessCount(totalSuccessCount.intValue());
+
+        ProcessedObject lastFailure = this.lastFailure;
+        if (lastFailure != null) {
+            rv.setLastFailureObjectName(lastFailure.name);
+            rv.setLastFailureObjectDisplayName(lastFailure.displayName);
+            rv.setLastFailureObjectType(lastFailure.type);
+            rv.setLastFailureObjectOid(lastFailure.oid);
+            rv.setLastFailureEndTimestamp(XmlTypeConverter.createXMLGregorianCalendar(lastFailure.timestamp));
+            rv.setLastFailureDuration(lastFailure.duration);
+            rv.setLastFailureExceptionMessage(lastFailure.exceptionMessage);
+        } else {
+            rv.setLastFailureDuration(0L);
+        }
+        rv.setTotalFailureDuration(totalFailureDuration.sum());
+        rv.setTotalFailureCount(totalFailureCount.intValue());
+
+        // the most recently started one (if there are more worker threads)
+        ProcessedObject current = null;
+        for (ProcessedObject object : currentObjects.values()) {
+            if (current == null || object.timestamp.after(current.timestamp)) {
+                current = object;
+            }
+        }
+        if (current != null) {
+            rv.setCurrentObjectName(current.name);
+            rv.setCurrentObjectDisplayName(current.displayName);
+            rv.setCurrentObjectType(current.type);
+            rv.setCurrentObjectOid(current.oid);
+            rv.setCurrentObjectStartTimestamp(XmlTypeConverter.createXMLGregorianCalendar(current.timestamp));
+        }
     }
 
     // sum != null, delta != null
@@ -216,6 +214,33 @@ public class IterativeTaskInformation {
     }
 
     public List<String> getLastFailures() {
-        return new ArrayList<>(lastFailures);
+        synchronized (lastFailures) {
+            return new ArrayList<>(lastFailures);
+        }
+    }
+
+    /**
+     * Object being processed or already processed: start timestamp and no duration in the former case,
+     * end timestamp and duration in the latter.
+     */
+    private static class ProcessedObject {
+        private final String name;
+        private final String displayName;
+        private final QName type;
+        private final String oid;
+        private final Date timestamp;
+        private final long duration;
+        private final String exceptionMessage;
+
+        private ProcessedObject(String name, String displayName, QName type, String oid, Date timestamp, long duration,
+                String exceptionMessage) {
+            this.name = name;
+            this.displayName = displayName;
+            this.type = type;
+            this.oid = oid;
+            this.timestamp = timestamp;
+            this.duration = duration;
+            this.exceptionMessage = exceptionMessage;
+        }
     }
 }
@@ -66,7 +66,8 @@ public class SystemConfigurationTypeUtil {
 
     // TODO move to better place?
     public static void applyOperationResultHandling(SystemConfigurationType config) {
-        Integer value = config != null && config.getInternals() != null ? config.getInternals().getSubresultStripThreshold() : null;
-        OperationResult.setSubresultStripThreshold(value);
+        InternalsConfigurationType internals = config != null ? config.getInternals() : null;
+        OperationResult.setSubresultStripThreshold(internals != null ? internals.getSubresultStripThreshold() : null);
+        OperationResult.setParamValueMaxLength(internals != null ? internals.getParamValueMaxLength() : null);
     }
 }
@@ -16,6 +16,7 @@
 package com.evolveum.midpoint.schema;
 
 import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
 import com.evolveum.midpoint.schema.constants.MidPointConstants;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
@@ -24,11 +25,14 @@ import com.evolveum.midpoint.schema.result.OperationResultStatus;
 import com.evolveum.midpoint.util.PrettyPrinter;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.OperationResultType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 import org.testng.annotations.BeforeSuite;
 import org.testng.annotations.Test;
 import org.xml.sax.SAXException;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.testng.AssertJUnit.assertEquals;
@@ -206,6 +210,38 @@ public class TestOperationResult {
 		checkResultConversion(root, true);
 	}
 
+	@Test
+	public void testLazyParams() throws Exception {
+		System.out.println("===[ testLazyParams ]===");
+
+		// GIVEN
+		StringBuilder value = new StringBuilder("abcdef");
+		ObjectDelta<UserType> delta = ObjectDelta.createModificationReplaceProperty(UserType.class, "user-1",
+				UserType.F_DESCRIPTION, PrismTestUtil.getPrismContext(), "first");
+		String deltaString = delta.toString();
+		OperationResult root = new OperationResult("dummy");
+
+		// WHEN
+		root.addArbitraryObjectAsParam("value", value);
+		root.addArbitraryObjectCollectionAsParam("values", Arrays.asList(value, "ghi"));
+		root.addParam("delta", delta);
+		// params are captured when added, so later changes are not visible
+		value.append("ghi");
+		delta.addModificationReplaceProperty(UserType.F_EMPLOYEE_NUMBER, "second");
+		int oldMaxLength = OperationResult.getParamValueMaxLength();
+		OperationResult.setParamValueMaxLength(4);
+		try {
+			// THEN
+			assertEquals("Wrong rendered param", Collections.singletonList("abcd... (6 characters)"), root.getParams().get("value"));
+			assertEquals("Wrong rendered params", Arrays.asList("abcd... (6 characters)", "ghi"), root.getParams().get("values"));
+			OperationResult.setParamValueMaxLength(0);
+			assertEquals("Wrong rendered delta", Collections.singletonList(deltaString), root.getParams().get("delta"));
+			checkResultConversion(root, true);
+		} finally {
+			OperationResult.setParamValueMaxLength(oldMaxLength);
+		}
+	}
+
 	private void checkResultConversion(OperationResult result, boolean assertEquals) throws SchemaException {
 		// WHEN
 		OperationResultType resultType = result.createOperationResultType();
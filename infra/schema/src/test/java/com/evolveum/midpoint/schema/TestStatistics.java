@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.schema;
+
+import com.evolveum.midpoint.prism.delta.ChangeType;
+import com.evolveum.midpoint.schema.statistics.ActionsExecutedInformation;
+import com.evolveum.midpoint.schema.statistics.EnvironmentalPerformanceInformation;
+import com.evolveum.midpoint.schema.statistics.ProvisioningOperation;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActionsExecutedInformationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectActionsExecutedEntryType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ProvisioningStatisticsEntryType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.ChangeTypeType;
+import org.testng.annotations.Test;
+
+import javax.xml.namespace.QName;
+import java.util.List;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+/**
+ * Tests merging of statistics recorded by worker threads.
+ */
+public class TestStatistics {
+
+	private static final String CHANNEL = "http://midpoint.evolveum.com/xml/ns/public/provisioning/channels-3#import";
+	private static final QName OBJECT_CLASS = new QName("http://midpoint.evolveum.com/xml/ns/public/resource/instance-3", "AccountObjectClass");
+
+	@Test
+	public void test100ActionsRecordedInAnotherThread() throws Exception {
+		System.out.println("===[ test100ActionsRecordedInAnotherThread ]===");
+
+		// GIVEN
+		ActionsExecutedInformation info = new ActionsExecutedInformation();
+		ActionsExecutedInformation workerInfo = new ActionsExecutedInformation();
+
+		// WHEN
+		info.recordObjectActionExecuted("jack", null, UserType.COMPLEX_TYPE, "user-1", ChangeType.MODIFY, CHANNEL, null);
+		Thread worker = new Thread(() -> {
+			workerInfo.recordObjectActionExecuted("jack-1", null, ShadowType.COMPLEX_TYPE, "shadow-1", ChangeType.ADD, CHANNEL, null);
+			workerInfo.recordObjectActionExecuted("jack-1", null, ShadowType.COMPLEX_TYPE, "shadow-1", ChangeType.MODIFY, CHANNEL, null);
+			workerInfo.recordObjectActionExecuted("jack-2", null, ShadowType.COMPLEX_TYPE, "shadow-2", ChangeType.MODIFY, CHANNEL, null);
+		});
+		worker.start();
+		worker.join();
+		info.add(workerInfo);
+		info.markObjectActionExecutedBoundary();
+
+		// THEN
+		ActionsExecutedInformationType value = info.getAggregatedValue();
+		System.out.println("Actions executed: " + value);
+		List<ObjectActionsExecutedEntryType> all = value.getObjectActionsEntry();
+		assertEquals("Wrong # of entries", 3, all.size());
+		assertEquals("Wrong # of user modifications", 1, getEntry(all, UserType.COMPLEX_TYPE, ChangeTypeType.MODIFY).getTotalSuccessCount());
+		assertEquals("Wrong # of shadow additions", 1, getEntry(all, ShadowType.COMPLEX_TYPE, ChangeTypeType.ADD).getTotalSuccessCount());
+		assertEquals("Wrong # of shadow modifications", 2, getEntry(all, ShadowType.COMPLEX_TYPE, ChangeTypeType.MODIFY).getTotalSuccessCount());
+
+		// ADD+MODIFY of shadow-1 is counted as ADD
+		List<ObjectActionsExecutedEntryType> resulting = value.getResultingObjectActionsEntry();
+		assertEquals("Wrong # of resulting entries", 3, resulting.size());
+		assertEquals("Wrong # of resulting user modifications", 1, getEntry(resulting, UserType.COMPLEX_TYPE, ChangeTypeType.MODIFY).getTotalSuccessCount());
+		assertEquals("Wrong # of resulting shadow additions", 1, getEntry(resulting, ShadowType.COMPLEX_TYPE, ChangeTypeType.ADD).getTotalSuccessCount());
+		ObjectActionsExecutedEntryType shadowModifications = getEntry(resulting, ShadowType.COMPLEX_TYPE, ChangeTypeType.MODIFY);
+		assertEquals("Wrong # of resulting shadow modifications", 1, shadowModifications.getTotalSuccessCount());
+		assertEquals("Wrong last modified shadow", "shadow-2", shadowModifications.getLastSuccessObjectOid());
+
+		// nothing is left in the scope of the worker
+		workerInfo.markObjectActionExecutedBoundary();
+		info.markObjectActionExecutedBoundary();
+		assertEquals("Resulting entries changed", resulting, info.getAggregatedValue().getResultingObjectActionsEntry());
+	}
+
+	@Test
+	public void test200ProvisioningOperationsRecordedInAnotherThread() throws Exception {
+		System.out.println("===[ test200ProvisioningOperationsRecordedInAnotherThread ]===");
+
+		// GIVEN
+		EnvironmentalPerformanceInformation info = new EnvironmentalPerformanceInformation();
+		EnvironmentalPerformanceInformation workerInfo = new EnvironmentalPerformanceInformation();
+
+		// WHEN
+		info.recordProvisioningOperation("resource-1", "Resource 1", OBJECT_CLASS, ProvisioningOperation.ICF_GET, true, 1, 10);
+		Thread worker = new Thread(() -> {
+			workerInfo.recordProvisioningOperation("resource-1", "Resource 1", OBJECT_CLASS, ProvisioningOperation.ICF_GET, true, 1, 30);
+			workerInfo.recordProvisioningOperation("resource-2", "Resource 2", OBJECT_CLASS, ProvisioningOperation.ICF_GET, true, 1, 5);
+		});
+		worker.start();
+		worker.join();
+		info.add(workerInfo);
+
+		// THEN
+		List<ProvisioningStatisticsEntryType> entries = info.getAggregatedValue().getProvisioningStatistics().getEntry();
+		System.out.println("Provisioning statistics: " + entries);
+		assertEquals("Wrong # of entries", 2, entries.size());
+		ProvisioningStatisticsEntryType resource1 = getEntry(entries, "Resource 1");
+		assertEquals("Wrong # of get operations on resource 1", 2, resource1.getGetSuccess());
+		assertEquals("Wrong min time for resource 1", Long.valueOf(10), resource1.getMinTime());
+		assertEquals("Wrong max time for resource 1", Long.valueOf(30), resource1.getMaxTime());
+		assertEquals("Wrong total time for resource 1", 40L, resource1.getTotalTime());
+		assertEquals("Wrong # of get operations on resource 2", 1, getEntry(entries, "Resource 2").getGetSuccess());
+	}
+
+	private ObjectActionsExecutedEntryType getEntry(List<ObjectActionsExecutedEntryType> entries, QName objectType, ChangeTypeType operation) {
+		for (ObjectActionsExecutedEntryType entry : entries) {
+			if (objectType.equals(entry.getObjectType()) && operation == entry.getOperation()) {
+				return entry;
+			}
+		}
+		throw new AssertionError("No entry for " + objectType + "/" + operation + " in " + entries);
+	}
+
+	private ProvisioningStatisticsEntryType getEntry(List<ProvisioningStatisticsEntryType> entries, String resourceName) {
+		for (ProvisioningStatisticsEntryType entry : entries) {
+			if (resourceName.equals(entry.getResource())) {
+				return entry;
+			}
+		}
+		throw new AssertionError("No entry for " + resourceName + " in " + entries);
+	}
+}
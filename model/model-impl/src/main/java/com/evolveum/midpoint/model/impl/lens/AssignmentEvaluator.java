@@ -47,6 +47,8 @@ import com.evolveum.midpoint.prism.marshaller.QueryConvertor;
 import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.constants.ExpressionConstants;
 import com.evolveum.midpoint.schema.constants.ObjectTypes;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
@@ -85,6 +87,11 @@ public class AssignmentEvaluator<F extends FocusType> {
 	
 	private static final Trace LOGGER = TraceManager.getTrace(AssignmentEvaluator.class);
 
+	// Targets (roles, orgs, services) are never modified during evaluation. Read-only retrieval allows the repository
+	// cache to return shared immutable instances, including those kept in node-wide global cache across operations.
+	private static final Collection<SelectorOptions<GetOperationOptions>> TARGET_GET_OPTIONS =
+			SelectorOptions.createCollection(GetOperationOptions.createReadOnly());
+
 	// "Configuration parameters"
 	private final RepositoryService repository;
 	private final ObjectDeltaObject<F> focusOdo;
@@ -613,7 +620,7 @@ public class AssignmentEvaluator<F extends FocusType> {
 			LOGGER.trace("Resolving target {}:{} from repository", targetClass.getSimpleName(), oid);
 			PrismObject<O> target;
 			try {
-				target = repository.getObject(targetClass, oid, null, ctx.result);
+				target = repository.getObject(targetClass, oid, TARGET_GET_OPTIONS, ctx.result);
 	        } catch (SchemaException e) {
 	        	throw new SchemaException(e.getMessage() + " in " + segment.sourceDescription, e);
 	        }
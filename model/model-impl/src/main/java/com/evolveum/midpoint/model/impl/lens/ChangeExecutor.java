@@ -24,11 +24,13 @@ import static com.evolveum.midpoint.schema.internals.InternalsConfig.consistency
 
 import com.evolveum.midpoint.common.Clock;
 import com.evolveum.midpoint.common.SynchronizationUtils;
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
 import com.evolveum.midpoint.model.impl.lens.projector.policy.PolicyStateRecorder;
 import com.evolveum.midpoint.prism.delta.*;
 import com.evolveum.midpoint.repo.api.ConflictWatcher;
 import com.evolveum.midpoint.repo.api.ModificationPrecondition;
 import com.evolveum.midpoint.repo.api.PreconditionViolationException;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
 import com.evolveum.midpoint.repo.common.expression.Expression;
 import com.evolveum.midpoint.repo.common.expression.ExpressionEvaluationContext;
 import com.evolveum.midpoint.repo.common.expression.ExpressionFactory;
@@ -80,17 +82,31 @@ import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 import com.evolveum.prism.xml.ns._public.types_3.RawType;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.lang.BooleanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.xml.bind.JAXBElement;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
@@ -112,6 +128,12 @@ public class ChangeExecutor {
 	private static final String OPERATION_UPDATE_SITUATION_ACCOUNT = ChangeExecutor.class.getName()
 			+ ".updateSituationInShadow";
 
+	public static final String PROPERTY_PROJECTION_EXECUTION_THREADS = "projectionExecutionThreads";
+	private static final int DEFAULT_PROJECTION_EXECUTION_THREADS = 1;
+	public static final String PROPERTY_PROJECTION_EXECUTION_POOL_SIZE = "projectionExecutionPoolSize";
+	private static final int DEFAULT_PROJECTION_EXECUTION_POOL_SIZE = 16;
+	private static final long PROJECTION_EXECUTOR_KEEP_ALIVE_SECONDS = 60;
+
 	@Autowired private transient TaskManager taskManager;
 	@Autowired @Qualifier("cacheRepositoryService") private transient RepositoryService cacheRepositoryService;
 	@Autowired private ProvisioningService provisioning;
@@ -123,11 +145,48 @@ public class ChangeExecutor {
 	@Autowired private OperationalDataManager metadataManager;
 	@Autowired private CredentialsProcessor credentialsProcessor;
 
+	@Autowired private MidpointConfiguration midpointConfiguration;
+
+	/**
+	 * Number of threads used to execute projections of one wave (1 = sequential execution).
+	 * Taken from "projectionExecutionThreads" in the model section of the midPoint configuration.
+	 */
+	private int projectionExecutionThreads = DEFAULT_PROJECTION_EXECUTION_THREADS;
+
+	/**
+	 * Maximal number of threads executing projections, shared by all operations running on this node.
+	 * Taken from "projectionExecutionPoolSize" in the model section of the midPoint configuration.
+	 */
+	private int projectionExecutionPoolSize = DEFAULT_PROJECTION_EXECUTION_POOL_SIZE;
+
+	private ThreadPoolExecutor projectionExecutor;
+
+	// held by the thread that is executing projection (when executing them in parallel)
+	private final ThreadLocal<Lock> executionLock = new ThreadLocal<>();
+
+	// set in the projection executor threads; operations nested in them execute the projections sequentially,
+	// so a worker never waits for the (bounded) executor
+	private final ThreadLocal<Boolean> projectionWorker = new ThreadLocal<>();
+
 	private PrismObjectDefinition<UserType> userDefinition = null;
 	private PrismObjectDefinition<ShadowType> shadowDefinition = null;
 
+	private void readConfiguration() {
+		Configuration config = midpointConfiguration.getConfiguration(MidpointConfiguration.MODEL_CONFIGURATION_SECTION);
+		if (config != null) {
+			projectionExecutionThreads = config.getInt(PROPERTY_PROJECTION_EXECUTION_THREADS, DEFAULT_PROJECTION_EXECUTION_THREADS);
+			projectionExecutionPoolSize = config.getInt(PROPERTY_PROJECTION_EXECUTION_POOL_SIZE, DEFAULT_PROJECTION_EXECUTION_POOL_SIZE);
+		}
+	}
+
+	// for testing
+	void setProjectionExecutionThreads(int projectionExecutionThreads) {
+		this.projectionExecutionThreads = projectionExecutionThreads;
+	}
+
 	@PostConstruct
-	private void locateDefinitions() {
+	private void init() {
+		readConfiguration();
 		userDefinition = prismContext.getSchemaRegistry()
 				.findObjectDefinitionByCompileTimeClass(UserType.class);
 		shadowDefinition = prismContext.getSchemaRegistry()
@@ -224,8 +283,7 @@ public class ChangeExecutor {
 
 		context.checkAbortRequested();
 
-		boolean restartRequested = false;
-
+		List<LensProjectionContext> projectionsToExecute = new ArrayList<>();
 		for (LensProjectionContext projCtx : context.getProjectionContexts()) {
 			if (projCtx.getWave() != context.getExecutionWave()) {
 				continue;
@@ -241,138 +299,310 @@ public class ChangeExecutor {
 				continue;
 			}
 
-			OperationResult subResult = result.createSubresult(
-					OPERATION_EXECUTE_PROJECTION + "." + projCtx.getObjectTypeClass().getSimpleName());
-			subResult.addArbitraryObjectAsContext("discriminator", projCtx.getResourceShadowDiscriminator());
-			if (projCtx.getResource() != null) {
-				subResult.addParam("resource", projCtx.getResource());
+			projectionsToExecute.add(projCtx);
+		}
+
+		boolean restartRequested = false;
+
+		if (projectionExecutionThreads > 1 && projectionsToExecute.size() > 1 && projectionWorker.get() == null) {
+			restartRequested = executeProjectionsInParallel(context, projectionsToExecute, task, result);
+		} else {
+			for (LensProjectionContext projCtx : projectionsToExecute) {
+				OperationResult subResult = createProjectionSubresult(projCtx, result);
+				if (executeProjection(context, projCtx, task, subResult)) {
+					restartRequested = true;
+					break; // we will process remaining projections when retrying
+							// the wave
+				}
 			}
-			try {
+		}
+
+		// Result computation here needs to be slightly different
+		result.computeStatusComposite();
+		return restartRequested;
+
+	}
 
-				context.checkAbortRequested();
+	private OperationResult createProjectionSubresult(LensProjectionContext projCtx, OperationResult result) {
+		OperationResult subResult = result.createSubresult(
+				OPERATION_EXECUTE_PROJECTION + "." + projCtx.getObjectTypeClass().getSimpleName());
+		subResult.addArbitraryObjectAsContext("discriminator", projCtx.getResourceShadowDiscriminator());
+		if (projCtx.getResource() != null) {
+			subResult.addParam("resource", projCtx.getResource());
+		}
+		return subResult;
+	}
 
-				context.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
-						projCtx.getResourceShadowDiscriminator(), ENTERING));
+	// returns true if current operation has to be restarted (see executeChanges)
+	private <O extends ObjectType> boolean executeProjection(LensContext<O> context, LensProjectionContext projCtx,
+			Task task, OperationResult subResult) {
+		LensFocusContext<O> focusContext = context.getFocusContext();
+		try {
 
-				executeReconciliationScript(projCtx, context, BeforeAfterType.BEFORE, task, subResult);
+			context.checkAbortRequested();
 
-				ObjectDelta<ShadowType> projDelta = projCtx.getExecutableDelta();
+			context.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
+					projCtx.getResourceShadowDiscriminator(), ENTERING));
 
-				if (shouldBeDeleted(projDelta, projCtx)) {
-					projDelta = ObjectDelta.createDeleteDelta(projCtx.getObjectTypeClass(), projCtx.getOid(),
-							prismContext);
-				}
+			executeReconciliationScript(projCtx, context, BeforeAfterType.BEFORE, task, subResult);
 
-				if (projCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.BROKEN) {
-					if (context.getFocusContext() != null
-							&& context.getFocusContext().getDelta() != null
-							&& context.getFocusContext().getDelta().isDelete()
-							&& context.getOptions() != null
-							&& ModelExecuteOptions.isForce(context.getOptions())) {
-						if (projDelta == null) {
-							projDelta = ObjectDelta.createDeleteDelta(projCtx.getObjectTypeClass(),
-									projCtx.getOid(), prismContext);
-						}
-					}
-					if (projDelta != null && projDelta.isDelete()) {
+			ObjectDelta<ShadowType> projDelta = projCtx.getExecutableDelta();
 
-						executeDelta(projDelta, projCtx, context, null, null, projCtx.getResource(), task,
-								subResult);
+			if (shouldBeDeleted(projDelta, projCtx)) {
+				projDelta = ObjectDelta.createDeleteDelta(projCtx.getObjectTypeClass(), projCtx.getOid(),
+						prismContext);
+			}
 
+			if (projCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.BROKEN) {
+				if (context.getFocusContext() != null
+						&& context.getFocusContext().getDelta() != null
+						&& context.getFocusContext().getDelta().isDelete()
+						&& context.getOptions() != null
+						&& ModelExecuteOptions.isForce(context.getOptions())) {
+					if (projDelta == null) {
+						projDelta = ObjectDelta.createDeleteDelta(projCtx.getObjectTypeClass(),
+								projCtx.getOid(), prismContext);
 					}
-				} else {
+				}
+				if (projDelta != null && projDelta.isDelete()) {
 
-					if (projDelta == null || projDelta.isEmpty()) {
-						if (LOGGER.isTraceEnabled()) {
-							LOGGER.trace("No change for " + projCtx.getResourceShadowDiscriminator());
-						}
-						if (focusContext != null) {
-							updateLinks(focusContext, projCtx, task, subResult);
-						}
+					executeDelta(projDelta, projCtx, context, null, null, projCtx.getResource(), task,
+							subResult);
 
-						// Make sure post-reconcile delta is always executed,
-						// even if there is no change
-						executeReconciliationScript(projCtx, context, BeforeAfterType.AFTER, task,
-								subResult);
+				}
+			} else {
 
-						subResult.computeStatus();
-						subResult.recordNotApplicableIfUnknown();
-						continue;
-						
-					} else if (projDelta.isDelete() && projCtx.getResourceShadowDiscriminator() != null
-							&& projCtx.getResourceShadowDiscriminator().getOrder() > 0) {
-						// HACK ... for higher-order context check if this was
-						// already deleted
-						LensProjectionContext lowerOrderContext = LensUtil.findLowerOrderContext(context,
-								projCtx);
-						if (lowerOrderContext != null && lowerOrderContext.isDelete()) {
-							// We assume that this was already executed
-							subResult.setStatus(OperationResultStatus.NOT_APPLICABLE);
-							continue;
-						}
+				if (projDelta == null || projDelta.isEmpty()) {
+					if (LOGGER.isTraceEnabled()) {
+						LOGGER.trace("No change for " + projCtx.getResourceShadowDiscriminator());
+					}
+					if (focusContext != null) {
+						updateLinks(focusContext, projCtx, task, subResult);
 					}
 
-					executeDelta(projDelta, projCtx, context, null, null, projCtx.getResource(), task, subResult);
+					// Make sure post-reconcile delta is always executed,
+					// even if there is no change
+					executeReconciliationScript(projCtx, context, BeforeAfterType.AFTER, task,
+							subResult);
 
+					subResult.computeStatus();
+					subResult.recordNotApplicableIfUnknown();
+					return false;
+					
+				} else if (projDelta.isDelete() && projCtx.getResourceShadowDiscriminator() != null
+						&& projCtx.getResourceShadowDiscriminator().getOrder() > 0) {
+					// HACK ... for higher-order context check if this was
+					// already deleted
+					LensProjectionContext lowerOrderContext = LensUtil.findLowerOrderContext(context,
+							projCtx);
+					if (lowerOrderContext != null && lowerOrderContext.isDelete()) {
+						// We assume that this was already executed
+						subResult.setStatus(OperationResultStatus.NOT_APPLICABLE);
+						return false;
+					}
 				}
 
-				subResult.computeStatus();
-				if (focusContext != null) {
-					updateLinks(focusContext, projCtx, task, subResult);
-				}
+				executeDelta(projDelta, projCtx, context, null, null, projCtx.getResource(), task, subResult);
 
-				executeReconciliationScript(projCtx, context, BeforeAfterType.AFTER, task, subResult);
+			}
 
-				subResult.computeStatus();
-				subResult.recordNotApplicableIfUnknown();
+			subResult.computeStatus();
+			if (focusContext != null) {
+				updateLinks(focusContext, projCtx, task, subResult);
+			}
 
-			} catch (SchemaException | ObjectNotFoundException | PreconditionViolationException e) {
-				recordProjectionExecutionException(e, projCtx, subResult,
-						SynchronizationPolicyDecision.BROKEN);
-				continue;
-				
-			} catch (ObjectAlreadyExistsException e) {
+			executeReconciliationScript(projCtx, context, BeforeAfterType.AFTER, task, subResult);
 
-				// check if this is a repeated attempt - OAEE was not handled
-				// correctly, e.g. if creating "Users" user in AD, whereas
-				// "Users" is SAM Account Name which is used by a built-in group
-				// - in such case, mark the context as broken
+			subResult.computeStatus();
+			subResult.recordNotApplicableIfUnknown();
+			return false;
 
-				if (isRepeatedAlreadyExistsException(projCtx)) {
-					recordProjectionExecutionException(e, projCtx, subResult,
-							SynchronizationPolicyDecision.BROKEN);
-					continue;
-				}
+		} catch (SchemaException | ObjectNotFoundException | PreconditionViolationException e) {
+			recordProjectionExecutionException(e, projCtx, subResult,
+					SynchronizationPolicyDecision.BROKEN);
+			return false;
+			
+		} catch (ObjectAlreadyExistsException e) {
 
-				// in his case we do not need to set account context as
-				// broken, instead we need to restart projector for this
-				// context to recompute new account or find out if the
-				// account was already linked..
-				// and also do not set fatal error to the operation result, this
-				// is a special case
-				// if it is fatal, it will be set later
-				// but we need to set some result
-				subResult.recordSuccess();
-				subResult.muteLastSubresultError();
-				restartRequested = true;
-				break; // we will process remaining projections when retrying
-						// the wave
-				
-			} catch (CommunicationException | ConfigurationException | SecurityViolationException | ExpressionEvaluationException | RuntimeException | Error e) {
+			// check if this is a repeated attempt - OAEE was not handled
+			// correctly, e.g. if creating "Users" user in AD, whereas
+			// "Users" is SAM Account Name which is used by a built-in group
+			// - in such case, mark the context as broken
+
+			if (isRepeatedAlreadyExistsException(projCtx)) {
 				recordProjectionExecutionException(e, projCtx, subResult,
 						SynchronizationPolicyDecision.BROKEN);
-				continue;
-				
-			} finally {
-				context.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
-						projCtx.getResourceShadowDiscriminator(), subResult));
+				return false;
 			}
+
+			// in his case we do not need to set account context as
+			// broken, instead we need to restart projector for this
+			// context to recompute new account or find out if the
+			// account was already linked..
+			// and also do not set fatal error to the operation result, this
+			// is a special case
+			// if it is fatal, it will be set later
+			// but we need to set some result
+			subResult.recordSuccess();
+			subResult.muteLastSubresultError();
+			return true; // we will process remaining projections when retrying
+						// the wave
+			
+		} catch (CommunicationException | ConfigurationException | SecurityViolationException | ExpressionEvaluationException | RuntimeException | Error e) {
+			recordProjectionExecutionException(e, projCtx, subResult,
+					SynchronizationPolicyDecision.BROKEN);
+			return false;
+			
+		} finally {
+			context.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
+					projCtx.getResourceShadowDiscriminator(), subResult));
 		}
+	}
 
-		// Result computation here needs to be slightly different
-		result.computeStatusComposite();
+	/**
+	 * Executes the projections of the current wave concurrently. Projections in the same wave do not depend
+	 * on each other (this is ensured by the DependencyProcessor), so only the order of their results would differ.
+	 * The subresults are created upfront, so the result tree keeps the order of projections.
+	 *
+	 * The lens context is still updated by one thread at a time: a worker holds the execution lock all the time
+	 * except for the provisioning operations, so it is the resource operations that overlap. These get only
+	 * the worker's own subtask and subresult, not the lens context. Statistics collected by the subtasks are
+	 * merged into the task when the workers are done. Projections are distributed among at most
+	 * projectionExecutionThreads workers, executed one after another by each of them.
+	 *
+	 * Unlike in the sequential execution, remaining projections are executed even if a restart is requested
+	 * by one of them. The already executed deltas are skipped when the wave is retried.
+	 */
+	private <O extends ObjectType> boolean executeProjectionsInParallel(LensContext<O> context,
+			List<LensProjectionContext> projections, Task task, OperationResult result) {
+		int workers = Math.min(projections.size(), projectionExecutionThreads);
+		List<List<LensProjectionContext>> workerProjections = new ArrayList<>();
+		List<List<OperationResult>> workerResults = new ArrayList<>();
+		List<Task> workerTasks = new ArrayList<>();
+		for (int i = 0; i < workers; i++) {
+			workerProjections.add(new ArrayList<>());
+			workerResults.add(new ArrayList<>());
+			workerTasks.add(task.createWorkerSubtask());
+		}
+		for (int i = 0; i < projections.size(); i++) {
+			LensProjectionContext projCtx = projections.get(i);
+			workerProjections.get(i % workers).add(projCtx);
+			workerResults.get(i % workers).add(createProjectionSubresult(projCtx, result));
+		}
+
+		LOGGER.trace("Executing {} projections using {} threads", projections.size(), workers);
+
+		Lock lock = new ReentrantLock();
+		SecurityContext securityContext = SecurityContextHolder.getContext();
+		ExecutorService executor = getProjectionExecutor();
+		List<Future<Boolean>> futures = new ArrayList<>();
+		Throwable failure = null;
+		try {
+			for (int i = 0; i < workers; i++) {
+				List<LensProjectionContext> projCtxs = workerProjections.get(i);
+				List<OperationResult> subResults = workerResults.get(i);
+				Task workerTask = workerTasks.get(i);
+				futures.add(executor.submit(() -> {
+					SecurityContextHolder.setContext(securityContext);
+					RepositoryCache.enter();
+					projectionWorker.set(true);
+					try {
+						boolean restart = false;
+						for (int j = 0; j < projCtxs.size(); j++) {
+							lock.lock();
+							executionLock.set(lock);
+							try {
+								restart = executeProjection(context, projCtxs.get(j), workerTask, subResults.get(j)) || restart;
+							} finally {
+								executionLock.remove();
+								lock.unlock();
+							}
+						}
+						return restart;
+					} finally {
+						projectionWorker.remove();
+						RepositoryCache.exit();
+						SecurityContextHolder.clearContext();
+					}
+				}));
+			}
+		} catch (RuntimeException e) {
+			// workers that were already started have to be waited for
+			failure = e;
+		}
+
+		boolean restartRequested = false;
+		for (Future<Boolean> future : futures) {
+			try {
+				restartRequested = future.get() || restartRequested;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				futures.forEach(f -> f.cancel(true));
+				throw new SystemException("Interrupted while waiting for execution of projections", e);
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause();
+				}
+			}
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			task.mergeWorkerSubtaskStatistics(workerTasks.get(i));
+		}
+		// the workers modified objects (shadows, focus links) via their own repository caches
+		RepositoryCache.invalidateCurrentThreadCache();
+
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new SystemException(failure.getMessage(), failure);
+		}
 		return restartRequested;
+	}
+
+	/**
+	 * Lets other projection workers continue while the current one waits for a provisioning operation.
+	 * Returns the lock to be re-acquired by {@link #reacquireExecutionLock(Lock)}, or null if the projections
+	 * are not executed in parallel.
+	 */
+	private Lock releaseExecutionLock() {
+		Lock lock = executionLock.get();
+		if (lock != null) {
+			// cleared, so nested operations executed by provisioning (e.g. discovery) don't touch the lock
+			executionLock.remove();
+			lock.unlock();
+		}
+		return lock;
+	}
+
+	private void reacquireExecutionLock(Lock lock) {
+		if (lock != null) {
+			lock.lock();
+			executionLock.set(lock);
+		}
+	}
 
+	private synchronized ExecutorService getProjectionExecutor() {
+		if (projectionExecutor == null) {
+			AtomicInteger threadNumber = new AtomicInteger();
+			projectionExecutor = new ThreadPoolExecutor(projectionExecutionPoolSize, projectionExecutionPoolSize,
+					PROJECTION_EXECUTOR_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+						Thread thread = new Thread(r, "projection-execution-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					});
+			projectionExecutor.allowCoreThreadTimeOut(true);
+		}
+		return projectionExecutor;
+	}
+
+	@PreDestroy
+	public synchronized void shutdownProjectionExecutor() {
+		if (projectionExecutor != null) {
+			projectionExecutor.shutdownNow();
+			projectionExecutor = null;
+		}
 	}
 
 	private <O extends ObjectType> ObjectDelta<O> applyPendingObjectPolicyStateModifications(LensFocusContext<O> focusContext,
@@ -1430,7 +1660,13 @@ public class ChangeExecutor {
 					resource, task, result);
 		}
 		Utils.setRequestee(task, context);
-		String oid = provisioning.addObject(object, scripts, options, task, result);
+		String oid;
+		Lock lock = releaseExecutionLock();
+		try {
+			oid = provisioning.addObject(object, scripts, options, task, result);
+		} finally {
+			reacquireExecutionLock(lock);
+		}
 		Utils.clearRequestee(task);
 		return oid;
 	}
@@ -1459,7 +1695,12 @@ public class ChangeExecutor {
 					ProvisioningOperationTypeType.DELETE, resource, task, result);
 		}
 		Utils.setRequestee(task, context);
-		provisioning.deleteObject(objectTypeClass, oid, options, scripts, task, result);
+		Lock lock = releaseExecutionLock();
+		try {
+			provisioning.deleteObject(objectTypeClass, oid, options, scripts, task, result);
+		} finally {
+			reacquireExecutionLock(lock);
+		}
 		Utils.clearRequestee(task);
 	}
 
@@ -1492,8 +1733,14 @@ public class ChangeExecutor {
 					ProvisioningOperationTypeType.MODIFY, resource, task, result);
 		}
 		Utils.setRequestee(task, context);
-		String changedOid = provisioning.modifyObject(objectTypeClass, oid, modifications, scripts, options,
-				task, result);
+		String changedOid;
+		Lock lock = releaseExecutionLock();
+		try {
+			changedOid = provisioning.modifyObject(objectTypeClass, oid, modifications, scripts, options,
+					task, result);
+		} finally {
+			reacquireExecutionLock(lock);
+		}
 		Utils.clearRequestee(task);
 		return changedOid;
 	}
@@ -1718,7 +1965,12 @@ public class ChangeExecutor {
 				variables, context, projContext, task, parentResult);
 		for (OperationProvisioningScriptType script : evaluatedScript.getScript()) {
 			Utils.setRequestee(task, context);
-			provisioning.executeScript(resource.getOid(), script, task, parentResult);
+			Lock lock = releaseExecutionLock();
+			try {
+				provisioning.executeScript(resource.getOid(), script, task, parentResult);
+			} finally {
+				reacquireExecutionLock(lock);
+			}
 			Utils.clearRequestee(task);
 		}
 		} finally {
@@ -27,6 +27,7 @@ import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ChangeType;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.DebugUtil;
@@ -111,7 +112,12 @@ public class LensFocusContext<O extends ObjectType> extends LensElementContext<O
 		}
     }
 
+    /**
+     * Returns the secondary delta of the given wave. The delta may be modified in place by the caller,
+     * so the memoized merge of the wave is invalidated.
+     */
     public ObjectDelta<O> getSecondaryDelta(int wave) {
+    	secondaryDeltas.invalidateMergedDeltas(wave);
     	return secondaryDeltas.get(wave);
     }
 
@@ -124,6 +130,7 @@ public class LensFocusContext<O extends ObjectType> extends LensElementContext<O
     }
 
     public ObjectDelta<O> getWaveSecondaryDelta(int wave) throws SchemaException {
+        secondaryDeltas.invalidateMergedDeltas(wave);       // see getSecondaryDelta(int)
         return secondaryDeltas.get(wave);
     }
 
@@ -158,6 +165,7 @@ public class LensFocusContext<O extends ObjectType> extends LensElementContext<O
 		}
 
         secondaryDelta.swallow(propDelta);
+        secondaryDeltas.invalidateMergedDeltas(getProjectionWave());
 	}
 
     public void swallowToSecondaryDelta(ItemDelta<?,?> propDelta) throws SchemaException {
@@ -171,6 +179,7 @@ public class LensFocusContext<O extends ObjectType> extends LensElementContext<O
       	}
 
         secondaryDelta.swallow(propDelta);
+        secondaryDeltas.invalidateMergedDeltas(0);
 	}
 
 	public boolean alreadyHasDelta(ItemDelta<?,?> itemDelta) {
@@ -188,6 +197,25 @@ public class LensFocusContext<O extends ObjectType> extends LensElementContext<O
 		return false;
 	}
 
+	/**
+	 * Is the item (or its parent or child) modified by primary or secondary deltas? This is much cheaper than
+	 * looking into getDelta(), as no deltas need to be merged.
+	 */
+	public boolean isItemAffected(ItemPath path) {
+		ObjectDelta<O> primaryDelta = getPrimaryDelta();
+		if (primaryDelta != null && !primaryDelta.isEmpty()) {
+			if (!primaryDelta.isModify()) {
+				return true;
+			}
+			for (ItemDelta<?,?> modification : primaryDelta.getModifications()) {
+				if (modification.getPath().compareComplex(path) != ItemPath.CompareResult.NO_RELATION) {
+					return true;
+				}
+			}
+		}
+		return secondaryDeltas != null && secondaryDeltas.isAffected(path);
+	}
+
 	public boolean hasAnyDelta() {
 		if (getPrimaryDelta() != null && !getPrimaryDelta().isEmpty()) {
 			return true;
@@ -301,6 +329,7 @@ public class LensFocusContext<O extends ObjectType> extends LensElementContext<O
 						setProjectionWaveSecondaryDelta(waveSecondaryDelta);
 					}
 					waveSecondaryDelta.mergeModification(itemDelta);
+					secondaryDeltas.invalidateMergedDeltas(getProjectionWave());
 				}
 			}
 		}
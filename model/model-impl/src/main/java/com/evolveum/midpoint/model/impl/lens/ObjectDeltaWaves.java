@@ -18,7 +18,9 @@ package com.evolveum.midpoint.model.impl.lens;
 import com.evolveum.midpoint.common.crypto.CryptoUtil;
 import com.evolveum.midpoint.prism.ConsistencyCheckScope;
 import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.schema.DeltaConvertor;
 import com.evolveum.midpoint.util.DebugDumpable;
 import com.evolveum.midpoint.util.DebugUtil;
@@ -38,6 +40,20 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 
 	private List<ObjectDelta<O>> waves = new ArrayList<ObjectDelta<O>>();
 
+	/**
+	 * Memoized results of getMergedDeltas: slot 0 is for merging without initial delta, slot 1 for merging
+	 * with one. Wave deltas are mutable and are handed out freely (e.g. swallowToSecondaryDelta modifies them
+	 * in place), so each change of a wave has to be recorded by {@link #invalidateMergedDeltas(int)}.
+	 * Changes done through the methods of this class are recorded automatically.
+	 */
+	private transient MergeState<O>[] mergeStates;
+
+	// modification counter; the other two fields record its value at the last change of the list structure
+	// and at the last change of each particular wave
+	private transient int modificationCount;
+	private transient int structureModifiedAt;
+	private transient int[] waveModifiedAt;
+
 	/**
 	 * Get merged deltas from all the waves.
 	 */
@@ -48,14 +64,108 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 	/**
 	 * Get merged deltas from the waves up to maxWave (including). Optional initial delta may be supplied.
 	 * Negative maxWave means to merge all available waves.
+	 *
+	 * The returned delta is always a fresh copy, so the caller may modify it.
 	 */
 	public ObjectDelta<O> getMergedDeltas(ObjectDelta<O> initialDelta, int maxWave) throws SchemaException {
-		ObjectDelta<O> merged = null;
-		if (initialDelta != null) {
-			merged = initialDelta.clone();
+		int count = getWavesToMerge(maxWave);
+		int slot = initialDelta != null ? 1 : 0;
+		if (mergeStates == null) {
+			//noinspection unchecked
+			mergeStates = new MergeState[2];
 		}
-		int waveNum = 0;
-		for (ObjectDelta<O> delta: waves) {
+		MergeState<O> state = mergeStates[slot];
+		mergeStates[slot] = null;           // the memoized deltas are reused below, so the state must not survive a failure
+		// the initial delta is owned by the caller, so we can only compare it with the snapshot taken last time
+		if (state != null && !Objects.equals(state.initialDelta, initialDelta)) {
+			state = null;
+		}
+
+		// Usually only the current (last) wave is changed or a new wave is added. In these cases we continue
+		// from the memoized merge of the previous waves.
+		int known = state != null ? state.count : 0;
+		int unchanged = state != null ? countUnchangedSince(state.modificationCount, Math.min(known, count)) : -1;
+		ObjectDelta<O> merged;
+		ObjectDelta<O> prefix;
+		if (state != null && unchanged == known && count == known) {
+			prefix = state.prefix;
+			merged = state.merged;
+		} else {
+			ObjectDelta<O> base;
+			int from;
+			if (state != null && unchanged == known && count > known) {
+				base = state.merged;
+				from = known;
+			} else if (state != null && unchanged == known - 1 && count >= known) {
+				base = state.prefix;
+				from = unchanged;
+			} else {
+				base = initialDelta != null ? initialDelta.clone() : null;
+				from = 0;
+			}
+			if (count == 0) {
+				prefix = null;
+				merged = base;
+			} else {
+				prefix = mergeDeltas(base, from, count - 1);
+				merged = mergeDeltas(prefix != null ? prefix.clone() : null, count - 1, count);
+			}
+		}
+		ObjectDelta<O> initialDeltaSnapshot = state != null ? state.initialDelta : (initialDelta != null ? initialDelta.clone() : null);
+		mergeStates[slot] = new MergeState<>(initialDeltaSnapshot, modificationCount, count, prefix, merged);
+		return merged != null ? merged.clone() : null;
+	}
+
+	/**
+	 * Records that the delta of the given wave was (or could have been) modified in place, so its memoized
+	 * merge must not be used any more. Has to be called by the code that modifies wave deltas obtained from here.
+	 */
+	public void invalidateMergedDeltas(int wave) {
+		modificationCount++;
+		if (waveModifiedAt == null || waveModifiedAt.length <= wave) {
+			waveModifiedAt = waveModifiedAt != null ? Arrays.copyOf(waveModifiedAt, wave + 1) : new int[wave + 1];
+		}
+		waveModifiedAt[wave] = modificationCount;
+	}
+
+	private void invalidateAllMergedDeltas() {
+		modificationCount++;
+		structureModifiedAt = modificationCount;
+	}
+
+	/**
+	 * Number of waves (from the beginning, at most max) that were not changed after the given modification count.
+	 */
+	private int countUnchangedSince(int modificationCount, int max) {
+		if (structureModifiedAt > modificationCount) {
+			return 0;
+		}
+		int i = 0;
+		while (i < max && (waveModifiedAt == null || i >= waveModifiedAt.length || waveModifiedAt[i] <= modificationCount)) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Number of waves (from the beginning) that are to be merged. Keeps the original semantics
+	 * of getMergedDeltas: for maxWave of zero only the waves up to the first non-null one are taken.
+	 */
+	private int getWavesToMerge(int maxWave) {
+		if (maxWave != 0) {
+			return waves.size();
+		}
+		for (int i = 0; i < waves.size(); i++) {
+			if (waves.get(i) != null) {
+				return i + 1;
+			}
+		}
+		return waves.size();
+	}
+
+	private ObjectDelta<O> mergeDeltas(ObjectDelta<O> merged, int from, int to) throws SchemaException {
+		for (int i = from; i < to; i++) {
+			ObjectDelta<O> delta = waves.get(i);
 			if (delta == null) {
 				continue;
 			}
@@ -64,14 +174,47 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 			} else {
 				merged.merge(delta);
 			}
-			if (maxWave >= 0 && waveNum >= maxWave) {
-				break;
-			}
 		}
 		return merged;
 	}
 
+	/**
+	 * Returns paths of all the items modified in the waves. This is cheap (no merging is done), so it
+	 * can be used to skip processing of items that were not touched by secondary deltas at all.
+	 * Add deltas are represented by empty path (i.e. everything is affected).
+	 */
+	public List<ItemPath> getAffectedItemPaths() {
+		List<ItemPath> paths = new ArrayList<>();
+		for (ObjectDelta<O> delta : waves) {
+			if (delta == null) {
+				continue;
+			}
+			if (!delta.isModify()) {
+				return Collections.singletonList(ItemPath.EMPTY_PATH);
+			}
+			for (ItemDelta<?, ?> modification : delta.getModifications()) {
+				if (!ItemPath.containsEquivalent(paths, modification.getPath())) {
+					paths.add(modification.getPath());
+				}
+			}
+		}
+		return paths;
+	}
+
+	/**
+	 * Is the given item, its parent or any of its children modified in any of the waves?
+	 */
+	public boolean isAffected(ItemPath path) {
+		for (ItemPath affectedPath : getAffectedItemPaths()) {
+			if (affectedPath.compareComplex(path) != ItemPath.CompareResult.NO_RELATION) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	public void setOid(String oid) {
+		invalidateAllMergedDeltas();
 		for (ObjectDelta<O> delta: waves) {
 			if (delta == null) {
 				continue;
@@ -97,6 +240,7 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 	}
 
 	public void normalize() {
+		invalidateAllMergedDeltas();
 		if (waves != null) {
 			for (ObjectDelta<O> wave: waves) {
 				if (wave != null) {
@@ -123,6 +267,7 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 	}
 
 	public void adopt(PrismContext prismContext) throws SchemaException {
+		invalidateAllMergedDeltas();
 		for (ObjectDelta<O> thisWave: this.waves) {
 			if (thisWave != null) {
 				prismContext.adopt(thisWave);
@@ -186,6 +331,7 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 	 */
 	@Override
 	public boolean add(ObjectDelta<O> e) {
+		invalidateMergedDeltas(waves.size());
 		return waves.add(e);
 	}
 
@@ -194,6 +340,7 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 	 */
 	@Override
 	public boolean remove(Object o) {
+		invalidateAllMergedDeltas();
 		return waves.remove(o);
 	}
 
@@ -210,6 +357,7 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 	 */
 	@Override
 	public boolean addAll(Collection<? extends ObjectDelta<O>> c) {
+		invalidateAllMergedDeltas();
 		return waves.addAll(c);
 	}
 
@@ -218,6 +366,7 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 	 */
 	@Override
 	public boolean addAll(int index, Collection<? extends ObjectDelta<O>> c) {
+		invalidateAllMergedDeltas();
 		return waves.addAll(index, c);
 	}
 
@@ -226,6 +375,7 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 	 */
 	@Override
 	public boolean removeAll(Collection<?> c) {
+		invalidateAllMergedDeltas();
 		return waves.removeAll(c);
 	}
 
@@ -234,6 +384,7 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 	 */
 	@Override
 	public boolean retainAll(Collection<?> c) {
+		invalidateAllMergedDeltas();
 		return waves.retainAll(c);
 	}
 
@@ -242,6 +393,7 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 	 */
 	@Override
 	public void clear() {
+		invalidateAllMergedDeltas();
 		waves.clear();
 	}
 
@@ -261,6 +413,7 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 	 */
 	@Override
 	public ObjectDelta<O> set(int index, ObjectDelta<O> element) {
+		invalidateMergedDeltas(index);
 		if (index >= waves.size()) {
 			for (int i = waves.size(); i < index; i++) {
 				waves.add(null);
@@ -276,6 +429,7 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 	 */
 	@Override
 	public void add(int index, ObjectDelta<O> element) {
+		invalidateAllMergedDeltas();
 		waves.add(index, element);
 	}
 
@@ -284,6 +438,7 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 	 */
 	@Override
 	public ObjectDelta<O> remove(int index) {
+		invalidateAllMergedDeltas();
 		return waves.remove(index);
 	}
 
@@ -308,6 +463,7 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 	 */
 	@Override
 	public ListIterator<ObjectDelta<O>> listIterator() {
+		invalidateAllMergedDeltas();        // the iterator can be used to modify the list
 		return waves.listIterator();
 	}
 
@@ -316,6 +472,7 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 	 */
 	@Override
 	public ListIterator<ObjectDelta<O>> listIterator(int index) {
+		invalidateAllMergedDeltas();
 		return waves.listIterator(index);
 	}
 
@@ -324,6 +481,7 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 	 */
 	@Override
 	public List<ObjectDelta<O>> subList(int fromIndex, int toIndex) {
+		invalidateAllMergedDeltas();        // the view can be used to modify the list
 		return waves.subList(fromIndex, toIndex);
 	}
 
@@ -441,4 +599,21 @@ public class ObjectDeltaWaves<O extends ObjectType> implements List<ObjectDelta<
 			}
 		}
 	}
+
+	private static class MergeState<O extends ObjectType> {
+		private final ObjectDelta<O> initialDelta;    // snapshot of the initial delta the merge was computed from
+		private final int modificationCount;
+		private final int count;                      // number of waves merged
+		private final ObjectDelta<O> prefix;          // merge of all the waves except for the last one
+		private final ObjectDelta<O> merged;          // merge of all the waves
+
+		private MergeState(ObjectDelta<O> initialDelta, int modificationCount, int count,
+				ObjectDelta<O> prefix, ObjectDelta<O> merged) {
+			this.initialDelta = initialDelta;
+			this.modificationCount = modificationCount;
+			this.count = count;
+			this.prefix = prefix;
+			this.merged = merged;
+		}
+	}
 }
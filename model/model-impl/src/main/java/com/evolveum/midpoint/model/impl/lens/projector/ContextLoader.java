@@ -17,9 +17,23 @@ package com.evolveum.midpoint.model.impl.lens.projector;
 
 import static com.evolveum.midpoint.schema.internals.InternalsConfig.consistencyChecks;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
 
 import javax.xml.datatype.XMLGregorianCalendar;
 
@@ -31,6 +45,8 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 
 import com.evolveum.midpoint.common.refinery.RefinedObjectClassDefinition;
@@ -59,6 +75,7 @@ import com.evolveum.midpoint.prism.delta.ReferenceDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.provisioning.api.ProvisioningService;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.PointInTimeType;
 import com.evolveum.midpoint.schema.ResourceShadowDiscriminator;
@@ -105,6 +122,18 @@ public class ContextLoader {
 
 	private static final Trace LOGGER = TraceManager.getTrace(ContextLoader.class);
 
+	private static final String OPERATION_PREFETCH_PROJECTION_OBJECT = ContextLoader.class.getName() + ".prefetchProjectionObject";
+
+	private static final int MAX_PARALLEL_PROJECTION_LOADS = 8;
+	// shared by all operations running on this node
+	private static final int PROJECTION_LOAD_POOL_SIZE = 16;
+	private static final long PROJECTION_LOAD_KEEP_ALIVE_SECONDS = 60;
+
+	private ThreadPoolExecutor projectionLoadExecutor;
+
+	// set in the prefetching threads; operations nested in them don't prefetch, so a worker never waits for the executor
+	private final ThreadLocal<Boolean> projectionLoadWorker = new ThreadLocal<>();
+
 	public <F extends ObjectType> void load(LensContext<F> context, String activityDescription,
 			Task task, OperationResult result)
 			throws SchemaException, ObjectNotFoundException, CommunicationException, ConfigurationException,
@@ -162,10 +191,18 @@ public class ContextLoader {
     	
     	if (consistencyChecks) context.checkConsistence();
 
-    	for (LensProjectionContext projectionContext: context.getProjectionContexts()) {
-            context.checkAbortRequested();
-    		finishLoadOfProjectionContext(context, projectionContext, task, result);
-		}
+    	ProjectionPrefetch prefetch = prefetchProjectionObjects(context, task);
+    	try {
+	    	for (LensProjectionContext projectionContext: context.getProjectionContexts()) {
+	            context.checkAbortRequested();
+	    		finishLoadOfProjectionContext(context, projectionContext,
+	    				prefetch != null ? prefetch.objects.get(projectionContext) : null, task, result);
+			}
+    	} finally {
+    		if (prefetch != null) {
+    			finishProjectionPrefetch(prefetch, task);
+    		}
+    	}
 
         if (consistencyChecks) context.checkConsistence();
 
@@ -227,7 +264,7 @@ public class ContextLoader {
 	public <F extends ObjectType> void makeSureProjectionIsLoaded(LensContext<F> context,
 																  LensProjectionContext projectionContext, Task task, OperationResult result) throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException, SecurityViolationException, ExpressionEvaluationException {
 		preprocessProjectionContext(context, projectionContext, task, result);
-		finishLoadOfProjectionContext(context, projectionContext, task, result);
+		finishLoadOfProjectionContext(context, projectionContext, null, task, result);
 	}
 
 	/**
@@ -982,7 +1019,8 @@ public class ContextLoader {
      * variable if it's not set (from provisioning), load resource (if not set already), etc.
 	 */
 	private <F extends ObjectType> void finishLoadOfProjectionContext(LensContext<F> context,
-			LensProjectionContext projContext, Task task, OperationResult result)
+			LensProjectionContext projContext, Future<PrefetchedProjectionObject> prefetchedObject,
+			Task task, OperationResult result)
 			throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException,
 			SecurityViolationException, ExpressionEvaluationException {
 
@@ -1024,24 +1062,19 @@ public class ContextLoader {
 					}
 				} else {
 					projContext.setExists(true);
-					GetOperationOptions rootOptions = GetOperationOptions.createPointInTimeType(PointInTimeType.FUTURE);
-					if (projContext.isDoReconciliation()) {
-						if (SchemaConstants.CHANGE_CHANNEL_DISCOVERY_URI.equals(context.getChannel())) {
-							// Avoid discovery loops
-							rootOptions.setDoNotDiscovery(true);
-						}
-					} else {
-						rootOptions.setNoFetch(true);
-					}
-					rootOptions.setAllowNotFound(true);
-					Collection<SelectorOptions<GetOperationOptions>> options = SelectorOptions.createCollection(rootOptions);
+					Collection<SelectorOptions<GetOperationOptions>> options =
+							createProjectionLoadOptions(context, projContext.isDoReconciliation());
+					GetOperationOptions rootOptions = SelectorOptions.findRootOptions(options);
 					if (LOGGER.isTraceEnabled()) {
 						LOGGER.trace("Loading shadow {} for projection {}, options={}", projectionObjectOid, projectionHumanReadableName, options);
 					}
 
 					try {
-						PrismObject<ShadowType> objectOld = provisioningService.getObject(
-								projContext.getObjectTypeClass(), projectionObjectOid, options, task, result);
+						PrismObject<ShadowType> objectOld = getPrefetchedProjectionObject(prefetchedObject, projectionObjectOid, result);
+						if (objectOld == null) {
+							objectOld = provisioningService.getObject(
+									projContext.getObjectTypeClass(), projectionObjectOid, options, task, result);
+						}
 						if (LOGGER.isTraceEnabled()) {
 							if (!GetOperationOptions.isNoFetch(rootOptions) && !GetOperationOptions.isRaw(rootOptions)) {
 								if (LOGGER.isTraceEnabled()) {
@@ -1195,6 +1228,255 @@ public class ContextLoader {
 		setPrimaryDeltaOldValue(projContext);
 	}
 
+	/**
+	 * Full shadows of projections on different resources are fetched concurrently, so the load takes roughly
+	 * the time of the slowest resource instead of the sum of all of them. Projections on the same resource
+	 * are fetched one after another. Only the fetching is done in other threads; the fetched objects are put
+	 * into the context by finishLoadOfProjectionContext (in this thread).
+	 *
+	 * The objects are fetched with the same options as in finishLoadOfProjectionContext. Each worker uses its own
+	 * subtask, so the statistics are collected without touching the task; they are merged into the task by
+	 * finishProjectionPrefetch. The outcome of the fetch, including an exception, is replayed in this thread
+	 * instead of fetching the shadow again, so the error handling is the same as without prefetching.
+	 *
+	 * Returns null if nothing is prefetched.
+	 */
+	private <F extends ObjectType> ProjectionPrefetch prefetchProjectionObjects(LensContext<F> context, Task task) {
+		if (projectionLoadWorker.get() != null) {
+			// nested operation (e.g. discovery) in a prefetching thread; the worker must not wait for the executor
+			return null;
+		}
+		Map<String, List<LensProjectionContext>> projectionsByResource = new LinkedHashMap<>();
+		for (LensProjectionContext projContext : context.getProjectionContexts()) {
+			if (isFullProjectionLoadExpected(context, projContext)) {
+				projectionsByResource.computeIfAbsent(projContext.getResourceOid(), k -> new ArrayList<>()).add(projContext);
+			}
+		}
+		if (projectionsByResource.size() < 2) {
+			return null;
+		}
+
+		// projections on one resource are fetched by a single worker, so there is at most one concurrent call per resource
+		int workers = Math.min(projectionsByResource.size(), MAX_PARALLEL_PROJECTION_LOADS);
+		List<List<LensProjectionContext>> workerProjections = new ArrayList<>();
+		for (int i = 0; i < workers; i++) {
+			workerProjections.add(new ArrayList<>());
+		}
+		int i = 0;
+		for (List<LensProjectionContext> resourceProjections : projectionsByResource.values()) {
+			workerProjections.get(i++ % workers).addAll(resourceProjections);
+		}
+
+		LOGGER.trace("Prefetching {} projection objects on {} resources using {} threads",
+				projectionsByResource.values().stream().mapToInt(List::size).sum(), projectionsByResource.size(), workers);
+
+		ProjectionPrefetch prefetch = new ProjectionPrefetch();
+		SecurityContext securityContext = SecurityContextHolder.getContext();
+		ExecutorService executor = getProjectionLoadExecutor();
+		for (List<LensProjectionContext> projections : workerProjections) {
+			List<CompletableFuture<PrefetchedProjectionObject>> futures = new ArrayList<>();
+			List<Class<ShadowType>> types = new ArrayList<>();
+			List<String> oids = new ArrayList<>();
+			List<Collection<SelectorOptions<GetOperationOptions>>> options = new ArrayList<>();
+			for (LensProjectionContext projContext : projections) {
+				CompletableFuture<PrefetchedProjectionObject> future = new CompletableFuture<>();
+				futures.add(future);
+				types.add(projContext.getObjectTypeClass());
+				oids.add(projContext.getOid());
+				options.add(createProjectionLoadOptions(context, true));
+				prefetch.objects.put(projContext, future);
+			}
+			Task workerTask = task.createWorkerSubtask();
+			Runnable worker = () -> {
+				SecurityContextHolder.setContext(securityContext);
+				RepositoryCache.enter();
+				projectionLoadWorker.set(true);
+				try {
+					for (int j = 0; j < oids.size(); j++) {
+						futures.get(j).complete(fetchProjectionObject(types.get(j), oids.get(j), options.get(j), workerTask));
+					}
+				} finally {
+					projectionLoadWorker.remove();
+					RepositoryCache.exit();
+					SecurityContextHolder.clearContext();
+					// never leave the loading thread waiting
+					futures.forEach(future -> future.complete(PrefetchedProjectionObject.NONE));
+				}
+			};
+			try {
+				prefetch.workers.add(executor.submit(worker));
+				prefetch.workerTasks.add(workerTask);
+			} catch (RuntimeException e) {
+				LOGGER.warn("Couldn't start prefetching of projection objects: {}", e.getMessage(), e);
+				futures.forEach(future -> future.complete(PrefetchedProjectionObject.NONE));
+			}
+		}
+		return prefetch;
+	}
+
+	/**
+	 * Waits for the prefetching workers (some of the objects might not be used, e.g. if the projection context
+	 * became broken in the meantime) and merges the statistics collected by their subtasks into the task.
+	 */
+	private void finishProjectionPrefetch(ProjectionPrefetch prefetch, Task task) {
+		for (int i = 0; i < prefetch.workers.size(); i++) {
+			try {
+				prefetch.workers.get(i).get();
+			} catch (InterruptedException e) {
+				// the remaining workers may still use their subtasks, so their statistics are not merged
+				Thread.currentThread().interrupt();
+				LOGGER.warn("Interrupted while waiting for prefetching of projection objects");
+				break;
+			} catch (ExecutionException e) {
+				LOGGER.warn("Prefetching of projection objects failed: {}", e.getMessage(), e);
+			}
+			task.mergeWorkerSubtaskStatistics(prefetch.workerTasks.get(i));
+		}
+		// provisioning could update the shadows via repository caches of the prefetching threads
+		RepositoryCache.invalidateCurrentThreadCache();
+	}
+
+	/**
+	 * Mirrors the conditions in finishLoadOfProjectionContext under which the full shadow is fetched from the resource.
+	 */
+	private <F extends ObjectType> boolean isFullProjectionLoadExpected(LensContext<F> context, LensProjectionContext projContext) {
+		if (projContext.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.BROKEN
+				|| projContext.isAdd() || projContext.getOid() == null) {
+			return false;
+		}
+		ResourceObjectTypeDefinitionType objectDefinition = projContext.getResourceObjectTypeDefinitionType();
+		boolean doReconciliation = projContext.isDoReconciliation()
+				|| objectDefinition != null && objectDefinition.getVolatility() == ResourceObjectVolatilityType.UNPREDICTABLE;
+		if (!doReconciliation) {
+			return false;
+		}
+		return !projContext.isFullShadow() || projContext.getObjectCurrent() == null || needToReload(context, projContext);
+	}
+
+	private <F extends ObjectType> Collection<SelectorOptions<GetOperationOptions>> createProjectionLoadOptions(
+			LensContext<F> context, boolean doReconciliation) {
+		GetOperationOptions rootOptions = GetOperationOptions.createPointInTimeType(PointInTimeType.FUTURE);
+		if (doReconciliation) {
+			if (SchemaConstants.CHANGE_CHANNEL_DISCOVERY_URI.equals(context.getChannel())) {
+				// Avoid discovery loops
+				rootOptions.setDoNotDiscovery(true);
+			}
+		} else {
+			rootOptions.setNoFetch(true);
+		}
+		rootOptions.setAllowNotFound(true);
+		return SelectorOptions.createCollection(rootOptions);
+	}
+
+	private PrefetchedProjectionObject fetchProjectionObject(Class<ShadowType> type, String oid,
+			Collection<SelectorOptions<GetOperationOptions>> options, Task workerTask) {
+		OperationResult result = new OperationResult(OPERATION_PREFETCH_PROJECTION_OBJECT);
+		try {
+			PrismObject<ShadowType> object = provisioningService.getObject(type, oid, options, workerTask, result);
+			return new PrefetchedProjectionObject(object, null, result);
+		} catch (Throwable t) {
+			// rethrown when the projection context is loaded
+			LOGGER.debug("Couldn't prefetch shadow {}: {}", oid, t.getMessage(), t);
+			return new PrefetchedProjectionObject(null, t, result);
+		}
+	}
+
+	/**
+	 * Returns the prefetched shadow or throws the exception the prefetching ended with. Returns null if the shadow
+	 * was not prefetched; it has to be fetched in this thread then.
+	 */
+	private PrismObject<ShadowType> getPrefetchedProjectionObject(Future<PrefetchedProjectionObject> prefetchedObject,
+			String oid, OperationResult result)
+			throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException,
+			SecurityViolationException, ExpressionEvaluationException {
+		if (prefetchedObject == null) {
+			return null;
+		}
+		PrefetchedProjectionObject prefetched;
+		try {
+			prefetched = prefetchedObject.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			return null;
+		}
+		if (prefetched == PrefetchedProjectionObject.NONE) {
+			return null;
+		}
+		LOGGER.trace("Using prefetched shadow {}", oid);
+		for (OperationResult subresult : prefetched.result.getSubresults()) {
+			result.addSubresult(subresult);
+		}
+		Throwable t = prefetched.exception;
+		if (t == null) {
+			return prefetched.object;
+		} else if (t instanceof ObjectNotFoundException) {
+			throw (ObjectNotFoundException) t;
+		} else if (t instanceof CommunicationException) {
+			throw (CommunicationException) t;
+		} else if (t instanceof SchemaException) {
+			throw (SchemaException) t;
+		} else if (t instanceof ConfigurationException) {
+			throw (ConfigurationException) t;
+		} else if (t instanceof SecurityViolationException) {
+			throw (SecurityViolationException) t;
+		} else if (t instanceof ExpressionEvaluationException) {
+			throw (ExpressionEvaluationException) t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		} else {
+			throw new SystemException(t.getMessage(), t);
+		}
+	}
+
+	private synchronized ExecutorService getProjectionLoadExecutor() {
+		if (projectionLoadExecutor == null) {
+			AtomicInteger threadNumber = new AtomicInteger();
+			projectionLoadExecutor = new ThreadPoolExecutor(PROJECTION_LOAD_POOL_SIZE, PROJECTION_LOAD_POOL_SIZE,
+					PROJECTION_LOAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+						Thread thread = new Thread(r, "projection-load-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					});
+			projectionLoadExecutor.allowCoreThreadTimeOut(true);
+		}
+		return projectionLoadExecutor;
+	}
+
+	@PreDestroy
+	public synchronized void shutdownProjectionLoadExecutor() {
+		if (projectionLoadExecutor != null) {
+			projectionLoadExecutor.shutdownNow();
+			projectionLoadExecutor = null;
+		}
+	}
+
+	/**
+	 * Projection objects being prefetched for one load of the lens context.
+	 */
+	private static class ProjectionPrefetch {
+		private final Map<LensProjectionContext, Future<PrefetchedProjectionObject>> objects = new IdentityHashMap<>();
+		private final List<Future<?>> workers = new ArrayList<>();
+		private final List<Task> workerTasks = new ArrayList<>();
+	}
+
+	private static class PrefetchedProjectionObject {
+		private static final PrefetchedProjectionObject NONE = new PrefetchedProjectionObject(null, null, null);
+
+		private final PrismObject<ShadowType> object;
+		private final Throwable exception;
+		private final OperationResult result;
+
+		private PrefetchedProjectionObject(PrismObject<ShadowType> object, Throwable exception, OperationResult result) {
+			this.object = object;
+			this.exception = exception;
+			this.result = result;
+		}
+	}
+
 	private <F extends ObjectType> boolean needToReload(LensContext<F> context,
 			LensProjectionContext projContext) {
 		ResourceShadowDiscriminator discr = projContext.getResourceShadowDiscriminator();
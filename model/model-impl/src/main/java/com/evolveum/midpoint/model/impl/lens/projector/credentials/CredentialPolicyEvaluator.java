@@ -277,6 +277,10 @@ public abstract class CredentialPolicyEvaluator<R extends AbstractCredentialType
 			}
 		
 		} else if (focusContext.isModify()) {
+			if (!focusContext.isItemAffected(getCredentialsContainerPath())) {
+				LOGGER.trace("Skipping processing {} policies. No change in credentials.", getCredentialHumanReadableName());
+				return;
+			}
 			boolean credentialValueChanged = false;
 			ObjectDelta<UserType> focusDelta = focusContext.getDelta();
 			ContainerDelta<R> containerDelta = focusDelta.findContainerDelta(getCredentialsContainerPath());
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.impl.security;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.DelegatorWithOtherPrivilegesLimitations;
+import com.evolveum.midpoint.security.api.MidPointPrincipal;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.apache.commons.configuration.Configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache of compiled principals (authorizations, admin GUI configuration, security policy, delegators),
+ * keyed by user OID.
+ *
+ * An entry is used only if
+ *
+ *  - it is not older than time to live,
+ *  - the user is the same: either the version matches, or the user differs only in credentials and metadata
+ *    (these are updated on each successful login, and they are not used when evaluating assignments),
+ *  - all the objects the principal was compiled from (assignment targets, system configuration, security policy)
+ *    still have the same version. This is checked by the caller, see {@link UserProfileServiceImpl}.
+ *
+ * Time to live is the bound on staleness caused by time-dependent evaluation, e.g. validity of assignments
+ * or time-based conditions.
+ *
+ * The cache is disabled unless maxSize is configured.
+ */
+public class PrincipalCache {
+
+	private static final Trace LOGGER = TraceManager.getTrace(PrincipalCache.class);
+
+	public static final String CONFIGURATION_PRINCIPAL_CACHE = "principalCache";
+	public static final String PROPERTY_MAX_SIZE = "maxSize";
+	public static final String PROPERTY_TIME_TO_LIVE = "timeToLive";
+
+	private static final int DEFAULT_MAX_SIZE = 0;
+	private static final long DEFAULT_TIME_TO_LIVE = 60;          // seconds
+
+	private final long timeToLive;
+	private final LinkedHashMap<String, CachedPrincipal> entries;
+
+	private PrincipalCache(int maxSize, long timeToLive) {
+		this.timeToLive = timeToLive;
+		this.entries = new LinkedHashMap<String, CachedPrincipal>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedPrincipal> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Creates the cache from "principalCache" section of the model configuration, e.g.
+	 *
+	 * <pre>{@code
+	 * <principalCache>
+	 *     <maxSize>100</maxSize>
+	 *     <timeToLive>60</timeToLive>
+	 * </principalCache>
+	 * }</pre>
+	 *
+	 * Returns null if the cache is not enabled.
+	 */
+	public static PrincipalCache create(Configuration modelConfiguration) {
+		if (modelConfiguration == null) {
+			return null;
+		}
+		Configuration config = modelConfiguration.subset(CONFIGURATION_PRINCIPAL_CACHE);
+		int maxSize = config.getInt(PROPERTY_MAX_SIZE, DEFAULT_MAX_SIZE);
+		long timeToLive = config.getLong(PROPERTY_TIME_TO_LIVE, DEFAULT_TIME_TO_LIVE);
+		if (maxSize <= 0) {
+			return null;
+		}
+		LOGGER.info("Principal cache enabled: maxSize={}, timeToLive={}s", maxSize, timeToLive);
+		return new PrincipalCache(maxSize, timeToLive * 1000L);
+	}
+
+	/**
+	 * Returns the entry for the user if it was compiled from the same user data and it is not expired.
+	 * Versions of the dependencies are not checked here.
+	 */
+	public CachedPrincipal get(PrismObject<UserType> user) {
+		if (user.getOid() == null || user.getVersion() == null) {
+			return null;
+		}
+		CachedPrincipal entry;
+		synchronized (entries) {
+			entry = entries.get(user.getOid());
+			if (entry != null && timeToLive > 0 && System.currentTimeMillis() - entry.timestamp > timeToLive) {
+				entries.remove(user.getOid());
+				entry = null;
+			}
+		}
+		if (entry == null) {
+			return null;
+		}
+		if (user.getVersion().equals(entry.userVersion)) {
+			return entry;
+		}
+		// cloning and comparing the user is still much cheaper than evaluating the assignments
+		if (!createUserSnapshot(user).equivalent(entry.userSnapshot)) {
+			LOGGER.trace("User {} changed, not using cached principal", user);
+			remove(user.getOid());
+			return null;
+		}
+		entry.userVersion = user.getVersion();
+		return entry;
+	}
+
+	public void put(PrismObject<UserType> user, MidPointPrincipal principal, Map<String, Dependency> dependencies) {
+		if (user.getOid() == null || user.getVersion() == null) {
+			return;
+		}
+		CachedPrincipal entry = new CachedPrincipal(user, principal, dependencies);
+		synchronized (entries) {
+			entries.put(user.getOid(), entry);
+		}
+	}
+
+	public void remove(String oid) {
+		synchronized (entries) {
+			entries.remove(oid);
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	private static PrismObject<UserType> createUserSnapshot(PrismObject<UserType> user) {
+		PrismObject<UserType> snapshot = user.clone();
+		snapshot.removeContainer(UserType.F_CREDENTIALS);
+		snapshot.removeContainer(ObjectType.F_METADATA);
+		return snapshot;
+	}
+
+	/**
+	 * Object the principal was compiled from, with the version it had at that time.
+	 */
+	public static class Dependency {
+		private final Class<? extends ObjectType> type;
+		private final String version;
+
+		public Dependency(Class<? extends ObjectType> type, String version) {
+			this.type = type;
+			this.version = version;
+		}
+
+		public Class<? extends ObjectType> getType() {
+			return type;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+
+		public boolean isCurrent(String currentVersion) {
+			return Objects.equals(version, currentVersion);
+		}
+	}
+
+	public static class CachedPrincipal {
+		private final long timestamp = System.currentTimeMillis();
+		private volatile String userVersion;
+		private final PrismObject<UserType> userSnapshot;
+		private final List<Authorization> authorizations;
+		private final MidPointPrincipal principal;
+		private final Map<String, Dependency> dependencies;
+
+		private CachedPrincipal(PrismObject<UserType> user, MidPointPrincipal principal, Map<String, Dependency> dependencies) {
+			this.userVersion = user.getVersion();
+			this.userSnapshot = createUserSnapshot(user);
+			this.authorizations = new ArrayList<>(principal.getAuthorities());
+			this.principal = principal;
+			this.dependencies = Collections.unmodifiableMap(new LinkedHashMap<>(dependencies));
+		}
+
+		public Map<String, Dependency> getDependencies() {
+			return dependencies;
+		}
+
+		/**
+		 * Creates a principal for the (current) user object. Compiled parts are shared with the cached principal.
+		 */
+		public MidPointPrincipal createPrincipal(UserType user) {
+			MidPointPrincipal newPrincipal = new MidPointPrincipal(user);
+			newPrincipal.getAuthorities().addAll(authorizations);
+			newPrincipal.setAdminGuiConfiguration(principal.getAdminGuiConfiguration());
+			newPrincipal.setApplicableSecurityPolicy(principal.getApplicableSecurityPolicy());
+			for (DelegatorWithOtherPrivilegesLimitations delegator : principal.getDelegatorWithOtherPrivilegesLimitationsCollection()) {
+				newPrincipal.addDelegatorWithOtherPrivilegesLimitations(delegator);
+			}
+			return newPrincipal;
+		}
+	}
+}
@@ -18,6 +18,7 @@ package com.evolveum.midpoint.model.impl.security;
 
 import com.evolveum.midpoint.common.ActivationComputer;
 import com.evolveum.midpoint.common.Clock;
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
 import com.evolveum.midpoint.repo.cache.RepositoryCache;
 import com.evolveum.midpoint.repo.common.expression.ItemDeltaItem;
 import com.evolveum.midpoint.repo.common.expression.ObjectDeltaObject;
@@ -68,6 +69,7 @@ import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 
+import org.apache.commons.configuration.Configuration;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.ldap.userdetails.UserDetailsContextMapper;
@@ -79,9 +81,12 @@ import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Predicate;
 
 /**
@@ -107,6 +112,21 @@ public class UserProfileServiceImpl implements UserProfileService, UserDetailsSe
 	@Autowired private Clock clock;
 	@Autowired private PrismContext prismContext;
 	@Autowired private TaskManager taskManager;
+	@Autowired private MidpointConfiguration midpointConfiguration;
+
+	// null if not enabled
+	private PrincipalCache principalCache;
+
+	@PostConstruct
+	private void init() {
+		Configuration config = midpointConfiguration.getConfiguration(MidpointConfiguration.MODEL_CONFIGURATION_SECTION);
+		principalCache = PrincipalCache.create(config);
+	}
+
+	// for testing
+	void setPrincipalCache(PrincipalCache principalCache) {
+		this.principalCache = principalCache;
+	}
 
     @Override
     public MidPointPrincipal getPrincipal(String username) throws ObjectNotFoundException, SchemaException {
@@ -141,13 +161,73 @@ public class UserProfileServiceImpl implements UserProfileService, UserDetailsSe
             return null;
         }
 
+    	userComputer.recompute(user);
+
+    	// transformed authorizations are specific to the caller (e.g. attorney), so they are not cached
+    	boolean useCache = principalCache != null && authorizationTransformer == null;
+    	if (useCache) {
+    		MidPointPrincipal cachedPrincipal = getCachedPrincipal(user, result);
+    		if (cachedPrincipal != null) {
+    			return cachedPrincipal;
+    		}
+    	}
+
         PrismObject<SystemConfigurationType> systemConfiguration = getSystemConfiguration(result);
 
-    	userComputer.recompute(user);
         MidPointPrincipal principal = new MidPointPrincipal(user.asObjectable());
-        initializePrincipalFromAssignments(principal, systemConfiguration, authorizationTransformer);
+        Map<String, PrincipalCache.Dependency> dependencies = useCache ? new HashMap<>() : null;
+        boolean complete = initializePrincipalFromAssignments(principal, systemConfiguration, authorizationTransformer, dependencies);
+        if (useCache) {
+        	if (complete && addDependency(dependencies, systemConfiguration)
+					&& addDependency(dependencies, getSecurityPolicyObject(principal))) {
+        		principalCache.put(user, principal, dependencies);
+        	} else {
+        		principalCache.remove(user.getOid());
+        	}
+        }
         return principal;
     }
+
+	private MidPointPrincipal getCachedPrincipal(PrismObject<UserType> user, OperationResult result) {
+		PrincipalCache.CachedPrincipal cached = principalCache.get(user);
+		if (cached == null) {
+			return null;
+		}
+		for (Map.Entry<String, PrincipalCache.Dependency> entry : cached.getDependencies().entrySet()) {
+			PrincipalCache.Dependency dependency = entry.getValue();
+			String currentVersion;
+			try {
+				currentVersion = repositoryService.getVersion(dependency.getType(), entry.getKey(), result);
+			} catch (ObjectNotFoundException | SchemaException e) {
+				LOGGER.trace("Couldn't get version of {} {}: {}", dependency.getType().getSimpleName(), entry.getKey(), e.getMessage(), e);
+				currentVersion = null;
+			}
+			if (!dependency.isCurrent(currentVersion)) {
+				LOGGER.trace("{} {} changed, not using cached principal for {}", dependency.getType().getSimpleName(), entry.getKey(), user);
+				principalCache.remove(user.getOid());
+				return null;
+			}
+		}
+		LOGGER.trace("Using cached principal for {}", user);
+		return cached.createPrincipal(user.asObjectable());
+	}
+
+	private boolean addDependency(Map<String, PrincipalCache.Dependency> dependencies, PrismObject<?> object) {
+		if (object == null) {
+			return true;
+		}
+		if (object.getOid() == null || object.getVersion() == null) {
+			return false;
+		}
+		//noinspection unchecked
+		dependencies.put(object.getOid(), new PrincipalCache.Dependency((Class<? extends ObjectType>) object.getCompileTimeClass(), object.getVersion()));
+		return true;
+	}
+
+	private PrismObject<SecurityPolicyType> getSecurityPolicyObject(MidPointPrincipal principal) {
+		SecurityPolicyType securityPolicy = principal.getApplicableSecurityPolicy();
+		return securityPolicy != null ? securityPolicy.asPrismObject() : null;
+	}
     
     private PrismObject<SystemConfigurationType> getSystemConfiguration(OperationResult result) {
     	PrismObject<SystemConfigurationType> systemConfiguration = null;
@@ -184,8 +264,14 @@ public class UserProfileServiceImpl implements UserProfileService, UserDetailsSe
         return list.get(0);
     }
 
-	private void initializePrincipalFromAssignments(MidPointPrincipal principal, PrismObject<SystemConfigurationType> systemConfiguration, AuthorizationTransformer authorizationTransformer) throws SchemaException {
+	/**
+	 * Returns false if some of the assignments couldn't be evaluated. Objects the principal is compiled from
+	 * are collected in dependencies (if not null).
+	 */
+	private boolean initializePrincipalFromAssignments(MidPointPrincipal principal, PrismObject<SystemConfigurationType> systemConfiguration,
+			AuthorizationTransformer authorizationTransformer, Map<String, PrincipalCache.Dependency> dependencies) throws SchemaException {
 		UserType userType = principal.getUser();
+		boolean complete = true;
 
 		Collection<Authorization> authorizations = principal.getAuthorities();
 		List<AdminGuiConfigurationType> adminGuiConfigurations = new ArrayList<>();
@@ -232,6 +318,12 @@ public class UserProfileServiceImpl implements UserProfileService, UserDetailsSe
 							addAuthorizations(authorizations, assignment.getAuthorizations(), authorizationTransformer);
 							adminGuiConfigurations.addAll(assignment.getAdminGuiConfigurations());
 						}
+						if (dependencies != null) {
+							complete = addDependency(dependencies, assignment.getTarget()) && complete;
+							for (EvaluatedAssignmentTarget target : assignment.getRoles().getAllValues()) {
+								complete = addDependency(dependencies, target.getTarget()) && complete;
+							}
+						}
 						for (EvaluatedAssignmentTarget target : assignment.getRoles().getNonNegativeValues()) {
 							if (target.isValid() && target.getTarget() != null && target.getTarget().asObjectable() instanceof UserType
 									&& DeputyUtils.isDelegationPath(target.getAssignmentPath())) {
@@ -243,6 +335,7 @@ public class UserProfileServiceImpl implements UserProfileService, UserDetailsSe
 					} catch (SchemaException | ObjectNotFoundException | ExpressionEvaluationException | PolicyViolationException | SecurityViolationException | ConfigurationException | CommunicationException e) {
 						LOGGER.error("Error while processing assignment of {}: {}; assignment: {}",
 								userType, e.getMessage(), assignmentType, e);
+						complete = false;
 					}
 				}
 			} finally {
@@ -254,6 +347,7 @@ public class UserProfileServiceImpl implements UserProfileService, UserDetailsSe
 			adminGuiConfigurations.add(userType.getAdminGuiConfiguration());
 		}
         principal.setAdminGuiConfiguration(AdminGuiConfigTypeUtil.compileAdminGuiConfiguration(adminGuiConfigurations, systemConfiguration));
+        return complete;
 	}
 
 	private void addAuthorizations(Collection<Authorization> targetCollection, Collection<Authorization> sourceCollection, AuthorizationTransformer authorizationTransformer) {
@@ -146,6 +146,7 @@ public class ReconciliationTaskHandler implements TaskHandler {
 		try {
 			return runInternal(coordinatorTask);
 		} finally {
+			auditService.flush(coordinatorTask);
 			coordinatorTask.storeOperationStats();
 		}
 	}
@@ -51,6 +51,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ModelExecuteOptionsT
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
 import com.evolveum.prism.xml.ns._public.query_3.QueryType;
+import com.evolveum.midpoint.audit.api.AuditService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 
@@ -106,6 +107,9 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
 	@Autowired
 	protected SystemObjectCache systemObjectCache;
 
+	@Autowired
+	private AuditService auditService;
+
 	private static final transient Trace LOGGER = TraceManager.getTrace(AbstractSearchIterativeTaskHandler.class);
 
 	protected AbstractSearchIterativeTaskHandler(String taskName, String taskOperationPrefix) {
@@ -167,6 +171,7 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
         try {
             return runInternal(coordinatorTask);
         } finally {
+            auditService.flush(coordinatorTask);
             coordinatorTask.storeOperationStats();
         }
     }
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.lens;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+
+import javax.xml.namespace.QName;
+
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismObjectDefinition;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.prism.delta.PropertyDelta;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationStatusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Tests memoization of merged deltas in ObjectDeltaWaves and its invalidation.
+ */
+public class TestObjectDeltaWaves {
+
+	private static final String USER_OID = "c0c010c0-d34d-b33f-f00d-111111111111";
+	private static final ItemPath PATH_ADMINISTRATIVE_STATUS = new ItemPath(UserType.F_ACTIVATION, ActivationType.F_ADMINISTRATIVE_STATUS);
+
+	@BeforeSuite
+	public void setup() throws SchemaException, SAXException, IOException {
+		PrettyPrinter.setDefaultNamespacePrefix(MidPointConstants.NS_MIDPOINT_PUBLIC_PREFIX);
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@Test
+	public void test100MergedDeltasMemoized() throws Exception {
+		final String TEST_NAME = "test100MergedDeltasMemoized";
+		TestUtil.displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		ObjectDeltaWaves<UserType> waves = new ObjectDeltaWaves<>();
+		waves.add(createReplaceDelta(UserType.F_FULL_NAME, "Jack Sparrow"));
+		waves.add(createReplaceDelta(UserType.F_GIVEN_NAME, "Jack"));
+		ObjectDelta<UserType> merged = waves.getMergedDeltas();
+		assertEquals("Wrong # of merged modifications", 2, merged.getModifications().size());
+
+		// WHEN
+		// change that is not recorded by invalidateMergedDeltas, so the memoized merge is used
+		waves.get(1).addModification(createReplaceModification(UserType.F_FAMILY_NAME, "Sparrow"));
+		ObjectDelta<UserType> mergedAgain = waves.getMergedDeltas();
+
+		// THEN
+		assertNotSame("Memoized delta was returned instead of a copy", merged, mergedAgain);
+		assertEquals("Memoized merge was not used", merged, mergedAgain);
+
+		// the returned delta is a copy, so changing it does not affect the memoized merge
+		mergedAgain.addModification(createReplaceModification(UserType.F_LOCALITY, "Caribbean"));
+		assertEquals("Memoized merge was changed", merged, waves.getMergedDeltas());
+
+		waves.invalidateMergedDeltas(1);
+		ObjectDelta<UserType> mergedAfterInvalidation = waves.getMergedDeltas();
+		assertEquals("Wrong # of merged modifications after invalidation", 3, mergedAfterInvalidation.getModifications().size());
+		assertNotNull("No family name modification", mergedAfterInvalidation.findPropertyDelta(UserType.F_FAMILY_NAME));
+	}
+
+	@Test
+	public void test110MergedDeltasAfterWaveChanges() throws Exception {
+		final String TEST_NAME = "test110MergedDeltasAfterWaveChanges";
+		TestUtil.displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		ObjectDeltaWaves<UserType> waves = new ObjectDeltaWaves<>();
+		waves.add(createReplaceDelta(UserType.F_FULL_NAME, "Jack Sparrow"));
+		waves.add(createReplaceDelta(UserType.F_GIVEN_NAME, "Jack"));
+		ObjectDelta<UserType> initialDelta = createReplaceDelta(UserType.F_EMPLOYEE_NUMBER, "42");
+		assertEquals("Wrong # of merged modifications", 3, waves.getMergedDeltas(initialDelta, -1).getModifications().size());
+
+		// WHEN
+		waves.set(3, createReplaceDelta(UserType.F_FAMILY_NAME, "Sparrow"));
+		initialDelta.addModification(createReplaceModification(UserType.F_LOCALITY, "Caribbean"));
+
+		// THEN
+		ObjectDelta<UserType> merged = waves.getMergedDeltas(initialDelta, -1);
+		assertEquals("Wrong # of merged modifications", 5, merged.getModifications().size());
+		assertNotNull("No family name modification", merged.findPropertyDelta(UserType.F_FAMILY_NAME));
+		assertNotNull("No locality modification", merged.findPropertyDelta(UserType.F_LOCALITY));
+
+		// maxWave of 0 merges only the waves up to the first non-null one
+		assertEquals("Wrong # of modifications merged up to wave 0", 3, waves.getMergedDeltas(initialDelta, 0).getModifications().size());
+
+		waves.remove(0);
+		assertNull("Full name modification is still there", waves.getMergedDeltas().findPropertyDelta(UserType.F_FULL_NAME));
+	}
+
+	@Test
+	public void test120SwallowToSecondaryDelta() throws Exception {
+		final String TEST_NAME = "test120SwallowToSecondaryDelta";
+		TestUtil.displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		LensContext<UserType> context = new LensContext<>(UserType.class, getPrismContext(), null);
+		LensFocusContext<UserType> focusContext = context.createFocusContext();
+		focusContext.setSecondaryDelta(createReplaceDelta(UserType.F_FULL_NAME, "Jack Sparrow"), 0);
+		assertEquals("Wrong # of secondary modifications", 1, focusContext.getSecondaryDelta().getModifications().size());
+
+		// WHEN
+		focusContext.swallowToSecondaryDelta(createReplaceModification(UserType.F_GIVEN_NAME, "Jack"));
+
+		// THEN
+		ObjectDelta<UserType> secondaryDelta = focusContext.getSecondaryDelta();
+		assertEquals("Wrong # of secondary modifications", 2, secondaryDelta.getModifications().size());
+		assertNotNull("No given name modification", secondaryDelta.findPropertyDelta(UserType.F_GIVEN_NAME));
+
+		focusContext.swallowToProjectionWaveSecondaryDelta(createReplaceModification(UserType.F_FAMILY_NAME, "Sparrow"));
+		assertNotNull("No family name modification", focusContext.getSecondaryDelta().findPropertyDelta(UserType.F_FAMILY_NAME));
+	}
+
+	@Test
+	public void test200AffectedItemPaths() throws Exception {
+		final String TEST_NAME = "test200AffectedItemPaths";
+		TestUtil.displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		ObjectDeltaWaves<UserType> waves = new ObjectDeltaWaves<>();
+		waves.add(createReplaceDelta(UserType.F_FULL_NAME, "Jack Sparrow"));
+		waves.add(null);
+		ObjectDelta<UserType> delta = createReplaceDelta(UserType.F_FULL_NAME, "Captain Jack Sparrow");
+		delta.addModification(PropertyDelta.createModificationReplaceProperty(PATH_ADMINISTRATIVE_STATUS,
+				getUserDefinition(), ActivationStatusType.DISABLED));
+		waves.add(delta);
+
+		// WHEN
+		int affectedPaths = waves.getAffectedItemPaths().size();
+
+		// THEN
+		assertEquals("Wrong # of affected paths: " + waves.getAffectedItemPaths(), 2, affectedPaths);
+		assertTrue("Full name not affected", waves.isAffected(new ItemPath(UserType.F_FULL_NAME)));
+		assertTrue("Activation not affected", waves.isAffected(new ItemPath(UserType.F_ACTIVATION)));
+		assertTrue("Administrative status not affected", waves.isAffected(PATH_ADMINISTRATIVE_STATUS));
+		assertFalse("Given name affected", waves.isAffected(new ItemPath(UserType.F_GIVEN_NAME)));
+		assertFalse("Effective status affected",
+				waves.isAffected(new ItemPath(UserType.F_ACTIVATION, ActivationType.F_EFFECTIVE_STATUS)));
+
+		PrismObject<UserType> user = getUserDefinition().instantiate();
+		user.setOid(USER_OID);
+		waves.set(1, ObjectDelta.createAddDelta(user));
+		assertEquals("Wrong affected paths for add delta", 1, waves.getAffectedItemPaths().size());
+		assertTrue("Add delta does not affect everything", waves.getAffectedItemPaths().get(0).isEmpty());
+		assertTrue("Given name not affected by add delta", waves.isAffected(new ItemPath(UserType.F_GIVEN_NAME)));
+	}
+
+	private ObjectDelta<UserType> createReplaceDelta(QName propertyName, String value) {
+		return ObjectDelta.createModificationReplaceProperty(UserType.class, USER_OID, propertyName, getPrismContext(),
+				toRealValue(propertyName, value));
+	}
+
+	private ItemDelta<?, ?> createReplaceModification(QName propertyName, String value) {
+		return PropertyDelta.createModificationReplaceProperty(propertyName, getUserDefinition(), toRealValue(propertyName, value));
+	}
+
+	private Object toRealValue(QName propertyName, String value) {
+		return UserType.F_EMPLOYEE_NUMBER.equals(propertyName) ? value : new PolyString(value);
+	}
+
+	private PrismObjectDefinition<UserType> getUserDefinition() {
+		return getPrismContext().getSchemaRegistry().findObjectDefinitionByCompileTimeClass(UserType.class);
+	}
+
+	private PrismContext getPrismContext() {
+		return PrismTestUtil.getPrismContext();
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.lens;
+
+import static com.evolveum.midpoint.test.IntegrationTestTools.display;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+
+import java.io.File;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectActionsExecutedEntryType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OperationStatsType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowKindType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.ChangeTypeType;
+
+/**
+ * Tests execution of projections by several threads of the change executor.
+ */
+@ContextConfiguration(locations = {"classpath:ctx-model-test-main.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class TestParallelProjectionExecution extends AbstractLensTest {
+
+	private static final File RESOURCE_DUMMY_EMPTY_FILE = new File(TEST_DIR, "resource-dummy-empty.xml");
+	private static final String RESOURCE_DUMMY_EMPTY_OID = "10000000-0000-0000-0000-00000000EEE4";
+	private static final String RESOURCE_DUMMY_EMPTY_INSTANCE_NAME = "empty";
+
+	@Autowired private ChangeExecutor changeExecutor;
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		super.initSystem(initTask, initResult);
+		initDummyResourcePirate(RESOURCE_DUMMY_EMPTY_INSTANCE_NAME, RESOURCE_DUMMY_EMPTY_FILE,
+				RESOURCE_DUMMY_EMPTY_OID, initTask, initResult);
+		changeExecutor.setProjectionExecutionThreads(2);
+	}
+
+	@Test
+	public void test100AssignAccountsToJack() throws Exception {
+		final String TEST_NAME = "test100AssignAccountsToJack";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		task.startCollectingOperationStatsFromZero(false, false, true);
+		OperationResult result = task.getResult();
+
+		ObjectDelta<UserType> userDelta = createAccountAssignmentUserDelta(USER_JACK_OID, RESOURCE_DUMMY_OID, null, true);
+		userDelta.addModification(createAssignmentModification(RESOURCE_DUMMY_EMPTY_OID, ShadowKindType.ACCOUNT, null, true));
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		executeChanges(userDelta, null, task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertSuccess(result);
+
+		PrismObject<UserType> userJack = getUser(USER_JACK_OID);
+		display("User after", userJack);
+		assertLinks(userJack, 2);
+		assertDummyAccount(null, ACCOUNT_JACK_DUMMY_USERNAME);
+		assertDummyAccount(RESOURCE_DUMMY_EMPTY_INSTANCE_NAME, ACCOUNT_JACK_DUMMY_USERNAME);
+
+		// actions of the workers are merged into the task
+		assertShadowActions(task, ChangeTypeType.ADD, 2);
+	}
+
+	@Test
+	public void test110UnassignAccountsFromJack() throws Exception {
+		final String TEST_NAME = "test110UnassignAccountsFromJack";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		task.startCollectingOperationStatsFromZero(false, false, true);
+		OperationResult result = task.getResult();
+
+		ObjectDelta<UserType> userDelta = createAccountAssignmentUserDelta(USER_JACK_OID, RESOURCE_DUMMY_OID, null, false);
+		userDelta.addModification(createAssignmentModification(RESOURCE_DUMMY_EMPTY_OID, ShadowKindType.ACCOUNT, null, false));
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		executeChanges(userDelta, null, task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertSuccess(result);
+
+		PrismObject<UserType> userJack = getUser(USER_JACK_OID);
+		display("User after", userJack);
+		assertLinks(userJack, 0);
+		assertNoDummyAccount(null, ACCOUNT_JACK_DUMMY_USERNAME);
+		assertNoDummyAccount(RESOURCE_DUMMY_EMPTY_INSTANCE_NAME, ACCOUNT_JACK_DUMMY_USERNAME);
+
+		assertShadowActions(task, ChangeTypeType.DELETE, 2);
+	}
+
+	private void assertShadowActions(Task task, ChangeTypeType operation, int expected) {
+		OperationStatsType stats = task.getAggregatedLiveOperationStats();
+		display("Operation stats", stats);
+		assertNotNull("No operation stats", stats);
+		assertNotNull("No actions executed information", stats.getActionsExecutedInformation());
+		List<ObjectActionsExecutedEntryType> entries = stats.getActionsExecutedInformation().getObjectActionsEntry();
+		assertEquals("Wrong # of shadow " + operation + " actions", expected,
+				getSuccessCount(entries, ShadowType.COMPLEX_TYPE, operation));
+	}
+
+	private int getSuccessCount(List<ObjectActionsExecutedEntryType> entries, QName objectType, ChangeTypeType operation) {
+		int count = 0;
+		for (ObjectActionsExecutedEntryType entry : entries) {
+			if (objectType.equals(entry.getObjectType()) && operation == entry.getOperation()) {
+				count += entry.getTotalSuccessCount();
+			}
+		}
+		return count;
+	}
+}
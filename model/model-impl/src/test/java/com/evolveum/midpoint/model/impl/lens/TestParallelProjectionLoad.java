@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.lens;
+
+import static com.evolveum.midpoint.test.IntegrationTestTools.display;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+
+import java.io.File;
+import java.util.List;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.schema.internals.InternalCounters;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.statistics.ProvisioningOperation;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OperationStatsType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ProvisioningStatisticsEntryType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowKindType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Tests fetching of projections on several resources by the worker threads of the context loader.
+ */
+@ContextConfiguration(locations = {"classpath:ctx-model-test-main.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class TestParallelProjectionLoad extends AbstractLensTest {
+
+	private static final File RESOURCE_DUMMY_EMPTY_FILE = new File(TEST_DIR, "resource-dummy-empty.xml");
+	private static final String RESOURCE_DUMMY_EMPTY_OID = "10000000-0000-0000-0000-00000000EEE4";
+	private static final String RESOURCE_DUMMY_EMPTY_NAME = "Dummy Resource Empty";
+	private static final String RESOURCE_DUMMY_EMPTY_INSTANCE_NAME = "empty";
+	private static final String RESOURCE_DUMMY_NAME = "Dummy Resource";
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		super.initSystem(initTask, initResult);
+		initDummyResourcePirate(RESOURCE_DUMMY_EMPTY_INSTANCE_NAME, RESOURCE_DUMMY_EMPTY_FILE,
+				RESOURCE_DUMMY_EMPTY_OID, initTask, initResult);
+	}
+
+	@Test
+	public void test100AssignAccountsToJack() throws Exception {
+		final String TEST_NAME = "test100AssignAccountsToJack";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+
+		ObjectDelta<UserType> userDelta = createAccountAssignmentUserDelta(USER_JACK_OID, RESOURCE_DUMMY_OID, null, true);
+		userDelta.addModification(createAssignmentModification(RESOURCE_DUMMY_EMPTY_OID, ShadowKindType.ACCOUNT, null, true));
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		executeChanges(userDelta, null, task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertSuccess(result);
+
+		assertLinks(getUser(USER_JACK_OID), 2);
+		assertDummyAccount(null, ACCOUNT_JACK_DUMMY_USERNAME);
+		assertDummyAccount(RESOURCE_DUMMY_EMPTY_INSTANCE_NAME, ACCOUNT_JACK_DUMMY_USERNAME);
+	}
+
+	/**
+	 * Both shadows are fetched by the workers. The resource operations are recorded in the task.
+	 */
+	@Test
+	public void test110ReconcileJack() throws Exception {
+		final String TEST_NAME = "test110ReconcileJack";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		task.startCollectingOperationStatsFromZero(false, false, false);
+		OperationResult result = task.getResult();
+		rememberCounter(InternalCounters.SHADOW_FETCH_OPERATION_COUNT);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		reconcileUser(USER_JACK_OID, task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		assertSuccess(result);
+		assertCounterIncrement(InternalCounters.SHADOW_FETCH_OPERATION_COUNT, 2);
+
+		assertLinks(getUser(USER_JACK_OID), 2);
+		assertDummyAccount(null, ACCOUNT_JACK_DUMMY_USERNAME);
+		assertDummyAccount(RESOURCE_DUMMY_EMPTY_INSTANCE_NAME, ACCOUNT_JACK_DUMMY_USERNAME);
+
+		assertResourceGets(task, RESOURCE_DUMMY_NAME);
+		assertResourceGets(task, RESOURCE_DUMMY_EMPTY_NAME);
+	}
+
+	/**
+	 * The account was deleted on the resource. The failure of the prefetch is handled in the same way
+	 * as the failure of an ordinary fetch: the account is re-created.
+	 */
+	@Test
+	public void test120ReconcileJackAccountDeleted() throws Exception {
+		final String TEST_NAME = "test120ReconcileJackAccountDeleted";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TEST_NAME);
+		OperationResult result = task.getResult();
+		getDummyResource(RESOURCE_DUMMY_EMPTY_INSTANCE_NAME).deleteAccountByName(ACCOUNT_JACK_DUMMY_USERNAME);
+		assertNoDummyAccount(RESOURCE_DUMMY_EMPTY_INSTANCE_NAME, ACCOUNT_JACK_DUMMY_USERNAME);
+
+		// WHEN
+		displayWhen(TEST_NAME);
+		reconcileUser(USER_JACK_OID, task, result);
+
+		// THEN
+		displayThen(TEST_NAME);
+		display("Result", result);
+
+		PrismObject<UserType> userJack = getUser(USER_JACK_OID);
+		display("User after", userJack);
+		assertLinks(userJack, 2);
+		assertDummyAccount(null, ACCOUNT_JACK_DUMMY_USERNAME);
+		assertDummyAccount(RESOURCE_DUMMY_EMPTY_INSTANCE_NAME, ACCOUNT_JACK_DUMMY_USERNAME);
+	}
+
+	private void assertResourceGets(Task task, String resourceName) {
+		OperationStatsType stats = task.getAggregatedLiveOperationStats();
+		display("Operation stats", stats);
+		assertNotNull("No operation stats", stats);
+		List<ProvisioningStatisticsEntryType> entries = stats.getEnvironmentalPerformanceInformation()
+				.getProvisioningStatistics().getEntry();
+		int gets = 0;
+		for (ProvisioningStatisticsEntryType entry : entries) {
+			if (resourceName.equals(entry.getResource())) {
+				gets += entry.getGetSuccess();
+			}
+		}
+		assertEquals("Wrong # of " + ProvisioningOperation.ICF_GET + " operations on " + resourceName, 1, gets);
+	}
+}
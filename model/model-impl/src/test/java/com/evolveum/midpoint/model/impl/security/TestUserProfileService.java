@@ -17,6 +17,10 @@
 package com.evolveum.midpoint.model.impl.security;
 
 import com.evolveum.midpoint.model.impl.AbstractInternalModelIntegrationTest;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.security.api.Authorization;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.security.api.DelegatorWithOtherPrivilegesLimitations;
 import com.evolveum.midpoint.security.api.MidPointPrincipal;
@@ -24,12 +28,16 @@ import com.evolveum.midpoint.test.util.TestUtil;
 import com.evolveum.midpoint.util.DebugUtil;
 import com.evolveum.midpoint.util.exception.CommonException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import org.apache.commons.configuration.BaseConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.testng.annotations.Test;
 
 import javax.xml.bind.JAXBElement;
 import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -38,6 +46,9 @@ import java.util.function.Consumer;
 
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationStatusType.DISABLED;
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
 
 /**
  * @author mederly
@@ -46,6 +57,16 @@ import static org.testng.AssertJUnit.assertEquals;
 @DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
 public class TestUserProfileService extends AbstractInternalModelIntegrationTest {
 
+	private static final String USER_CACHED_OID = "cached";
+	private static final String USER_CACHED_NAME = "cached";
+	private static final String ROLE_CACHED_1_OID = "cached-role-1";
+	private static final String ROLE_CACHED_2_OID = "cached-role-2";
+	private static final String AUTZ_CACHED_1_URL = "http://midpoint.evolveum.com/xml/ns/test/authorization#cached1";
+	private static final String AUTZ_CACHED_2_URL = "http://midpoint.evolveum.com/xml/ns/test/authorization#cached2";
+	private static final String AUTZ_CACHED_3_URL = "http://midpoint.evolveum.com/xml/ns/test/authorization#cached3";
+
+	@Autowired private UserProfileServiceImpl userProfileServiceImpl;
+
 	@Test
 	public void test100DeputyNoLimits() throws Exception {
 		final String TEST_NAME = "test100DeputyNoLimits";
@@ -121,4 +142,175 @@ public class TestUserProfileService extends AbstractInternalModelIntegrationTest
 		}
 	}
 
+	/**
+	 * The principal compiled for the second time is taken from the cache: the authorizations are shared.
+	 */
+	@Test
+	public void test200CachedPrincipal() throws Exception {
+		final String TEST_NAME = "test200CachedPrincipal";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		// GIVEN
+		OperationResult result = new OperationResult(TestUserProfileService.class.getName() + "." + TEST_NAME);
+		BaseConfiguration config = new BaseConfiguration();
+		config.setProperty(PrincipalCache.CONFIGURATION_PRINCIPAL_CACHE + "." + PrincipalCache.PROPERTY_MAX_SIZE, 10);
+		userProfileServiceImpl.setPrincipalCache(PrincipalCache.create(config));
+
+		repositoryService.addObject(new RoleType(prismContext).oid(ROLE_CACHED_1_OID).name("cached-role-1")
+				.authorization(new AuthorizationType().action(AUTZ_CACHED_1_URL)).asPrismObject(), null, result);
+		repositoryService.addObject(new RoleType(prismContext).oid(ROLE_CACHED_2_OID).name("cached-role-2")
+				.authorization(new AuthorizationType().action(AUTZ_CACHED_3_URL)).asPrismObject(), null, result);
+		repositoryService.addObject(new UserType(prismContext).oid(USER_CACHED_OID).name(USER_CACHED_NAME)
+				.assignment(new AssignmentType().targetRef(ROLE_CACHED_1_OID, RoleType.COMPLEX_TYPE)).asPrismObject(), null, result);
+
+		MidPointPrincipal principal = userProfileService.getPrincipal(USER_CACHED_NAME);
+		assertActions(principal, AUTZ_CACHED_1_URL);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		MidPointPrincipal principalAfter = userProfileService.getPrincipal(USER_CACHED_NAME);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		assertActions(principalAfter, AUTZ_CACHED_1_URL);
+		assertCached(principal, principalAfter, true);
+	}
+
+	/**
+	 * Credentials are updated on each login. This does not invalidate the cached principal.
+	 */
+	@Test
+	public void test210ModifyUserCredentials() throws Exception {
+		final String TEST_NAME = "test210ModifyUserCredentials";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		// GIVEN
+		OperationResult result = new OperationResult(TestUserProfileService.class.getName() + "." + TEST_NAME);
+		MidPointPrincipal principal = userProfileService.getPrincipal(USER_CACHED_NAME);
+		modifyCachedUser(DeltaBuilder.deltaFor(UserType.class, prismContext)
+				.item(UserType.F_CREDENTIALS, CredentialsType.F_PASSWORD, PasswordType.F_FAILED_LOGINS).replace(1)
+				.asItemDeltas(), result);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		MidPointPrincipal principalAfter = userProfileService.getPrincipal(USER_CACHED_NAME);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		assertActions(principalAfter, AUTZ_CACHED_1_URL);
+		assertCached(principal, principalAfter, true);
+	}
+
+	/**
+	 * A role assigned to the user is modified, so the principal is compiled again.
+	 */
+	@Test
+	public void test220ModifyAssignedRole() throws Exception {
+		final String TEST_NAME = "test220ModifyAssignedRole";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		// GIVEN
+		OperationResult result = new OperationResult(TestUserProfileService.class.getName() + "." + TEST_NAME);
+		MidPointPrincipal principal = userProfileService.getPrincipal(USER_CACHED_NAME);
+		repositoryService.modifyObject(RoleType.class, ROLE_CACHED_1_OID, DeltaBuilder.deltaFor(RoleType.class, prismContext)
+				.item(RoleType.F_AUTHORIZATION).add(new AuthorizationType().action(AUTZ_CACHED_2_URL))
+				.asItemDeltas(), result);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		MidPointPrincipal principalAfter = userProfileService.getPrincipal(USER_CACHED_NAME);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		assertActions(principalAfter, AUTZ_CACHED_1_URL, AUTZ_CACHED_2_URL);
+		assertCached(principal, principalAfter, false);
+	}
+
+	/**
+	 * Another role is assigned to the user, so the principal is compiled again.
+	 */
+	@Test
+	public void test230AssignRoleToUser() throws Exception {
+		final String TEST_NAME = "test230AssignRoleToUser";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		// GIVEN
+		OperationResult result = new OperationResult(TestUserProfileService.class.getName() + "." + TEST_NAME);
+		MidPointPrincipal principal = userProfileService.getPrincipal(USER_CACHED_NAME);
+		modifyCachedUser(DeltaBuilder.deltaFor(UserType.class, prismContext)
+				.item(UserType.F_ASSIGNMENT).add(new AssignmentType().targetRef(ROLE_CACHED_2_OID, RoleType.COMPLEX_TYPE))
+				.asItemDeltas(), result);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		MidPointPrincipal principalAfter = userProfileService.getPrincipal(USER_CACHED_NAME);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		assertActions(principalAfter, AUTZ_CACHED_1_URL, AUTZ_CACHED_2_URL, AUTZ_CACHED_3_URL);
+		assertCached(principal, principalAfter, false);
+	}
+
+	/**
+	 * The assignment is disabled, so the principal is compiled again.
+	 */
+	@Test
+	public void test240DisableUserAssignment() throws Exception {
+		final String TEST_NAME = "test240DisableUserAssignment";
+		TestUtil.displayTestTitle(this, TEST_NAME);
+
+		// GIVEN
+		OperationResult result = new OperationResult(TestUserProfileService.class.getName() + "." + TEST_NAME);
+		MidPointPrincipal principal = userProfileService.getPrincipal(USER_CACHED_NAME);
+		Long assignmentId = null;
+		for (AssignmentType assignment : repositoryService.getObject(UserType.class, USER_CACHED_OID, null, result)
+				.asObjectable().getAssignment()) {
+			if (ROLE_CACHED_2_OID.equals(assignment.getTargetRef().getOid())) {
+				assignmentId = assignment.getId();
+			}
+		}
+		assertNotNull("No assignment of " + ROLE_CACHED_2_OID, assignmentId);
+		modifyCachedUser(DeltaBuilder.deltaFor(UserType.class, prismContext)
+				.item(UserType.F_ASSIGNMENT, assignmentId, AssignmentType.F_ACTIVATION, ActivationType.F_ADMINISTRATIVE_STATUS)
+						.replace(DISABLED)
+				.asItemDeltas(), result);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		MidPointPrincipal principalAfter = userProfileService.getPrincipal(USER_CACHED_NAME);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		assertActions(principalAfter, AUTZ_CACHED_1_URL, AUTZ_CACHED_2_URL);
+		assertCached(principal, principalAfter, false);
+	}
+
+	private void modifyCachedUser(Collection<ItemDelta<?, ?>> modifications, OperationResult result) throws CommonException {
+		repositoryService.modifyObject(UserType.class, USER_CACHED_OID, modifications, result);
+	}
+
+	private void assertActions(MidPointPrincipal principal, String... expectedActions) {
+		display("Principal", principal);
+		Collection<String> actions = new HashSet<>();
+		for (Authorization autz : principal.getAuthorities()) {
+			actions.addAll(autz.getAction());
+		}
+		assertEquals("Wrong actions in " + principal, new HashSet<>(Arrays.asList(expectedActions)), actions);
+	}
+
+	// a cached principal shares the authorizations with the principal it was created from
+	private void assertCached(MidPointPrincipal principal, MidPointPrincipal principalAfter, boolean expected) {
+		List<Authorization> authorizations = new ArrayList<>(principal.getAuthorities());
+		List<Authorization> authorizationsAfter = new ArrayList<>(principalAfter.getAuthorities());
+		boolean shared = !authorizationsAfter.isEmpty() && authorizations.size() == authorizationsAfter.size();
+		for (int i = 0; shared && i < authorizations.size(); i++) {
+			shared = authorizations.get(i) == authorizationsAfter.get(i);
+		}
+		if (expected) {
+			assertTrue("Principal was not taken from the cache", shared);
+		} else {
+			assertFalse("Principal was taken from the cache", shared);
+		}
+	}
+
 }
@@ -15,34 +15,34 @@
  */
 package com.evolveum.midpoint.provisioning.impl;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.common.refinery.RefinedResourceSchemaImpl;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.util.ResourceTypeUtil;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 
 /**
  * Class for caching ResourceType instances with a parsed schemas.
  *
+ * The cached resources are immutable, so they can be shared by any number of threads without locking.
+ * The parsed (and refined) resource schema is stored in the resource user data before the resource
+ * is cached. Clones returned for non-read-only requests share it, so the schema is not parsed again.
+ *
  * @author Radovan Semancik
  *
  */
 @Component
 public class ResourceCache {
 
-	private Map<String,PrismObject<ResourceType>> cache;
-
-    ResourceCache() {
-        cache = new HashMap<>();
-    }
+	private final Map<String,PrismObject<ResourceType>> cache = new ConcurrentHashMap<>();
 
-	public synchronized void put(PrismObject<ResourceType> resource) throws SchemaException {
+	public void put(PrismObject<ResourceType> resource) throws SchemaException {
 		String oid = resource.getOid();
 		if (oid == null) {
 			throw new SchemaException("Attempt to cache "+resource+" without an OID");
@@ -54,15 +54,16 @@ public class ResourceCache {
 		}
 
 		PrismObject<ResourceType> cachedResource = cache.get(oid);
-		if (cachedResource == null) {
-			cache.put(oid, resource.createImmutableClone());
-		} else {
-			if (compareVersion(resource.getVersion(), cachedResource.getVersion())) {
-				// We already have equivalent resource, nothing to do
-			} else {
-				cache.put(oid, resource.createImmutableClone());
-			}
+		if (cachedResource != null && compareVersion(version, cachedResource.getVersion())) {
+			// We already have equivalent resource, nothing to do
+			return;
+		}
+
+		if (ResourceTypeUtil.getResourceXsdSchema(resource) != null) {
+			// the immutable clone cannot store the parsed schema later
+			RefinedResourceSchemaImpl.getRefinedSchema(resource);
 		}
+		cache.put(oid, resource.createImmutableClone());
 	}
 
 	private boolean compareVersion(String version1, String version2) {
@@ -75,11 +76,11 @@ public class ResourceCache {
 		return version1.equals(version2);
 	}
 
-	public synchronized PrismObject<ResourceType> get(PrismObject<ResourceType> resource, GetOperationOptions options) throws SchemaException {
+	public PrismObject<ResourceType> get(PrismObject<ResourceType> resource, GetOperationOptions options) throws SchemaException {
 		return get(resource.getOid(), resource.getVersion(), options);
 	}
 
-	public synchronized PrismObject<ResourceType> get(String oid, String version, GetOperationOptions options) throws SchemaException {
+	public PrismObject<ResourceType> get(String oid, String version, GetOperationOptions options) throws SchemaException {
 		if (oid == null) {
 			return null;
 		}
@@ -104,7 +105,7 @@ public class ResourceCache {
 	/**
 	 * Returns currently cached version. FOR DIAGNOSTICS ONLY.
 	 */
-	public synchronized String getVersion(String oid) {
+	public String getVersion(String oid) {
 		if (oid == null) {
 			return null;
 		}
@@ -115,7 +116,7 @@ public class ResourceCache {
 		return cachedResource.getVersion();
 	}
 
-	public synchronized void remove(String oid) {
+	public void remove(String oid) {
 		cache.remove(oid);
 	}
 
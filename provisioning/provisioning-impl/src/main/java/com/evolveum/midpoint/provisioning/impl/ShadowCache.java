@@ -38,6 +38,7 @@ import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
 import com.evolveum.midpoint.provisioning.util.ProvisioningUtil;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.cache.ModificationWatcher;
 import com.evolveum.midpoint.schema.*;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.internals.InternalCounters;
@@ -81,7 +82,9 @@ import javax.xml.namespace.QName;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Shadow cache is a facade that covers all the operations with shadows. It
@@ -143,6 +146,8 @@ public abstract class ShadowCache {
 
 	private static final Trace LOGGER = TraceManager.getTrace(ShadowCache.class);
 
+	private static final int SHADOW_LOOKUP_BATCH_SIZE = 50;
+
 	public ShadowCache() {
 		repositoryService = null;
 	}
@@ -1295,6 +1300,9 @@ public abstract class ShadowCache {
 
 		ObjectQuery attributeQuery = createAttributeQuery(query);
 
+		// repository shadows looked up in advance for a batch of resource objects (see processShadowLookupBatch)
+		final PrefetchedShadows prefetchedShadows = new PrefetchedShadows();
+
 		ResultHandler<ShadowType> resultHandler = (PrismObject<ShadowType> resourceShadow, OperationResult objResult) -> {
 				if (LOGGER.isTraceEnabled()) {
 					LOGGER.trace("Found resource object\n{}", resourceShadow.debugDump(1));
@@ -1308,8 +1316,16 @@ public abstract class ShadowCache {
 					// Try to find shadow that corresponds to the resource
 					// object.
 					if (readFromRepository) {
-						PrismObject<ShadowType> repoShadow = lookupOrCreateShadowInRepository(
-								estimatedShadowCtx, resourceShadow, true, parentResult);
+						PrismObject<ShadowType> repoShadow = null;
+						PrismObject<ShadowType> prefetchedShadow = prefetchedShadows.shadows.remove(resourceShadow);
+						if (prefetchedShadow != null) {
+							repoShadow = shadowManager.usePrefetchedShadow(prefetchedShadow,
+									prefetchedShadows.modificationWatcher, parentResult);
+						}
+						if (repoShadow == null) {
+							repoShadow = lookupOrCreateShadowInRepository(
+									estimatedShadowCtx, resourceShadow, true, parentResult);
+						}
 
 						// This determines the definitions exactly. How the repo
 						// shadow should have proper kind/intent
@@ -1383,7 +1399,10 @@ public abstract class ShadowCache {
                     if (objResult.isSuccess()) {
                     	objResult.getSubresults().clear();
                     }
-                    parentResult.summarize();
+                    // when processing a batch, the results of objects not yet processed must not be summarized
+                    if (!readFromRepository) {
+                    	parentResult.summarize();
+                    }
                 }
 
 				return doContinue;
@@ -1391,9 +1410,104 @@ public abstract class ShadowCache {
 
 		boolean fetchAssociations = SelectorOptions.hasToLoadPath(ShadowType.F_ASSOCIATION, options);
 
-		return resouceObjectConverter.searchResourceObjects(ctx, resultHandler, attributeQuery,
+		if (!readFromRepository) {
+			return resouceObjectConverter.searchResourceObjects(ctx, resultHandler, attributeQuery,
+					fetchAssociations, parentResult);
+		}
+
+		// Resource objects are buffered, so their repository shadows can be looked up by a single repository
+		// search per batch. The objects are then passed to the handler in their original order.
+		final List<BufferedResourceObject> batch = new ArrayList<>(SHADOW_LOOKUP_BATCH_SIZE);
+		ResultHandler<ShadowType> batchingHandler = (PrismObject<ShadowType> resourceShadow, OperationResult objResult) -> {
+				batch.add(new BufferedResourceObject(resourceShadow, objResult));
+				if (batch.size() < SHADOW_LOOKUP_BATCH_SIZE) {
+					return true;
+				}
+				return processShadowLookupBatch(ctx, batch, prefetchedShadows, resultHandler, parentResult);
+			};
+
+		// If the search fails, the objects remaining in the batch are not processed.
+		SearchResultMetadata metadata = resouceObjectConverter.searchResourceObjects(ctx, batchingHandler, attributeQuery,
 				fetchAssociations, parentResult);
+		processShadowLookupBatch(ctx, batch, prefetchedShadows, resultHandler, parentResult);
+		return metadata;
+	}
 
+	/**
+	 * Looks up repository shadows for the whole batch (objects that need definitions to be re-applied, e.g. because of
+	 * auxiliary object classes, are looked up individually) and then passes the objects to the result handler.
+	 * The batch is emptied, even if the processing fails.
+	 *
+	 * @return false if the handler requested the search to be stopped
+	 */
+	private boolean processShadowLookupBatch(ProvisioningContext ctx, List<BufferedResourceObject> batch,
+			PrefetchedShadows prefetchedShadows, ResultHandler<ShadowType> resultHandler,
+			OperationResult parentResult) {
+		if (batch.isEmpty()) {
+			return true;
+		}
+		List<BufferedResourceObject> objects = new ArrayList<>(batch);
+		batch.clear();
+		try {
+			List<PrismObject<ShadowType>> resourceShadows = new ArrayList<>(objects.size());
+			for (BufferedResourceObject object : objects) {
+				ShadowType resourceShadowType = object.resourceShadow.asObjectable();
+				if (resourceShadowType.getAuxiliaryObjectClass().isEmpty()
+						&& ctx.getObjectClassDefinition().getTypeName().equals(resourceShadowType.getObjectClass())) {
+					resourceShadows.add(object.resourceShadow);
+				}
+			}
+			if (resourceShadows.size() > 1) {
+				// the watcher has to be open before the lookup, so no modification done in the meantime is missed
+				prefetchedShadows.modificationWatcher = shadowManager.watchShadowModifications();
+				if (prefetchedShadows.modificationWatcher != null) {
+					prefetchedShadows.shadows.putAll(shadowManager.lookupShadowsInRepository(ctx, resourceShadows, parentResult));
+				}
+			}
+		} catch (SchemaException | ConfigurationException | ObjectNotFoundException | CommunicationException
+				| ExpressionEvaluationException | RuntimeException e) {
+			// the shadows will be looked up individually, reporting the error (if any) for each object separately
+			LOGGER.warn("Couldn't look up repository shadows for a batch of {} resource objects, looking them up individually: {}",
+					objects.size(), e.getMessage(), e);
+		}
+		try {
+			for (BufferedResourceObject object : objects) {
+				if (!resultHandler.handle(object.resourceShadow, object.result)) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			prefetchedShadows.clear();
+			parentResult.summarize();
+		}
+	}
+
+	/**
+	 * Repository shadows looked up for the current batch, together with the watcher of shadow modifications
+	 * done since the lookup.
+	 */
+	private static class PrefetchedShadows {
+		private final Map<PrismObject<ShadowType>, PrismObject<ShadowType>> shadows = new IdentityHashMap<>();
+		private ModificationWatcher modificationWatcher;
+
+		private void clear() {
+			shadows.clear();
+			if (modificationWatcher != null) {
+				modificationWatcher.close();
+				modificationWatcher = null;
+			}
+		}
+	}
+
+	private static class BufferedResourceObject {
+		private final PrismObject<ShadowType> resourceShadow;
+		private final OperationResult result;
+
+		private BufferedResourceObject(PrismObject<ShadowType> resourceShadow, OperationResult result) {
+			this.resourceShadow = resourceShadow;
+			this.result = result;
+		}
 	}
 
 	ObjectQuery createAttributeQuery(ObjectQuery query) throws SchemaException {
@@ -19,7 +19,12 @@ package com.evolveum.midpoint.provisioning.impl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Predicate;
 
 import javax.xml.namespace.QName;
@@ -56,9 +61,11 @@ import com.evolveum.midpoint.prism.match.MatchingRule;
 import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.AndFilter;
 import com.evolveum.midpoint.prism.query.EqualFilter;
 import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.OrFilter;
 import com.evolveum.midpoint.prism.query.Visitor;
 import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
 import com.evolveum.midpoint.prism.query.builder.S_AtomicFilterEntry;
@@ -72,6 +79,8 @@ import com.evolveum.midpoint.repo.api.PreconditionViolationException;
 import com.evolveum.midpoint.repo.api.RepositoryOperation;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.api.VersionPrecondition;
+import com.evolveum.midpoint.repo.cache.ModificationWatcher;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
 import com.evolveum.midpoint.schema.DeltaConvertor;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SearchResultMetadata;
@@ -92,6 +101,7 @@ import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.task.api.TaskManager;
 import com.evolveum.midpoint.util.DebugUtil;
 import com.evolveum.midpoint.util.MiscUtil;
+import com.evolveum.midpoint.util.QNameUtil;
 import com.evolveum.midpoint.util.exception.CommunicationException;
 import com.evolveum.midpoint.util.exception.ConfigurationException;
 import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
@@ -225,6 +235,164 @@ public class ShadowManager {
 			throw new IllegalStateException("More than one shadow found for " + resourceShadow);
 		}
 		PrismObject<ShadowType> shadow = results.get(0);
+		processLookedUpShadow(shadow, parentResult);
+		return shadow;
+	}
+
+	/**
+	 * Batch variant of {@link #lookupShadowInRepository(ProvisioningContext, PrismObject, OperationResult)}.
+	 * Locates shadows for a number of resource objects (of the same object class) using a single repository
+	 * search, i.e. a disjunction of their primary identifier values.
+	 *
+	 * The shadows are looked up before the resource objects are processed, so they may get out of date in the meantime.
+	 * Modifications have to be watched by {@link #watchShadowModifications()} (started before this method is called)
+	 * and each shadow has to be passed to {@link #usePrefetchedShadow(PrismObject, ModificationWatcher, OperationResult)}
+	 * when its resource object is processed. (DEAD flag is cleared there.)
+	 *
+	 * @return map from the resource objects (compared by identity) to their shadows. Resource objects without a shadow
+	 *         and the ones that cannot be reliably resolved this way (no or multi-valued identifier, identifier repeated
+	 *         in the batch, more shadows found, etc.) are not present in the map and have to be looked up individually.
+	 *         A shadow can be created while the preceding objects are processed, so a missing shadow is not trusted.
+	 */
+	public Map<PrismObject<ShadowType>, PrismObject<ShadowType>> lookupShadowsInRepository(ProvisioningContext ctx,
+			List<PrismObject<ShadowType>> resourceShadows, OperationResult parentResult)
+					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException, ExpressionEvaluationException {
+
+		Map<PrismObject<ShadowType>, PrismObject<ShadowType>> rv = new IdentityHashMap<>();
+		RefinedObjectClassDefinition objectClassDefinition = ctx.getObjectClassDefinition();
+		PrismPropertyDefinition<?> identifierDef = null;
+		QName objectClass = null;
+		Map<Object, PrismObject<ShadowType>> resourceShadowsByIdentifier = new HashMap<>();
+		Set<Object> repeatedIdentifiers = new HashSet<>();
+		List<ObjectFilter> identifierFilters = new ArrayList<>();
+		for (PrismObject<ShadowType> resourceShadow : resourceShadows) {
+			ResourceAttributeContainer attributesContainer = ShadowUtil.getAttributesContainer(resourceShadow);
+			PrismProperty<?> identifier = attributesContainer != null ? attributesContainer.getPrimaryIdentifier() : null;
+			QName shadowObjectClass = resourceShadow.getPropertyRealValue(ShadowType.F_OBJECT_CLASS, QName.class);
+			if (identifier == null || identifier.size() != 1 || identifier.getDefinition() == null || shadowObjectClass == null) {
+				continue;
+			}
+			if (identifierDef == null) {
+				identifierDef = identifier.getDefinition();
+				objectClass = shadowObjectClass;
+			} else if (!QNameUtil.match(identifierDef.getName(), identifier.getElementName())
+					|| !QNameUtil.match(objectClass, shadowObjectClass)) {
+				continue;
+			}
+			List<? extends PrismPropertyValue<?>> normalizedValues = getNormalizedValue(identifier, objectClassDefinition);
+			Object normalizedValue = normalizedValues.get(0).getValue();
+			if (normalizedValue == null) {
+				continue;
+			}
+			if (resourceShadowsByIdentifier.put(normalizedValue, resourceShadow) != null) {
+				repeatedIdentifiers.add(normalizedValue);
+			} else {
+				// TODO TODO TODO TODO: set matching rule instead of null
+				identifierFilters.add(QueryBuilder.queryFor(ShadowType.class, prismContext)
+						.itemWithDef(identifierDef, ShadowType.F_ATTRIBUTES, identifierDef.getName()).eq(normalizedValues)
+						.buildFilter());
+			}
+		}
+		if (identifierFilters.isEmpty()) {
+			return rv;
+		}
+		// repeated identifiers are looked up individually, as the shadow can be created while processing the batch
+		resourceShadowsByIdentifier.keySet().removeAll(repeatedIdentifiers);
+
+		ObjectFilter commonFilter = QueryBuilder.queryFor(ShadowType.class, prismContext)
+				.item(ShadowType.F_OBJECT_CLASS).eq(objectClass)
+				.and().item(ShadowType.F_RESOURCE_REF).ref(ctx.getResourceOid())
+				.buildFilter();
+		ObjectQuery query = ObjectQuery.createObjectQuery(AndFilter.createAnd(OrFilter.createOr(identifierFilters), commonFilter));
+		if (LOGGER.isTraceEnabled()) {
+			LOGGER.trace("Searching for shadows using filter:\n{}", query.debugDump());
+		}
+
+		List<PrismObject<ShadowType>> results = repositoryService.searchObjects(ShadowType.class, query, null, parentResult);
+		MiscSchemaUtil.reduceSearchResult(results);
+		LOGGER.trace("lookupShadows found {} objects for {} resource objects", results.size(), resourceShadows.size());
+
+		Map<Object, List<PrismObject<ShadowType>>> shadowsByIdentifier = new HashMap<>();
+		for (PrismObject<ShadowType> shadow : results) {
+			Object identifierValue = getRepoShadowIdentifierValue(shadow, identifierDef, objectClassDefinition);
+			if (identifierValue != null && resourceShadowsByIdentifier.containsKey(identifierValue)) {
+				shadowsByIdentifier.computeIfAbsent(identifierValue, k -> new ArrayList<>()).add(shadow);
+			}
+		}
+
+		for (Map.Entry<Object, PrismObject<ShadowType>> entry : resourceShadowsByIdentifier.entrySet()) {
+			List<PrismObject<ShadowType>> shadows = shadowsByIdentifier.get(entry.getKey());
+			if (shadows != null && shadows.size() == 1) {
+				PrismObject<ShadowType> shadow = shadows.get(0);
+				checkConsistency(shadow);
+				rv.put(entry.getValue(), shadow);
+			}
+			// more shadows found: the individual lookup will report the problem
+		}
+		return rv;
+	}
+
+	/**
+	 * Starts watching shadows added, modified or deleted on this node, see
+	 * {@link #lookupShadowsInRepository(ProvisioningContext, List, OperationResult)}. The watcher has to be closed
+	 * after the looked up shadows are processed.
+	 *
+	 * @return null if the repository is not accessed through the repository cache, so the modifications cannot
+	 *         be watched. The shadows looked up in advance then must not be used.
+	 */
+	public ModificationWatcher watchShadowModifications() {
+		if (repositoryService instanceof RepositoryCache) {
+			return ((RepositoryCache) repositoryService).watchModifications(ShadowType.class);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the shadow found for a resource object by
+	 * {@link #lookupShadowsInRepository(ProvisioningContext, List, OperationResult)}, if it is still current.
+	 * Processing of the preceding objects could have modified or deleted the shadow. If this node did so (as told by
+	 * the watcher), null is returned and the shadow has to be looked up again. Changes done by other nodes in the
+	 * meantime are not detected, just as they were not detected between an individual lookup and the processing
+	 * of the object.
+	 *
+	 * DEAD flag is cleared - in memory as well as in repository.
+	 */
+	public PrismObject<ShadowType> usePrefetchedShadow(PrismObject<ShadowType> prefetchedShadow,
+			ModificationWatcher modificationWatcher, OperationResult parentResult) throws SchemaException, ObjectNotFoundException {
+		if (modificationWatcher == null || modificationWatcher.isModified(prefetchedShadow.getOid())) {
+			LOGGER.trace("Prefetched shadow {} could have been modified after it was looked up, it will be looked up again",
+					prefetchedShadow);
+			return null;
+		}
+		processLookedUpShadow(prefetchedShadow, parentResult);
+		return prefetchedShadow;
+	}
+
+	private <T> Object getRepoShadowIdentifierValue(PrismObject<ShadowType> shadow, PrismPropertyDefinition<T> identifierDef,
+			RefinedObjectClassDefinition objectClassDefinition) {
+		PrismContainer<?> attributesContainer = shadow.findContainer(ShadowType.F_ATTRIBUTES);
+		if (attributesContainer == null) {
+			return null;
+		}
+		try {
+			PrismProperty<T> identifier = attributesContainer.findProperty(identifierDef.getName());
+			if (identifier == null || identifier.size() != 1) {
+				return null;
+			}
+			if (identifier.getDefinition() == null) {
+				identifier = identifier.clone();
+				identifier.applyDefinition(identifierDef);
+			}
+			return getNormalizedValue(identifier, objectClassDefinition).get(0).getValue();
+		} catch (SchemaException | RuntimeException e) {
+			LOGGER.trace("Couldn't determine identifier value of {}: {}", shadow, e.getMessage(), e);
+			return null;
+		}
+	}
+
+	private void processLookedUpShadow(PrismObject<ShadowType> shadow, OperationResult parentResult)
+			throws SchemaException, ObjectNotFoundException {
 		checkConsistency(shadow);
 
 		if (Boolean.TRUE.equals(shadow.asObjectable().isDead())) {
@@ -237,7 +405,6 @@ public class ShadowManager {
 				throw new SystemException("Unexpected exception when resetting 'dead' flag: " + e.getMessage(), e);
 			}
 		}
-		return shadow;
 	}
 
 	public PrismObject<ShadowType> lookupShadowInRepository(ProvisioningContext ctx, ResourceAttributeContainer identifierContainer,
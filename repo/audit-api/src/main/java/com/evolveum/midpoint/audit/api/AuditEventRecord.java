@@ -517,8 +517,12 @@ public class AuditEventRecord implements DebugDumpable {
         clone.result = this.result;
         clone.parameter = this.parameter;
         clone.message = this.message;
-        clone.properties.putAll(properties);		// TODO deep clone?
-        clone.references.putAll(references);		// TODO deep clone?
+        for (Map.Entry<String, Set<String>> entry : properties.entrySet()) {
+            clone.properties.put(entry.getKey(), new HashSet<>(entry.getValue()));
+        }
+        for (Map.Entry<String, Set<AuditReferenceValue>> entry : references.entrySet()) {
+            clone.references.put(entry.getKey(), new HashSet<>(entry.getValue()));
+        }
 		return clone;
 	}
 
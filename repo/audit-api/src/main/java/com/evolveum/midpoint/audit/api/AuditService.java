@@ -34,6 +34,13 @@ public interface AuditService {
 
 	void audit(AuditEventRecord record, Task task);
 
+	/**
+	 * Waits until the audit records are stored, if the implementation writes them asynchronously
+	 * and it is configured to flush them at the end of a task run. Called when a task run ends.
+	 */
+	default void flush(Task task) {
+	}
+
     /**
      * Clean up audit records that are older than specified.
      *
@@ -17,6 +17,7 @@ package com.evolveum.midpoint.repo.api;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import com.evolveum.midpoint.prism.Containerable;
 import com.evolveum.midpoint.prism.PrismObject;
@@ -118,6 +119,7 @@ public interface RepositoryService {
 
     String CLASS_NAME_WITH_DOT = RepositoryService.class.getName() + ".";
     String GET_OBJECT = CLASS_NAME_WITH_DOT + "getObject";
+    String GET_OBJECTS = CLASS_NAME_WITH_DOT + "getObjects";
     @Deprecated
     String LIST_ACCOUNT_SHADOW = CLASS_NAME_WITH_DOT + "listAccountShadowOwner";
     String ADD_OBJECT = CLASS_NAME_WITH_DOT + "addObject";
@@ -163,6 +165,29 @@ public interface RepositoryService {
 			OperationResult parentResult)
 			throws ObjectNotFoundException, SchemaException;
 
+	/**
+	 * Returns objects for provided OIDs. This is much cheaper than calling getObject for each OID,
+	 * as the objects are fetched in a small number of queries.
+	 *
+	 * Unlike getObject, this method does not fail if some of the objects do not exist: such OIDs are
+	 * simply not present in the returned map. It is up to the caller to decide whether it is an error.
+	 *
+	 * @param oids
+	 *            OIDs of the objects to get (duplicates are ignored)
+	 * @param parentResult
+	 *            parent OperationResult (in/out)
+	 * @return Objects fetched from repository, keyed by OID
+	 *
+	 * @throws SchemaException
+	 *             error dealing with storage schema, e.g. an object is not of the requested type
+	 * @throws IllegalArgumentException
+	 *             wrong OID format, etc.
+	 */
+	@NotNull
+	<T extends ObjectType> Map<String, PrismObject<T>> getObjects(Class<T> type, Collection<String> oids,
+			Collection<SelectorOptions<GetOperationOptions>> options, OperationResult parentResult)
+			throws SchemaException;
+
 //	<T extends ObjectType> PrismObject<T> getContainerValue(Class<T> type, String oid, long id,
 //															Collection<SelectorOptions<GetOperationOptions>> options,
 //															OperationResult parentResult)
@@ -513,6 +538,12 @@ public interface RepositoryService {
 	 * This operation is guaranteed to be atomic. If two threads or even two nodes request a value from
 	 * the same sequence at the same time then different values will be returned.
 	 *
+	 * If the sequence has allocationBlockSize set, the values may be returned from a block that was
+	 * allocated by this node earlier, so they are not necessarily increasing across nodes.
+	 * When the sequence is modified or deleted, only the block allocated by this node is discarded.
+	 * Blocks allocated by other nodes are never invalidated by this: they keep handing out their values,
+	 * e.g. values from before a counter reset, until they are exhausted.
+	 *
 	 * @param oid sequence OID
 	 * @param parentResult Operation result
 	 * @return next unallocated counter value
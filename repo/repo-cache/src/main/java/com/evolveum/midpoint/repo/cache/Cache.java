@@ -16,21 +16,29 @@
 
 package com.evolveum.midpoint.repo.cache;
 
-import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.schema.SearchResultList;
 import com.evolveum.midpoint.util.caching.AbstractCache;
-import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.function.Predicate;
 
 /**
+ * Per-thread cache of objects, their versions and query results.
+ *
+ * Query results are indexed by object type, so that a change of an object touches only the results
+ * of related types (the type itself, its supertypes and subtypes). Within these, only the results
+ * that could be influenced by the change are removed (see {@link CachedQueryResult}).
+ *
  * @author Pavol Mederly
  */
 public class Cache extends AbstractCache {
@@ -39,15 +47,23 @@ public class Cache extends AbstractCache {
 
     private Map<String, PrismObject<? extends ObjectType>> objects = new HashMap<>();
     private Map<String, String> versions = new HashMap<>();
-    private Map<QueryKey, SearchResultList> queries = new HashMap<>();
+    private Map<Class<? extends ObjectType>, Map<QueryKey, CachedQueryResult>> queries = new HashMap<>();
 
     public int size() {
-        return objects.size() + versions.size() + queries.size();
+        return objects.size() + versions.size() + getQueryResultsCount();
     }
 
     @Override
     public String description() {
-        return "O:"+objects.size()+", V:"+versions.size()+", Q:"+queries.size();
+        return "O:"+objects.size()+", V:"+versions.size()+", Q:"+getQueryResultsCount();
+    }
+
+    private int getQueryResultsCount() {
+        int count = 0;
+        for (Map<QueryKey, CachedQueryResult> queriesForType : queries.values()) {
+            count += queriesForType.size();
+        }
+        return count;
     }
 
     public PrismObject<? extends ObjectType> getObject(String oid) {
@@ -64,46 +80,106 @@ public class Cache extends AbstractCache {
         versions.remove(oid);
     }
 
-    public <T extends ObjectType> void putQueryResult(Class<T> type, ObjectQuery query, SearchResultList searchResultList, PrismContext prismContext) {
-        QueryKey queryKey = createQueryKey(type, query, prismContext);
-        if (queryKey != null) {     // TODO BRUTAL HACK
-            queries.put(queryKey, searchResultList);
-        }
+    public <T extends ObjectType> void putQueryResult(Class<T> type, ObjectQuery query, SearchResultList<PrismObject<T>> searchResultList) {
+        QueryKey queryKey = QueryKey.createForStorage(type, query);
+        queries.computeIfAbsent(type, k -> new HashMap<>())
+                .put(queryKey, new CachedQueryResult(queryKey.getQuery(), searchResultList));
     }
 
     public void clearQueryResults() {
         queries.clear();
     }
 
+    /**
+     * Removes all query results for the given type and all related (super- and sub-) types.
+     */
     public <T extends ObjectType> void clearQueryResults(Class<T> type) {
-        // TODO implement more efficiently
         int removed = 0;
-        Iterator<Map.Entry<QueryKey, SearchResultList>> iterator = queries.entrySet().iterator();
+        Iterator<Map.Entry<Class<? extends ObjectType>, Map<QueryKey, CachedQueryResult>>> iterator = queries.entrySet().iterator();
         while (iterator.hasNext()) {
-            if (type.equals(iterator.next().getKey().getType())) {
+            Map.Entry<Class<? extends ObjectType>, Map<QueryKey, CachedQueryResult>> entry = iterator.next();
+            if (isRelated(type, entry.getKey())) {
+                removed += entry.getValue().size();
                 iterator.remove();
-                removed++;
             }
         }
         LOGGER.trace("Removed {} query result entries of type {}", removed, type);
     }
 
-    public SearchResultList getQueryResult(Class<? extends ObjectType> type, ObjectQuery query, PrismContext prismContext) {
-        QueryKey queryKey = createQueryKey(type, query, prismContext);
-        if (queryKey != null) {         // TODO BRUTAL HACK
-            return queries.get(queryKey);
-        } else {
-            return null;
+    /**
+     * Removes query results that could be changed by adding the object: those with the filter matching the object.
+     */
+    public <T extends ObjectType> void invalidateQueryResultsOnAdd(PrismObject<T> object, MatchingRuleRegistry matchingRuleRegistry) {
+        Class<T> objectClass = object.getCompileTimeClass();
+        if (objectClass == null) {
+            clearQueryResults();
+            return;
+        }
+        int removed = 0;
+        for (Map.Entry<Class<? extends ObjectType>, Map<QueryKey, CachedQueryResult>> entry : queries.entrySet()) {
+            if (entry.getKey().isAssignableFrom(objectClass)) {
+                removed += removeIf(entry.getValue(), r -> r.isAffectedByAdd(object, matchingRuleRegistry));
+            }
         }
+        LOGGER.trace("Removed {} query result entries because of addition of {}", removed, object);
     }
 
-    private QueryKey createQueryKey(Class<? extends ObjectType> type, ObjectQuery query, PrismContext prismContext) {
-        try {
-            return new QueryKey(type, query, prismContext);
-        } catch (Exception e) {     // TODO THIS IS REALLY UGLY HACK - query converter / prism serializer refuse to serialize some queries - should be fixed RSN!
-            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't create query key. Although this particular exception is harmless, please fix prism implementation!", e);
-            return null;            // we "treat" it so that we simply pretend the entry is not in the cache and/or refuse to enter it into the cache
+    /**
+     * Removes query results that could be changed by the modification: those containing the object
+     * and those whose filter depends on the items being modified.
+     */
+    public <T extends ObjectType> void invalidateQueryResultsOnModify(Class<T> type, String oid, Collection<? extends ItemDelta> modifications) {
+        int removed = 0;
+        for (Map.Entry<Class<? extends ObjectType>, Map<QueryKey, CachedQueryResult>> entry : queries.entrySet()) {
+            if (isRelated(type, entry.getKey())) {
+                removed += removeIf(entry.getValue(), r -> r.isAffectedByModify(oid, modifications));
+            }
+        }
+        LOGGER.trace("Removed {} query result entries because of modification of {} ({})", removed, oid, type.getSimpleName());
+    }
+
+    /**
+     * Removes query results that could be changed by deleting the object: basically those that contain it.
+     */
+    public <T extends ObjectType> void invalidateQueryResultsOnDelete(Class<T> type, String oid) {
+        int removed = 0;
+        for (Map.Entry<Class<? extends ObjectType>, Map<QueryKey, CachedQueryResult>> entry : queries.entrySet()) {
+            if (isRelated(type, entry.getKey())) {
+                removed += removeIf(entry.getValue(), r -> r.isAffectedByDelete(oid));
+            }
         }
+        LOGGER.trace("Removed {} query result entries because of deletion of {} ({})", removed, oid, type.getSimpleName());
+    }
+
+    private int removeIf(Map<QueryKey, CachedQueryResult> queriesForType, Predicate<CachedQueryResult> predicate) {
+        int removed = 0;
+        Iterator<CachedQueryResult> iterator = queriesForType.values().iterator();
+        while (iterator.hasNext()) {
+            if (predicate.test(iterator.next())) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private boolean isRelated(Class<?> type1, Class<?> type2) {
+        return type1.isAssignableFrom(type2) || type2.isAssignableFrom(type1);
+    }
+
+    public SearchResultList getQueryResult(Class<? extends ObjectType> type, ObjectQuery query) {
+        Map<QueryKey, CachedQueryResult> queriesForType = queries.get(type);
+        if (queriesForType == null) {
+            return null;
+        }
+        CachedQueryResult cachedResult = queriesForType.get(QueryKey.createForLookup(type, query));
+        return cachedResult != null ? cachedResult.getResult() : null;
+    }
+
+    public void clear() {
+        objects.clear();
+        versions.clear();
+        queries.clear();
     }
 
     public String getObjectVersion(String oid) {
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
+import com.evolveum.midpoint.prism.path.IdItemPathSegment;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.path.ItemPathSegment;
+import com.evolveum.midpoint.prism.path.NameItemPathSegment;
+import com.evolveum.midpoint.prism.query.AllFilter;
+import com.evolveum.midpoint.prism.query.EqualFilter;
+import com.evolveum.midpoint.prism.query.ExistsFilter;
+import com.evolveum.midpoint.prism.query.InOidFilter;
+import com.evolveum.midpoint.prism.query.LogicalFilter;
+import com.evolveum.midpoint.prism.query.NoneFilter;
+import com.evolveum.midpoint.prism.query.ObjectFilter;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.TypeFilter;
+import com.evolveum.midpoint.prism.query.UndefinedFilter;
+import com.evolveum.midpoint.prism.query.ValueFilter;
+import com.evolveum.midpoint.schema.SearchResultList;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cached result of a search, along with the information needed to decide whether a particular
+ * repository change can influence it:
+ *
+ *  - OIDs of the objects returned,
+ *  - item paths the filter depends on (null if they cannot be determined, e.g. for org or full text filters),
+ *    reduced to their named segments, as container ids in filters and modifications cannot be compared,
+ *  - whether the filter can be evaluated in memory exactly as the repository would evaluate it,
+ *  - whether the query is paged (paged results are invalidated on any change of the given type).
+ *
+ * Whenever it cannot be decided whether the change influences the result, the result is considered affected.
+ */
+class CachedQueryResult {
+
+	private static final Trace LOGGER = TraceManager.getTrace(CachedQueryResult.class);
+
+	private final SearchResultList result;
+	private final ObjectFilter filter;
+	private final Set<String> oids = new HashSet<>();
+	private final List<ItemPath> referencedPaths;
+	private final boolean exactlyEvaluable;
+	private final boolean paged;
+
+	CachedQueryResult(ObjectQuery query, SearchResultList<? extends PrismObject<? extends ObjectType>> result) {
+		this.result = result;
+		this.filter = query != null ? query.getFilter() : null;
+		for (PrismObject<? extends ObjectType> object : result) {
+			oids.add(object.getOid());
+		}
+		this.referencedPaths = getReferencedPaths(filter);
+		this.exactlyEvaluable = isExactlyEvaluable(filter);
+		this.paged = query != null && query.getPaging() != null;
+	}
+
+	SearchResultList getResult() {
+		return result;
+	}
+
+	/**
+	 * Can the addition of the object change this result? Only if the object matches the filter. But in-memory
+	 * evaluation can disagree with the database (e.g. because of collation or polystring normalization),
+	 * so it is used only for filters that do not compare strings.
+	 */
+	boolean isAffectedByAdd(PrismObject<? extends ObjectType> object, MatchingRuleRegistry matchingRuleRegistry) {
+		if (paged || referencedPaths == null || !exactlyEvaluable || matchingRuleRegistry == null) {
+			return true;
+		}
+		if (filter == null) {
+			return true;
+		}
+		try {
+			return ObjectQuery.match(object, filter, matchingRuleRegistry);
+		} catch (Throwable t) {
+			LOGGER.trace("Couldn't evaluate filter {} against {}, considering the query result as affected", filter, object, t);
+			return true;
+		}
+	}
+
+	/**
+	 * Can the modification of the object change this result? If the object is in the result, then yes (at least
+	 * its content changed). If it is not, the result changes only if the object starts matching the filter,
+	 * so the modification has to touch some of the items the filter depends on.
+	 */
+	boolean isAffectedByModify(String oid, Collection<? extends ItemDelta> modifications) {
+		if (paged || referencedPaths == null || modifications == null || oids.contains(oid)) {
+			return true;
+		}
+		for (ItemDelta<?, ?> modification : modifications) {
+			ItemPath modifiedPath = getNamedPath(modification.getPath());
+			if (modifiedPath == null) {
+				return true;
+			}
+			for (ItemPath referencedPath : referencedPaths) {
+				if (modifiedPath.compareComplex(referencedPath) != ItemPath.CompareResult.NO_RELATION) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The deleted object can only disappear from the result.
+	 */
+	boolean isAffectedByDelete(String oid) {
+		return paged || referencedPaths == null || oids.contains(oid);
+	}
+
+	/**
+	 * Returns the item paths the filter depends on, or null if they cannot be determined.
+	 */
+	private static List<ItemPath> getReferencedPaths(ObjectFilter filter) {
+		List<ItemPath> paths = new ArrayList<>();
+		return collectReferencedPaths(filter, paths) ? paths : null;
+	}
+
+	private static boolean collectReferencedPaths(ObjectFilter filter, List<ItemPath> paths) {
+		if (filter == null || filter instanceof AllFilter || filter instanceof NoneFilter
+				|| filter instanceof UndefinedFilter || filter instanceof InOidFilter) {
+			return true;
+		} else if (filter instanceof LogicalFilter) {
+			for (ObjectFilter condition : ((LogicalFilter) filter).getConditions()) {
+				if (!collectReferencedPaths(condition, paths)) {
+					return false;
+				}
+			}
+			return true;
+		} else if (filter instanceof TypeFilter) {
+			return collectReferencedPaths(((TypeFilter) filter).getFilter(), paths);
+		} else if (filter instanceof ExistsFilter) {
+			// any change of the inner filter items is a change under the exists path
+			return addPath(((ExistsFilter) filter).getFullPath(), paths);
+		} else if (filter instanceof ValueFilter) {
+			ValueFilter<?, ?> valueFilter = (ValueFilter<?, ?>) filter;
+			return addPath(valueFilter.getFullPath(), paths)
+					&& (valueFilter.getRightHandSidePath() == null || addPath(valueFilter.getRightHandSidePath(), paths));
+		} else {
+			// org filter, full text filter, ... - they depend on data we cannot see in the delta
+			return false;
+		}
+	}
+
+	private static boolean addPath(ItemPath path, List<ItemPath> paths) {
+		ItemPath namedPath = getNamedPath(path);
+		if (namedPath == null) {
+			return false;
+		}
+		paths.add(namedPath);
+		return true;
+	}
+
+	/**
+	 * Returns the path without container ids (e.g. assignment/[5]/targetRef becomes assignment/targetRef),
+	 * or null if the path contains segments other than names and ids (dereferencing, parent and identifier
+	 * segments make the filter depend on other objects or on the OID).
+	 */
+	private static ItemPath getNamedPath(ItemPath path) {
+		if (path == null) {
+			return null;
+		}
+		for (ItemPathSegment segment : path.getSegments()) {
+			if (!(segment instanceof IdItemPathSegment) && !isPlainName(segment)) {
+				return null;
+			}
+		}
+		return path.namedSegmentsOnly();
+	}
+
+	/**
+	 * Can the filter be evaluated in memory with the same result as in the repository? We are conservative here:
+	 * only equality of values compared by Java equality is considered safe. Strings and polystrings are
+	 * compared according to the database collation; references are matched differently in memory (all values
+	 * of the item have to match) and so on.
+	 */
+	private static boolean isExactlyEvaluable(ObjectFilter filter) {
+		if (filter == null || filter instanceof AllFilter || filter instanceof NoneFilter
+				|| filter instanceof UndefinedFilter || filter instanceof InOidFilter) {
+			return true;
+		} else if (filter instanceof LogicalFilter) {
+			for (ObjectFilter condition : ((LogicalFilter) filter).getConditions()) {
+				if (!isExactlyEvaluable(condition)) {
+					return false;
+				}
+			}
+			return true;
+		} else if (filter instanceof TypeFilter) {
+			return isExactlyEvaluable(((TypeFilter) filter).getFilter());
+		} else if (filter instanceof EqualFilter) {
+			EqualFilter<?> equalFilter = (EqualFilter<?>) filter;
+			if (equalFilter.getRightHandSidePath() != null || equalFilter.getMatchingRule() != null) {
+				return false;
+			}
+			if (equalFilter.getValues() != null) {
+				for (PrismPropertyValue<?> value : equalFilter.getValues()) {
+					if (!isExactlyComparable(value.getRealValue())) {
+						return false;
+					}
+				}
+			}
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	private static boolean isExactlyComparable(Object realValue) {
+		return realValue instanceof Boolean || realValue instanceof Integer || realValue instanceof Long
+				|| realValue instanceof Short || realValue instanceof Enum;
+	}
+
+	private static boolean isPlainName(ItemPathSegment segment) {
+		return segment instanceof NameItemPathSegment && !((NameItemPathSegment) segment).isVariable()
+				&& !segment.isWildcard();
+	}
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.schema.internals.CachingStatistics;
+import com.evolveum.midpoint.schema.internals.InternalMonitor;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import org.apache.commons.configuration.Configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Node-wide (JVM-wide) object cache that sits underneath the thread-local {@link Cache}.
+ *
+ * Only selected object types are cached here; each of them has its own size limit (LRU) and time to live.
+ * Objects are stored as immutable clones. Entries are invalidated by local modifications (see {@link RepositoryCache})
+ * and, optionally, validated against the repository version on each hit. This covers modifications done
+ * by other cluster nodes; if version checking is switched off, the time to live is the only bound on staleness.
+ *
+ * The cache is disabled unless maxSize is configured.
+ */
+public class GlobalObjectCache {
+
+	private static final Trace LOGGER = TraceManager.getTrace(GlobalObjectCache.class);
+
+	public static final String CONFIGURATION_GLOBAL_CACHE = "globalCache";
+	public static final String PROPERTY_MAX_SIZE = "maxSize";
+	public static final String PROPERTY_TIME_TO_LIVE = "timeToLive";
+	public static final String PROPERTY_VERSION_CHECK = "versionCheck";
+	public static final String PROPERTY_OBJECT_TYPES = "objectTypes";
+
+	private static final int DEFAULT_MAX_SIZE = 0;
+	private static final long DEFAULT_TIME_TO_LIVE = 60;          // seconds
+	private static final boolean DEFAULT_VERSION_CHECK = true;
+
+	private static final List<Class<? extends ObjectType>> DEFAULT_OBJECT_TYPES = Arrays.asList(
+			RoleType.class, OrgType.class, ServiceType.class, ObjectTemplateType.class, ValuePolicyType.class,
+			SecurityPolicyType.class, SystemConfigurationType.class);
+
+	private final Map<Class<? extends ObjectType>, TypeCache> typeCaches;
+
+	private GlobalObjectCache(Map<Class<? extends ObjectType>, TypeCache> typeCaches) {
+		this.typeCaches = typeCaches;
+	}
+
+	/**
+	 * Creates the cache from "globalCache" section of the repository configuration, e.g.
+	 *
+	 * <pre>{@code
+	 * <globalCache>
+	 *     <maxSize>1000</maxSize>
+	 *     <timeToLive>60</timeToLive>
+	 *     <versionCheck>true</versionCheck>
+	 *     <objectTypes>RoleType,OrgType,SystemConfigurationType</objectTypes>
+	 *     <OrgType>
+	 *         <maxSize>10000</maxSize>
+	 *     </OrgType>
+	 * </globalCache>
+	 * }</pre>
+	 *
+	 * Returns null if the cache is not enabled.
+	 */
+	public static GlobalObjectCache create(Configuration repositoryConfiguration) {
+		if (repositoryConfiguration == null) {
+			return null;
+		}
+		Configuration config = repositoryConfiguration.subset(CONFIGURATION_GLOBAL_CACHE);
+		int defaultMaxSize = config.getInt(PROPERTY_MAX_SIZE, DEFAULT_MAX_SIZE);
+		long defaultTimeToLive = config.getLong(PROPERTY_TIME_TO_LIVE, DEFAULT_TIME_TO_LIVE);
+		boolean defaultVersionCheck = config.getBoolean(PROPERTY_VERSION_CHECK, DEFAULT_VERSION_CHECK);
+
+		List<Class<? extends ObjectType>> types;
+		String[] typeNames = config.getStringArray(PROPERTY_OBJECT_TYPES);
+		if (typeNames.length == 0) {
+			types = DEFAULT_OBJECT_TYPES;
+		} else {
+			types = new ArrayList<>();
+			for (String typeName : typeNames) {
+				types.add(ObjectTypes.getObjectTypeClass(typeName.trim()));
+			}
+		}
+
+		Map<Class<? extends ObjectType>, TypeCache> typeCaches = new HashMap<>();
+		for (Class<? extends ObjectType> type : types) {
+			if (TaskType.class.equals(type)) {
+				LOGGER.warn("Tasks cannot be cached in the global repository cache, ignoring");
+				continue;
+			}
+			Configuration typeConfig = config.subset(type.getSimpleName());
+			int maxSize = typeConfig.getInt(PROPERTY_MAX_SIZE, defaultMaxSize);
+			long timeToLive = typeConfig.getLong(PROPERTY_TIME_TO_LIVE, defaultTimeToLive);
+			boolean versionCheck = typeConfig.getBoolean(PROPERTY_VERSION_CHECK, defaultVersionCheck);
+			if (maxSize > 0) {
+				typeCaches.put(type, new TypeCache(maxSize, timeToLive * 1000L, versionCheck));
+				LOGGER.info("Global repository cache enabled for {}: maxSize={}, timeToLive={}s, versionCheck={}",
+						type.getSimpleName(), maxSize, timeToLive, versionCheck);
+			}
+		}
+		if (typeCaches.isEmpty()) {
+			return null;
+		}
+		return new GlobalObjectCache(Collections.unmodifiableMap(typeCaches));
+	}
+
+	public boolean supports(Class<?> type) {
+		return typeCaches.containsKey(type);
+	}
+
+	public boolean isVersionCheck(Class<?> type) {
+		TypeCache typeCache = typeCaches.get(type);
+		return typeCache != null && typeCache.versionCheck;
+	}
+
+	/**
+	 * Returns (immutable) cached object or null if there's no valid entry.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends ObjectType> PrismObject<T> get(Class<T> type, String oid) {
+		TypeCache typeCache = typeCaches.get(type);
+		if (typeCache == null) {
+			return null;
+		}
+		CachingStatistics stats = InternalMonitor.getRepositoryGlobalCacheStats();
+		stats.recordRequest();
+		PrismObject<T> object = (PrismObject<T>) typeCache.get(oid, System.currentTimeMillis());
+		if (object != null) {
+			stats.recordHit();
+		} else {
+			stats.recordMiss();
+		}
+		return object;
+	}
+
+	public <T extends ObjectType> void put(PrismObject<T> object) {
+		if (object == null || object.getOid() == null) {
+			return;
+		}
+		TypeCache typeCache = typeCaches.get(object.getCompileTimeClass());
+		if (typeCache != null) {
+			typeCache.put(object.getOid(), object.createImmutableClone(), System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * The type of the modified object is not always known precisely (e.g. AbstractRoleType or ObjectType
+	 * can be used for modifications), so we remove the entry from all the type-specific caches.
+	 */
+	public void remove(String oid) {
+		if (oid == null) {
+			return;
+		}
+		for (TypeCache typeCache : typeCaches.values()) {
+			typeCache.remove(oid);
+		}
+	}
+
+	/**
+	 * Removes an entry that was found to be stale (e.g. by version check).
+	 */
+	public void evict(Class<?> type, String oid) {
+		TypeCache typeCache = typeCaches.get(type);
+		if (typeCache != null && typeCache.remove(oid)) {
+			InternalMonitor.getRepositoryGlobalCacheStats().recordEviction();
+		}
+	}
+
+	public void clear() {
+		for (TypeCache typeCache : typeCaches.values()) {
+			typeCache.clear();
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (TypeCache typeCache : typeCaches.values()) {
+			size += typeCache.size();
+		}
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("GlobalObjectCache(");
+		Iterator<Map.Entry<Class<? extends ObjectType>, TypeCache>> iterator = typeCaches.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Class<? extends ObjectType>, TypeCache> entry = iterator.next();
+			sb.append(entry.getKey().getSimpleName()).append(":").append(entry.getValue().size());
+			if (iterator.hasNext()) {
+				sb.append(", ");
+			}
+		}
+		return sb.append(")").toString();
+	}
+
+	private static class CacheEntry {
+		private final PrismObject<? extends ObjectType> object;
+		private final long timestamp;
+
+		private CacheEntry(PrismObject<? extends ObjectType> object, long timestamp) {
+			this.object = object;
+			this.timestamp = timestamp;
+		}
+	}
+
+	/**
+	 * LRU map for a single object type. Access is serialized; the critical sections are short
+	 * (no cloning or repository access is done inside).
+	 */
+	private static class TypeCache {
+		private final long timeToLive;
+		private final boolean versionCheck;
+		private final LinkedHashMap<String, CacheEntry> entries;
+
+		private TypeCache(int maxSize, long timeToLive, boolean versionCheck) {
+			this.timeToLive = timeToLive;
+			this.versionCheck = versionCheck;
+			this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+					if (size() > maxSize) {
+						InternalMonitor.getRepositoryGlobalCacheStats().recordEviction();
+						return true;
+					} else {
+						return false;
+					}
+				}
+			};
+		}
+
+		private synchronized PrismObject<? extends ObjectType> get(String oid, long now) {
+			CacheEntry entry = entries.get(oid);
+			if (entry == null) {
+				return null;
+			}
+			if (timeToLive > 0 && now - entry.timestamp > timeToLive) {
+				entries.remove(oid);
+				InternalMonitor.getRepositoryGlobalCacheStats().recordEviction();
+				return null;
+			}
+			return entry.object;
+		}
+
+		private synchronized void put(String oid, PrismObject<? extends ObjectType> object, long now) {
+			entries.put(oid, new CacheEntry(object, now));
+		}
+
+		private synchronized boolean remove(String oid) {
+			return entries.remove(oid) != null;
+		}
+
+		private synchronized void clear() {
+			entries.clear();
+		}
+
+		private synchronized int size() {
+			return entries.size();
+		}
+	}
+}
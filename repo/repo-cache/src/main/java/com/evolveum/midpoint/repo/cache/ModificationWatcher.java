@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records OIDs of objects of a given type that were added, modified or deleted through the repository cache
+ * (by any thread of this node) while the watcher is open. See {@link RepositoryCache#watchModifications(Class)}.
+ *
+ * Changes done by other nodes are not recorded.
+ */
+public class ModificationWatcher implements AutoCloseable {
+
+	private final RepositoryCache repositoryCache;
+	private final Class<? extends ObjectType> type;
+	private final Set<String> modifiedOids = ConcurrentHashMap.newKeySet();
+
+	ModificationWatcher(RepositoryCache repositoryCache, Class<? extends ObjectType> type) {
+		this.repositoryCache = repositoryCache;
+		this.type = type;
+	}
+
+	void objectChanged(Class<? extends ObjectType> changedType, String oid) {
+		if (oid != null && (changedType == null || type.isAssignableFrom(changedType))) {
+			modifiedOids.add(oid);
+		}
+	}
+
+	/**
+	 * Was the object added, modified or deleted on this node since the watcher was opened?
+	 */
+	public boolean isModified(String oid) {
+		return modifiedOids.contains(oid);
+	}
+
+	@Override
+	public void close() {
+		repositoryCache.unregisterModificationWatcher(this);
+	}
+
+	@Override
+	public String toString() {
+		return "ModificationWatcher(" + type.getSimpleName() + ": " + modifiedOids.size() + " modified)";
+	}
+}
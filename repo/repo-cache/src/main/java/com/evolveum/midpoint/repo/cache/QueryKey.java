@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2010-2014 Evolveum
+ * Copyright (c) 2010-2017 Evolveum
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,29 +16,59 @@
 
 package com.evolveum.midpoint.repo.cache;
 
-import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.query.ExistsFilter;
+import com.evolveum.midpoint.prism.query.NaryLogicalFilter;
+import com.evolveum.midpoint.prism.query.ObjectFilter;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
-import com.evolveum.midpoint.prism.query.QueryJaxbConvertor;
-import com.evolveum.midpoint.util.exception.SchemaException;
-import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.prism.query.TypeFilter;
+import com.evolveum.midpoint.prism.query.UnaryLogicalFilter;
+import com.evolveum.midpoint.util.QNameUtil;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
-import com.evolveum.prism.xml.ns._public.query_3.QueryType;
+
+import java.util.List;
 
 /**
+ * Key for the query result cache.
+ *
+ * Queries are compared in their canonical form: conditions of AND/OR filters are compared regardless of their order,
+ * and item definitions are not taken into account. The hash code is computed once, at key creation.
+ *
  * @author Pavol Mederly
  */
 public class QueryKey {
 
-    private Class<? extends ObjectType> type;
-    private QueryType query;
+    private final Class<? extends ObjectType> type;
+    private final ObjectQuery query;
+    private final int hashCode;
 
-    public <T extends ObjectType> QueryKey(Class<T> type, ObjectQuery query, PrismContext prismContext) {
+    private QueryKey(Class<? extends ObjectType> type, ObjectQuery query) {
         this.type = type;
-        try {
-            this.query = query != null ? QueryJaxbConvertor.createQueryType(query, prismContext) : null;
-        } catch (SchemaException e) {
-            throw new SystemException(e);
-        }
+        this.query = query;
+        this.hashCode = 31 * (type != null ? type.hashCode() : 0) + queryHashCode(query);
+    }
+
+    /**
+     * Creates a key to be stored in the cache. The query is cloned, so later modifications
+     * of the original query by the caller do not affect the cache.
+     */
+    public static <T extends ObjectType> QueryKey createForStorage(Class<T> type, ObjectQuery query) {
+        return new QueryKey(type, query != null ? query.clone() : null);
+    }
+
+    /**
+     * Creates a key usable only for a lookup. The query is not cloned, so the key must not be kept.
+     */
+    public static <T extends ObjectType> QueryKey createForLookup(Class<T> type, ObjectQuery query) {
+        return new QueryKey(type, query);
+    }
+
+    public Class<? extends ObjectType> getType() {
+        return type;
+    }
+
+    public ObjectQuery getQuery() {
+        return query;
     }
 
     @Override
@@ -48,20 +78,110 @@ public class QueryKey {
 
         QueryKey queryKey = (QueryKey) o;
 
-        if (query != null ? !query.equals(queryKey.query) : queryKey.query != null) return false;
+        if (hashCode != queryKey.hashCode) return false;
         if (type != null ? !type.equals(queryKey.type) : queryKey.type != null) return false;
-
-        return true;
+        return queriesEquivalent(query, queryKey.query);
     }
 
     @Override
     public int hashCode() {
-        int result = type != null ? type.hashCode() : 0;
-        result = 31 * result + (query != null ? query.hashCode() : 0);
+        return hashCode;
+    }
+
+    private static int queryHashCode(ObjectQuery query) {
+        if (query == null) {
+            return 0;
+        }
+        int result = filterHashCode(query.getFilter());
+        result = 31 * result + (query.getPaging() != null ? query.getPaging().hashCode() : 0);
+        result = 31 * result + (query.isAllowPartialResults() ? 1 : 0);
+        result = 31 * result + (query.isUseNewQueryInterpreter() ? 1 : 0);
         return result;
     }
 
-    public Class<? extends ObjectType> getType() {
-        return type;
+    private static int filterHashCode(ObjectFilter filter) {
+        if (filter == null) {
+            return 0;
+        } else if (filter instanceof NaryLogicalFilter) {
+            // sum is used to make the hash code independent on the order of conditions
+            int sum = 0;
+            for (ObjectFilter condition : ((NaryLogicalFilter) filter).getConditions()) {
+                sum += filterHashCode(condition);
+            }
+            return 31 * filter.getClass().hashCode() + sum;
+        } else if (filter instanceof UnaryLogicalFilter) {
+            return 31 * filter.getClass().hashCode() + filterHashCode(((UnaryLogicalFilter) filter).getFilter());
+        } else if (filter instanceof TypeFilter) {
+            TypeFilter typeFilter = (TypeFilter) filter;
+            return 31 * typeFilter.getType().getLocalPart().hashCode() + filterHashCode(typeFilter.getFilter());
+        } else if (filter instanceof ExistsFilter) {
+            // ExistsFilter.hashCode includes the definition, which is expensive and irrelevant here
+            ExistsFilter existsFilter = (ExistsFilter) filter;
+            return 31 * ExistsFilter.class.hashCode() + filterHashCode(existsFilter.getFilter());
+        } else {
+            return filter.hashCode();
+        }
+    }
+
+    private static boolean queriesEquivalent(ObjectQuery q1, ObjectQuery q2) {
+        if (q1 == q2) {
+            return true;
+        }
+        if (q1 == null || q2 == null) {
+            return false;
+        }
+        return q1.isAllowPartialResults() == q2.isAllowPartialResults()
+                && q1.isUseNewQueryInterpreter() == q2.isUseNewQueryInterpreter()
+                && pagingEquivalent(q1.getPaging(), q2.getPaging())
+                && filtersEquivalent(q1.getFilter(), q2.getFilter());
+    }
+
+    private static boolean pagingEquivalent(ObjectPaging p1, ObjectPaging p2) {
+        return p1 != null ? p1.equals(p2, false) : p2 == null;
+    }
+
+    static boolean filtersEquivalent(ObjectFilter f1, ObjectFilter f2) {
+        if (f1 == f2) {
+            return true;
+        }
+        if (f1 == null || f2 == null || f1.getClass() != f2.getClass()) {
+            return false;
+        }
+        if (f1 instanceof NaryLogicalFilter) {
+            return conditionsEquivalent(((NaryLogicalFilter) f1).getConditions(), ((NaryLogicalFilter) f2).getConditions());
+        } else if (f1 instanceof UnaryLogicalFilter) {
+            return filtersEquivalent(((UnaryLogicalFilter) f1).getFilter(), ((UnaryLogicalFilter) f2).getFilter());
+        } else if (f1 instanceof TypeFilter) {
+            TypeFilter t1 = (TypeFilter) f1;
+            TypeFilter t2 = (TypeFilter) f2;
+            return QNameUtil.match(t1.getType(), t2.getType()) && filtersEquivalent(t1.getFilter(), t2.getFilter());
+        } else if (f1 instanceof ExistsFilter) {
+            ExistsFilter e1 = (ExistsFilter) f1;
+            ExistsFilter e2 = (ExistsFilter) f2;
+            return e1.getFullPath().equals(e2.getFullPath(), false) && filtersEquivalent(e1.getFilter(), e2.getFilter());
+        } else {
+            return f1.equals(f2, false);
+        }
+    }
+
+    /**
+     * Order-independent comparison of conditions. The lists are typically very short, so quadratic matching is OK.
+     */
+    private static boolean conditionsEquivalent(List<ObjectFilter> conditions1, List<ObjectFilter> conditions2) {
+        if (conditions1.size() != conditions2.size()) {
+            return false;
+        }
+        boolean[] matched = new boolean[conditions2.size()];
+        outer:
+        for (ObjectFilter condition1 : conditions1) {
+            for (int i = 0; i < conditions2.size(); i++) {
+                if (!matched[i] && filtersEquivalent(condition1, conditions2.get(i))) {
+                    matched[i] = true;
+                    continue outer;
+                }
+            }
+            return false;
+        }
+        return true;
     }
 }
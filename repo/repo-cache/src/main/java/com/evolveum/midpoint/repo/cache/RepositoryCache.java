@@ -19,6 +19,7 @@ import com.evolveum.midpoint.prism.Containerable;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.*;
 import com.evolveum.midpoint.repo.api.query.ObjectFilterExpressionEvaluator;
@@ -39,13 +40,22 @@ import org.apache.commons.lang.Validate;
 import org.jetbrains.annotations.NotNull;
 
 import javax.xml.namespace.QName;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Read-through write-through per-session repository cache.
  *
+ * Optionally backed by node-wide {@link GlobalObjectCache} that is consulted when the per-session cache
+ * does not contain the object.
+ *
  * TODO doc
  * TODO logging perf measurements
  *
@@ -66,6 +76,12 @@ public class RepositoryCache implements RepositoryService {
 
 	private PrismContext prismContext;
 
+	private GlobalObjectCache globalObjectCache;
+
+	private MatchingRuleRegistry matchingRuleRegistry;
+
+	private final Set<ModificationWatcher> modificationWatchers = ConcurrentHashMap.newKeySet();
+
 	public RepositoryCache() {
     }
 
@@ -99,6 +115,56 @@ public class RepositoryCache implements RepositoryService {
 		return Cache.exists(cacheInstance);
 	}
 
+	/**
+	 * Removes everything from the cache of the current thread (if any). Needed when objects could be modified
+	 * by other threads working on behalf of the current operation, as their changes invalidate only their own caches.
+	 */
+	public static void invalidateCurrentThreadCache() {
+		Cache cache = getCache();
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Starts recording objects of given type that are added, modified or deleted through this cache, i.e. by any thread
+	 * of this node. It can be used to find out whether objects read in advance are still current without asking
+	 * the repository for their versions. The watcher has to be closed when it is no longer needed.
+	 */
+	public ModificationWatcher watchModifications(Class<? extends ObjectType> type) {
+		ModificationWatcher watcher = new ModificationWatcher(this, type);
+		modificationWatchers.add(watcher);
+		return watcher;
+	}
+
+	void unregisterModificationWatcher(ModificationWatcher watcher) {
+		modificationWatchers.remove(watcher);
+	}
+
+	private void notifyModificationWatchers(Class<? extends ObjectType> type, String oid) {
+		if (!modificationWatchers.isEmpty()) {
+			for (ModificationWatcher watcher : modificationWatchers) {
+				watcher.objectChanged(type, oid);
+			}
+		}
+	}
+
+	public GlobalObjectCache getGlobalObjectCache() {
+		return globalObjectCache;
+	}
+
+	public void setGlobalObjectCache(GlobalObjectCache globalObjectCache) {
+		this.globalObjectCache = globalObjectCache;
+	}
+
+	public MatchingRuleRegistry getMatchingRuleRegistry() {
+		return matchingRuleRegistry;
+	}
+
+	public void setMatchingRuleRegistry(MatchingRuleRegistry matchingRuleRegistry) {
+		this.matchingRuleRegistry = matchingRuleRegistry;
+	}
+
 	public Integer getModifyRandomDelayRange() {
 		return modifyRandomDelayRange;
 	}
@@ -114,7 +180,7 @@ public class RepositoryCache implements RepositoryService {
 	@Override
 	public <T extends ObjectType> PrismObject<T> getObject(Class<T> type, String oid,
 			Collection<SelectorOptions<GetOperationOptions>> options, OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
-		if (!isCacheable(type) || !nullOrHarmlessOptions(options)) {
+		if (!isCacheable(type) || !(nullOrHarmlessOptions(options) || readOnlyOptions(options))) {
 			log("Cache: PASS {} ({})", oid, type.getSimpleName());
 			return repository.getObject(type, oid, options, parentResult);
 		}
@@ -136,11 +202,119 @@ public class RepositoryCache implements RepositoryService {
 			}
 			log("Cache: MISS {} ({})", oid, type.getSimpleName());
 		}
-		PrismObject<T> object = repository.getObject(type, oid, null, parentResult);
+		PrismObject<T> object = getObjectFromGlobalCache(type, oid, parentResult);
+		if (object != null) {
+			return useGlobalCacheEntry(type, cache, object, readOnly);
+		}
+		object = repository.getObject(type, oid, null, parentResult);
 		cacheObject(cache, object, readOnly);
 		return object;
 	}
 
+	/**
+	 * Objects found in the local or global cache are taken from there, only the rest is fetched
+	 * from the repository (in a single getObjects call). Global cache entries that would have to be validated
+	 * by a version check are fetched along with the rest: one query instead of a getVersion call for each of them.
+	 */
+	@NotNull
+	@Override
+	public <T extends ObjectType> Map<String, PrismObject<T>> getObjects(Class<T> type, Collection<String> oids,
+			Collection<SelectorOptions<GetOperationOptions>> options, OperationResult parentResult) throws SchemaException {
+		if (!isCacheable(type) || !(nullOrHarmlessOptions(options) || readOnlyOptions(options))) {
+			log("Cache: PASS {} object(s) ({})", oids.size(), type.getSimpleName());
+			return repository.getObjects(type, oids, options, parentResult);
+		}
+		Cache cache = getCache();
+		boolean readOnly = GetOperationOptions.isReadOnly(SelectorOptions.findRootOptions(options));
+		boolean useGlobalCache = globalObjectCache != null && globalObjectCache.supports(type)
+				&& !globalObjectCache.isVersionCheck(type);
+		Map<String, PrismObject<T>> objects = new HashMap<>();
+		List<String> misses = new ArrayList<>();
+		for (String oid : new LinkedHashSet<>(oids)) {
+			if (cache != null) {
+				PrismObject<T> object = (PrismObject) cache.getObject(oid);
+				if (object != null) {
+					log("Cache: HIT {} ({})", oid, type.getSimpleName());
+					objects.put(oid, readOnly ? object : object.clone());
+					continue;
+				}
+			}
+			PrismObject<T> object = useGlobalCache ? getObjectFromGlobalCache(type, oid, parentResult) : null;
+			if (object != null) {
+				objects.put(oid, useGlobalCacheEntry(type, cache, object, readOnly));
+			} else {
+				misses.add(oid);
+			}
+		}
+		log("Cache: {} of {} object(s) fetched from repository ({})", misses.size(), objects.size() + misses.size(),
+				type.getSimpleName());
+		if (!misses.isEmpty()) {
+			Map<String, PrismObject<T>> fetched = repository.getObjects(type, misses, null, parentResult);
+			for (PrismObject<T> object : fetched.values()) {
+				cacheObject(cache, object, readOnly);       // this also replaces possibly stale global cache entries
+			}
+			if (globalObjectCache != null && fetched.size() < misses.size()) {
+				for (String oid : misses) {
+					if (!fetched.containsKey(oid)) {
+						globalObjectCache.evict(type, oid);     // deleted in the meanwhile (probably on other node)
+					}
+				}
+			}
+			objects.putAll(fetched);
+		}
+		return objects;
+	}
+
+	/**
+	 * Returns the (immutable) object from the global cache, validating its version if configured so,
+	 * or null if there is no usable entry.
+	 */
+	private <T extends ObjectType> PrismObject<T> getObjectFromGlobalCache(Class<T> type, String oid,
+			OperationResult parentResult) throws SchemaException {
+		if (globalObjectCache == null || !globalObjectCache.supports(type)) {
+			return null;
+		}
+		PrismObject<T> cached = globalObjectCache.get(type, oid);
+		if (cached == null) {
+			log("Cache: Global MISS {} ({})", oid, type.getSimpleName());
+			return null;
+		}
+		if (globalObjectCache.isVersionCheck(type)) {
+			String currentVersion;
+			try {
+				currentVersion = repository.getVersion(type, oid, parentResult);
+			} catch (ObjectNotFoundException e) {
+				// the object was deleted in the meanwhile (probably on other node); the subsequent getObject call will report it
+				globalObjectCache.evict(type, oid);
+				return null;
+			}
+			if (currentVersion == null || !currentVersion.equals(cached.getVersion())) {
+				log("Cache: Global HIT(stale) {} ({}): cached version {}, current version {}", oid,
+						type.getSimpleName(), cached.getVersion(), currentVersion);
+				globalObjectCache.evict(type, oid);
+				return null;
+			}
+		}
+		return cached;
+	}
+
+	/**
+	 * Global cache entries are immutable, so they can be put into the local cache as they are;
+	 * only the object returned to a caller that wants to modify it has to be cloned.
+	 */
+	private <T extends ObjectType> PrismObject<T> useGlobalCacheEntry(Class<T> type, Cache cache, PrismObject<T> object, boolean readOnly) {
+		if (cache != null) {
+			cache.putObject(object.getOid(), object);
+		}
+		if (readOnly) {
+			log("Cache: Global HIT {} ({})", object.getOid(), type.getSimpleName());
+			return object;
+		} else {
+			log("Cache: Global HIT(clone) {} ({})", object.getOid(), type.getSimpleName());
+			return object.clone();
+		}
+	}
+
 	private boolean isCacheable(Class<?> type) {
 		if (type.equals(TaskType.class)) {
 			return false;
@@ -162,8 +336,12 @@ public class RepositoryCache implements RepositoryService {
 		if (cache != null) {
 			// Invalidate the cache entry if it happens to be there
 			cache.removeObject(oid);
-			cache.clearQueryResults(object.getCompileTimeClass());
+			cache.invalidateQueryResultsOnAdd(object, matchingRuleRegistry);
+		}
+		if (globalObjectCache != null) {
+			globalObjectCache.remove(oid);
 		}
+		notifyModificationWatchers(object.getCompileTimeClass(), oid);
 		return oid;
 	}
 
@@ -180,7 +358,7 @@ public class RepositoryCache implements RepositoryService {
 		if (cache == null) {
 			log("Cache: NULL ({})", type.getSimpleName());
 		} else {
-			SearchResultList queryResult = cache.getQueryResult(type, query, prismContext);
+			SearchResultList queryResult = cache.getQueryResult(type, query);
 			if (queryResult != null) {
 				if (readOnly) {
 					log("Cache: HIT {} ({})", query, type.getSimpleName());
@@ -200,7 +378,7 @@ public class RepositoryCache implements RepositoryService {
 				cacheObject(cache, object, readOnly);
 			}
 			// TODO cloning before storing into cache?
-			cache.putQueryResult(type, query, objects, prismContext);
+			cache.putQueryResult(type, query, objects);
 		}
 		return objects;
 	}
@@ -223,7 +401,12 @@ public class RepositoryCache implements RepositoryService {
 		ResultHandler<T> myHandler = new ResultHandler<T>() {
 			@Override
 			public boolean handle(PrismObject<T> object, OperationResult parentResult) {
-				cacheObject(cache, object, GetOperationOptions.isReadOnly(SelectorOptions.findRootOptions(options)));
+				boolean readOnly = GetOperationOptions.isReadOnly(SelectorOptions.findRootOptions(options));
+				if (nullOrHarmlessOptions(options)) {
+					cacheObject(cache, object, readOnly);
+				} else {
+					cacheObjectLocally(cache, object, readOnly);
+				}
 				return handler.handle(object, parentResult);
 			}
 		};
@@ -291,7 +474,7 @@ public class RepositoryCache implements RepositoryService {
 		} finally {
 			// this changes the object. We are too lazy to apply changes ourselves, so just invalidate
 			// the object in cache
-			invalidateCacheEntry(type, oid);
+			invalidateCacheEntryOnModify(type, oid, modifications);
 		}
 	}
 
@@ -301,6 +484,35 @@ public class RepositoryCache implements RepositoryService {
 			cache.removeObject(oid);
 			cache.clearQueryResults(type);
 		}
+		if (globalObjectCache != null) {
+			globalObjectCache.remove(oid);
+		}
+		notifyModificationWatchers(type, oid);
+	}
+
+	private <T extends ObjectType> void invalidateCacheEntryOnModify(Class<T> type, String oid,
+			Collection<? extends ItemDelta> modifications) {
+		Cache cache = getCache();
+		if (cache != null) {
+			cache.removeObject(oid);
+			cache.invalidateQueryResultsOnModify(type, oid, modifications);
+		}
+		if (globalObjectCache != null) {
+			globalObjectCache.remove(oid);
+		}
+		notifyModificationWatchers(type, oid);
+	}
+
+	private <T extends ObjectType> void invalidateCacheEntryOnDelete(Class<T> type, String oid) {
+		Cache cache = getCache();
+		if (cache != null) {
+			cache.removeObject(oid);
+			cache.invalidateQueryResultsOnDelete(type, oid);
+		}
+		if (globalObjectCache != null) {
+			globalObjectCache.remove(oid);
+		}
+		notifyModificationWatchers(type, oid);
 	}
 
 	@Override
@@ -309,7 +521,7 @@ public class RepositoryCache implements RepositoryService {
 		try {
 			repository.deleteObject(type, oid, parentResult);
 		} finally {
-			invalidateCacheEntry(type, oid);
+			invalidateCacheEntryOnDelete(type, oid);
 		}
 	}
 
@@ -342,6 +554,18 @@ public class RepositoryCache implements RepositoryService {
 		return false;
 	}
 
+	/**
+	 * Plain read-only retrieval can be served from the cache as well: the cached object is made immutable
+	 * and returned without cloning.
+	 */
+	private boolean readOnlyOptions(Collection<SelectorOptions<GetOperationOptions>> options) {
+		if (options == null || options.size() != 1) {
+			return false;
+		}
+		SelectorOptions<GetOperationOptions> selectorOptions = options.iterator().next();
+		return selectorOptions.isRoot() && GetOperationOptions.createReadOnly().equals(selectorOptions.getOptions());
+	}
+
 	@Override
 	@Deprecated
 	public PrismObject<UserType> listAccountShadowOwner(String accountOid, OperationResult parentResult)
@@ -403,7 +627,14 @@ public class RepositoryCache implements RepositoryService {
         repository.testOrgClosureConsistency(repairIfNecessary, testResult);
     }
 
-    private <T extends ObjectType> void cacheObject(Cache cache, PrismObject<T> object, boolean readOnly) {
+	private <T extends ObjectType> void cacheObject(Cache cache, PrismObject<T> object, boolean readOnly) {
+		cacheObjectLocally(cache, object, readOnly);
+		if (globalObjectCache != null) {
+			globalObjectCache.put(object);
+		}
+	}
+
+	private <T extends ObjectType> void cacheObjectLocally(Cache cache, PrismObject<T> object, boolean readOnly) {
 		if (cache != null) {
 			PrismObject<ObjectType> objectToCache;
 			if (readOnly) {
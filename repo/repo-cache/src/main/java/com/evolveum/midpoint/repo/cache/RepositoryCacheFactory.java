@@ -16,6 +16,7 @@
 
 package com.evolveum.midpoint.repo.cache;
 
+import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactory;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
@@ -26,12 +27,24 @@ import org.apache.commons.configuration.Configuration;
  */
 public class RepositoryCacheFactory implements RepositoryServiceFactory {
 
+    private MatchingRuleRegistry matchingRuleRegistry;          // autowired by name (see ctx-repo-cache.xml)
+
+    private GlobalObjectCache globalObjectCache;
+
+    public void setMatchingRuleRegistry(MatchingRuleRegistry matchingRuleRegistry) {
+        this.matchingRuleRegistry = matchingRuleRegistry;
+    }
+
     @Override
     public void destroy() throws RepositoryServiceFactoryException {
+        if (globalObjectCache != null) {
+            globalObjectCache.clear();
+        }
     }
 
     @Override
     public void init(Configuration configuration) throws RepositoryServiceFactoryException {
+        globalObjectCache = GlobalObjectCache.create(configuration);
     }
 
     @Override
@@ -47,6 +60,9 @@ public class RepositoryCacheFactory implements RepositoryServiceFactory {
     @Override
     public RepositoryService getRepositoryService() throws RepositoryServiceFactoryException {
         RepositoryCache.init();
-        return new RepositoryCache();
+        RepositoryCache repositoryCache = new RepositoryCache();
+        repositoryCache.setGlobalObjectCache(globalObjectCache);
+        repositoryCache.setMatchingRuleRegistry(matchingRuleRegistry);
+        return repositoryCache;
     }
 }
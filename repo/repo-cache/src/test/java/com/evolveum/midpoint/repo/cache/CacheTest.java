@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.cache;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
+import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
+import com.evolveum.midpoint.prism.match.MatchingRuleRegistryFactory;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.SearchResultList;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+
+/**
+ * Tests selective invalidation of query results in {@link Cache}.
+ */
+public class CacheTest {
+
+	private static final String ROLE_1_OID = "role-1";
+	private static final String ROLE_2_OID = "role-2";
+
+	private PrismContext prismContext;
+	private MatchingRuleRegistry matchingRuleRegistry;
+
+	@BeforeSuite
+	public void setup() throws Exception {
+		PrettyPrinter.setDefaultNamespacePrefix(MidPointConstants.NS_MIDPOINT_PUBLIC_PREFIX);
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+		prismContext = PrismTestUtil.getPrismContext();
+		matchingRuleRegistry = MatchingRuleRegistryFactory.createRegistry();
+	}
+
+	@Test
+	public void test100ModifyContainerValueById() throws Exception {
+		Cache cache = new Cache();
+		ObjectQuery query = createAssignmentTargetQuery(ROLE_1_OID);
+		cache.putQueryResult(UserType.class, query, createResult(createUser("u1", "jack")));
+
+		// the filter path is assignment/targetRef, the modification path is assignment/[5]/targetRef
+		List<ItemDelta<?, ?>> modifications = DeltaBuilder.deltaFor(UserType.class, prismContext)
+				.item(UserType.F_ASSIGNMENT, 5L, AssignmentType.F_TARGET_REF)
+						.replace(new ObjectReferenceType().oid(ROLE_1_OID).type(RoleType.COMPLEX_TYPE))
+				.asItemDeltas();
+		cache.invalidateQueryResultsOnModify(UserType.class, "u2", modifications);
+
+		assertNull("Query result was not invalidated", cache.getQueryResult(UserType.class, query));
+	}
+
+	@Test
+	public void test110ModifyContainerById() throws Exception {
+		Cache cache = new Cache();
+		ObjectQuery query = createAssignmentTargetQuery(ROLE_1_OID);
+		cache.putQueryResult(UserType.class, query, createResult(createUser("u1", "jack")));
+
+		List<ItemDelta<?, ?>> modifications = DeltaBuilder.deltaFor(UserType.class, prismContext)
+				.item(UserType.F_ASSIGNMENT).delete(new AssignmentType(prismContext).id(5L))
+				.asItemDeltas();
+		cache.invalidateQueryResultsOnModify(UserType.class, "u2", modifications);
+
+		assertNull("Query result was not invalidated", cache.getQueryResult(UserType.class, query));
+	}
+
+	@Test
+	public void test120ModifyUnrelatedItem() throws Exception {
+		Cache cache = new Cache();
+		ObjectQuery query = createAssignmentTargetQuery(ROLE_1_OID);
+		cache.putQueryResult(UserType.class, query, createResult(createUser("u1", "jack")));
+
+		List<ItemDelta<?, ?>> modifications = DeltaBuilder.deltaFor(UserType.class, prismContext)
+				.item(UserType.F_ASSIGNMENT, 5L, AssignmentType.F_DESCRIPTION).replace("new description")
+				.asItemDeltas();
+		cache.invalidateQueryResultsOnModify(UserType.class, "u2", modifications);
+
+		assertNotNull("Query result was invalidated", cache.getQueryResult(UserType.class, query));
+	}
+
+	@Test
+	public void test130ModifyObjectInResult() throws Exception {
+		Cache cache = new Cache();
+		ObjectQuery query = createAssignmentTargetQuery(ROLE_1_OID);
+		cache.putQueryResult(UserType.class, query, createResult(createUser("u1", "jack")));
+
+		List<ItemDelta<?, ?>> modifications = DeltaBuilder.deltaFor(UserType.class, prismContext)
+				.item(UserType.F_DESCRIPTION).replace("new description")
+				.asItemDeltas();
+		cache.invalidateQueryResultsOnModify(UserType.class, "u1", modifications);
+
+		assertNull("Query result was not invalidated", cache.getQueryResult(UserType.class, query));
+	}
+
+	@Test
+	public void test200AddWithReferenceFilter() throws Exception {
+		Cache cache = new Cache();
+		ObjectQuery query = createAssignmentTargetQuery(ROLE_1_OID);
+		cache.putQueryResult(UserType.class, query, createResult(createUser("u1", "jack")));
+
+		// references are matched differently in memory, so the result has to be invalidated
+		PrismObject<UserType> user = createUser("u2", "will");
+		user.asObjectable().assignment(new AssignmentType(prismContext)
+				.targetRef(new ObjectReferenceType().oid(ROLE_1_OID).type(RoleType.COMPLEX_TYPE)));
+		user.asObjectable().assignment(new AssignmentType(prismContext)
+				.targetRef(new ObjectReferenceType().oid(ROLE_2_OID).type(RoleType.COMPLEX_TYPE)));
+		cache.invalidateQueryResultsOnAdd(user, matchingRuleRegistry);
+
+		assertNull("Query result was not invalidated", cache.getQueryResult(UserType.class, query));
+	}
+
+	@Test
+	public void test210AddWithStringFilter() throws Exception {
+		Cache cache = new Cache();
+		ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+				.item(UserType.F_NAME).eqPoly("jack")
+				.build();
+		cache.putQueryResult(UserType.class, query, createResult(createUser("u1", "jack")));
+
+		// the database collation could be case insensitive, so "JACK" could match
+		cache.invalidateQueryResultsOnAdd(createUser("u2", "JACK"), matchingRuleRegistry);
+
+		assertNull("Query result was not invalidated", cache.getQueryResult(UserType.class, query));
+	}
+
+	@Test
+	public void test220AddWithEnumFilter() throws Exception {
+		Cache cache = new Cache();
+		ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+				.item(UserType.F_ACTIVATION, ActivationType.F_ADMINISTRATIVE_STATUS).eq(ActivationStatusType.DISABLED)
+				.build();
+		cache.putQueryResult(UserType.class, query, createResult(createUser("u1", "jack")));
+
+		PrismObject<UserType> enabledUser = createUser("u2", "will");
+		enabledUser.asObjectable().activation(new ActivationType(prismContext).administrativeStatus(ActivationStatusType.ENABLED));
+		cache.invalidateQueryResultsOnAdd(enabledUser, matchingRuleRegistry);
+		assertNotNull("Query result was invalidated by non-matching object", cache.getQueryResult(UserType.class, query));
+
+		PrismObject<UserType> disabledUser = createUser("u3", "elaine");
+		disabledUser.asObjectable().activation(new ActivationType(prismContext).administrativeStatus(ActivationStatusType.DISABLED));
+		cache.invalidateQueryResultsOnAdd(disabledUser, matchingRuleRegistry);
+		assertNull("Query result was not invalidated", cache.getQueryResult(UserType.class, query));
+	}
+
+	@Test
+	public void test300Delete() throws Exception {
+		Cache cache = new Cache();
+		ObjectQuery query = createAssignmentTargetQuery(ROLE_1_OID);
+		cache.putQueryResult(UserType.class, query, createResult(createUser("u1", "jack")));
+
+		cache.invalidateQueryResultsOnDelete(UserType.class, "u2");
+		assertNotNull("Query result was invalidated by unrelated delete", cache.getQueryResult(UserType.class, query));
+
+		cache.invalidateQueryResultsOnDelete(ObjectType.class, "u1");
+		assertNull("Query result was not invalidated", cache.getQueryResult(UserType.class, query));
+	}
+
+	private ObjectQuery createAssignmentTargetQuery(String targetOid) {
+		return QueryBuilder.queryFor(UserType.class, prismContext)
+				.item(UserType.F_ASSIGNMENT, AssignmentType.F_TARGET_REF).ref(targetOid)
+				.build();
+	}
+
+	private PrismObject<UserType> createUser(String oid, String name) {
+		return new UserType(prismContext).oid(oid).name(name).asPrismObject();
+	}
+
+	private SearchResultList<PrismObject<UserType>> createResult(PrismObject<UserType> user) {
+		return new SearchResultList<>(Collections.singletonList(user));
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.cache;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.SearchResultList;
+import com.evolveum.midpoint.schema.SelectorOptions;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.apache.commons.configuration.BaseConfiguration;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Tests use of the global cache by {@link RepositoryCache#getObjects}, read-only fetches, query result caching
+ * and watching of modifications. The repository is simulated: it contains role-1 and role-2 in version 2,
+ * role-3 does not exist.
+ */
+public class RepositoryCacheTest {
+
+	private PrismContext prismContext;
+
+	@BeforeSuite
+	public void setup() throws Exception {
+		PrettyPrinter.setDefaultNamespacePrefix(MidPointConstants.NS_MIDPOINT_PUBLIC_PREFIX);
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+		prismContext = PrismTestUtil.getPrismContext();
+	}
+
+	/**
+	 * Entries that would need a version check are fetched with the misses, in a single getObjects call.
+	 */
+	@Test
+	public void test100GetObjectsWithVersionCheck() throws Exception {
+		// GIVEN
+		List<String> calls = new ArrayList<>();
+		GlobalObjectCache globalCache = createGlobalCache(true);
+		RepositoryCache repositoryCache = createRepositoryCache(calls, globalCache);
+		globalCache.put(createRole("role-1", "1"));
+		globalCache.put(createRole("role-3", "1"));
+
+		// WHEN
+		Map<String, PrismObject<RoleType>> objects = repositoryCache.getObjects(RoleType.class,
+				Arrays.asList("role-1", "role-2", "role-3"), null, new OperationResult("test100"));
+
+		// THEN
+		assertEquals("Wrong repository calls", Arrays.asList("getObjects [role-1, role-2, role-3]"), calls);
+		assertEquals("Wrong objects", new HashSet<>(Arrays.asList("role-1", "role-2")), objects.keySet());
+		assertEquals("Wrong version of role-1", "2", objects.get("role-1").getVersion());
+		assertEquals("Stale global cache entry was not replaced", "2", globalCache.get(RoleType.class, "role-1").getVersion());
+		assertNull("Global cache entry of deleted object was not evicted", globalCache.get(RoleType.class, "role-3"));
+	}
+
+	@Test
+	public void test110GetObjectsWithoutVersionCheck() throws Exception {
+		// GIVEN
+		List<String> calls = new ArrayList<>();
+		GlobalObjectCache globalCache = createGlobalCache(false);
+		RepositoryCache repositoryCache = createRepositoryCache(calls, globalCache);
+		globalCache.put(createRole("role-1", "1"));
+
+		// WHEN
+		Map<String, PrismObject<RoleType>> objects = repositoryCache.getObjects(RoleType.class,
+				Arrays.asList("role-1", "role-2"), null, new OperationResult("test110"));
+
+		// THEN
+		assertEquals("Wrong repository calls", Arrays.asList("getObjects [role-2]"), calls);
+		assertEquals("Wrong version of role-1 (not taken from global cache)", "1", objects.get("role-1").getVersion());
+		assertEquals("Wrong version of role-2", "2", objects.get("role-2").getVersion());
+	}
+
+	/**
+	 * Read-only fetches are served from the thread-local cache and from the global cache without cloning.
+	 */
+	@Test
+	public void test120GetObjectReadOnly() throws Exception {
+		// GIVEN
+		List<String> calls = new ArrayList<>();
+		GlobalObjectCache globalCache = createGlobalCache(false);
+		RepositoryCache repositoryCache = createRepositoryCache(calls, globalCache);
+		Collection<SelectorOptions<GetOperationOptions>> readOnly = SelectorOptions.createCollection(GetOperationOptions.createReadOnly());
+		OperationResult result = new OperationResult("test120");
+
+		RepositoryCache.enter();
+		try {
+			// WHEN
+			PrismObject<RoleType> first = repositoryCache.getObject(RoleType.class, "role-1", readOnly, result);
+			PrismObject<RoleType> second = repositoryCache.getObject(RoleType.class, "role-1", readOnly, result);
+			PrismObject<RoleType> writable = repositoryCache.getObject(RoleType.class, "role-1", null, result);
+
+			// THEN
+			assertEquals("Wrong repository calls", Arrays.asList("getObject role-1"), calls);
+			assertTrue("Read-only object is not immutable", first.isImmutable());
+			assertSame("Read-only object was cloned", first, second);
+			assertNotSame("Object that is not read-only was not cloned", first, writable);
+			assertFalse("Object that is not read-only is immutable", writable.isImmutable());
+			assertEquals("Wrong object that is not read-only", first, writable);
+		} finally {
+			RepositoryCache.exit();
+		}
+
+		// another operation (thread-local cache) gets the global cache entry
+		RepositoryCache.enter();
+		try {
+			PrismObject<RoleType> fromGlobalCache = repositoryCache.getObject(RoleType.class, "role-1", readOnly, result);
+			assertEquals("Wrong repository calls", Arrays.asList("getObject role-1"), calls);
+			assertSame("Global cache entry was cloned", globalCache.get(RoleType.class, "role-1"), fromGlobalCache);
+			assertSame("Read-only object was cloned", fromGlobalCache,
+					repositoryCache.getObject(RoleType.class, "role-1", readOnly, result));
+		} finally {
+			RepositoryCache.exit();
+		}
+	}
+
+	/**
+	 * Equal queries share the query result cache entry, even if their conditions are in different order.
+	 */
+	@Test
+	public void test130SearchObjectsWithEqualQueries() throws Exception {
+		// GIVEN
+		List<String> calls = new ArrayList<>();
+		RepositoryCache repositoryCache = createRepositoryCache(calls, null);
+		OperationResult result = new OperationResult("test130");
+		ObjectQuery query = QueryBuilder.queryFor(RoleType.class, prismContext)
+				.item(RoleType.F_ROLE_TYPE).eq("business")
+				.and().item(RoleType.F_DESCRIPTION).eq("pirate")
+				.build();
+		ObjectQuery reordered = QueryBuilder.queryFor(RoleType.class, prismContext)
+				.item(RoleType.F_DESCRIPTION).eq("pirate")
+				.and().item(RoleType.F_ROLE_TYPE).eq("business")
+				.build();
+		ObjectQuery different = QueryBuilder.queryFor(RoleType.class, prismContext)
+				.item(RoleType.F_ROLE_TYPE).eq("business")
+				.and().item(RoleType.F_DESCRIPTION).eq("captain")
+				.build();
+		assertEquals("Keys of equal queries differ", QueryKey.createForLookup(RoleType.class, query),
+				QueryKey.createForLookup(RoleType.class, reordered));
+		assertEquals("Hash codes of equal queries differ", QueryKey.createForLookup(RoleType.class, query).hashCode(),
+				QueryKey.createForLookup(RoleType.class, reordered).hashCode());
+		assertFalse("Keys of different queries are equal",
+				QueryKey.createForLookup(RoleType.class, query).equals(QueryKey.createForLookup(RoleType.class, different)));
+
+		RepositoryCache.enter();
+		try {
+			// WHEN
+			SearchResultList<PrismObject<RoleType>> first = repositoryCache.searchObjects(RoleType.class, query, null, result);
+			SearchResultList<PrismObject<RoleType>> second = repositoryCache.searchObjects(RoleType.class, reordered, null, result);
+			repositoryCache.searchObjects(RoleType.class, different, null, result);
+
+			// THEN
+			assertEquals("Wrong repository calls", Arrays.asList("searchObjects", "searchObjects"), calls);
+			assertEquals("Wrong cached result", first, second);
+		} finally {
+			RepositoryCache.exit();
+		}
+	}
+
+	@Test
+	public void test200WatchModifications() throws Exception {
+		// GIVEN
+		List<String> calls = new ArrayList<>();
+		RepositoryCache repositoryCache = createRepositoryCache(calls, null);
+		OperationResult result = new OperationResult("test200");
+		repositoryCache.modifyObject(RoleType.class, "role-1", Collections.emptyList(), result);
+
+		// WHEN
+		ModificationWatcher watcher = repositoryCache.watchModifications(RoleType.class);
+		repositoryCache.modifyObject(RoleType.class, "role-2", Collections.emptyList(), result);
+		repositoryCache.deleteObject(RoleType.class, "role-3", result);
+		repositoryCache.deleteObject(UserType.class, "user-1", result);
+		watcher.close();
+		repositoryCache.modifyObject(RoleType.class, "role-4", Collections.emptyList(), result);
+
+		// THEN
+		assertEquals("Wrong repository calls", Arrays.asList("modifyObject", "modifyObject", "deleteObject",
+				"deleteObject", "modifyObject"), calls);
+		assertFalse("Modification before the watcher was opened recorded", watcher.isModified("role-1"));
+		assertTrue("Modification not recorded", watcher.isModified("role-2"));
+		assertTrue("Deletion not recorded", watcher.isModified("role-3"));
+		assertFalse("Deletion of an object of other type recorded", watcher.isModified("user-1"));
+		assertFalse("Modification after the watcher was closed recorded", watcher.isModified("role-4"));
+	}
+
+	private GlobalObjectCache createGlobalCache(boolean versionCheck) {
+		BaseConfiguration configuration = new BaseConfiguration();
+		configuration.setProperty(GlobalObjectCache.CONFIGURATION_GLOBAL_CACHE + "." + GlobalObjectCache.PROPERTY_MAX_SIZE, 10);
+		configuration.setProperty(GlobalObjectCache.CONFIGURATION_GLOBAL_CACHE + "." + GlobalObjectCache.PROPERTY_VERSION_CHECK, versionCheck);
+		return GlobalObjectCache.create(configuration);
+	}
+
+	private RepositoryCache createRepositoryCache(List<String> calls, GlobalObjectCache globalCache) {
+		RepositoryService repository = (RepositoryService) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { RepositoryService.class }, (proxy, method, args) -> {
+					if ("modifyObject".equals(method.getName()) || "deleteObject".equals(method.getName())) {
+						calls.add(method.getName());
+						return null;
+					} else if ("searchObjects".equals(method.getName())) {
+						calls.add(method.getName());
+						return new SearchResultList<>(Collections.singletonList(createRole("role-1", "2")));
+					} else if ("getObject".equals(method.getName())) {
+						calls.add("getObject " + args[1]);
+						return createRole((String) args[1], "2");
+					} else if (!"getObjects".equals(method.getName())) {
+						calls.add(method.getName());
+						throw new UnsupportedOperationException(method.getName());
+					}
+					Collection<String> oids = (Collection<String>) args[1];
+					calls.add("getObjects " + oids);
+					Map<String, PrismObject<RoleType>> objects = new HashMap<>();
+					for (String oid : oids) {
+						if (!"role-3".equals(oid)) {
+							objects.put(oid, createRole(oid, "2"));
+						}
+					}
+					return objects;
+				});
+		RepositoryCache repositoryCache = new RepositoryCache();
+		repositoryCache.setRepository(repository, prismContext);
+		repositoryCache.setGlobalObjectCache(globalCache);
+		return repositoryCache;
+	}
+
+	private PrismObject<RoleType> createRole(String oid, String version) {
+		return new RoleType(prismContext).oid(oid).name(oid).version(version).asPrismObject();
+	}
+}
@@ -737,6 +737,45 @@ public class AddGetObjectTest extends BaseSQLRepoTest {
         assertFalse("false conflict reported for " + watcher, hasConflict);
     }
 
+    @Test
+    public void test240GetObjects() throws Exception {
+        OperationResult result = new OperationResult("test240GetObjects");
+
+        // GIVEN
+        List<String> oids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            UserType user = new UserType(prismContext).name("t240-" + i);
+            oids.add(repositoryService.addObject(user.asPrismObject(), null, result));
+        }
+        String nonExistingOid = "3c9f7a1e-0000-4f4f-9999-000000000240";
+        List<String> requested = new ArrayList<>(oids);
+        requested.add(nonExistingOid);
+        requested.add(oids.get(0));
+
+        // WHEN
+        Map<String, PrismObject<UserType>> objects = repositoryService.getObjects(UserType.class, requested, null, result);
+
+        // THEN
+        assertEquals("Wrong # of objects", oids.size(), objects.size());
+        for (int i = 0; i < oids.size(); i++) {
+            PrismObject<UserType> user = objects.get(oids.get(i));
+            AssertJUnit.assertNotNull("Object " + oids.get(i) + " was not returned", user);
+            assertEquals("Wrong name", "t240-" + i, user.asObjectable().getName().getOrig());
+        }
+        assertFalse("Non-existing object was returned", objects.containsKey(nonExistingOid));
+    }
+
+    @Test(expectedExceptions = SchemaException.class)
+    public void test242GetObjectsWrongType() throws Exception {
+        OperationResult result = new OperationResult("test242GetObjectsWrongType");
+
+        // GIVEN
+        String oid = repositoryService.addObject(new UserType(prismContext).name("t242").asPrismObject(), null, result);
+
+        // WHEN
+        repositoryService.getObjects(RoleType.class, Collections.singletonList(oid), null, result);
+    }
+
     @Test
     public void test990AddResourceWithEmptyConnectorConfiguration() throws Exception {
         OperationResult result = new OperationResult("test990AddResourceWithEmptyConnectorConfiguration");
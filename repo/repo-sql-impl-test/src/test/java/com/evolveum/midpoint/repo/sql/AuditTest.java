@@ -29,6 +29,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 import org.hibernate.Query;
 import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.testng.annotations.Test;
@@ -36,6 +37,7 @@ import org.testng.annotations.Test;
 import java.util.*;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
 
 /**
  * @author mederly
@@ -46,6 +48,9 @@ public class AuditTest extends BaseSQLRepoTest {
 
     private static final Trace LOGGER = TraceManager.getTrace(AuditTest.class);
 
+    @Autowired
+    private SqlAuditServiceFactory sqlAuditFactory;
+
     @Test
     public void test100AuditSimple() throws Exception {
         LOGGER.info("===[ test100AuditSimple ]===");
@@ -105,6 +110,119 @@ public class AuditTest extends BaseSQLRepoTest {
 		assertEquals("Wrong # of references", 0, loaded.getReferences().size());
 	}
 
+	@Test
+	public void test200AuditAsync() throws Exception {
+		LOGGER.info("===[ test200AuditAsync ]===");
+
+		// GIVEN
+		SqlAuditServiceImpl asyncAuditService = createAsyncAuditService(100, 10);
+		try {
+			int countBefore = getAuditEventRecords().size();
+			SimpleTaskAdapter task = new SimpleTaskAdapter();
+
+			// WHEN
+			List<AuditEventRecord> records = new ArrayList<>();
+			for (int i = 0; i < 25; i++) {
+				AuditEventRecord record = new AuditEventRecord();
+				record.addPropertyValue("async", "value" + i);
+				asyncAuditService.audit(record, task);
+				records.add(record);
+			}
+			// the caller can change the record after it is audited
+			records.get(0).addPropertyValue("async", "changed");
+			asyncAuditService.flush(task);
+
+			// THEN
+			List<AuditEventRecord> loaded = getAuditEventRecords();
+			assertEquals("Wrong # of records", countBefore + 25, loaded.size());
+			assertEquals("Wrong values", createValues(25), getPropertyValues(loaded, "async"));
+		} finally {
+			sqlAuditFactory.destroyService(asyncAuditService);
+		}
+	}
+
+	/**
+	 * The writer can't finish a batch while we hold its monitor, so at most two records are accepted
+	 * (one being written, one in the queue). The rest is written synchronously.
+	 */
+	@Test
+	public void test210AuditQueueFull() throws Exception {
+		LOGGER.info("===[ test210AuditQueueFull ]===");
+
+		// GIVEN
+		SqlAuditServiceImpl asyncAuditService = createAsyncAuditService(1, 1);
+		try {
+			int countBefore = getAuditEventRecords().size();
+			SimpleTaskAdapter task = new SimpleTaskAdapter();
+			AuditWriter writer = asyncAuditService.getWriter();
+
+			// WHEN
+			synchronized (writer) {
+				for (int i = 0; i < 3; i++) {
+					AuditEventRecord record = new AuditEventRecord();
+					record.addPropertyValue("full", "value" + i);
+					asyncAuditService.audit(record, task);
+				}
+
+				// THEN
+				assertFalse("No record was written synchronously",
+						getPropertyValues(getAuditEventRecords(), "full").isEmpty());
+			}
+			asyncAuditService.flush(task);
+
+			List<AuditEventRecord> loaded = getAuditEventRecords();
+			assertEquals("Wrong # of records", countBefore + 3, loaded.size());
+			assertEquals("Wrong values", createValues(3), getPropertyValues(loaded, "full"));
+		} finally {
+			sqlAuditFactory.destroyService(asyncAuditService);
+		}
+	}
+
+	private SqlAuditServiceImpl createAsyncAuditService(int queueSize, int batchSize) throws Exception {
+		SqlAuditServiceImpl service = (SqlAuditServiceImpl) sqlAuditFactory.getAuditService();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(service);
+		service.setWriteMode(SqlAuditServiceImpl.WriteMode.ASYNC_FLUSH_ON_TASK_END, queueSize, batchSize);
+		return service;
+	}
+
+	private Set<String> createValues(int count) {
+		Set<String> values = new HashSet<>();
+		for (int i = 0; i < count; i++) {
+			values.add("value" + i);
+		}
+		return values;
+	}
+
+	private Set<String> getPropertyValues(List<AuditEventRecord> records, String name) {
+		Set<String> values = new HashSet<>();
+		for (AuditEventRecord record : records) {
+			if (record.getPropertyValues(name) != null) {
+				values.addAll(record.getPropertyValues(name));
+			}
+		}
+		return values;
+	}
+
+	private List<AuditEventRecord> getAuditEventRecords() {
+		Session session = getFactory().openSession();
+		try {
+			session.beginTransaction();
+
+			Query query = session.createQuery("from " + RAuditEventRecord.class.getSimpleName() + " order by id");
+			List<RAuditEventRecord> records = query.list();
+			List<AuditEventRecord> eventRecords = new ArrayList<>();
+			for (RAuditEventRecord record : records) {
+				eventRecords.add(RAuditEventRecord.fromRepo(record, prismContext));
+			}
+			session.getTransaction().commit();
+			return eventRecords;
+		} catch (DtoTranslationException e) {
+			throw new SystemException(e);
+		} finally {
+			session.close();
+		}
+	}
+
 	private AuditEventRecord getAuditEventRecord(int expectedCount, int index) {
 		Session session = getFactory().openSession();
 		try {
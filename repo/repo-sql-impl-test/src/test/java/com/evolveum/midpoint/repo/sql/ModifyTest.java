@@ -24,6 +24,7 @@ import com.evolveum.midpoint.prism.delta.PropertyDelta;
 import com.evolveum.midpoint.prism.delta.ReferenceDelta;
 import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
 import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.util.PrismAsserts;
 import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
@@ -40,6 +41,8 @@ import com.evolveum.midpoint.schema.constants.MidPointConstants;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.internals.InternalsConfig;
 import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
 import com.evolveum.midpoint.test.util.TestUtil;
 import com.evolveum.midpoint.util.DOMUtil;
 import com.evolveum.midpoint.util.PrettyPrinter;
@@ -748,6 +751,67 @@ public class ModifyTest extends BaseSQLRepoTest {
         assertEquals("description was not set", "123456", description);
     }
 
+    @Test
+    public void test170ModifyUserWithAssignments() throws Exception {
+        final String TEST_NAME = "test170ModifyUserWithAssignments";
+        TestUtil.displayTestTitle(TEST_NAME);
+        OperationResult result = new OperationResult(TEST_NAME);
+
+        // GIVEN
+        UserType user = new UserType(prismContext)
+                .name("user170")
+                .beginAssignment()
+                    .targetRef("8c9a7d80-1111-4b5b-a0e3-000000000170", RoleType.COMPLEX_TYPE)
+                .<UserType>end()
+                .beginAssignment()
+                    .targetRef("8c9a7d80-2222-4b5b-a0e3-000000000170", RoleType.COMPLEX_TYPE)
+                .end();
+        user.getParentOrgRef().add(ObjectTypeUtil.createObjectRef("8c9a7d80-3333-4b5b-a0e3-000000000170", ObjectTypes.ORG));
+        String oid = repositoryService.addObject(user.asPrismObject(), null, result);
+
+        // WHEN (collections are not affected)
+        List<ItemDelta<?, ?>> itemDeltas = DeltaBuilder.deltaFor(UserType.class, prismContext)
+                .item(UserType.F_GIVEN_NAME).replace(new PolyString("Given170"))
+                .asItemDeltas();
+        repositoryService.modifyObject(UserType.class, oid, itemDeltas, result);
+
+        // THEN
+        UserType userAfter = repositoryService.getObject(UserType.class, oid, null, result).asObjectable();
+        assertEquals("Wrong given name", "Given170", userAfter.getGivenName().getOrig());
+        assertEquals("Wrong # of assignments", 2, userAfter.getAssignment().size());
+        assertEquals("Wrong # of parentOrgRefs", 1, userAfter.getParentOrgRef().size());
+        assertUserWithAssignmentTarget("8c9a7d80-1111-4b5b-a0e3-000000000170", oid, result);
+        assertUserWithAssignmentTarget("8c9a7d80-2222-4b5b-a0e3-000000000170", oid, result);
+
+        // WHEN (assignments are affected)
+        AssignmentType firstAssignment = userAfter.getAssignment().get(0).clone();
+        String firstTargetOid = firstAssignment.getTargetRef().getOid();
+        itemDeltas = DeltaBuilder.deltaFor(UserType.class, prismContext)
+                .item(UserType.F_ASSIGNMENT).delete(firstAssignment)
+                .item(UserType.F_FAMILY_NAME).replace(new PolyString("Family170"))
+                .asItemDeltas();
+        repositoryService.modifyObject(UserType.class, oid, itemDeltas, result);
+
+        // THEN
+        userAfter = repositoryService.getObject(UserType.class, oid, null, result).asObjectable();
+        assertEquals("Wrong family name", "Family170", userAfter.getFamilyName().getOrig());
+        assertEquals("Wrong # of assignments", 1, userAfter.getAssignment().size());
+        assertEquals("Wrong # of parentOrgRefs", 1, userAfter.getParentOrgRef().size());
+        ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                .item(UserType.F_ASSIGNMENT, AssignmentType.F_TARGET_REF).ref(firstTargetOid)
+                .build();
+        assertEquals("Deleted assignment is still found", 0, repositoryService.countObjects(UserType.class, query, result));
+    }
+
+    private void assertUserWithAssignmentTarget(String targetOid, String expectedUserOid, OperationResult result) throws Exception {
+        ObjectQuery query = QueryBuilder.queryFor(UserType.class, prismContext)
+                .item(UserType.F_ASSIGNMENT, AssignmentType.F_TARGET_REF).ref(targetOid)
+                .build();
+        List<PrismObject<UserType>> users = repositoryService.searchObjects(UserType.class, query, null, result);
+        assertEquals("Wrong # of users with assignment to " + targetOid, 1, users.size());
+        assertEquals("Wrong user with assignment to " + targetOid, expectedUserOid, users.get(0).getOid());
+    }
+
     private <T> void assertAttribute(PrismObject<ShadowType> shadow, String attrName, T... expectedValues) {
     	assertAttribute(shadow, new QName(MidPointConstants.NS_RI, attrName), expectedValues);
     }
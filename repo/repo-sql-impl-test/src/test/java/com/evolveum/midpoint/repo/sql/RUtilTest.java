@@ -1,8 +1,12 @@
 package com.evolveum.midpoint.repo.sql;
 
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
 import com.evolveum.midpoint.repo.sql.util.RUtil;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 import org.apache.commons.io.IOUtils;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
@@ -29,7 +33,7 @@ public class RUtilTest extends BaseSQLRepoTest {
         byte[] array = RUtil.getByteArrayFromXml(xml, true);
         LOGGER.info("Compression ratio: {}", getCompressRatio(xml.getBytes("utf-8").length, array.length));
 
-        String xmlNew = RUtil.getXmlFromByteArray(array, true);
+        String xmlNew = RUtil.getXmlFromByteArray(array);
 
         AssertJUnit.assertEquals(xml, xmlNew);
     }
@@ -44,11 +48,35 @@ public class RUtilTest extends BaseSQLRepoTest {
 
         AssertJUnit.assertEquals(xml.getBytes("utf-8"), array);
 
-        String xmlNew = RUtil.getXmlFromByteArray(array, false);
+        String xmlNew = RUtil.getXmlFromByteArray(array);
 
         AssertJUnit.assertEquals(xml, xmlNew);
     }
 
+    @Test
+    public void test300ReadWithChangedCompressionSetting() throws Exception {
+        String xml = IOUtils.toString(new FileInputStream(
+                new File(BaseSQLRepoTest.FOLDER_BASIC, "user-big.xml")), "utf-8");
+
+        AssertJUnit.assertEquals(xml, RUtil.getXmlFromByteArray(RUtil.getByteArrayFromXml(xml, true)));
+        AssertJUnit.assertEquals(xml, RUtil.getXmlFromByteArray(RUtil.getByteArrayFromXml(xml, false)));
+    }
+
+    @Test
+    public void test400FullObjectJson() throws Exception {
+        // parsed without protector, as the encrypted value in user-big.xml uses a key that is not in our keystore
+        PrismContext prismContext = PrismTestUtil.getPrismContext();
+        PrismObject<UserType> user = prismContext.parseObject(new File(BaseSQLRepoTest.FOLDER_BASIC, "user-big.xml"));
+
+        String json = prismContext.jsonSerializer().serialize(user);
+        AssertJUnit.assertEquals(PrismContext.LANG_JSON, RUtil.getFullObjectLanguage(json));
+
+        String jsonNew = RUtil.getXmlFromByteArray(RUtil.getByteArrayFromXml(json, true));
+        PrismObject<UserType> userNew = prismContext.parserFor(jsonNew).language(RUtil.getFullObjectLanguage(jsonNew)).parse();
+
+        AssertJUnit.assertTrue("Object changed after JSON round trip", user.equivalent(userNew));
+    }
+
     public double getCompressRatio(double xmlSize, double byteSize) {
         return 100 - (byteSize * 100 / xmlSize);
     }
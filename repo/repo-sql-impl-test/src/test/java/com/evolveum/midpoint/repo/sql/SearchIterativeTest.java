@@ -18,6 +18,9 @@ package com.evolveum.midpoint.repo.sql;
 
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.OrderDirection;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
 import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
 import com.evolveum.midpoint.schema.ResultHandler;
@@ -118,6 +121,33 @@ public class SearchIterativeTest extends BaseSQLRepoTest {
         assertObjects(objects, COUNT);
     }
 
+    @Test
+    public void test107IterationWithPaging() throws Exception {
+        OperationResult result = new OperationResult("test107IterationWithPaging");
+
+        final List<PrismObject<UserType>> objects = new ArrayList<>();
+
+        ResultHandler handler = new ResultHandler() {
+            @Override
+            public boolean handle(PrismObject object, OperationResult parentResult) {
+                objects.add(object);
+                return true;
+            }
+        };
+
+        ObjectQuery query = ObjectQuery.createObjectQuery(
+                ObjectPaging.createPaging(10, 120, UserType.F_NAME, OrderDirection.ASCENDING));
+        repositoryService.searchObjectsIterative(UserType.class, query, handler, null, false, result);
+        result.recomputeStatus();
+
+        assertTrue(result.isSuccess());
+        assertObjects(objects, 120);
+        for (int i = 0; i < objects.size(); i++) {
+            assertEquals("Wrong object at position " + i, "user-" + (BASE + 10 + i),
+                    objects.get(i).asObjectable().getName().getOrig());
+        }
+    }
+
     private boolean[] assertObjects(List<PrismObject<UserType>> objects, Integer count) {
         if (count != null) {
             assertEquals("Wrong # of objects", count.intValue(), objects.size());
@@ -130,6 +130,79 @@ public class SearchTest extends BaseSQLRepoTest {
         iterateGeneral(1, 1, 1, "atestuserX00003");
     }
 
+    @Test
+    public void iterateSetPipelined() throws Exception {
+        OperationResult result = new OperationResult("search set pipelined");
+
+        final List<PrismObject> objects = new ArrayList<>();
+        ResultHandler handler = (object, parentResult) -> {
+            objects.add(object);
+            return true;
+        };
+
+        iteratePipelined(handler, result);
+        result.recomputeStatus();
+
+        assertTrue(result.isSuccess());
+        assertEquals(3, objects.size());
+    }
+
+    @Test
+    public void iterateSetPipelinedStopped() throws Exception {
+        OperationResult result = new OperationResult("search set pipelined stopped");
+
+        final List<PrismObject> objects = new ArrayList<>();
+        ResultHandler handler = (object, parentResult) -> {
+            objects.add(object);
+            return false;
+        };
+
+        iteratePipelined(handler, result);
+        result.recomputeStatus();
+
+        assertTrue(result.isSuccess());
+        assertEquals("Handler should be called only once", 1, objects.size());
+    }
+
+    @Test
+    public void iterateSetPipelinedHandlerException() throws Exception {
+        OperationResult result = new OperationResult("search set pipelined with exception");
+
+        final List<PrismObject> objects = new ArrayList<>();
+        ResultHandler handler = (object, parentResult) -> {
+            objects.add(object);
+            if (objects.size() == 2) {
+                throw new IllegalStateException("handler failure");
+            }
+            return true;
+        };
+
+        try {
+            iteratePipelined(handler, result);
+            fail("Exception from handler was not propagated");
+        } catch (SystemException e) {
+            assertTrue("Unexpected exception: " + e, e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals("Handler should not be called after exception", 2, objects.size());
+
+        // the fetching thread has been stopped and its session closed, so the repository is usable again
+        iterateSetPipelined();
+    }
+
+    private void iteratePipelined(ResultHandler handler, OperationResult result) throws Exception {
+        SqlRepositoryConfiguration config = ((SqlRepositoryServiceImpl) repositoryService).getConfiguration();
+        boolean oldByPaging = config.isIterativeSearchByPaging();
+        int oldQueueSize = config.getIterativeSearchPipelineQueueSize();
+        config.setIterativeSearchByPaging(false);
+        config.setIterativeSearchPipelineQueueSize(1);          // so the fetching thread has to wait for the handler
+        try {
+            repositoryService.searchObjectsIterative(UserType.class, null, handler, null, false, result);
+        } finally {
+            config.setIterativeSearchByPaging(oldByPaging);
+            config.setIterativeSearchPipelineQueueSize(oldQueueSize);
+        }
+    }
+
     private void iterateGeneral(int offset, int size, int batch, final String... names) throws Exception {
         OperationResult result = new OperationResult("search general");
 
@@ -17,6 +17,9 @@
 package com.evolveum.midpoint.repo.sql;
 
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.builder.DeltaBuilder;
+import com.evolveum.midpoint.repo.api.RepoAddOptions;
+import com.evolveum.midpoint.repo.sql.helpers.SequenceHelper;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
@@ -28,6 +31,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.SequenceType;
 import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
 import org.hibernate.Session;
 import org.hibernate.jdbc.Work;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.testng.annotations.Test;
@@ -39,6 +43,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.fail;
@@ -57,6 +63,9 @@ public class SequenceTest extends BaseSQLRepoTest {
 
     private static final int STOP_TIMEOUT = 10000;
 
+    @Autowired
+    private SequenceHelper sequenceHelper;
+
     @Test
     public void test001_OneThread() throws Exception {
 
@@ -158,6 +167,146 @@ public class SequenceTest extends BaseSQLRepoTest {
         }
     }
 
+    @Test
+    public void test040_BlockAllocation() throws Exception {
+        OperationResult result = new OperationResult("test040_BlockAllocation");
+        final File file = new File(TEST_DIR + "sequence-block.xml");
+        PrismObject<SequenceType> sequence = prismContext.parseObject(file);
+        String oid = repositoryService.addObject(sequence, null, result);
+
+        assertEquals(0L, repositoryService.advanceSequence(oid, result));
+        assertSequenceState(oid, 5L, "1", result);
+        assertEquals(1L, repositoryService.advanceSequence(oid, result));
+        assertEquals(2L, repositoryService.advanceSequence(oid, result));
+        assertEquals(3L, repositoryService.advanceSequence(oid, result));
+        assertEquals(4L, repositoryService.advanceSequence(oid, result));
+        assertSequenceState(oid, 5L, "1", result);          // no repository update for values from the block
+        assertEquals(5L, repositoryService.advanceSequence(oid, result));
+        assertEquals(6L, repositoryService.advanceSequence(oid, result));
+        assertSequenceState(oid, 10L, "2", result);
+
+        // values not handed out are returned on shutdown
+        sequenceHelper.returnAllocatedValues();
+        PrismObject<SequenceType> returned = repositoryService.getObject(SequenceType.class, oid, null, result);
+        assertEquals(Arrays.asList(7L, 8L, 9L), returned.asObjectable().getUnusedValues());
+        assertEquals(7L, repositoryService.advanceSequence(oid, result));
+        assertEquals(8L, repositoryService.advanceSequence(oid, result));
+        assertEquals(9L, repositoryService.advanceSequence(oid, result));
+        assertEquals(10L, repositoryService.advanceSequence(oid, result));
+        assertEquals(11L, repositoryService.advanceSequence(oid, result));
+        assertSequenceState(oid, 12L, "4", result);
+
+        // allocated values are forgotten when the sequence is modified
+        repositoryService.modifyObject(SequenceType.class, oid,
+                DeltaBuilder.deltaFor(SequenceType.class, prismContext)
+                        .item(SequenceType.F_COUNTER).replace(100L)
+                        .asItemDeltas(), result);
+        assertEquals(100L, repositoryService.advanceSequence(oid, result));
+        assertEquals(101L, repositoryService.advanceSequence(oid, result));
+    }
+
+    /**
+     * Values of a block allocated before a modification of the sequence must not be handed out after the modification,
+     * even if the block is kept only after the values are forgotten. The counter is moved far ahead,
+     * so such values can be recognized.
+     */
+    @Test
+    public void test041_BlockAllocationWithConcurrentModification() throws Exception {
+        OperationResult result = new OperationResult("test041_BlockAllocationWithConcurrentModification");
+        final File file = new File(TEST_DIR + "sequence-block.xml");
+        PrismObject<SequenceType> sequence = prismContext.parseObject(file);
+        sequence.asObjectable().setName(new PolyStringType("test041"));
+        String oid = repositoryService.addObject(sequence, null, result);
+
+        final long resetValue = 1000000L;
+        AtomicBoolean modified = new AtomicBoolean();
+        AtomicInteger valuesObtained = new AtomicInteger();
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                OperationResult threadResult = new OperationResult("test041 worker");
+                try {
+                    for (int j = 0; j < 200; j++) {
+                        boolean modifiedBefore = modified.get();
+                        long value = repositoryService.advanceSequence(oid, threadResult);
+                        valuesObtained.incrementAndGet();
+                        if (modifiedBefore && value < resetValue) {
+                            errors.add("Value " + value + " was obtained after the modification");
+                        }
+                    }
+                } catch (Throwable t) {
+                    LoggingUtils.logUnexpectedException(LOGGER, "Couldn't advance sequence", t);
+                    errors.add(t.toString());
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        while (valuesObtained.get() < 100 && errors.isEmpty()) {
+            Thread.sleep(10);
+        }
+        repositoryService.modifyObject(SequenceType.class, oid,
+                DeltaBuilder.deltaFor(SequenceType.class, prismContext)
+                        .item(SequenceType.F_COUNTER).replace(resetValue)
+                        .asItemDeltas(), result);
+        modified.set(true);
+
+        for (Thread thread : threads) {
+            thread.join(STOP_TIMEOUT);
+        }
+        assertEquals("Errors found", Collections.emptyList(), errors);
+        assertEquals("Wrong # of values obtained", 800, valuesObtained.get());
+    }
+
+    /**
+     * Allocation block size lower than 1 is treated as 1.
+     */
+    @Test
+    public void test042_InvalidBlockSize() throws Exception {
+        OperationResult result = new OperationResult("test042_InvalidBlockSize");
+        final File file = new File(TEST_DIR + "sequence-block.xml");
+        PrismObject<SequenceType> sequence = prismContext.parseObject(file);
+        sequence.asObjectable().setName(new PolyStringType("test042"));
+        sequence.asObjectable().setAllocationBlockSize(0);
+        String oid = repositoryService.addObject(sequence, null, result);
+
+        assertEquals(0L, repositoryService.advanceSequence(oid, result));
+        assertSequenceState(oid, 1L, "1", result);
+        assertEquals(1L, repositoryService.advanceSequence(oid, result));
+        assertSequenceState(oid, 2L, "2", result);
+    }
+
+    /**
+     * Allocated values are forgotten when the sequence is overwritten.
+     */
+    @Test
+    public void test043_BlockAllocationWithOverwrite() throws Exception {
+        OperationResult result = new OperationResult("test043_BlockAllocationWithOverwrite");
+        final File file = new File(TEST_DIR + "sequence-block.xml");
+        PrismObject<SequenceType> sequence = prismContext.parseObject(file);
+        sequence.asObjectable().setName(new PolyStringType("test043"));
+        String oid = repositoryService.addObject(sequence, null, result);
+        assertEquals(0L, repositoryService.advanceSequence(oid, result));
+
+        PrismObject<SequenceType> overwritten = prismContext.parseObject(file);
+        overwritten.setOid(oid);
+        overwritten.asObjectable().setName(new PolyStringType("test043"));
+        overwritten.asObjectable().setCounter(100L);
+        repositoryService.addObject(overwritten, RepoAddOptions.createOverwrite(), result);
+
+        assertEquals(100L, repositoryService.advanceSequence(oid, result));
+        assertEquals(101L, repositoryService.advanceSequence(oid, result));
+    }
+
+    private void assertSequenceState(String oid, long expectedCounter, String expectedVersion, OperationResult result)
+            throws ObjectNotFoundException, SchemaException {
+        PrismObject<SequenceType> sequence = repositoryService.getObject(SequenceType.class, oid, null, result);
+        assertEquals("Wrong counter", (Long) expectedCounter, sequence.asObjectable().getCounter());
+        assertEquals("Wrong version", expectedVersion, sequence.getVersion());
+    }
+
     @Test
     public void test031_OneThreadReturning() throws Exception {
 
@@ -18,8 +18,10 @@ package com.evolveum.midpoint.repo.sql.closure;
 
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.delta.ReferenceDelta;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.sql.helpers.OrgClosureManager;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
@@ -104,6 +106,7 @@ public class OrgClosureConcurrencyTest extends AbstractOrgClosureTest {
     @Test(enabled = true) public void test201AddRemoveLinksRandom() throws Exception { _test200AddRemoveLinksMT(true); }
     @Test(enabled = true) public void test300AddRemoveNodesSeq() throws Exception { _test300AddRemoveNodesMT(false); }
     @Test(enabled = true) public void test301AddRemoveNodesRandom() throws Exception { _test300AddRemoveNodesMT(true); }
+    @Test(enabled = true) public void test400MoveOrgsObjectsLocking() throws Exception { _test400MoveOrgsMT(OrgClosureManager.LockingStrategy.OBJECTS); }
 
     /**
      * We randomly select a set of links to be removed.
@@ -431,6 +434,96 @@ public class OrgClosureConcurrencyTest extends AbstractOrgClosureTest {
         info("Consistency after re-adding OK");
     }
 
+    /**
+     * Moves orgs from all non-root levels to other parents, using a given set of threads. Orgs and their
+     * ancestors are moved concurrently, so the set of ancestors read by a closure update can change
+     * before the update obtains its locks.
+     * After all threads are done, we will check the closure table consistency.
+     */
+    protected void _test400MoveOrgsMT(OrgClosureManager.LockingStrategy lockingStrategy) throws Exception {
+        OperationResult opResult = new OperationResult("===[ test400MoveOrgsMT ]===");
+
+        info("test400MoveOrgs starting with locking strategy = " + lockingStrategy);
+
+        final List<Throwable> exceptions = Collections.synchronizedList(new ArrayList<Throwable>());
+        final List<ObjectDelta<OrgType>> moves = Collections.synchronizedList(new ArrayList<ObjectDelta<OrgType>>());
+
+        for (int level = 1; level < orgsByLevels.size(); level++) {
+            List<String> potentialParents = orgsByLevels.get(level-1);
+            for (String oid : orgsByLevels.get(level)) {
+                OrgType org = repositoryService.getObject(OrgType.class, oid, null, opResult).asObjectable();
+                if (org.getParentOrgRef().isEmpty()) {
+                    continue;
+                }
+                Set<String> currentParents = new HashSet<>();
+                for (ObjectReferenceType parentOrgRef : org.getParentOrgRef()) {
+                    currentParents.add(parentOrgRef.getOid());
+                }
+                List<String> newParents = new ArrayList<>(potentialParents);
+                newParents.removeAll(currentParents);
+                if (newParents.isEmpty()) {
+                    continue;
+                }
+                ObjectReferenceType oldParentRef = org.getParentOrgRef().get((int) Math.floor(Math.random() * org.getParentOrgRef().size()));
+                ObjectReferenceType newParentRef = new ObjectReferenceType();
+                newParentRef.setType(OrgType.COMPLEX_TYPE);
+                newParentRef.setOid(newParents.get((int) Math.floor(Math.random() * newParents.size())));
+                ObjectDelta<OrgType> move = ObjectDelta.createModificationDeleteReference(OrgType.class, oid,
+                        OrgType.F_PARENT_ORG_REF, prismContext, oldParentRef.asReferenceValue().clone());
+                move.addModificationAddReference(OrgType.F_PARENT_ORG_REF, newParentRef.asReferenceValue());
+                moves.add(move);
+            }
+        }
+        Collections.shuffle(moves);
+        info("Moves to execute: " + moves.size());
+
+        OrgClosureManager.LockingStrategy originalLockingStrategy = baseHelper.getConfiguration().getOrgClosureLockingStrategy();
+        baseHelper.getConfiguration().setOrgClosureLockingStrategy(lockingStrategy.toString());
+        try {
+            final List<Thread> runners = Collections.synchronizedList(new ArrayList<Thread>());
+            for (int i = 0; i < THREADS; i++) {
+                Runnable runnable = new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            while (true) {
+                                ObjectDelta<OrgType> move;
+                                synchronized (moves) {
+                                    if (moves.isEmpty()) {
+                                        break;
+                                    }
+                                    move = moves.remove(moves.size() - 1);
+                                }
+                                LOGGER.info("Moving {}", move);
+                                repositoryService.modifyObject(OrgType.class, move.getOid(), move.getModifications(), new OperationResult("dummy"));
+                            }
+                        } catch (Throwable e) {
+                            e.printStackTrace();
+                            exceptions.add(e);
+                        } finally {
+                            runners.remove(Thread.currentThread());
+                        }
+                    }
+                };
+                Thread t = new Thread(runnable);
+                runners.add(t);
+                t.start();
+            }
+
+            waitForRunnersCompletion(runners);
+        } finally {
+            baseHelper.getConfiguration().setOrgClosureLockingStrategy(originalLockingStrategy.toString());
+        }
+
+        if (!exceptions.isEmpty()) {
+            throw new AssertionError("Found exceptions: " + exceptions);
+        }
+
+        rebuildGraph();
+        checkClosure(orgGraph.vertexSet());
+        info("Consistency after moving OK");
+    }
+
     private void rebuildGraph() {
         OperationResult result = new OperationResult("dummy");
         info("Graph before rebuilding: " + orgGraph.vertexSet().size() + " vertices, " + orgGraph.edgeSet().size() + " edges");
@@ -516,6 +516,16 @@ public class SimpleTaskAdapter implements Task {
         throw new UnsupportedOperationException("not implemented yet.");
     }
 
+    @Override
+    public Task createWorkerSubtask() {
+        throw new UnsupportedOperationException("not implemented yet.");
+    }
+
+    @Override
+    public void mergeWorkerSubtaskStatistics(Task workerSubtask) {
+        throw new UnsupportedOperationException("not implemented yet.");
+    }
+
 //    @Deprecated
 //    @Override
 //    public TaskRunResult waitForSubtasks(Integer interval, OperationResult parentResult)
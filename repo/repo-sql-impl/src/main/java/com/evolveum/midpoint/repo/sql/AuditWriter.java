@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.repo.sql.helpers.BaseHelper;
+import com.evolveum.midpoint.repo.sql.util.DtoTranslationException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import org.hibernate.Session;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes audit records asynchronously, in a dedicated thread. Records are taken from a bounded queue
+ * and stored in batches: each batch is written in a single transaction, so the inserts can be batched
+ * by JDBC driver (see hibernate.jdbc.batch_size).
+ *
+ * If a batch cannot be written (after usual retries on locking problems), its records are written
+ * one by one, so that a single bad record does not cause loss of the whole batch.
+ */
+class AuditWriter implements Runnable {
+
+	private static final Trace LOGGER = TraceManager.getTrace(AuditWriter.class);
+
+	private static final String OPERATION_AUDIT = "audit";
+	private static final long POLL_INTERVAL = 1000L;            // ms
+	private static final long STOP_TIMEOUT = 30000L;            // ms
+
+	private final BaseHelper baseHelper;
+	private final PrismContext prismContext;
+	private final int batchSize;
+	private final BlockingQueue<AuditEventRecord> queue;
+	private final Thread thread;
+
+	private volatile boolean stopping;
+
+	// both guarded by this
+	private long enqueued;
+	private long processed;
+
+	AuditWriter(BaseHelper baseHelper, PrismContext prismContext, int queueSize, int batchSize) {
+		this.baseHelper = baseHelper;
+		this.prismContext = prismContext;
+		this.batchSize = Math.max(batchSize, 1);
+		this.queue = new ArrayBlockingQueue<>(Math.max(queueSize, 1));
+		this.thread = new Thread(this, "midpoint-audit-writer");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Puts the record into the queue. The record must not be changed afterwards.
+	 * Returns false if the record was not accepted (queue is full or the writer is stopping);
+	 * the caller has to write it by itself then.
+	 */
+	synchronized boolean offer(AuditEventRecord record) {
+		if (stopping || !queue.offer(record)) {
+			return false;
+		}
+		enqueued++;
+		return true;
+	}
+
+	/**
+	 * Waits until all the records that were put into the queue before this call are processed.
+	 */
+	synchronized void flush() {
+		long target = enqueued;
+		while (processed < target && thread.isAlive()) {
+			try {
+				wait(POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				LOGGER.warn("Interrupted while waiting for audit records to be written, {} of them are still pending",
+						target - processed);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting new records, writes the queued ones and stops the thread.
+	 */
+	void stop() {
+		stopping = true;
+		try {
+			thread.join(STOP_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (thread.isAlive()) {
+			LOGGER.warn("Audit writer didn't stop in {} ms, {} audit record(s) might be lost", STOP_TIMEOUT, queue.size());
+		}
+	}
+
+	@Override
+	public void run() {
+		LOGGER.debug("Audit writer started (batch size {})", batchSize);
+		List<AuditEventRecord> batch = new ArrayList<>(batchSize);
+		for (;;) {
+			AuditEventRecord first;
+			try {
+				first = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				if (!stopping) {
+					LOGGER.warn("Audit writer interrupted, {} audit record(s) are left unwritten", queue.size());
+				}
+				return;
+			}
+			if (first == null) {
+				if (stopping) {
+					break;
+				}
+				continue;
+			}
+			batch.add(first);
+			queue.drainTo(batch, batchSize - 1);
+			try {
+				write(batch);
+			} catch (Throwable t) {
+				LoggingUtils.logUnexpectedException(LOGGER, "Couldn't write {} audit record(s)", t, batch.size());
+			}
+			synchronized (this) {
+				processed += batch.size();
+				notifyAll();
+			}
+			batch.clear();
+		}
+		LOGGER.debug("Audit writer stopped");
+	}
+
+	private void write(List<AuditEventRecord> batch) {
+		RuntimeException failure;
+		int attempt = 1;
+		for (;;) {
+			try {
+				writeAttempt(batch);
+				return;
+			} catch (RuntimeException ex) {
+				try {
+					attempt = baseHelper.logOperationAttempt(null, OPERATION_AUDIT, attempt, ex, null);
+				} catch (RuntimeException fatal) {
+					failure = fatal;
+					break;
+				}
+			}
+		}
+		if (batch.size() == 1) {
+			LoggingUtils.logUnexpectedException(LOGGER, "Couldn't write audit record {}", failure, batch.get(0));
+			return;
+		}
+		LOGGER.warn("Couldn't write batch of {} audit records, writing them one by one: {}", batch.size(), failure.getMessage());
+		for (AuditEventRecord record : batch) {
+			write(Collections.singletonList(record));
+		}
+	}
+
+	private void writeAttempt(List<AuditEventRecord> batch) {
+		Session session = null;
+		try {
+			session = baseHelper.beginTransaction();
+			for (AuditEventRecord record : batch) {
+				session.save(RAuditEventRecord.toRepo(record, prismContext));
+			}
+			session.getTransaction().commit();
+		} catch (DtoTranslationException ex) {
+			baseHelper.handleGeneralCheckedException(ex, session, null);
+		} catch (RuntimeException ex) {
+			baseHelper.handleGeneralRuntimeException(ex, session, null);
+		} finally {
+			baseHelper.cleanupSessionAndResult(session, null);
+		}
+	}
+}
@@ -24,14 +24,32 @@ import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import org.apache.commons.configuration.Configuration;
 
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author lazyman
  */
 public class SqlAuditServiceFactory implements AuditServiceFactory {
 
     private static final Trace LOGGER = TraceManager.getTrace(SqlAuditServiceFactory.class);
+
+    public static final String CONF_WRITE_MODE = "writeMode";
+    public static final String CONF_WRITE_QUEUE_SIZE = "writeQueueSize";
+    public static final String CONF_WRITE_BATCH_SIZE = "writeBatchSize";
+
+    private static final int DEFAULT_WRITE_QUEUE_SIZE = 10000;
+    private static final int DEFAULT_WRITE_BATCH_SIZE = 50;
+
     private SqlRepositoryFactory repositoryFactory;
 
+    private SqlAuditServiceImpl.WriteMode writeMode = SqlAuditServiceImpl.WriteMode.SYNC;
+    private int writeQueueSize = DEFAULT_WRITE_QUEUE_SIZE;
+    private int writeBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+
+    private final List<SqlAuditServiceImpl> services = new ArrayList<>();
+
     public SqlRepositoryFactory getRepositoryFactory() {
         return repositoryFactory;
     }
@@ -59,16 +77,51 @@ public class SqlAuditServiceFactory implements AuditServiceFactory {
         } catch (RepositoryServiceFactoryException ex) {
             throw new AuditServiceFactoryException(ex.getMessage(), ex);
         }
+        try {
+            writeMode = SqlAuditServiceImpl.WriteMode.fromValue(config.getString(CONF_WRITE_MODE, writeMode.toString()));
+        } catch (IllegalArgumentException ex) {
+            throw new AuditServiceFactoryException("Unknown audit write mode: " + ex.getMessage(), ex);
+        }
+        writeQueueSize = config.getInt(CONF_WRITE_QUEUE_SIZE, DEFAULT_WRITE_QUEUE_SIZE);
+        writeBatchSize = config.getInt(CONF_WRITE_BATCH_SIZE, DEFAULT_WRITE_BATCH_SIZE);
+        if (writeMode != SqlAuditServiceImpl.WriteMode.SYNC) {
+            LOGGER.info("Audit records will be written asynchronously: writeMode={}, writeQueueSize={}, writeBatchSize={}",
+                    writeMode, writeQueueSize, writeBatchSize);
+        }
         LOGGER.info("Sql audit service factory initialization complete.");
     }
 
     @Override
     public void destroyService(AuditService service) throws AuditServiceFactoryException {
-        //we don't need destroying service objects, they will be GC correctly
+        // services writing synchronously will be GC correctly, asynchronous writers have to be stopped
+        if (service instanceof SqlAuditServiceImpl) {
+            ((SqlAuditServiceImpl) service).destroy();
+            synchronized (services) {
+                services.remove(service);
+            }
+        }
     }
 
     @Override
     public AuditService getAuditService() throws AuditServiceFactoryException {
-        return new SqlAuditServiceImpl(repositoryFactory);
+        SqlAuditServiceImpl service = new SqlAuditServiceImpl(repositoryFactory);
+        service.setWriteMode(writeMode, writeQueueSize, writeBatchSize);
+        synchronized (services) {
+            services.add(service);
+        }
+        return service;
+    }
+
+    /**
+     * Writes pending audit records (if written asynchronously) on shutdown.
+     */
+    @PreDestroy
+    public void destroyServices() {
+        synchronized (services) {
+            for (SqlAuditServiceImpl service : services) {
+                service.destroy();
+            }
+            services.clear();
+        }
     }
 }
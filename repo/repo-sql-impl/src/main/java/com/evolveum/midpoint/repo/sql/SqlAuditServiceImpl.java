@@ -15,16 +15,14 @@
  */
 package com.evolveum.midpoint.repo.sql;
 
-import java.sql.Statement;
 import java.sql.Timestamp;
-import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import javax.xml.datatype.Duration;
 import javax.xml.datatype.XMLGregorianCalendar;
@@ -36,13 +34,9 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.hibernate.FlushMode;
 import org.hibernate.Query;
-import org.hibernate.SQLQuery;
 import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.criterion.Projections;
-import org.hibernate.dialect.Dialect;
-import org.hibernate.dialect.pagination.LimitHandler;
-import org.hibernate.engine.spi.RowSelection;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.evolveum.midpoint.audit.api.AuditEventRecord;
@@ -61,7 +55,6 @@ import com.evolveum.midpoint.util.DebugUtil;
 import com.evolveum.midpoint.util.Holder;
 import com.evolveum.midpoint.util.MiscUtil;
 import com.evolveum.midpoint.util.exception.SchemaException;
-import com.evolveum.midpoint.util.exception.SystemException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.CleanupPolicyType;
@@ -80,15 +73,105 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 	private static final String QUERY_MAX_RESULT = "setMaxResults";
 	private static final String QUERY_FIRST_RESULT = "setFirstResult";
 
+	/**
+	 * How audit records are written.
+	 *
+	 * SYNC: in the calling thread, each record in its own transaction.
+	 * ASYNC: by a background writer, in batches (see {@link AuditWriter}); records still in the queue are lost
+	 * if the node crashes.
+	 * ASYNC_FLUSH_ON_TASK_END: like ASYNC, but at the end of a task run the task waits until its records
+	 * are written (see {@link #flush(Task)}).
+	 *
+	 * If the queue of the writer is full, records are written synchronously.
+	 *
+	 * In the asynchronous modes a copy of the record is queued and {@link #audit(AuditEventRecord, Task)} returns
+	 * before it is written. So the caller's record never gets its repoId, and errors of the write are only logged,
+	 * not thrown to the caller. Callers that need either have to use SYNC.
+	 */
+	public enum WriteMode {
+
+		SYNC("sync"), ASYNC("async"), ASYNC_FLUSH_ON_TASK_END("asyncFlushOnTaskEnd");
+
+		private String value;
+
+		WriteMode(String value) {
+			this.value = value;
+		}
+
+		@Override
+		public String toString() {
+			return value;
+		}
+
+		public static WriteMode fromValue(String v) {
+			for (WriteMode m : WriteMode.values()) {
+				if (m.value.equals(v)) {
+					return m;
+				}
+			}
+			throw new IllegalArgumentException(v);
+		}
+	}
+
+	private WriteMode writeMode = WriteMode.SYNC;
+	private int writeQueueSize;
+	private int writeBatchSize;
+
+	// created lazily, as the helpers are autowired only after the service is created
+	private AuditWriter writer;
+	private boolean destroyed;
+
 	public SqlAuditServiceImpl(SqlRepositoryFactory repositoryFactory) {
 		super(repositoryFactory);
 	}
 
+	/**
+	 * Switches between synchronous and asynchronous writing. Note that in asynchronous modes the records passed
+	 * to {@link #audit(AuditEventRecord, Task)} are not updated (e.g. their repoId is never set), see {@link WriteMode}.
+	 */
+	public void setWriteMode(WriteMode writeMode, int writeQueueSize, int writeBatchSize) {
+		this.writeMode = writeMode;
+		this.writeQueueSize = writeQueueSize;
+		this.writeBatchSize = writeBatchSize;
+	}
+
+	// package-private for testing
+	synchronized AuditWriter getWriter() {
+		if (writer == null && !destroyed) {
+			writer = new AuditWriter(baseHelper, getPrismContext(), writeQueueSize, writeBatchSize);
+		}
+		return writer;
+	}
+
+	/**
+	 * Stops the asynchronous writer (if any), writing the records that are still queued.
+	 */
+	public void destroy() {
+		AuditWriter writerToStop;
+		synchronized (this) {
+			destroyed = true;
+			writerToStop = writer;
+			writer = null;
+		}
+		if (writerToStop != null) {
+			writerToStop.stop();
+		}
+	}
+
 	@Override
 	public void audit(AuditEventRecord record, Task task) {
 		Validate.notNull(record, "Audit event record must not be null.");
 		Validate.notNull(task, "Task must not be null.");
 
+		if (writeMode != WriteMode.SYNC) {
+			AuditWriter currentWriter = getWriter();
+			// the caller can reuse the record, so we have to queue a copy
+			if (currentWriter != null && currentWriter.offer(record.clone())) {
+				return;
+			}
+			LOGGER.debug("Audit record couldn't be queued, writing it synchronously");
+		}
+
 		final String operation = "audit";
 		int attempt = 1;
 
@@ -102,6 +185,20 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 		}
 	}
 
+	@Override
+	public void flush(Task task) {
+		if (writeMode != WriteMode.ASYNC_FLUSH_ON_TASK_END) {
+			return;
+		}
+		AuditWriter currentWriter;
+		synchronized (this) {
+			currentWriter = writer;
+		}
+		if (currentWriter != null) {
+			currentWriter.flush();
+		}
+	}
+
 	@Override
 	public List<AuditEventRecord> listRecords(String query, Map<String, Object> params) {
 		final String operation = "listRecords";
@@ -327,8 +424,8 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 
 		PrismObject result;
 		if (object != null) {
-			String xml = RUtil.getXmlFromByteArray(object.getFullObject(), getConfiguration().isUseZip());
-			result = getPrismContext().parserFor(xml).compat().parse();
+			String xml = RUtil.getXmlFromByteArray(object.getFullObject());
+			result = getPrismContext().parserFor(xml).language(RUtil.getFullObjectLanguage(xml)).compat().parse();
 		} else if (defaultType != null) {
 			result = getPrismContext().createObject(defaultType.getJaxbClass());
 			result.asObjectable().setName(PolyStringType.fromOrig(defaultName != null ? defaultName : oid));
@@ -385,10 +482,6 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 		Date minValue = new Date();
 		duration.addTo(minValue);
 
-		// factored out because it produces INFO-level message
-		Dialect dialect = Dialect.getDialect(baseHelper.getSessionFactoryBean().getHibernateProperties());
-		checkTemporaryTablesSupport(dialect);
-
 		long start = System.currentTimeMillis();
 		boolean first = true;
 		Holder<Integer> totalCountHolder = new Holder<>(0);
@@ -407,8 +500,8 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 						LOGGER.debug(
 								"Starting audit cleanup batch, deleting up to {} (duration '{}'), batch size {}, up to now deleted {} entries.",
 								minValue, duration, CLEANUP_AUDIT_BATCH_SIZE, totalCountHolder.getValue());
-						count = batchDeletionAttempt((session, tempTable) -> selectRecordsByMaxAge(session, tempTable, minValue, dialect),
-								totalCountHolder, batchStart, dialect, parentResult);
+						count = batchDeletionAttempt(session -> selectRecordsByMaxAge(session, minValue),
+								totalCountHolder, batchStart, parentResult);
 					} while (count > 0);
 					return;
 				} catch (RuntimeException ex) {
@@ -437,10 +530,6 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 
 		Integer recordsToKeep = policy.getMaxRecords();
 
-		// factored out because it produces INFO-level message
-		Dialect dialect = Dialect.getDialect(baseHelper.getSessionFactoryBean().getHibernateProperties());
-		checkTemporaryTablesSupport(dialect);
-
 		long start = System.currentTimeMillis();
 		boolean first = true;
 		Holder<Integer> totalCountHolder = new Holder<>(0);
@@ -459,8 +548,8 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 						LOGGER.debug(
 								"Starting audit cleanup batch, keeping at most {} records, batch size {}, up to now deleted {} entries.",
 								recordsToKeep, CLEANUP_AUDIT_BATCH_SIZE, totalCountHolder.getValue());
-						count = batchDeletionAttempt((session, tempTable) -> selectRecordsByNumberToKeep(session, tempTable, recordsToKeep, dialect),
-								totalCountHolder, batchStart, dialect, parentResult);
+						count = batchDeletionAttempt(session -> selectRecordsByNumberToKeep(session, recordsToKeep),
+								totalCountHolder, batchStart, parentResult);
 					} while (count > 0);
 					return;
 				} catch (RuntimeException ex) {
@@ -475,54 +564,33 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 		}
 	}
 
-	private void checkTemporaryTablesSupport(Dialect dialect) {
-		if (!dialect.supportsTemporaryTables()) {
-			LOGGER.error("Dialect {} doesn't support temporary tables, couldn't cleanup audit logs.",
-					dialect);
-			throw new SystemException(
-					"Dialect " + dialect + " doesn't support temporary tables, couldn't cleanup audit logs.");
-		}
-	}
-
-	// deletes one batch of records (using recordsSelector to select records according to particular cleanup policy)
-	private int batchDeletionAttempt(BiFunction<Session, String, Integer> recordsSelector, Holder<Integer> totalCountHolder,
-			long batchStart, Dialect dialect, OperationResult subResult) {
+	/**
+	 * Deletes one batch of records (using recordsSelector to select IDs of records according to particular cleanup policy).
+	 *
+	 * The IDs are passed to the delete statements directly, so no temporary table is needed, and each statement
+	 * touches only the rows of the selected records (looked up via record_id indices).
+	 */
+	private int batchDeletionAttempt(Function<Session, List<Long>> recordsSelector, Holder<Integer> totalCountHolder,
+			long batchStart, OperationResult subResult) {
 
 		Session session = null;
 		try {
 			session = baseHelper.beginTransaction();
 
-			// create temporary table
-			final String tempTable = dialect.generateTemporaryTableName(RAuditEventRecord.TABLE_NAME);
-			createTemporaryTable(session, dialect, tempTable);
-			LOGGER.trace("Created temporary table '{}'.", tempTable);
-
-			int count = recordsSelector.apply(session, tempTable);
-			LOGGER.trace("Inserted {} audit record ids ready for deleting.", count);
-
-			// drop records from m_audit_item, m_audit_event, m_audit_delta, and others
-			session.createSQLQuery(createDeleteQuery(RAuditItem.TABLE_NAME, tempTable,
-					RAuditItem.COLUMN_RECORD_ID)).executeUpdate();
-			session.createSQLQuery(createDeleteQuery(RObjectDeltaOperation.TABLE_NAME, tempTable,
-					RObjectDeltaOperation.COLUMN_RECORD_ID)).executeUpdate();
-			session.createSQLQuery(createDeleteQuery(RAuditPropertyValue.TABLE_NAME, tempTable,
-					RAuditPropertyValue.COLUMN_RECORD_ID)).executeUpdate();
-			session.createSQLQuery(createDeleteQuery(RAuditReferenceValue.TABLE_NAME, tempTable,
-					RAuditReferenceValue.COLUMN_RECORD_ID)).executeUpdate();
-			session.createSQLQuery(createDeleteQuery(RAuditEventRecord.TABLE_NAME, tempTable, "id"))
-					.executeUpdate();
-
-			// drop temporary table
-			if (dialect.dropTemporaryTableAfterUse()) {
-				LOGGER.debug("Dropping temporary table.");
-				StringBuilder sb = new StringBuilder();
-				sb.append(dialect.getDropTemporaryTableString());
-				sb.append(' ').append(tempTable);
-
-				session.createSQLQuery(sb.toString()).executeUpdate();
+			List<Long> recordIds = recordsSelector.apply(session);
+			LOGGER.trace("Selected {} audit record ids for deleting.", recordIds.size());
+
+			if (!recordIds.isEmpty()) {
+				// drop records from m_audit_item, m_audit_event, m_audit_delta, and others
+				deleteByRecordIds(session, RAuditItem.TABLE_NAME, RAuditItem.COLUMN_RECORD_ID, recordIds);
+				deleteByRecordIds(session, RObjectDeltaOperation.TABLE_NAME, RObjectDeltaOperation.COLUMN_RECORD_ID, recordIds);
+				deleteByRecordIds(session, RAuditPropertyValue.TABLE_NAME, RAuditPropertyValue.COLUMN_RECORD_ID, recordIds);
+				deleteByRecordIds(session, RAuditReferenceValue.TABLE_NAME, RAuditReferenceValue.COLUMN_RECORD_ID, recordIds);
+				deleteByRecordIds(session, RAuditEventRecord.TABLE_NAME, "id", recordIds);
 			}
 
 			session.getTransaction().commit();
+			int count = recordIds.size();
 			int totalCount = totalCountHolder.getValue() + count;
 			totalCountHolder.setValue(totalCount);
 			LOGGER.debug("Audit cleanup batch finishing successfully in {} milliseconds; total count = {}",
@@ -538,38 +606,23 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 		}
 	}
 
-	private int selectRecordsByMaxAge(Session session, String tempTable, Date minValue, Dialect dialect) {
-
-		// fill temporary table, we don't need to join task on object on
-		// container, oid and id is already in task table
-		StringBuilder selectSB = new StringBuilder();
-		selectSB.append("select a.id as id from ").append(RAuditEventRecord.TABLE_NAME).append(" a");
-		selectSB.append(" where a.").append(RAuditEventRecord.COLUMN_TIMESTAMP).append(" < ###TIME###");
-		String selectString = selectSB.toString();
-
-		// batch size
-		RowSelection rowSelection = new RowSelection();
-		rowSelection.setMaxRows(CLEANUP_AUDIT_BATCH_SIZE);
-		LimitHandler limitHandler = dialect.buildLimitHandler(selectString, rowSelection);
-		selectString = limitHandler.getProcessedSql();
-
-		// replace ? -> batch size, $ -> ?
-		// Sorry for that .... I just don't know how to write this query in HQL,
-		// nor I'm not sure if limiting max size in
-		// compound insert into ... select ... query via query.setMaxSize()
-		// would work - TODO write more nicely if anybody knows how)
-		selectString = selectString.replace("?", String.valueOf(CLEANUP_AUDIT_BATCH_SIZE));
-		selectString = selectString.replace("###TIME###", "?");
-
-		String queryString = "insert into " + tempTable + " " + selectString;
-		LOGGER.trace("Query string = {}", queryString);
-		SQLQuery query = session.createSQLQuery(queryString);
-		query.setParameter(0, new Timestamp(minValue.getTime()));
-
-		return query.executeUpdate();
+	private void deleteByRecordIds(Session session, String table, String idColumnName, List<Long> recordIds) {
+		session.createSQLQuery("delete from " + table + " where " + idColumnName + " in (:ids)")
+				.setParameterList("ids", recordIds)
+				.executeUpdate();
 	}
 
-	private int selectRecordsByNumberToKeep(Session session, String tempTable, Integer recordsToKeep, Dialect dialect) {
+	@SuppressWarnings("unchecked")
+	private List<Long> selectRecordsByMaxAge(Session session, Date minValue) {
+		// no ordering: the database can use the timestamp index and stop after the first batch of matching rows
+		Query query = session.createQuery("select a.id from RAuditEventRecord a where a.timestamp < :minValue");
+		query.setParameter("minValue", new Timestamp(minValue.getTime()));
+		query.setMaxResults(CLEANUP_AUDIT_BATCH_SIZE);
+		return query.list();
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Long> selectRecordsByNumberToKeep(Session session, Integer recordsToKeep) {
 		Number totalAuditRecords = (Number) session.createCriteria(RAuditEventRecord.class)
 				.setProjection(Projections.rowCount())
 				.uniqueResult();
@@ -582,65 +635,12 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 		LOGGER.debug("Total audit records: {}, records to keep: {} => records to delete in this batch: {}",
 				totalAuditRecords, recordsToKeep, recordsToDelete);
 		if (recordsToDelete == 0) {
-			return 0;
+			return new ArrayList<>();
 		}
 
-		StringBuilder selectSB = new StringBuilder();
-		selectSB.append("select a.id as id from ").append(RAuditEventRecord.TABLE_NAME).append(" a");
-		selectSB.append(" order by a.").append(RAuditEventRecord.COLUMN_TIMESTAMP).append(" asc");
-		String selectString = selectSB.toString();
-
-		// batch size
-		RowSelection rowSelection = new RowSelection();
-		rowSelection.setMaxRows(recordsToDelete);
-		LimitHandler limitHandler = dialect.buildLimitHandler(selectString, rowSelection);
-		selectString = limitHandler.getProcessedSql();
-		selectString = selectString.replace("?", String.valueOf(recordsToDelete));
-
-		String queryString = "insert into " + tempTable + " " + selectString;
-		LOGGER.trace("Query string = {}", queryString);
-		SQLQuery query = session.createSQLQuery(queryString);
-		return query.executeUpdate();
-	}
-
-	/**
-	 * This method creates temporary table for cleanup audit method.
-	 *
-	 * @param session
-	 * @param dialect
-	 * @param tempTable
-	 */
-	private void createTemporaryTable(Session session, final Dialect dialect, final String tempTable) {
-		session.doWork(connection -> {
-			// check if table exists
-			try {
-				Statement s = connection.createStatement();
-				s.execute("select id from " + tempTable + " where id = 1");
-				// table already exists
-				return;
-			} catch (Exception ex) {
-				// we expect this on the first time
-			}
-
-			StringBuilder sb = new StringBuilder();
-			sb.append(dialect.getCreateTemporaryTableString());
-			sb.append(' ').append(tempTable).append(" (id ");
-			sb.append(dialect.getTypeName(Types.BIGINT));
-			sb.append(" not null)");
-			sb.append(dialect.getCreateTemporaryTablePostfix());
-
-			Statement s = connection.createStatement();
-			s.execute(sb.toString());
-		});
-	}
-
-	private String createDeleteQuery(String objectTable, String tempTable, String idColumnName) {
-		StringBuilder sb = new StringBuilder();
-		sb.append("delete from ").append(objectTable);
-		sb.append(" where ").append(idColumnName).append(" in (select id from ").append(tempTable)
-				.append(')');
-
-		return sb.toString();
+		Query query = session.createQuery("select a.id from RAuditEventRecord a order by a.timestamp asc");
+		query.setMaxResults(recordsToDelete);
+		return query.list();
 	}
 
 	public long countObjects(String query, Map<String, Object> params) {
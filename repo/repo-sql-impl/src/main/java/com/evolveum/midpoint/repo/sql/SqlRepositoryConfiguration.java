@@ -16,6 +16,7 @@
 
 package com.evolveum.midpoint.repo.sql;
 
+import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
 import com.evolveum.midpoint.repo.sql.helpers.OrgClosureManager;
 import com.evolveum.midpoint.repo.sql.util.MidPointConnectionCustomizer;
@@ -109,6 +110,7 @@ public class SqlRepositoryConfiguration {
     public static final String PROPERTY_JDBC_URL = "jdbcUrl";
     public static final String PROPERTY_DATASOURCE = "dataSource";
     public static final String PROPERTY_USE_ZIP = "useZip";
+    public static final String PROPERTY_FULL_OBJECT_FORMAT = "fullObjectFormat";
     public static final String PROPERTY_MIN_POOL_SIZE = "minPoolSize";
     public static final String PROPERTY_MAX_POOL_SIZE = "maxPoolSize";
 
@@ -123,10 +125,13 @@ public class SqlRepositoryConfiguration {
     //other
     public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING = "iterativeSearchByPaging";
     public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE = "iterativeSearchByPagingBatchSize";
+    public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING_PREFETCH = "iterativeSearchByPagingPrefetch";
+    public static final String PROPERTY_ITERATIVE_SEARCH_PIPELINE_QUEUE_SIZE = "iterativeSearchPipelineQueueSize";
 
     //closure
     public static final String PROPERTY_IGNORE_ORG_CLOSURE = "ignoreOrgClosure";
     public static final String PROPERTY_ORG_CLOSURE_STARTUP_ACTION = "orgClosureStartupAction";
+    public static final String PROPERTY_ORG_CLOSURE_LOCKING_STRATEGY = "orgClosureLockingStrategy";
     public static final String PROPERTY_SKIP_ORG_CLOSURE_STRUCTURE_CHECK = "skipOrgClosureStructureCheck";
     public static final String PROPERTY_STOP_ON_ORG_CLOSURE_STARTUP_FAILURE = "stopOnOrgClosureStartupFailure";
 
@@ -158,6 +163,7 @@ public class SqlRepositoryConfiguration {
     private int minPoolSize = 8;
     private int maxPoolSize = 20;
     private boolean useZip;
+    private String fullObjectFormat = PrismContext.LANG_XML;
 
     private TransactionIsolation transactionIsolation;
     private boolean lockForUpdateViaHibernate;
@@ -168,9 +174,12 @@ public class SqlRepositoryConfiguration {
 
     private boolean iterativeSearchByPaging;
     private int iterativeSearchByPagingBatchSize;
+    private boolean iterativeSearchByPagingPrefetch;
+    private int iterativeSearchPipelineQueueSize;
 
     private boolean ignoreOrgClosure;
     private OrgClosureManager.StartupAction orgClosureStartupAction;
+    private OrgClosureManager.LockingStrategy orgClosureLockingStrategy;
     private boolean skipOrgClosureStructureCheck;
     private boolean stopOnOrgClosureStartupFailure;
 
@@ -196,6 +205,7 @@ public class SqlRepositoryConfiguration {
         setMinPoolSize(configuration.getInt(PROPERTY_MIN_POOL_SIZE, minPoolSize));
         setMaxPoolSize(configuration.getInt(PROPERTY_MAX_POOL_SIZE, maxPoolSize));
         setUseZip(configuration.getBoolean(PROPERTY_USE_ZIP, useZip));
+        setFullObjectFormat(configuration.getString(PROPERTY_FULL_OBJECT_FORMAT, fullObjectFormat));
 
         computeDefaultConcurrencyParameters();
 
@@ -210,9 +220,12 @@ public class SqlRepositoryConfiguration {
 
         setIterativeSearchByPaging(configuration.getBoolean(PROPERTY_ITERATIVE_SEARCH_BY_PAGING, iterativeSearchByPaging));
         setIterativeSearchByPagingBatchSize(configuration.getInt(PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE, iterativeSearchByPagingBatchSize));
+        setIterativeSearchByPagingPrefetch(configuration.getBoolean(PROPERTY_ITERATIVE_SEARCH_BY_PAGING_PREFETCH, false));
+        setIterativeSearchPipelineQueueSize(configuration.getInt(PROPERTY_ITERATIVE_SEARCH_PIPELINE_QUEUE_SIZE, 0));
 
         setIgnoreOrgClosure(configuration.getBoolean(PROPERTY_IGNORE_ORG_CLOSURE, false));
         setOrgClosureStartupAction(configuration.getString(PROPERTY_ORG_CLOSURE_STARTUP_ACTION, OrgClosureManager.StartupAction.REBUILD_IF_NEEDED.toString()));
+        setOrgClosureLockingStrategy(configuration.getString(PROPERTY_ORG_CLOSURE_LOCKING_STRATEGY, OrgClosureManager.LockingStrategy.TABLE.toString()));
         setSkipOrgClosureStructureCheck(configuration.getBoolean(PROPERTY_SKIP_ORG_CLOSURE_STRUCTURE_CHECK, false));
         setStopOnOrgClosureStartupFailure(configuration.getBoolean(PROPERTY_STOP_ON_ORG_CLOSURE_STARTUP_FAILURE, true));
     }
@@ -325,6 +338,11 @@ public class SqlRepositoryConfiguration {
         if (getMinPoolSize() > getMaxPoolSize()) {
             throw new RepositoryServiceFactoryException("Max. pool size must be greater than min. pool size.");
         }
+
+        if (!PrismContext.LANG_XML.equals(getFullObjectFormat()) && !PrismContext.LANG_JSON.equals(getFullObjectFormat())) {
+            throw new RepositoryServiceFactoryException("Unsupported full object format '" + getFullObjectFormat()
+                    + "', supported ones are '" + PrismContext.LANG_XML + "' and '" + PrismContext.LANG_JSON + "'.");
+        }
     }
 
     private void notNull(String value, String message) throws RepositoryServiceFactoryException {
@@ -547,6 +565,30 @@ public class SqlRepositoryConfiguration {
         this.iterativeSearchByPagingBatchSize = iterativeSearchByPagingBatchSize;
     }
 
+    /**
+     * Whether the next page of paged iterative search should be fetched (in a separate thread, using
+     * separate connection) while the current page is being processed.
+     */
+    public boolean isIterativeSearchByPagingPrefetch() {
+        return iterativeSearchByPagingPrefetch;
+    }
+
+    public void setIterativeSearchByPagingPrefetch(boolean iterativeSearchByPagingPrefetch) {
+        this.iterativeSearchByPagingPrefetch = iterativeSearchByPagingPrefetch;
+    }
+
+    /**
+     * If greater than zero, (non-paged) iterative search fetches and parses objects in a separate thread
+     * (using separate connection), passing them to the handler via a queue of this size.
+     */
+    public int getIterativeSearchPipelineQueueSize() {
+        return iterativeSearchPipelineQueueSize;
+    }
+
+    public void setIterativeSearchPipelineQueueSize(int iterativeSearchPipelineQueueSize) {
+        this.iterativeSearchPipelineQueueSize = iterativeSearchPipelineQueueSize;
+    }
+
     public String getDataSource() {
         return dataSource;
     }
@@ -579,6 +621,19 @@ public class SqlRepositoryConfiguration {
         this.useZip = useZip;
     }
 
+    /**
+     * Language used to store full objects (xml or json). Objects stored in any of these formats, compressed
+     * or not, can always be read, so the format can be changed at any time. Existing objects are converted
+     * when they are modified or reindexed.
+     */
+    public String getFullObjectFormat() {
+        return fullObjectFormat;
+    }
+
+    public void setFullObjectFormat(String fullObjectFormat) {
+        this.fullObjectFormat = fullObjectFormat;
+    }
+
     public boolean isIgnoreOrgClosure() {
         return ignoreOrgClosure;
     }
@@ -595,6 +650,14 @@ public class SqlRepositoryConfiguration {
         this.orgClosureStartupAction = OrgClosureManager.StartupAction.fromValue(orgClosureStartupAction);
     }
 
+    public OrgClosureManager.LockingStrategy getOrgClosureLockingStrategy() {
+        return orgClosureLockingStrategy;
+    }
+
+    public void setOrgClosureLockingStrategy(String orgClosureLockingStrategy) {
+        this.orgClosureLockingStrategy = OrgClosureManager.LockingStrategy.fromValue(orgClosureLockingStrategy);
+    }
+
     public boolean isUsingH2() {
         return isUsing(H2);
     }
@@ -165,6 +165,42 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
 	    return object;
     }
 
+    @NotNull
+    @Override
+    public <T extends ObjectType> Map<String, PrismObject<T>> getObjects(Class<T> type, Collection<String> oids,
+            Collection<SelectorOptions<GetOperationOptions>> options, OperationResult result) throws SchemaException {
+        Validate.notNull(type, "Object type must not be null.");
+        Validate.notNull(oids, "Oids must not be null.");
+        Validate.notNull(result, "Operation result must not be null.");
+
+        LOGGER.debug("Getting {} object(s) of type '{}'.", oids.size(), type.getSimpleName());
+        for (String oid : oids) {
+            Validate.notEmpty(oid, "Oid must not be null or empty.");
+            InternalMonitor.recordRepositoryRead(type, oid);
+        }
+
+        OperationResult subResult = result.createMinorSubresult(GET_OBJECTS);
+        subResult.addParam("type", type.getName());
+        subResult.addParam("count", oids.size());
+
+        if (oids.isEmpty()) {
+            subResult.recordSuccess();
+            return new HashMap<>();
+        }
+
+        Map<String, PrismObject<T>> objects;
+        try {
+            objects = executeAttempts((String) null, "getObjects", "getting",
+                    subResult, () -> objectRetriever.getObjectsAttempt(type, oids, options, subResult));
+        } catch (ObjectNotFoundException e) {
+            throw new AssertionError("Should not occur", e);
+        }
+        for (PrismObject<T> object : objects.values()) {
+            invokeConflictWatchers((w) -> w.afterGetObject(object));
+        }
+        return objects;
+    }
+
     private <RV> RV executeAttempts(String oid, String operationName, String operationVerb, OperationResult subResult,
             ResultSupplier<RV> supplier) throws ObjectNotFoundException, SchemaException {
         SqlPerformanceMonitor pm = getPerformanceMonitor();
@@ -409,6 +445,9 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         while (true) {
             try {
                 String createdOid = objectUpdater.addObjectAttempt(object, options, subResult);
+                if (options.isOverwrite() && SequenceType.class.equals(object.getCompileTimeClass())) {
+                    sequenceHelper.forgetAllocatedValues(createdOid);      // the counter could be reset
+                }
 	            invokeConflictWatchers((w) -> w.afterAddObject(createdOid, object));
 	            return createdOid;
             } catch (RuntimeException ex) {
@@ -444,6 +483,9 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         executeAttemptsNoSchemaException(oid, "deleteObject", "deleting",
                 subResult, () -> objectUpdater.deleteObjectAttempt(type, oid, subResult)
         );
+        if (type.isAssignableFrom(SequenceType.class)) {
+            sequenceHelper.forgetAllocatedValues(oid);
+        }
 	    invokeConflictWatchers((w) -> w.afterDeleteObject(oid));
     }
 
@@ -547,6 +589,9 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
             while (true) {
                 try {
                     objectUpdater.modifyObjectAttempt(type, oid, modifications, precondition, options, subResult, this);
+                    if (type.isAssignableFrom(SequenceType.class)) {
+                        sequenceHelper.forgetAllocatedValues(oid);      // e.g. the counter could be reset
+                    }
 	                invokeConflictWatchers((w) -> w.afterModifyObject(oid));
                     return;
                 } catch (RuntimeException ex) {
@@ -808,7 +853,11 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         try {
             while (true) {
                 try {
-                    objectRetriever.searchObjectsIterativeAttempt(type, query, handler, options, subResult, retrievedOids);
+                    if (getConfiguration().getIterativeSearchPipelineQueueSize() > 0) {
+                        objectRetriever.searchObjectsIterativePipelinedAttempt(type, query, handler, options, subResult, retrievedOids);
+                    } else {
+                        objectRetriever.searchObjectsIterativeAttempt(type, query, handler, options, subResult, retrievedOids);
+                    }
                     return null;
                 } catch (RuntimeException ex) {
                     attempt = baseHelper.logOperationAttempt(null, operation, attempt, ex, subResult);
@@ -867,6 +916,12 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         if (LOGGER.isTraceEnabled())
             LOGGER.trace("Advancing sequence {}", oid);
 
+        Long allocatedValue = sequenceHelper.takeAllocatedValue(oid);
+        if (allocatedValue != null) {
+            result.recordSuccess();
+            return allocatedValue;
+        }
+
         // TODO executeAttempts
         int attempt = 1;
 
@@ -33,7 +33,8 @@ import org.hibernate.annotations.ForeignKey;
 @Entity
 @IdClass(RAuditItemId.class)
 @Table(name = RAuditItem.TABLE_NAME, indexes = {
-		@Index(name = "iChangedItemPath", columnList = "changedItemPath")})
+		@Index(name = "iChangedItemPath", columnList = "changedItemPath"),
+		@Index(name = "iAuditItemRecordId", columnList = RAuditItem.COLUMN_RECORD_ID)})
 public class RAuditItem {
 
 	public static final String TABLE_NAME = "m_audit_item";
@@ -44,7 +44,8 @@ import javax.persistence.*;
  */
 @Entity
 @IdClass(RObjectDeltaOperationId.class)
-@Table(name = RObjectDeltaOperation.TABLE_NAME)
+@Table(name = RObjectDeltaOperation.TABLE_NAME, indexes = {
+        @Index(name = "iAuditDeltaRecordId", columnList = RObjectDeltaOperation.COLUMN_RECORD_ID)})
 public class RObjectDeltaOperation implements OperationResultFull, EntityState {
 
     public static final String TABLE_NAME = "m_audit_delta";
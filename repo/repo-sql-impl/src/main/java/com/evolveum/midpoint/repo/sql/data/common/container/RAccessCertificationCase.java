@@ -360,7 +360,7 @@ public class RAccessCertificationCase implements Container<RAccessCertificationC
 
     // TODO find appropriate name
     public static AccessCertificationCaseType createJaxb(byte[] fullObject, PrismContext prismContext, boolean removeCampaignRef) throws SchemaException {
-        String xml = RUtil.getXmlFromByteArray(fullObject, false);
+        String xml = RUtil.getXmlFromByteArray(fullObject);
         LOGGER.trace("RAccessCertificationCase full object to be parsed\n{}", xml);
         try {
             return prismContext.parserFor(xml).xml().compat().parseRealValue(AccessCertificationCaseType.class);
@@ -55,8 +55,19 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.xml.namespace.QName;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
 
 import static org.apache.commons.lang3.ArrayUtils.getLength;
 
@@ -68,6 +79,11 @@ public class ObjectRetriever {
 
 	public static final String CLASS_DOT = ObjectRetriever.class.getName() + ".";
 	public static final String OPERATION_GET_OBJECT_INTERNAL = CLASS_DOT + "getObjectInternal";
+	public static final String OPERATION_PREFETCH_PAGE = CLASS_DOT + "prefetchPage";
+	public static final String OPERATION_FETCH_OBJECTS = CLASS_DOT + "fetchObjects";
+
+	private static final long QUEUE_OFFER_TIMEOUT = 100L;        // milliseconds
+	private static final int MAX_OIDS_IN_QUERY = 200;            // getObjects: to keep "in" clauses within DB limits
 
     private static final Trace LOGGER = TraceManager.getTrace(ObjectRetriever.class);
     private static final Trace LOGGER_PERFORMANCE = TraceManager.getTrace(SqlRepositoryServiceImpl.PERFORMANCE_LOG_NAME);
@@ -81,6 +97,8 @@ public class ObjectRetriever {
 	@Qualifier("repositoryService")
 	private RepositoryService repositoryService;
 
+	private ExecutorService prefetchExecutor;           // created lazily, only if prefetching is turned on
+
     public <T extends ObjectType> PrismObject<T> getObjectAttempt(Class<T> type, String oid,
 			Collection<SelectorOptions<GetOperationOptions>> options, OperationResult result)
             throws ObjectNotFoundException, SchemaException {
@@ -115,6 +133,46 @@ public class ObjectRetriever {
         return objectType;
     }
 
+    public <T extends ObjectType> Map<String, PrismObject<T>> getObjectsAttempt(Class<T> type, Collection<String> oids,
+			Collection<SelectorOptions<GetOperationOptions>> options, OperationResult result) throws SchemaException {
+		LOGGER_PERFORMANCE.debug("> get objects {}, {} oid(s)", type.getSimpleName(), oids.size());
+		Map<String, PrismObject<T>> objects = new HashMap<>();
+
+		Session session = null;
+		try {
+			session = baseHelper.beginReadOnlyTransaction();
+
+			List<String> oidList = new ArrayList<>(new LinkedHashSet<>(oids));
+			for (int from = 0; from < oidList.size(); from += MAX_OIDS_IN_QUERY) {
+				List<String> chunk = oidList.subList(from, Math.min(from + MAX_OIDS_IN_QUERY, oidList.size()));
+				Query query = session.getNamedQuery("get.objects");
+				query.setParameterList("oids", chunk);
+				query.setResultTransformer(GetObjectResult.RESULT_STYLE.getResultTransformer());
+
+				@SuppressWarnings("unchecked")
+				List<GetObjectResult> fullObjects = query.list();
+				LOGGER.trace("Got {} of {} objects", fullObjects.size(), chunk.size());
+				for (GetObjectResult fullObject : fullObjects) {
+					PrismObject<T> prismObject = updateLoadedObject(fullObject, type, fullObject.getOid(), options,
+							null, session, result);
+					validateObjectType(prismObject, type);
+					objects.put(fullObject.getOid(), prismObject);
+				}
+			}
+
+			session.getTransaction().commit();
+		} catch (SchemaException ex) {
+			baseHelper.rollbackTransaction(session, ex, "Schema error while getting objects: " + ex.getMessage(), result, true);
+			throw ex;
+		} catch (RuntimeException ex) {
+			baseHelper.handleGeneralException(ex, session, result);
+		} finally {
+			baseHelper.cleanupSessionAndResult(session, result);
+		}
+
+		return objects;
+	}
+
     public <T extends ObjectType> PrismObject<T> getObjectInternal(Session session, Class<T> type, String oid,
 			Collection<SelectorOptions<GetOperationOptions>> options,
 			boolean lockForUpdate, OperationResult operationResult)
@@ -476,12 +534,12 @@ public class ObjectRetriever {
 			Session session, OperationResult operationResult) throws SchemaException {
 
 		byte[] fullObject = result.getFullObject();
-		String xml = RUtil.getXmlFromByteArray(fullObject, getConfiguration().isUseZip());
+		String xml = RUtil.getXmlFromByteArray(fullObject);
         PrismObject<T> prismObject;
         try {
             // "Postel mode": be tolerant what you read. We need this to tolerate (custom) schema changes
 			ParsingContext parsingContext = ParsingContext.forMode(XNodeProcessorEvaluationMode.COMPAT);
-            prismObject = prismContext.parserFor(xml).context(parsingContext).parse();
+            prismObject = prismContext.parserFor(xml).language(RUtil.getFullObjectLanguage(xml)).context(parsingContext).parse();
 			// TODO enable if needed
 //			if (parsingContext.hasWarnings()) {
 //				for (String warning : parsingContext.getWarnings()) {
@@ -719,6 +777,148 @@ public class ObjectRetriever {
         }
     }
 
+    /**
+     * Pipelined version of searchObjectsIterativeAttempt: objects are fetched and parsed in a background thread
+     * (using its own session) and passed to the handler via bounded queue. So the database and the parser work
+     * while the handler is processing previous objects; if the handler is slower, the fetching thread waits
+     * for a free space in the queue.
+     */
+    public <T extends ObjectType> void searchObjectsIterativePipelinedAttempt(Class<T> type, ObjectQuery query,
+            ResultHandler<T> handler, Collection<SelectorOptions<GetOperationOptions>> options, OperationResult result,
+            Set<String> retrievedOids) throws SchemaException {
+        Set<String> newlyRetrievedOids = new HashSet<>();
+        BlockingQueue<FetchedObject<T>> queue = new ArrayBlockingQueue<>(getConfiguration().getIterativeSearchPipelineQueueSize());
+        AtomicBoolean stopped = new AtomicBoolean();
+        OperationResult fetchResult = new OperationResult(OPERATION_FETCH_OBJECTS);
+        Future<?> fetcher = getPrefetchExecutor().submit(
+                () -> fetchObjectsIntoQueue(type, query, options, retrievedOids, queue, stopped, fetchResult));
+        Throwable failure = null;
+        try {
+            for (;;) {
+                FetchedObject<T> fetched = queue.take();
+                if (fetched.object == null) {
+                    failure = fetched.exception;
+                    break;
+                }
+                // see the comment in searchObjectsIterativeAttempt
+                newlyRetrievedOids.add(fetched.object.getOid());
+                if (!handler.handle(fetched.object, result)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = new SystemException("Interrupted while waiting for objects being fetched", e);
+        } catch (RuntimeException ex) {
+            failure = ex;
+        } finally {
+            stopped.set(true);
+            waitForFetcher(fetcher);
+            result.addSubresult(fetchResult);
+            retrievedOids.addAll(newlyRetrievedOids);
+        }
+
+        if (failure instanceof Exception) {
+            baseHelper.handleGeneralException((Exception) failure, null, result);
+        } else if (failure != null) {
+            throw (Error) failure;
+        }
+        if (result.isUnknown()) {
+            result.computeStatus();
+        }
+    }
+
+    private <T extends ObjectType> void fetchObjectsIntoQueue(Class<T> type, ObjectQuery query,
+            Collection<SelectorOptions<GetOperationOptions>> options, Set<String> retrievedOids,
+            BlockingQueue<FetchedObject<T>> queue, AtomicBoolean stopped, OperationResult result) {
+        Throwable failure = null;
+        Session session = null;
+        try {
+            session = baseHelper.beginReadOnlyTransaction();
+            QueryEngine2 engine = new QueryEngine2(getConfiguration(), prismContext);
+            RQuery rQuery = engine.interpret(query, type, options, false, session);
+
+            ScrollableResults results = rQuery.scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                Iterator<GetObjectResult> iterator = new ScrollableResultsIterator<>(results);
+                while (iterator.hasNext() && !stopped.get()) {
+                    GetObjectResult object = iterator.next();
+                    if (retrievedOids.contains(object.getOid())) {
+                        continue;
+                    }
+                    PrismObject<T> prismObject = updateLoadedObject(object, type, null, options, null, session, result);
+                    if (!putIntoQueue(queue, new FetchedObject<>(prismObject, null), stopped)) {
+                        break;
+                    }
+                }
+            } finally {
+                results.close();
+            }
+
+            session.getTransaction().commit();
+        } catch (Throwable t) {
+            // reported by the consuming thread
+            failure = t;
+            baseHelper.rollbackTransaction(session);
+        } finally {
+            baseHelper.cleanupSessionAndResult(session, null);
+            if (failure != null) {
+                result.recordFatalError(failure);
+            } else {
+                result.computeStatusIfUnknown();
+            }
+            putIntoQueue(queue, new FetchedObject<>(null, failure), stopped);
+        }
+    }
+
+    /**
+     * Waits until there's a space in the queue. Returns false if the consumer stopped processing in the meanwhile.
+     */
+    private <T extends ObjectType> boolean putIntoQueue(BlockingQueue<FetchedObject<T>> queue, FetchedObject<T> object,
+            AtomicBoolean stopped) {
+        try {
+            while (!stopped.get()) {
+                if (queue.offer(object, QUEUE_OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void waitForFetcher(Future<?> fetcher) {
+        try {
+            fetcher.get();
+        } catch (InterruptedException e) {
+            fetcher.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.warn("Unexpected exception in object fetching thread", e.getCause());
+        }
+    }
+
+    private static class FetchedObject<T extends ObjectType> {
+        private final PrismObject<T> object;            // null means end of data
+        private final Throwable exception;
+
+        private FetchedObject(PrismObject<T> object, Throwable exception) {
+            this.object = object;
+            this.exception = exception;
+        }
+    }
+
+    /**
+     * Paged version of iterative search.
+     *
+     * If no paging is requested by the caller, objects are paged by OID (keyset pagination), just like in the
+     * strictly sequential case. This means no initial count is needed and the cost of each page does not grow
+     * with the number of objects already processed. If the caller provides its own paging (ordering and/or
+     * offset), offset-based pages are used; still, no count is needed, because the end of data is recognized
+     * by a page that is not full.
+     */
     public <T extends ObjectType> void searchObjectsIterativeByPaging(Class<T> type, ObjectQuery query,
                                                                       ResultHandler<T> handler,
                                                                       Collection<SelectorOptions<GetOperationOptions>> options,
@@ -727,40 +927,33 @@ public class ObjectRetriever {
 
         try {
             ObjectQuery pagedQuery = query != null ? query.clone() : new ObjectQuery();
-
-            int offset;
-            int remaining;
-            final int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
-
             ObjectPaging paging = pagedQuery.getPaging();
 
             if (paging == null) {
-                paging = ObjectPaging.createPaging(0, 0);        // counts will be filled-in later
-                pagedQuery.setPaging(paging);
-                offset = 0;
-                remaining = repositoryService.countObjects(type, query, result);
+                searchObjectsIterativeByOidPaging(type, pagedQuery, handler, options, result);
             } else {
-                offset = paging.getOffset() != null ? paging.getOffset() : 0;
-                remaining = paging.getMaxSize() != null ? paging.getMaxSize() : repositoryService.countObjects(type, query, result) - offset;
-            }
+                final int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
+                final int offset = paging.getOffset() != null ? paging.getOffset() : 0;
+                final Integer maxSize = paging.getMaxSize();
 
-main:       while (remaining > 0) {
                 paging.setOffset(offset);
-                paging.setMaxSize(remaining < batchSize ? remaining : batchSize);
+                paging.setMaxSize(maxSize != null && maxSize < batchSize ? maxSize : batchSize);
 
-                List<PrismObject<T>> objects = repositoryService.searchObjects(type, pagedQuery, options, result);
-
-                for (PrismObject<T> object : objects) {
-                    if (!handler.handle(object, result)) {
-                        break main;
+                processPages(type, pagedQuery, (previousQuery, previousObjects) -> {
+                    ObjectPaging previousPaging = previousQuery.getPaging();
+                    if (previousObjects.size() < previousPaging.getMaxSize()) {
+                        return null;                    // this was the last page
                     }
-                }
-
-                if (objects.size() == 0) {
-                    break;                      // should not occur, but let's check for this to avoid endless loops
-                }
-                offset += objects.size();
-                remaining -= objects.size();
+                    int nextOffset = previousPaging.getOffset() + previousObjects.size();
+                    int remaining = maxSize != null ? offset + maxSize - nextOffset : batchSize;
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    ObjectQuery nextQuery = previousQuery.clone();
+                    nextQuery.getPaging().setOffset(nextOffset);
+                    nextQuery.getPaging().setMaxSize(remaining < batchSize ? remaining : batchSize);
+                    return nextQuery;
+                }, handler, options, result);
             }
         } finally {
             if (result != null && result.isUnknown()) {
@@ -799,39 +992,143 @@ main:       while (remaining > 0) {
         try {
             ObjectQuery pagedQuery = query != null ? query.clone() : new ObjectQuery();
 
-            String lastOid = "";
-            final int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
-
             if (pagedQuery.getPaging() != null) {
                 throw new IllegalArgumentException("Externally specified paging is not supported on strictly sequential iterative search.");
             }
 
-            ObjectPagingAfterOid paging = new ObjectPagingAfterOid();
-            pagedQuery.setPaging(paging);
-main:       for (;;) {
-                paging.setOidGreaterThan(lastOid);
-                paging.setMaxSize(batchSize);
+            searchObjectsIterativeByOidPaging(type, pagedQuery, handler, options, result);
+        } finally {
+            if (result != null && result.isUnknown()) {
+                result.computeStatus();
+            }
+        }
+    }
+
+    private <T extends ObjectType> void searchObjectsIterativeByOidPaging(Class<T> type, ObjectQuery pagedQuery,
+            ResultHandler<T> handler, Collection<SelectorOptions<GetOperationOptions>> options, OperationResult result)
+            throws SchemaException {
+
+        final int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
+
+        ObjectPagingAfterOid paging = new ObjectPagingAfterOid();
+        paging.setOidGreaterThan("");
+        paging.setMaxSize(batchSize);
+        pagedQuery.setPaging(paging);
 
-                List<PrismObject<T>> objects = repositoryService.searchObjects(type, pagedQuery, options, result);
+        processPages(type, pagedQuery, (previousQuery, previousObjects) -> {
+            if (previousObjects.size() < batchSize) {
+                return null;                            // this was the last page
+            }
+            ObjectQuery nextQuery = previousQuery.clone();
+            ((ObjectPagingAfterOid) nextQuery.getPaging())
+                    .setOidGreaterThan(previousObjects.get(previousObjects.size() - 1).getOid());
+            return nextQuery;
+        }, handler, options, result);
+    }
 
-                for (PrismObject<T> object : objects) {
-                    lastOid = object.getOid();
-                    if (!handler.handle(object, result)) {
-                        break main;
+    /**
+     * Fetches pages one after another and passes their objects to the handler. Queries for subsequent pages
+     * are determined by nextPageQueryFunction (returning null if there are no more pages). If prefetching is
+     * enabled, the next page is fetched in a separate thread (using its own connection) while the handler
+     * processes the current one.
+     */
+    private <T extends ObjectType> void processPages(Class<T> type, ObjectQuery firstPageQuery,
+            BiFunction<ObjectQuery, List<PrismObject<T>>, ObjectQuery> nextPageQueryFunction,
+            ResultHandler<T> handler, Collection<SelectorOptions<GetOperationOptions>> options,
+            OperationResult result) throws SchemaException {
+
+        final boolean prefetch = getConfiguration().isIterativeSearchByPagingPrefetch();
+
+        ObjectQuery pageQuery = firstPageQuery;
+        List<PrismObject<T>> objects = repositoryService.searchObjects(type, pageQuery, options, result);
+        while (!objects.isEmpty()) {
+            ObjectQuery nextPageQuery = nextPageQueryFunction.apply(pageQuery, objects);
+            Future<PageFetchResult<T>> nextPage = prefetch && nextPageQuery != null
+                    ? prefetchPage(type, nextPageQuery, options) : null;
+
+            for (PrismObject<T> object : objects) {
+                if (!handler.handle(object, result)) {
+                    if (nextPage != null) {
+                        nextPage.cancel(false);
                     }
+                    return;
                 }
+            }
 
-                if (objects.size() == 0) {
-                    break;
-                }
+            if (nextPageQuery == null) {
+                break;
+            } else if (nextPage != null) {
+                objects = getPrefetchedPage(nextPage, result);
+            } else {
+                objects = repositoryService.searchObjects(type, nextPageQuery, options, result);
             }
-        } finally {
-            if (result != null && result.isUnknown()) {
-                result.computeStatus();
+            pageQuery = nextPageQuery;
+        }
+    }
+
+    private <T extends ObjectType> Future<PageFetchResult<T>> prefetchPage(Class<T> type, ObjectQuery query,
+            Collection<SelectorOptions<GetOperationOptions>> options) {
+        return getPrefetchExecutor().submit(() -> {
+            // operation result is not thread safe, so the fetching thread has its own one
+            OperationResult prefetchResult = new OperationResult(OPERATION_PREFETCH_PAGE);
+            return new PageFetchResult<>(repositoryService.searchObjects(type, query, options, prefetchResult),
+                    prefetchResult);
+        });
+    }
+
+    private <T extends ObjectType> List<PrismObject<T>> getPrefetchedPage(Future<PageFetchResult<T>> future,
+            OperationResult result) throws SchemaException {
+        try {
+            PageFetchResult<T> page = future.get();
+            result.addSubresult(page.result);
+            return page.objects;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemException("Interrupted while waiting for prefetched page of objects", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SchemaException) {
+                throw (SchemaException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new SystemException("Couldn't prefetch page of objects: " + cause.getMessage(), cause);
             }
         }
     }
 
+    private synchronized ExecutorService getPrefetchExecutor() {
+        if (prefetchExecutor == null) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            prefetchExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "repo-search-prefetch-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return prefetchExecutor;
+    }
+
+    @PreDestroy
+    public synchronized void shutdownPrefetchExecutor() {
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+            prefetchExecutor = null;
+        }
+    }
+
+    private static class PageFetchResult<T extends ObjectType> {
+        private final List<PrismObject<T>> objects;
+        private final OperationResult result;
+
+        private PageFetchResult(List<PrismObject<T>> objects, OperationResult result) {
+            this.objects = objects;
+            this.result = result;
+        }
+    }
+
     public boolean isAnySubordinateAttempt(String upperOrgOid, Collection<String> lowerObjectOids) {
         Session session = null;
         try {
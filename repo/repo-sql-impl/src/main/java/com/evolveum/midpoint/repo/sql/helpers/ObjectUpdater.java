@@ -20,10 +20,13 @@ import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.PrismObjectDefinition;
 import com.evolveum.midpoint.prism.PrismReference;
+import com.evolveum.midpoint.prism.SerializationOptions;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.delta.ReferenceDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.path.ItemPathSegment;
+import com.evolveum.midpoint.prism.path.NameItemPathSegment;
 import com.evolveum.midpoint.prism.util.CloneUtil;
 import com.evolveum.midpoint.repo.api.*;
 import com.evolveum.midpoint.repo.sql.SerializationRelatedException;
@@ -39,6 +42,7 @@ import com.evolveum.midpoint.repo.sql.util.RUtil;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.RetrieveOption;
 import com.evolveum.midpoint.schema.SelectorOptions;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
 import com.evolveum.midpoint.util.DebugUtil;
@@ -47,21 +51,28 @@ import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractRoleType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationCampaignType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.LookupTableType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 import org.apache.commons.lang.StringUtils;
 import org.hibernate.Criteria;
 import org.hibernate.Query;
 import org.hibernate.SQLQuery;
 import org.hibernate.Session;
+import org.hibernate.collection.spi.PersistentCollection;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.Type;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import javax.xml.namespace.QName;
 import java.lang.reflect.Method;
 import java.sql.SQLException;
 import java.util.*;
@@ -76,6 +87,24 @@ public class ObjectUpdater {
     private static final Trace LOGGER = TraceManager.getTrace(ObjectUpdater.class);
     private static final Trace LOGGER_PERFORMANCE = TraceManager.getTrace(SqlRepositoryServiceImpl.PERFORMANCE_LOG_NAME);
 
+    /**
+     * Collections of RObject entities that are filled in from items with different names (see isCollectionAffected).
+     */
+    private static final Map<String, Collection<String>> COLLECTION_ITEMS = new HashMap<>();
+
+    static {
+        COLLECTION_ITEMS.put("assignments", Arrays.asList(FocusType.F_ASSIGNMENT.getLocalPart(),
+                AbstractRoleType.F_INDUCEMENT.getLocalPart()));
+        COLLECTION_ITEMS.put("operationExecutions", Collections.singletonList(ObjectType.F_OPERATION_EXECUTION.getLocalPart()));
+        for (String approverRef : Arrays.asList("createApproverRef", "modifyApproverRef")) {
+            COLLECTION_ITEMS.put(approverRef, Collections.singletonList(ObjectType.F_METADATA.getLocalPart()));
+        }
+        for (String extValues : Arrays.asList("strings", "longs", "dates", "references", "polys", "booleans")) {
+            COLLECTION_ITEMS.put(extValues, Arrays.asList(ObjectType.F_EXTENSION.getLocalPart(),
+                    ShadowType.F_ATTRIBUTES.getLocalPart()));
+        }
+    }
+
 	@Autowired
 	@Qualifier("repositoryService")
 	private RepositoryService repositoryService;
@@ -233,22 +262,14 @@ public class ObjectUpdater {
         LOGGER.debug("Updating full object xml column start.");
         savedObject.setVersion(Integer.toString(object.getVersion()));
 
-        // Deep cloning for object transformation - we don't want to return object "changed" by save.
-        // Its' because we're removing some properties during save operation and if save fails,
-        // overwrite attempt (for example using object importer) might try to delete existing object
-        // and then try to save this object one more time.
-        String xml = prismContext.serializeObjectToString(savedObject, PrismContext.LANG_XML);
-        savedObject = prismContext.parseObject(xml);
-
-        if (FocusType.class.isAssignableFrom(savedObject.getCompileTimeClass())) {
-            savedObject.removeProperty(FocusType.F_JPEG_PHOTO);
-        } else if (LookupTableType.class.equals(savedObject.getCompileTimeClass())) {
-            savedObject.removeContainer(LookupTableType.F_ROW);
-        } else if (AccessCertificationCampaignType.class.equals(savedObject.getCompileTimeClass())) {
-            savedObject.removeContainer(AccessCertificationCampaignType.F_CASE);
-        }
-
-        xml = prismContext.serializeObjectToString(savedObject, PrismContext.LANG_XML);
+        // Items stored separately are skipped directly by the serializer. We must not remove them from
+        // the object itself, because we don't want to return object "changed" by save (if save fails,
+        // overwrite attempt - for example using object importer - might try to save this object once more).
+        // This way we also don't need the serialize-parse-serialize round trip used for deep cloning.
+        Collection<QName> itemsToSkip = getItemsStoredSeparately(savedObject.getCompileTimeClass());
+        String xml = prismContext.serializerFor(getConfiguration().getFullObjectFormat())
+                .options(itemsToSkip != null ? SerializationOptions.createItemsToSkip(itemsToSkip) : null)
+                .serialize(savedObject);
         byte[] fullObject = RUtil.getByteArrayFromXml(xml, getConfiguration().isUseZip());
 
         LOGGER.trace("Storing full object\n{}", xml);
@@ -258,6 +279,18 @@ public class ObjectUpdater {
         LOGGER.debug("Updating full object xml column finish.");
     }
 
+    private Collection<QName> getItemsStoredSeparately(Class<? extends ObjectType> type) {
+        if (FocusType.class.isAssignableFrom(type)) {
+            return Collections.singletonList(FocusType.F_JPEG_PHOTO);
+        } else if (LookupTableType.class.equals(type)) {
+            return Collections.singletonList(LookupTableType.F_ROW);
+        } else if (AccessCertificationCampaignType.class.equals(type)) {
+            return Collections.singletonList(AccessCertificationCampaignType.F_CASE);
+        } else {
+            return null;
+        }
+    }
+
     protected SqlRepositoryConfiguration getConfiguration() {
         return baseHelper.getConfiguration();
     }
@@ -411,6 +444,7 @@ public class ObjectUpdater {
                 rObject.setVersion(rObject.getVersion() + 1);
 
                 updateFullObject(rObject, prismObject);
+                reuseUnmodifiedCollections(session, rObject, prismObject, modifications);
                 LOGGER.trace("Starting merge.");
                 session.merge(rObject);
                 if (closureManager.isEnabled()) {
@@ -476,6 +510,67 @@ public class ObjectUpdater {
         return false;
     }
 
+    /**
+     * Collections of the entity that cannot be affected by the modifications are excluded from the merge:
+     * the persistent (still uninitialized) collections are put into the detached entity, so Hibernate neither loads
+     * them nor cascades the merge to their elements. Otherwise modifying e.g. a single property of a user with
+     * hundreds of assignments means loading and merging all the assignments, including their extensions and references.
+     *
+     * Affected collections, and collections for which we don't know the items they are derived from, are merged as before.
+     */
+    private <T extends ObjectType> void reuseUnmodifiedCollections(Session session, RObject rObject, PrismObject<T> object,
+            Collection<? extends ItemDelta> modifications) {
+        Set<String> modifiedItems = getModifiedItemNames(modifications);
+        if (modifiedItems == null) {
+            return;
+        }
+        // getObjectInternal reads only selected columns, so the entity is usually not in the session yet. If it is not,
+        // this is a single select of the entity's rows (the collections are lazy); merge would load the entity anyway.
+        Object persistent = session.get(rObject.getClass(), rObject.getOid());
+        if (persistent == null || persistent.getClass() != rObject.getClass()) {
+            return;
+        }
+        EntityPersister persister = ((SessionFactoryImplementor) session.getSessionFactory())
+                .getEntityPersister(rObject.getClass().getName());
+        String[] names = persister.getPropertyNames();
+        Type[] types = persister.getPropertyTypes();
+        for (int i = 0; i < names.length; i++) {
+            if (!types[i].isCollectionType() || isCollectionAffected(names[i], modifiedItems, object.getDefinition())) {
+                continue;
+            }
+            Object collection = persister.getPropertyValue(persistent, i);
+            if (collection instanceof PersistentCollection && !((PersistentCollection) collection).wasInitialized()) {
+                LOGGER.trace("Collection {} is not affected by modifications, it won't be merged", names[i]);
+                persister.setPropertyValue(rObject, i, collection);
+            }
+        }
+    }
+
+    // returns null if we cannot determine the items
+    private Set<String> getModifiedItemNames(Collection<? extends ItemDelta> modifications) {
+        Set<String> names = new HashSet<>();
+        for (ItemDelta delta : modifications) {
+            ItemPathSegment first = delta.getPath().first();
+            if (!(first instanceof NameItemPathSegment)) {
+                return null;
+            }
+            names.add(((NameItemPathSegment) first).getName().getLocalPart());
+        }
+        return names;
+    }
+
+    private boolean isCollectionAffected(String collectionName, Set<String> modifiedItems, PrismObjectDefinition<?> definition) {
+        Collection<String> items = COLLECTION_ITEMS.get(collectionName);
+        if (items == null) {
+            // by convention, a collection having the name of an item is filled in from that item only
+            if (definition == null || definition.findItemDefinition(new QName(SchemaConstants.NS_C, collectionName)) == null) {
+                return true;
+            }
+            items = Collections.singleton(collectionName);
+        }
+        return !Collections.disjoint(items, modifiedItems);
+    }
+
     private void cleanupClosureAndSessionAndResult(final OrgClosureManager.Context closureContext, final Session session, final OperationResult result) {
         if (closureContext != null) {
             closureManager.cleanUpAfterOperation(closureContext, session);
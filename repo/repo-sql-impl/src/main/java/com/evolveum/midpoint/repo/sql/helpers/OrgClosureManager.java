@@ -94,6 +94,7 @@ public class OrgClosureManager {
     private static boolean DUMP_TABLES = false;
     private static final boolean COUNT_CLOSURE_RECORDS = false;
     static final String CLOSURE_TABLE_NAME = "m_org_closure";
+    private static final String OBJECT_TABLE_NAME = "m_object";
     public static final String TEMP_DELTA_TABLE_NAME_FOR_ORACLE = "m_org_closure_temp_delta";
 
     // only for single-thread performance testing
@@ -186,8 +187,8 @@ public class OrgClosureManager {
     }
 
     private Context onBeginTransaction(Session session) {
-        // table locking
-        if (isH2() || isOracle() || isSQLServer()) {
+        // table locking (with OBJECTS strategy, the rows are locked later, when the affected edges are known)
+        if (getLockingStrategy() == LockingStrategy.TABLE && (isH2() || isOracle() || isSQLServer())) {
             lockClosureTable(session);
         }
         // other
@@ -566,7 +567,7 @@ public class OrgClosureManager {
             } else {
                 parent = livingParents.iterator().next();
             }
-            addEdgeSimple(oid, parent, session);
+            addEdgeSimple(oid, parent, context, session);
         } else {
             addParentEdges(oid, livingParents, context, session);
         }
@@ -603,8 +604,9 @@ public class OrgClosureManager {
     }
 
     // we expect that the link oid->parent does not exist yet and the parent exists
-    private void addEdgeSimple(String oid, String parent, Session session) {
+    private void addEdgeSimple(String oid, String parent, Context context, Session session) {
         if (parent != null) {
+            lockAffectedObjects(Collections.singletonList(new Edge(oid, parent)), context, session);
             long start = System.currentTimeMillis();
             Query addToClosureQuery = session.createSQLQuery(
                     "insert into "+ CLOSURE_TABLE_NAME +" (descendant_oid, ancestor_oid, val) " +
@@ -630,6 +632,7 @@ public class OrgClosureManager {
         LOGGER.trace("===================== ADD INDEPENDENT EDGES: {} ================", edges);
 
         if (!edges.isEmpty()) {
+            lockAffectedObjects(edges, context, session);
             // for unknown reason, queries in the form of
             // select t1.descendant_oid as descendant_oid, t2.ancestor_oid as ancestor_oid, sum(t1.val*t2.val) as val
             // from m_org_closure t1, m_org_closure t2 where
@@ -826,9 +829,15 @@ public class OrgClosureManager {
     //region Handling DELETE operation
     private void handleDelete(String oid, Context context, Session session) {
 
+        // With OBJECTS locking strategy, any concurrent change of edges going into or out of this object
+        // locks it; so by locking it before reading its children and parents we make sure they are current.
+        if (getLockingStrategy() == LockingStrategy.OBJECTS && (context == null || !context.lockedOids.contains(oid))) {
+            lockObjects(Collections.singleton(oid), context, session);
+        }
+
         List<String> livingChildren = getChildren(oid, session);
         if (livingChildren.isEmpty()) {
-            handleDeleteLeaf(oid, session);
+            handleDeleteLeaf(oid, context, session);
             return;
         }
 
@@ -849,7 +858,8 @@ public class OrgClosureManager {
         if (LOGGER.isTraceEnabled()) LOGGER.trace("Removed {} self-record from closure table.", count);
     }
 
-    private void handleDeleteLeaf(String oid, Session session) {
+    private void handleDeleteLeaf(String oid, Context context, Session session) {
+        lockAffectedObjects(parentsToEdges(oid, getParents(oid, session)), context, session);
         Query removeFromClosureQuery = session.createSQLQuery(
                 "delete from " + CLOSURE_TABLE_NAME + " " +
                         "where descendant_oid = :oid");
@@ -873,6 +883,7 @@ public class OrgClosureManager {
         LOGGER.trace("===================== REMOVE INDEPENDENT EDGES: {} ================", edges);
 
         if (!edges.isEmpty()) {
+            lockAffectedObjects(edges, context, session);
             // for the reason for this decomposition, see addIndependentEdges
             if (isH2()) {
                 for (Edge edge : edges) {
@@ -1007,6 +1018,71 @@ public class OrgClosureManager {
 
     }
 
+    /**
+     * Used with OBJECTS locking strategy: before adding or removing edges, we lock the rows of all objects whose
+     * closure records are read or changed during the operation: both ends of the edges and all ancestors of the heads.
+     *
+     * Any concurrent operation changing the paths going into a tail or out of a head must add or remove an edge
+     * ending in a descendant of the tail or starting in an ancestor of the head. Such operation locks at least
+     * one object from our set, so the two operations are serialized. Operations on unrelated parts of the org
+     * structure can run in parallel.
+     *
+     * Ancestors are read before the locks are obtained, so they may be stale: a concurrent operation could have
+     * moved a head (or one of its ancestors) under a different parent in the meantime. Therefore we re-read
+     * the ancestors after locking and lock the newly found ones, until the set does not change any more.
+     */
+    private void lockAffectedObjects(Collection<Edge> edges, Context context, Session session) {
+        if (getLockingStrategy() != LockingStrategy.OBJECTS || edges.isEmpty()) {
+            return;
+        }
+        Set<String> heads = new HashSet<>();
+        Set<String> oids = new TreeSet<>();             // sorted, to make deadlocks less probable
+        for (Edge edge : edges) {
+            oids.add(edge.getTail());
+            oids.add(edge.getHead());
+            heads.add(edge.getHead());
+        }
+        Query ancestorsQuery = session.createSQLQuery("select distinct ancestor_oid from " + CLOSURE_TABLE_NAME +
+                " where descendant_oid in (:heads)")
+                .addScalar("ancestor_oid", StringType.INSTANCE);
+        ancestorsQuery.setParameterList("heads", heads);
+        Set<String> locked = new HashSet<>();
+        for (;;) {
+            oids.addAll(ancestorsQuery.list());
+            oids.removeAll(locked);
+            if (context != null) {
+                oids.removeAll(context.lockedOids);
+            }
+            if (oids.isEmpty()) {
+                return;
+            }
+            lockObjects(oids, context, session);
+            locked.addAll(oids);
+            oids.clear();
+        }
+    }
+
+    private void lockObjects(Set<String> oids, Context context, Session session) {
+        long start = System.currentTimeMillis();
+        String lockQueryText;
+        if (isSQLServer()) {
+            lockQueryText = "select oid from " + OBJECT_TABLE_NAME + " with (updlock, rowlock) where oid in (:oids)";
+        } else {
+            lockQueryText = "select oid from " + OBJECT_TABLE_NAME + " where oid in (:oids) order by oid for update";
+        }
+        Query lockQuery = session.createSQLQuery(lockQueryText).addScalar("oid", StringType.INSTANCE);
+        lockQuery.setParameterList("oids", oids);
+        lockQuery.list();
+        if (context != null) {
+            context.lockedOids.addAll(oids);
+        }
+        LOGGER.trace("Locked {} objects affected by closure update in {} ms", oids.size(), System.currentTimeMillis() - start);
+    }
+
+    private LockingStrategy getLockingStrategy() {
+        return baseHelper.getConfiguration().getOrgClosureLockingStrategy();
+    }
+
     // returns table name
     private String computeDeltaTable(List<Edge> edges, Context context, Session session) {
 
@@ -1418,8 +1494,40 @@ public class OrgClosureManager {
         }
     }
 
+    /**
+     * How concurrent updates of the closure table are serialized.
+     *
+     * TABLE: the whole closure table is locked at the beginning of each org-related operation (where supported by the database).
+     * OBJECTS: only rows (in m_object) of the orgs affected by the operation are locked, see lockAffectedObjects.
+     */
+    public static enum LockingStrategy {
+
+        TABLE("table"), OBJECTS("objects");
+
+        private String value;
+
+        LockingStrategy(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+
+        public static LockingStrategy fromValue(String v) {
+            for (LockingStrategy s: LockingStrategy.values()) {
+                if (s.value.equals(v)) {
+                    return s;
+                }
+            }
+            throw new IllegalArgumentException(v);
+        }
+    }
+
     public static class Context {
         String temporaryTableName;
+        final Set<String> lockedOids = new HashSet<>();
     }
     //endregion
 
@@ -26,6 +26,7 @@ import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SequenceType;
@@ -33,10 +34,22 @@ import org.hibernate.Session;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
+ * Values of sequences with allocationBlockSize greater than 1 are taken from the repository in blocks.
+ * The values that were taken but not handed out yet are kept here (i.e. node-locally) and they are
+ * returned to the sequence as unused values on shutdown.
+ *
  * @author mederly
  */
 @Component
@@ -54,6 +67,79 @@ public class SequenceHelper {
     private static final Trace LOGGER = TraceManager.getTrace(SqlRepositoryServiceImpl.class);
     private static final Trace LOGGER_PERFORMANCE = TraceManager.getTrace(SqlRepositoryServiceImpl.PERFORMANCE_LOG_NAME);
 
+    private static final String OPERATION_RETURN_ALLOCATED_VALUES = SequenceHelper.class.getName() + ".returnAllocatedValues";
+
+    // values allocated from sequences (by oid) but not handed out yet
+    private final Map<String, Queue<Long>> allocatedValues = new ConcurrentHashMap<>();
+
+    // how many times the allocated values of a sequence (by oid) were forgotten; guarded by allocatedValues
+    private final Map<String, Long> forgetCounts = new HashMap<>();
+
+    /**
+     * Returns a value from the block allocated by this node, or null if there is none.
+     */
+    public Long takeAllocatedValue(String oid) {
+        Queue<Long> values = allocatedValues.get(oid);
+        return values != null ? values.poll() : null;
+    }
+
+    /**
+     * Forgets values allocated from the sequence, e.g. because the sequence was modified or deleted.
+     * These values are lost.
+     */
+    public void forgetAllocatedValues(String oid) {
+        Queue<Long> values;
+        synchronized (allocatedValues) {
+            forgetCounts.merge(oid, 1L, Long::sum);
+            values = allocatedValues.remove(oid);
+        }
+        if (values != null && !values.isEmpty()) {
+            LOGGER.debug("Forgetting {} allocated value(s) of sequence {}", values.size(), oid);
+        }
+    }
+
+    private long getForgetCount(String oid) {
+        synchronized (allocatedValues) {
+            return forgetCounts.getOrDefault(oid, 0L);
+        }
+    }
+
+    /**
+     * Keeps the rest of a block allocated by a committed transaction. If the sequence has been modified or
+     * deleted since the transaction started (i.e. the values were forgotten meanwhile), the block is not
+     * kept: it was allocated from the old state of the sequence and the forgetting could not catch it.
+     */
+    private void keepAllocatedValues(String oid, List<Long> values, long forgetCountBefore) {
+        synchronized (allocatedValues) {
+            if (getForgetCount(oid) != forgetCountBefore) {
+                LOGGER.debug("Sequence {} was changed while allocating its values, forgetting {} allocated value(s)",
+                        oid, values.size());
+                return;
+            }
+            allocatedValues.computeIfAbsent(oid, k -> new ConcurrentLinkedQueue<>()).addAll(values);
+        }
+    }
+
+    @PreDestroy
+    public void returnAllocatedValues() {
+        for (String oid : new ArrayList<>(allocatedValues.keySet())) {
+            Queue<Long> queue = allocatedValues.remove(oid);
+            List<Long> values = new ArrayList<>();
+            Long value;
+            while (queue != null && (value = queue.poll()) != null) {
+                values.add(value);
+            }
+            if (values.isEmpty()) {
+                continue;
+            }
+            try {
+                returnUnusedValuesToSequenceAttempt(oid, values, new OperationResult(OPERATION_RETURN_ALLOCATED_VALUES));
+            } catch (Throwable t) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't return {} allocated value(s) to sequence {}", t, values.size(), oid);
+            }
+        }
+    }
+
     public long advanceSequenceAttempt(String oid, OperationResult result) throws ObjectNotFoundException,
             SchemaException, SerializationRelatedException {
 
@@ -62,6 +148,9 @@ public class SequenceHelper {
         LOGGER.debug("Advancing sequence with oid '{}'.", oid);
         LOGGER_PERFORMANCE.debug("> advance sequence, oid={}", oid);
 
+        // values are forgotten after a modification of the sequence is committed: if a modification this transaction
+        // didn't see is committed, the values are forgotten either after they are kept, or before (see keepAllocatedValues)
+        long forgetCountBefore = getForgetCount(oid);
         Session session = null;
         try {
             session = baseHelper.beginTransaction();
@@ -72,34 +161,24 @@ public class SequenceHelper {
             }
             SequenceType sequence = prismObject.asObjectable();
 
-            if (!sequence.getUnusedValues().isEmpty()) {
-                returnValue = sequence.getUnusedValues().remove(0);
-            } else {
-                long counter = sequence.getCounter() != null ? sequence.getCounter() : 0L;
-                long maxCounter = sequence.getMaxCounter() != null ? sequence.getMaxCounter() : Long.MAX_VALUE;
-                boolean allowRewind = Boolean.TRUE.equals(sequence.isAllowRewind());
-
-                if (counter < maxCounter) {
-                    returnValue = counter;
-                    sequence.setCounter(counter + 1);
-                } else if (counter == maxCounter) {
-                    returnValue = counter;
-                    if (allowRewind) {
-                        sequence.setCounter(0L);
-                    } else {
-                        sequence.setCounter(counter + 1);       // will produce exception during next run
-                    }
-                } else {        // i.e. counter > maxCounter
-                    if (allowRewind) {          // shouldn't occur but...
-                        LOGGER.warn("Sequence {} overflown with allowRewind set to true. Rewinding.", oid);
-                        returnValue = 0;
-                        sequence.setCounter(1L);
-                    } else {
-                        // TODO some better exception...
-                        throw new SystemException("No (next) value available from sequence " + oid + ". Current counter = " + sequence.getCounter() + ", max value = " + sequence.getMaxCounter());
-                    }
+            Integer allocationBlockSize = sequence.getAllocationBlockSize();
+            if (allocationBlockSize != null && allocationBlockSize < 1) {
+                LOGGER.warn("Allocation block size of sequence {} is {}, using 1 instead", oid, allocationBlockSize);
+            }
+            int blockSize = allocationBlockSize != null ? Math.max(1, allocationBlockSize) : 1;
+            List<Long> values = new ArrayList<>();
+            Long value;
+            while (values.size() < blockSize && (value = allocateValue(sequence, oid)) != null) {
+                values.add(value);
+                if (sequence.getUnusedValues().isEmpty() && isRewoundOrExhausted(sequence)) {
+                    break;      // not to get the same value twice in the block after rewind
                 }
             }
+            if (values.isEmpty()) {
+                // TODO some better exception...
+                throw new SystemException("No (next) value available from sequence " + oid + ". Current counter = " + sequence.getCounter() + ", max value = " + sequence.getMaxCounter());
+            }
+            returnValue = values.get(0);
 
             if (LOGGER.isTraceEnabled()) {
                 LOGGER.trace("Return value = {}, OBJECT after:\n{}", returnValue, prismObject.debugDump());
@@ -117,6 +196,9 @@ public class SequenceHelper {
             session.getTransaction().commit();
             LOGGER.trace("Committed!");
 
+            if (values.size() > 1) {
+                keepAllocatedValues(oid, values.subList(1, values.size()), forgetCountBefore);
+            }
             return returnValue;
         } catch (ObjectNotFoundException ex) {
             baseHelper.rollbackTransaction(session, ex, result, true);
@@ -191,4 +273,43 @@ public class SequenceHelper {
             LOGGER.trace("Session cleaned up.");
         }
     }
+
+    /**
+     * Takes the next value from the sequence (unused values first). Returns null if there's no value available.
+     */
+    private Long allocateValue(SequenceType sequence, String oid) {
+        if (!sequence.getUnusedValues().isEmpty()) {
+            return sequence.getUnusedValues().remove(0);
+        }
+        long counter = sequence.getCounter() != null ? sequence.getCounter() : 0L;
+        long maxCounter = sequence.getMaxCounter() != null ? sequence.getMaxCounter() : Long.MAX_VALUE;
+        boolean allowRewind = Boolean.TRUE.equals(sequence.isAllowRewind());
+
+        if (counter < maxCounter) {
+            sequence.setCounter(counter + 1);
+            return counter;
+        } else if (counter == maxCounter) {
+            if (allowRewind) {
+                sequence.setCounter(0L);
+            } else {
+                sequence.setCounter(counter + 1);       // will produce exception during next run
+            }
+            return counter;
+        } else {        // i.e. counter > maxCounter
+            if (allowRewind) {          // shouldn't occur but...
+                LOGGER.warn("Sequence {} overflown with allowRewind set to true. Rewinding.", oid);
+                sequence.setCounter(1L);
+                return 0L;
+            } else {
+                return null;
+            }
+        }
+    }
+
+    // true if the counter was just rewound or if it cannot produce any more values
+    private boolean isRewoundOrExhausted(SequenceType sequence) {
+        long counter = sequence.getCounter() != null ? sequence.getCounter() : 0L;
+        long maxCounter = sequence.getMaxCounter() != null ? sequence.getMaxCounter() : Long.MAX_VALUE;
+        return counter == 0L || counter > maxCounter;
+    }
 }
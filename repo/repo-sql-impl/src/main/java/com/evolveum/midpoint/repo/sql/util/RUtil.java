@@ -63,7 +63,10 @@ import javax.xml.namespace.QName;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -417,40 +420,44 @@ public final class RUtil {
     public static byte[] getByteArrayFromXml(String xml, boolean compress) {
         byte[] array;
 
-        GZIPOutputStream gzip = null;
+        Writer writer = null;
         try {
             if (compress) {
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                gzip = new GZIPOutputStream(out);
-                gzip.write(xml.getBytes("utf-8"));
-                gzip.close();
-                out.close();
+                // characters are encoded directly into the compressed stream, without intermediate byte array
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(xml.length() / 4, 64));
+                writer = new OutputStreamWriter(new GZIPOutputStream(out, 8192), StandardCharsets.UTF_8);
+                writer.write(xml);
+                writer.close();
 
                 array = out.toByteArray();
             } else {
-                array = xml.getBytes("utf-8");
+                array = xml.getBytes(StandardCharsets.UTF_8);
             }
         } catch (Exception ex) {
             throw new SystemException("Couldn't save full xml object, reason: " + ex.getMessage(), ex);
         } finally {
-            IOUtils.closeQuietly(gzip);
+            IOUtils.closeQuietly(writer);
         }
 
         return array;
     }
 
-    public static String getXmlFromByteArray(byte[] array, boolean compressed) {
+    /**
+     * Compression is detected from the data itself (GZIP header), so objects stored before
+     * the "useZip" setting was changed can still be read.
+     */
+    public static String getXmlFromByteArray(byte[] array) {
         String xml;
 
         GZIPInputStream gzip = null;
         try {
-            if (compressed) {
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (isGzipped(array)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(array.length * 4);
                 gzip = new GZIPInputStream(new ByteArrayInputStream(array));
                 IOUtils.copy(gzip, out);
-                xml = new String(out.toByteArray(), "utf-8");
+                xml = new String(out.toByteArray(), StandardCharsets.UTF_8);
             } else {
-                xml = new String(array, "utf-8");
+                xml = new String(array, StandardCharsets.UTF_8);
             }
         } catch (Exception ex) {
             throw new SystemException("Couldn't read data from full object column, reason: " + ex.getMessage(), ex);
@@ -461,6 +468,25 @@ public final class RUtil {
         return xml;
     }
 
+    private static boolean isGzipped(byte[] array) {
+        return array != null && array.length >= 2
+                && (array[0] & 0xff) == (GZIPInputStream.GZIP_MAGIC & 0xff)
+                && (array[1] & 0xff) == (GZIPInputStream.GZIP_MAGIC >> 8);
+    }
+
+    /**
+     * Determines the language of serialized full object (XML or JSON) without full autodetection.
+     */
+    public static String getFullObjectLanguage(String serializedObject) {
+        for (int i = 0; i < serializedObject.length(); i++) {
+            char c = serializedObject.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '{' ? PrismContext.LANG_JSON : PrismContext.LANG_XML;
+            }
+        }
+        return PrismContext.LANG_XML;
+    }
+
     public static OrgFilter findOrgFilter(ObjectQuery query) {
         return query != null ? findOrgFilter(query.getFilter()) : null;
     }
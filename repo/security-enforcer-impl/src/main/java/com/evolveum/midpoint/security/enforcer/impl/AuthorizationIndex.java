@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.security.enforcer.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismObjectDefinition;
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.AuthorizationConstants;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OwnedObjectSelectorType;
+
+/**
+ * Authorizations of a principal compiled for fast evaluation.
+ *
+ * Authorizations are indexed by action URL. The lists keep the original order of the authorizations,
+ * as the order matters when evaluating deny decisions. For each authorization the names of object
+ * and target types its selectors are restricted to are extracted, so selectors that cannot match
+ * the object can be skipped without evaluating their filters, org and owner clauses.
+ *
+ * The index is immutable. It remembers the authorizations it was built from, so it can be checked
+ * whether it still corresponds to current authorizations of the principal.
+ */
+public class AuthorizationIndex {
+
+	private final List<Authorization> authorizations;
+	private final Map<String, List<Authorization>> authorizationsByAction = new HashMap<>();
+	private final List<Authorization> allActionAuthorizations = new ArrayList<>();
+	private final Map<Authorization, Set<String>> objectTypes = new IdentityHashMap<>();
+	private final Map<Authorization, Set<String>> targetTypes = new IdentityHashMap<>();
+
+	public AuthorizationIndex(Collection<Authorization> authorizations) {
+		this.authorizations = authorizations != null ? new ArrayList<>(authorizations) : Collections.emptyList();
+		for (Authorization autz : this.authorizations) {
+			for (String action : autz.getAction()) {
+				if (!AuthorizationConstants.AUTZ_ALL_URL.equals(action)) {
+					authorizationsByAction.putIfAbsent(action, new ArrayList<>());
+				}
+			}
+		}
+		for (Authorization autz : this.authorizations) {
+			if (autz.getAction().contains(AuthorizationConstants.AUTZ_ALL_URL)) {
+				allActionAuthorizations.add(autz);
+				for (List<Authorization> list : authorizationsByAction.values()) {
+					list.add(autz);
+				}
+			} else {
+				for (String action : new HashSet<>(autz.getAction())) {
+					authorizationsByAction.get(action).add(autz);
+				}
+			}
+			objectTypes.put(autz, getSelectorTypes(autz.getObject()));
+			targetTypes.put(autz, getSelectorTypes(autz.getTarget()));
+		}
+	}
+
+	/**
+	 * Returns true if this index was built from the given authorizations (the same instances in the same order).
+	 */
+	public boolean isFor(Collection<Authorization> authorizations) {
+		if (authorizations == null) {
+			return this.authorizations.isEmpty();
+		}
+		if (authorizations.size() != this.authorizations.size()) {
+			return false;
+		}
+		Iterator<Authorization> iterator = this.authorizations.iterator();
+		for (Authorization autz : authorizations) {
+			if (autz != iterator.next()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public List<Authorization> getAuthorizations() {
+		return authorizations;
+	}
+
+	/**
+	 * Authorizations that are applicable to the operation, i.e. those having either the operation URL
+	 * or the "all" URL among their actions, in the original order.
+	 */
+	public List<Authorization> getAuthorizations(String operationUrl) {
+		List<Authorization> list = authorizationsByAction.get(operationUrl);
+		return list != null ? list : allActionAuthorizations;
+	}
+
+	/**
+	 * Returns false if none of the object selectors of the authorization can match the object
+	 * because of its type. True means that the selectors have to be evaluated.
+	 */
+	public boolean mayApplyToObject(Authorization autz, PrismObject<?> object) {
+		return mayApply(objectTypes.get(autz), object);
+	}
+
+	/**
+	 * Returns false if none of the target selectors of the authorization can match the target
+	 * because of its type. True means that the selectors have to be evaluated.
+	 */
+	public boolean mayApplyToTarget(Authorization autz, PrismObject<?> target) {
+		return mayApply(targetTypes.get(autz), target);
+	}
+
+	private boolean mayApply(Set<String> types, PrismObject<?> object) {
+		if (types == null || object == null) {
+			return true;
+		}
+		PrismObjectDefinition<?> definition = object.getDefinition();
+		return definition == null || definition.getTypeName() == null
+				|| types.contains(definition.getTypeName().getLocalPart());
+	}
+
+	/**
+	 * Local names of the types the selectors are restricted to; null if there is a selector without type
+	 * (or no selector at all).
+	 */
+	private static Set<String> getSelectorTypes(List<OwnedObjectSelectorType> selectors) {
+		if (selectors == null || selectors.isEmpty()) {
+			return null;
+		}
+		Set<String> types = new HashSet<>();
+		for (OwnedObjectSelectorType selector : selectors) {
+			if (selector.getType() == null) {
+				return null;
+			}
+			types.add(selector.getType().getLocalPart());
+		}
+		return types;
+	}
+}
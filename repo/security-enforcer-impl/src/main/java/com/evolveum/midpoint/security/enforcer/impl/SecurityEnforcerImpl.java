@@ -17,8 +17,11 @@ package com.evolveum.midpoint.security.enforcer.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.function.Consumer;
 
 import javax.xml.namespace.QName;
@@ -138,6 +141,9 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 	@Qualifier("securityContextManager")
 	private SecurityContextManager securityContextManager;
 
+	// principals do not override equals/hashCode, so this is effectively a weak identity map
+	private final Map<MidPointPrincipal, AuthorizationIndex> authorizationIndexes = Collections.synchronizedMap(new WeakHashMap<>());
+
 	@Override
 	public <O extends ObjectType, T extends ObjectType> boolean isAuthorized(String operationUrl, AuthorizationPhaseType phase,
 			PrismObject<O> object, ObjectDelta<O> delta, PrismObject<T> target, OwnerResolver ownerResolver, Task task, OperationResult result)
@@ -150,18 +156,20 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 			Consumer<Authorization> applicableAutzConsumer, Task task, OperationResult result)
 			throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
 		if (phase == null) {
-			if (!isAuthorizedPhase(midPointPrincipal, operationUrl, AuthorizationPhaseType.REQUEST, object, delta, target, ownerResolver, applicableAutzConsumer, task, result)) {
+			// Both phases are evaluated for the same object and target, so the selectors need to be evaluated only once
+			ApplicabilityMemo memo = new ApplicabilityMemo();
+			if (!isAuthorizedPhase(midPointPrincipal, operationUrl, AuthorizationPhaseType.REQUEST, object, delta, target, ownerResolver, applicableAutzConsumer, memo, task, result)) {
 				return false;
 			}
-			return isAuthorizedPhase(midPointPrincipal, operationUrl, AuthorizationPhaseType.EXECUTION, object, delta, target, ownerResolver, applicableAutzConsumer, task, result);
+			return isAuthorizedPhase(midPointPrincipal, operationUrl, AuthorizationPhaseType.EXECUTION, object, delta, target, ownerResolver, applicableAutzConsumer, memo, task, result);
 		} else {
-			return isAuthorizedPhase(midPointPrincipal, operationUrl, phase, object, delta, target, ownerResolver, applicableAutzConsumer, task, result);
+			return isAuthorizedPhase(midPointPrincipal, operationUrl, phase, object, delta, target, ownerResolver, applicableAutzConsumer, null, task, result);
 		}
 	}
 
 	private <O extends ObjectType, T extends ObjectType> boolean isAuthorizedPhase(MidPointPrincipal midPointPrincipal, String operationUrl, AuthorizationPhaseType phase,
 			PrismObject<O> object, ObjectDelta<O> delta, PrismObject<T> target, OwnerResolver ownerResolver, 
-			Consumer<Authorization> applicableAutzConsumer, Task task, OperationResult result)
+			Consumer<Authorization> applicableAutzConsumer, ApplicabilityMemo memo, Task task, OperationResult result)
 			throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
 
 		if (AuthorizationConstants.AUTZ_NO_ACCESS_URL.equals(operationUrl)){
@@ -175,91 +183,86 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		LOGGER.trace("AUTZ: evaluating authorization principal={}, op={}, phase={}, object={}, delta={}, target={}",
 				midPointPrincipal, operationUrl, phase, object, delta, target);
 		final Collection<ItemPath> allowedItems = new ArrayList<>();
-		Collection<Authorization> authorities = getAuthorities(midPointPrincipal);
-		if (authorities != null) {
-			for (GrantedAuthority authority: authorities) {
-				if (authority instanceof Authorization) {
-					Authorization autz = (Authorization)authority;
-					String autzHumanReadableDesc = autz.getHumanReadableDesc();
-					LOGGER.trace("Evaluating {}", autzHumanReadableDesc);
+		AuthorizationIndex authorizationIndex = getAuthorizationIndex(midPointPrincipal);
+		// action: only authorizations applicable for the operation are in the list
+		for (GrantedAuthority authority: authorizationIndex.getAuthorizations(operationUrl)) {
+			if (authority instanceof Authorization) {
+				Authorization autz = (Authorization)authority;
+				String autzHumanReadableDesc = autz.getHumanReadableDesc();
+				LOGGER.trace("Evaluating {}", autzHumanReadableDesc);
 
-					// First check if the authorization is applicable.
+				// First check if the authorization is applicable.
 
-					// action
-					if (!autz.getAction().contains(operationUrl) && !autz.getAction().contains(AuthorizationConstants.AUTZ_ALL_URL)) {
-						LOGGER.trace("  {} not applicable for operation {}", autzHumanReadableDesc, operationUrl);
+				// phase
+				if (autz.getPhase() == null) {
+					LOGGER.trace("  {} is applicable for all phases (continuing evaluation)", autzHumanReadableDesc);
+				} else {
+					if (autz.getPhase() != phase) {
+						LOGGER.trace("  {} is not applicable for phases {} (breaking evaluation)", autzHumanReadableDesc, phase);
 						continue;
-					}
-
-					// phase
-					if (autz.getPhase() == null) {
-						LOGGER.trace("  {} is applicable for all phases (continuing evaluation)", autzHumanReadableDesc);
 					} else {
-						if (autz.getPhase() != phase) {
-							LOGGER.trace("  {} is not applicable for phases {} (breaking evaluation)", autzHumanReadableDesc, phase);
-							continue;
-						} else {
-							LOGGER.trace("  {} is applicable for phases {} (continuing evaluation)", autzHumanReadableDesc, phase);
-						}
+						LOGGER.trace("  {} is applicable for phases {} (continuing evaluation)", autzHumanReadableDesc, phase);
 					}
+				}
 
-					// object
-					if (isApplicable(autz.getObject(), object, midPointPrincipal, ownerResolver, "object", autzHumanReadableDesc, task, result)) {
-						LOGGER.trace("  {} applicable for object {} (continuing evaluation)", autzHumanReadableDesc, object);
-					} else {
-						LOGGER.trace("  {} not applicable for object {}, none of the object specifications match (breaking evaluation)",
-								autzHumanReadableDesc, object);
-						continue;
-					}
+				// object
+				if (authorizationIndex.mayApplyToObject(autz, object)
+						&& isApplicable(autz, true, object, midPointPrincipal, ownerResolver, memo, autzHumanReadableDesc, task, result)) {
+					LOGGER.trace("  {} applicable for object {} (continuing evaluation)", autzHumanReadableDesc, object);
+				} else {
+					LOGGER.trace("  {} not applicable for object {}, none of the object specifications match (breaking evaluation)",
+							autzHumanReadableDesc, object);
+					continue;
+				}
 
-					// target
-					if (isApplicable(autz.getTarget(), target, midPointPrincipal, ownerResolver, "target", autzHumanReadableDesc, task, result)) {
-						LOGGER.trace("  {} applicable for target {} (continuing evaluation)", autzHumanReadableDesc, object);
-					} else {
-						LOGGER.trace("  {} not applicable for target {}, none of the target specifications match (breaking evaluation)",
-								autzHumanReadableDesc, object);
-						continue;
-					}
-					
-					if (applicableAutzConsumer != null) {
-						applicableAutzConsumer.accept(autz);
-					}
+				// target
+				if (authorizationIndex.mayApplyToTarget(autz, target)
+						&& isApplicable(autz, false, target, midPointPrincipal, ownerResolver, memo, autzHumanReadableDesc, task, result)) {
+					LOGGER.trace("  {} applicable for target {} (continuing evaluation)", autzHumanReadableDesc, object);
+				} else {
+					LOGGER.trace("  {} not applicable for target {}, none of the target specifications match (breaking evaluation)",
+							autzHumanReadableDesc, object);
+					continue;
+				}
+				
+				if (applicableAutzConsumer != null) {
+					applicableAutzConsumer.accept(autz);
+				}
 
-					// authority is applicable to this situation. now we can process the decision.
-					AuthorizationDecisionType decision = autz.getDecision();
-					if (decision == null || decision == AuthorizationDecisionType.ALLOW) {
-						// if there is more than one role which specify
-						// different authz (e.g one role specify allow for whole
-						// object, the other role specify allow only for some
-						// attributes. this ended with allow for whole object (MID-2018)
-						Collection<ItemPath> allowed = getItems(autz);
-						if (allow && allowedItems.isEmpty()){
-							LOGGER.trace("  {}: ALLOW operation {} (but continue evaluation)", autzHumanReadableDesc, operationUrl);
-						} else if (allow && allowed.isEmpty()){
-							allowedItems.clear();
-						} else {
-							allowedItems.addAll(allowed);
-						}
+				// authority is applicable to this situation. now we can process the decision.
+				AuthorizationDecisionType decision = autz.getDecision();
+				if (decision == null || decision == AuthorizationDecisionType.ALLOW) {
+					// if there is more than one role which specify
+					// different authz (e.g one role specify allow for whole
+					// object, the other role specify allow only for some
+					// attributes. this ended with allow for whole object (MID-2018)
+					Collection<ItemPath> allowed = getItems(autz);
+					if (allow && allowedItems.isEmpty()){
 						LOGGER.trace("  {}: ALLOW operation {} (but continue evaluation)", autzHumanReadableDesc, operationUrl);
-						allow = true;
-						// Do NOT break here. Other authorization statements may still deny the operation
+					} else if (allow && allowed.isEmpty()){
+						allowedItems.clear();
 					} else {
-						// item
-						if (isApplicableItem(autz, object, delta)) {
-							LOGGER.trace("  {}: Deny authorization applicable for items (continuing evaluation)", autzHumanReadableDesc);
-						} else {
-							LOGGER.trace("  {} not applicable for items (breaking evaluation)", autzHumanReadableDesc);
-							continue;
-						}
-						LOGGER.trace("  {}: DENY operation {}", autzHumanReadableDesc, operationUrl);
-						allow = false;
-						// Break right here. Deny cannot be overridden by allow. This decision cannot be changed.
-						break;
+						allowedItems.addAll(allowed);
 					}
-
+					LOGGER.trace("  {}: ALLOW operation {} (but continue evaluation)", autzHumanReadableDesc, operationUrl);
+					allow = true;
+					// Do NOT break here. Other authorization statements may still deny the operation
 				} else {
-					LOGGER.warn("Unknown authority type {} in user {}", authority.getClass(), getUsername(midPointPrincipal));
+					// item
+					if (isApplicableItem(autz, object, delta)) {
+						LOGGER.trace("  {}: Deny authorization applicable for items (continuing evaluation)", autzHumanReadableDesc);
+					} else {
+						LOGGER.trace("  {} not applicable for items (breaking evaluation)", autzHumanReadableDesc);
+						continue;
+					}
+					LOGGER.trace("  {}: DENY operation {}", autzHumanReadableDesc, operationUrl);
+					allow = false;
+					// Break right here. Deny cannot be overridden by allow. This decision cannot be changed.
+					break;
 				}
+
+			} else {
+				LOGGER.warn("Unknown authority type {} in user {}", authority.getClass(), getUsername(midPointPrincipal));
 			}
 		}
 
@@ -404,6 +407,21 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		throw e;
 	}
 
+	private <O extends ObjectType> boolean isApplicable(Authorization autz, boolean forObject, PrismObject<O> object,
+			MidPointPrincipal midPointPrincipal, OwnerResolver ownerResolver, ApplicabilityMemo memo, String autzHumanReadableDesc,
+			Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
+		Map<Authorization, Boolean> decisions = memo != null ? (forObject ? memo.objectDecisions : memo.targetDecisions) : null;
+		Boolean decision = decisions != null ? decisions.get(autz) : null;
+		if (decision == null) {
+			decision = isApplicable(forObject ? autz.getObject() : autz.getTarget(), object, midPointPrincipal, ownerResolver,
+					forObject ? "object" : "target", autzHumanReadableDesc, task, result);
+			if (decisions != null) {
+				decisions.put(autz, decision);
+			}
+		}
+		return decision;
+	}
+
 	private <O extends ObjectType> boolean isApplicable(List<OwnedObjectSelectorType> objectSpecTypes, PrismObject<O> object,
 			MidPointPrincipal midPointPrincipal, OwnerResolver ownerResolver, String desc, String autzHumanReadableDesc, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
 		if (objectSpecTypes != null && !objectSpecTypes.isEmpty()) {
@@ -846,6 +864,24 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		}
 	}
 
+	/**
+	 * Returns compiled authorizations of the principal. The index is kept as long as the principal exists
+	 * and is rebuilt if the authorizations of the principal change.
+	 */
+	private AuthorizationIndex getAuthorizationIndex(MidPointPrincipal principal) {
+		Collection<Authorization> authorities = getAuthorities(principal);
+		if (principal == null) {
+			// anonymous access: authorities are taken from the authentication, there's nothing to attach the index to
+			return new AuthorizationIndex(authorities);
+		}
+		AuthorizationIndex index = authorizationIndexes.get(principal);
+		if (index == null || !index.isFor(authorities)) {
+			index = new AuthorizationIndex(authorities);
+			authorizationIndexes.put(principal, index);
+		}
+		return index;
+	}
+
 	@Override
 	public <O extends ObjectType> ObjectSecurityConstraints compileSecurityConstraints(PrismObject<O> object, OwnerResolver ownerResolver, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
 		MidPointPrincipal principal = getMidPointPrincipal();
@@ -854,49 +890,48 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		}
 		LOGGER.trace("AUTZ: evaluating security constraints principal={}, object={}", principal, object);
 		ObjectSecurityConstraintsImpl objectSecurityConstraints = new ObjectSecurityConstraintsImpl();
-		Collection<Authorization> authorities = getAuthorities(principal);
-		if (authorities != null) {
-			for (Authorization autz: authorities) {
-				String autzHumanReadableDesc = autz.getHumanReadableDesc();
-				LOGGER.trace("Evaluating {}", autzHumanReadableDesc);
+		AuthorizationIndex authorizationIndex = getAuthorizationIndex(principal);
+		for (Authorization autz: authorizationIndex.getAuthorizations()) {
+			String autzHumanReadableDesc = autz.getHumanReadableDesc();
+			LOGGER.trace("Evaluating {}", autzHumanReadableDesc);
 
-				// skip action applicability evaluation. We are interested in all actions
+			// skip action applicability evaluation. We are interested in all actions
 
-				// object
-				if (isApplicable(autz.getObject(), object, principal, ownerResolver, "object", autzHumanReadableDesc, task, result)) {
-					LOGGER.trace("  {} applicable for object {} (continuing evaluation)", autzHumanReadableDesc, object);
-				} else {
-					LOGGER.trace("  {} not applicable for object {}, none of the object specifications match (breaking evaluation)",
-							autzHumanReadableDesc, object);
-					continue;
-				}
+			// object
+			if (authorizationIndex.mayApplyToObject(autz, object)
+					&& isApplicable(autz.getObject(), object, principal, ownerResolver, "object", autzHumanReadableDesc, task, result)) {
+				LOGGER.trace("  {} applicable for object {} (continuing evaluation)", autzHumanReadableDesc, object);
+			} else {
+				LOGGER.trace("  {} not applicable for object {}, none of the object specifications match (breaking evaluation)",
+						autzHumanReadableDesc, object);
+				continue;
+			}
 
-				// skip target applicability evaluation. We do not have a target here
+			// skip target applicability evaluation. We do not have a target here
 
-				List<String> actions = autz.getAction();
-				AuthorizationPhaseType phase = autz.getPhase();
-				AuthorizationDecisionType decision = autz.getDecision();
-				if (decision == null || decision == AuthorizationDecisionType.ALLOW) {
-					Collection<ItemPath> items = getItems(autz);
-					if (items == null || items.isEmpty()) {
-						applyDecision(objectSecurityConstraints.getActionDecisionMap(), actions, phase, AuthorizationDecisionType.ALLOW);
-					} else {
-						for (ItemPath item: items) {
-							applyItemDecision(objectSecurityConstraints.getItemConstraintMap(), item, actions, phase, AuthorizationDecisionType.ALLOW);
-						}
+			List<String> actions = autz.getAction();
+			AuthorizationPhaseType phase = autz.getPhase();
+			AuthorizationDecisionType decision = autz.getDecision();
+			if (decision == null || decision == AuthorizationDecisionType.ALLOW) {
+				Collection<ItemPath> items = getItems(autz);
+				if (items == null || items.isEmpty()) {
+					applyDecision(objectSecurityConstraints.getActionDecisionMap(), actions, phase, AuthorizationDecisionType.ALLOW);
+				} else {
+					for (ItemPath item: items) {
+						applyItemDecision(objectSecurityConstraints.getItemConstraintMap(), item, actions, phase, AuthorizationDecisionType.ALLOW);
 					}
+				}
+			} else {
+				Collection<ItemPath> items = getItems(autz);
+				if (items == null || items.isEmpty()) {
+					applyDecision(objectSecurityConstraints.getActionDecisionMap(), actions, phase, AuthorizationDecisionType.DENY);
 				} else {
-					Collection<ItemPath> items = getItems(autz);
-					if (items == null || items.isEmpty()) {
-						applyDecision(objectSecurityConstraints.getActionDecisionMap(), actions, phase, AuthorizationDecisionType.DENY);
-					} else {
-						for (ItemPath item: items) {
-							applyItemDecision(objectSecurityConstraints.getItemConstraintMap(), item, actions, phase, AuthorizationDecisionType.DENY);
-						}
+					for (ItemPath item: items) {
+						applyItemDecision(objectSecurityConstraints.getItemConstraintMap(), item, actions, phase, AuthorizationDecisionType.DENY);
 					}
 				}
-
 			}
+
 		}
 
 		if (LOGGER.isTraceEnabled()) {
@@ -1020,7 +1055,8 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 			AuthorizationPhaseType phase, boolean includeNullPhase,
 			Class<T> objectType, PrismObject<O> object, boolean includeSpecial, ObjectFilter origFilter, String limitAuthorizationAction, String desc, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
 
-		Collection<Authorization> authorities = getAuthorities(principal);
+		// only authorizations applicable for the operation are in the list
+		Collection<Authorization> authorities = getAuthorizationIndex(principal).getAuthorizations(operationUrl);
 
 		ObjectFilter securityFilterAllow = null;
 		ObjectFilter securityFilterDeny = null;
@@ -1574,4 +1610,13 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		
 		return donorPrincipal;
 	}
+
+	/**
+	 * Applicability of authorizations to the object and target, remembered when the same object and target
+	 * are evaluated repeatedly (e.g. for request and execution phase).
+	 */
+	private static class ApplicabilityMemo {
+		private final Map<Authorization, Boolean> objectDecisions = new IdentityHashMap<>();
+		private final Map<Authorization, Boolean> targetDecisions = new IdentityHashMap<>();
+	}
 }
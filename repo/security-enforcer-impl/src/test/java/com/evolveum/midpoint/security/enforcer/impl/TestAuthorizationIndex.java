@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2010-2017 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.security.enforcer.impl;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.AuthorizationConstants;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Checks that evaluation of authorizations through {@link AuthorizationIndex} gives the same decisions
+ * as walking through all the authorizations. The evaluation follows the one in SecurityEnforcerImpl
+ * (phase, action, object type, deny first), with selectors restricted only by type.
+ */
+public class TestAuthorizationIndex {
+
+	private static final String ACTION_READ = AuthorizationConstants.NS_AUTHORIZATION_MODEL + "#read";
+	private static final String ACTION_MODIFY = AuthorizationConstants.NS_AUTHORIZATION_MODEL + "#modify";
+	private static final String ACTION_DELETE = AuthorizationConstants.NS_AUTHORIZATION_MODEL + "#delete";
+	private static final List<String> OPERATIONS = Arrays.asList(ACTION_READ, ACTION_MODIFY, ACTION_DELETE);
+
+	private static final List<QName> SELECTOR_TYPES = Arrays.asList(UserType.COMPLEX_TYPE, RoleType.COMPLEX_TYPE,
+			new QName(OrgType.COMPLEX_TYPE.getLocalPart()), FocusType.COMPLEX_TYPE);
+
+	private PrismContext prismContext;
+	private List<PrismObject<?>> objects;
+
+	@BeforeSuite
+	public void setup() throws Exception {
+		PrettyPrinter.setDefaultNamespacePrefix(MidPointConstants.NS_MIDPOINT_PUBLIC_PREFIX);
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+		prismContext = PrismTestUtil.getPrismContext();
+		objects = Arrays.asList(
+				new UserType(prismContext).oid("user-1").name("jack").asPrismObject(),
+				new RoleType(prismContext).oid("role-1").name("pirate").asPrismObject(),
+				new OrgType(prismContext).oid("org-1").name("brethren").asPrismObject(),
+				new ShadowType(prismContext).oid("shadow-1").name("jack").asPrismObject(),
+				null);
+	}
+
+	@Test
+	public void test100TypeRestrictedAndUnrestricted() throws Exception {
+		System.out.println("===[ test100TypeRestrictedAndUnrestricted ]===");
+
+		// GIVEN
+		Authorization denyModifyRoles = createAuthorization(AuthorizationDecisionType.DENY, null,
+				Arrays.asList(ACTION_MODIFY), RoleType.COMPLEX_TYPE);
+		Authorization allowReadUsersAndOrgs = createAuthorization(AuthorizationDecisionType.ALLOW, null,
+				Arrays.asList(ACTION_READ), UserType.COMPLEX_TYPE, new QName(OrgType.COMPLEX_TYPE.getLocalPart()));
+		Authorization allowAllUsers = createAuthorization(AuthorizationDecisionType.ALLOW, null,
+				Arrays.asList(AuthorizationConstants.AUTZ_ALL_URL), UserType.COMPLEX_TYPE);
+		Authorization allowReadAll = createAuthorization(AuthorizationDecisionType.ALLOW, AuthorizationPhaseType.REQUEST,
+				Arrays.asList(ACTION_READ));
+		List<Authorization> authorizations = Arrays.asList(denyModifyRoles, allowReadUsersAndOrgs, allowAllUsers, allowReadAll);
+
+		// WHEN
+		AuthorizationIndex index = new AuthorizationIndex(authorizations);
+
+		// THEN
+		assertTrue("Index is not for its authorizations", index.isFor(authorizations));
+		assertEquals("Wrong read authorizations", Arrays.asList(allowReadUsersAndOrgs, allowAllUsers, allowReadAll),
+				index.getAuthorizations(ACTION_READ));
+		assertEquals("Wrong modify authorizations", Arrays.asList(denyModifyRoles, allowAllUsers),
+				index.getAuthorizations(ACTION_MODIFY));
+		assertEquals("Wrong delete authorizations", Arrays.asList(allowAllUsers), index.getAuthorizations(ACTION_DELETE));
+
+		PrismObject<?> user = objects.get(0);
+		PrismObject<?> role = objects.get(1);
+		PrismObject<?> org = objects.get(2);
+		assertFalse("Role authorization applies to user", index.mayApplyToObject(denyModifyRoles, user));
+		assertTrue("Role authorization does not apply to role", index.mayApplyToObject(denyModifyRoles, role));
+		assertTrue("User/org authorization does not apply to org", index.mayApplyToObject(allowReadUsersAndOrgs, org));
+		assertTrue("Unrestricted authorization does not apply to role", index.mayApplyToObject(allowReadAll, role));
+		assertTrue("Authorization without target does not apply to role", index.mayApplyToTarget(denyModifyRoles, role));
+
+		assertSameDecisions(authorizations, index);
+	}
+
+	@Test
+	public void test200GeneratedAuthorizations() throws Exception {
+		System.out.println("===[ test200GeneratedAuthorizations ]===");
+
+		Random random = new Random(42);
+		for (int round = 0; round < 500; round++) {
+			// GIVEN
+			List<Authorization> authorizations = new ArrayList<>();
+			int count = 1 + random.nextInt(8);
+			for (int i = 0; i < count; i++) {
+				authorizations.add(createRandomAuthorization(random));
+			}
+
+			// WHEN
+			AuthorizationIndex index = new AuthorizationIndex(authorizations);
+
+			// THEN
+			assertSameDecisions(authorizations, index);
+		}
+	}
+
+	private void assertSameDecisions(List<Authorization> authorizations, AuthorizationIndex index) {
+		for (String operation : OPERATIONS) {
+			for (AuthorizationPhaseType phase : AuthorizationPhaseType.values()) {
+				for (PrismObject<?> object : objects) {
+					boolean expected = decide(authorizations,
+							autz -> autz.getAction().contains(operation) || autz.getAction().contains(AuthorizationConstants.AUTZ_ALL_URL),
+							phase, object);
+					boolean actual = decide(index.getAuthorizations(operation),
+							autz -> index.mayApplyToObject(autz, object),
+							phase, object);
+					assertEquals("Different decision for " + operation + ", " + phase + ", " + object + " and " + authorizations,
+							expected, actual);
+				}
+			}
+		}
+	}
+
+	private boolean decide(List<Authorization> authorizations, Predicate<Authorization> preFilter,
+			AuthorizationPhaseType phase, PrismObject<?> object) {
+		boolean allow = false;
+		for (Authorization autz : authorizations) {
+			if (!preFilter.test(autz)) {
+				continue;
+			}
+			if (autz.getPhase() != null && autz.getPhase() != phase) {
+				continue;
+			}
+			if (!isApplicable(autz.getObject(), object)) {
+				continue;
+			}
+			if (autz.getDecision() == null || autz.getDecision() == AuthorizationDecisionType.ALLOW) {
+				allow = true;
+			} else {
+				return false;
+			}
+		}
+		return allow;
+	}
+
+	// the same type check as in SqlRepositoryServiceImpl.selectorMatches
+	private boolean isApplicable(List<OwnedObjectSelectorType> selectors, PrismObject<?> object) {
+		if (selectors.isEmpty()) {
+			return true;
+		}
+		if (object == null) {
+			return false;
+		}
+		for (OwnedObjectSelectorType selector : selectors) {
+			if (selector.getType() == null || QNameUtil.match(selector.getType(), object.getDefinition().getTypeName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Authorization createRandomAuthorization(Random random) {
+		AuthorizationDecisionType decision = random.nextInt(4) == 0 ? AuthorizationDecisionType.DENY
+				: random.nextBoolean() ? AuthorizationDecisionType.ALLOW : null;
+		AuthorizationPhaseType phase = random.nextBoolean() ? null
+				: AuthorizationPhaseType.values()[random.nextInt(AuthorizationPhaseType.values().length)];
+		List<String> actions = new ArrayList<>();
+		if (random.nextInt(5) == 0) {
+			actions.add(AuthorizationConstants.AUTZ_ALL_URL);
+		}
+		for (String operation : OPERATIONS) {
+			if (random.nextInt(3) == 0) {
+				actions.add(operation);
+			}
+		}
+		List<QName> types = new ArrayList<>();
+		int selectors = random.nextInt(3);
+		for (int i = 0; i < selectors; i++) {
+			// null = selector without type
+			types.add(random.nextInt(5) == 0 ? null : SELECTOR_TYPES.get(random.nextInt(SELECTOR_TYPES.size())));
+		}
+		return createAuthorization(decision, phase, actions, types.toArray(new QName[0]));
+	}
+
+	private Authorization createAuthorization(AuthorizationDecisionType decision, AuthorizationPhaseType phase,
+			List<String> actions, QName... objectTypes) {
+		AuthorizationType authorizationType = new AuthorizationType();
+		authorizationType.setDecision(decision);
+		authorizationType.setPhase(phase);
+		authorizationType.getAction().addAll(actions);
+		for (QName objectType : objectTypes) {
+			OwnedObjectSelectorType selector = new OwnedObjectSelectorType();
+			selector.setType(objectType);
+			authorizationType.getObject().add(selector);
+		}
+		return new Authorization(authorizationType);
+	}
+}
@@ -104,6 +104,13 @@ public class AuditServiceProxy implements AuditService, AuditServiceRegistry {
 		}
 	}
 
+	@Override
+	public void flush(Task task) {
+		for (AuditService service : services) {
+			service.flush(task);
+		}
+	}
+
 	@Override
 	public void cleanupAudit(CleanupPolicyType policy, OperationResult parentResult) {
 		Validate.notNull(policy, "Cleanup policy must not be null.");
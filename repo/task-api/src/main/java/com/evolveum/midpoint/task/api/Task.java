@@ -807,6 +807,22 @@ public interface Task extends DebugDumpable, StatisticsCollector {
      */
     Task createSubtask(LightweightTaskHandler handler);
 
+    /**
+     * Creates a transient subtask for a worker thread that carries out a part of the current operation of this task
+     * (e.g. resource operations executed concurrently). Owner, channel and requestee are inherited from parent task.
+     *
+     * The subtask collects environmental performance and actions executed statistics on its own. They are added
+     * to this task by {@link #mergeWorkerSubtaskStatistics(Task)} after the worker is done.
+     */
+    Task createWorkerSubtask();
+
+    /**
+     * Adds statistics collected by a subtask created by {@link #createWorkerSubtask()} to this task.
+     * Actions executed by the subtask that are not behind an "object action executed" boundary yet are added
+     * to the current scope of the calling thread. The subtask must not be used by the worker any more.
+     */
+    void mergeWorkerSubtaskStatistics(Task workerSubtask);
+
     /**
      * Returns the identifier of the task's parent (or null of there is no parent task).
      * @return
@@ -2555,6 +2555,25 @@ public class TaskQuartzImpl implements Task {
         return sub;
     }
 
+	@Override
+	public Task createWorkerSubtask() {
+		TaskQuartzImpl sub = (TaskQuartzImpl) createSubtask();
+		sub.setRequesteeTransient(getRequestee());
+		sub.startCollectingOperationStatsFromZero(false, false, actionsExecutedInformation != null);
+		return sub;
+	}
+
+	@Override
+	public void mergeWorkerSubtaskStatistics(Task workerSubtask) {
+		TaskQuartzImpl sub = (TaskQuartzImpl) workerSubtask;
+		if (environmentalPerformanceInformation != null && sub.environmentalPerformanceInformation != null) {
+			environmentalPerformanceInformation.add(sub.environmentalPerformanceInformation);
+		}
+		if (actionsExecutedInformation != null && sub.actionsExecutedInformation != null) {
+			actionsExecutedInformation.add(sub.actionsExecutedInformation);
+		}
+	}
+
     @Deprecated
     public TaskRunResult waitForSubtasks(Integer interval, OperationResult parentResult) throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException {
         return waitForSubtasks(interval, null, parentResult);
@@ -2903,7 +2922,7 @@ public class TaskQuartzImpl implements Task {
 	}
 
 	@Override
-	public synchronized void recordIterativeOperationEnd(String objectName, String objectDisplayName, QName objectType, String objectOid, long started, Throwable exception) {
+	public void recordIterativeOperationEnd(String objectName, String objectDisplayName, QName objectType, String objectOid, long started, Throwable exception) {
 		if (iterativeTaskInformation != null) {
 			iterativeTaskInformation.recordOperationEnd(objectName, objectDisplayName, objectType, objectOid, started, exception);
 		}
@@ -2922,7 +2941,7 @@ public class TaskQuartzImpl implements Task {
 	}
 
 	@Override
-	public synchronized void recordIterativeOperationStart(String objectName, String objectDisplayName, QName objectType, String objectOid) {
+	public void recordIterativeOperationStart(String objectName, String objectDisplayName, QName objectType, String objectOid) {
 		if (iterativeTaskInformation != null) {
 			iterativeTaskInformation.recordOperationStart(objectName, objectDisplayName, objectType, objectOid);
 		}